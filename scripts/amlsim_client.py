@@ -0,0 +1,59 @@
+"""
+Client of the AMLSim simulation server (amlsim.SimulationServer)
+
+Usage:
+  python3 scripts/amlsim_client.py submit [ConfJSON] [Seed(Optional)] [--wait]
+  python3 scripts/amlsim_client.py status [JobID] [--wait]
+  python3 scripts/amlsim_client.py jobs
+  python3 scripts/amlsim_client.py stats
+  python3 scripts/amlsim_client.py shutdown
+The port number can be set with the environment variable AMLSIM_PORT (default: 7878).
+"""
+
+import json
+import os
+import socket
+import sys
+
+
+def request(sock_file, obj):
+    """Send a request and receive the response
+    :param sock_file: File object of the connection
+    :param obj: Request object
+    :return: Response object
+    """
+    sock_file.write(json.dumps(obj) + "\n")
+    sock_file.flush()
+    line = sock_file.readline()
+    if not line:
+        raise ConnectionError("The server closed the connection")
+    return json.loads(line)
+
+
+if __name__ == "__main__":
+    argv = [arg for arg in sys.argv[1:] if arg != "--wait"]
+    wait = "--wait" in sys.argv
+    if len(argv) < 1:
+        print(__doc__)
+        exit(1)
+
+    command = argv[0]
+    port = int(os.environ.get("AMLSIM_PORT", 7878))
+    with socket.create_connection(("127.0.0.1", port)) as sock:
+        f = sock.makefile("rw")
+        if command == "submit":
+            req = {"command": "submit", "conf": argv[1]}
+            if len(argv) >= 3:
+                seed = int(argv[2])
+                req["overrides"] = {"general": {"random_seed": seed}}
+                req["name"] = "seed%d" % seed
+            res = request(f, req)
+            if wait and "job" in res:
+                res = request(f, {"command": "status", "job": res["job"], "wait": True})
+        elif command == "status":
+            res = request(f, {"command": "status", "job": int(argv[1]), "wait": wait})
+        else:
+            res = request(f, {"command": command})
+        print(json.dumps(res, indent=2))
+        if "error" in res:
+            exit(1)
@@ -0,0 +1,25 @@
+#!/usr/bin/env bash
+
+if [[ $# -lt 1 ]]; then
+    echo "Usage: sh $0 [ConfJSON] [Engines(Optional, default: \"mason lean\")] [SimulatorJSON(Optional)]"
+    exit 1
+fi
+
+CONF_JSON=$1
+ENGINES=${2:-"mason lean"}
+OVERRIDES=${3:-"{}"}  # Additional parameters of the "simulator" section, e.g. '{"temporal_block": 8}'
+
+MIN_HEAP=2g
+MAX_HEAP=4g
+
+# Run the simulator with each engine and show the startup time, memory usage per account and step throughput
+for ENGINE in ${ENGINES}; do
+    TMP_JSON=$(mktemp --suffix=.json)
+    python3 -c "import json,sys; c=json.load(open(sys.argv[1])); c['simulator']['engine']=sys.argv[2]; c['simulator']['benchmark']=True; c['simulator'].update(json.loads(sys.argv[4])); json.dump(c, open(sys.argv[3], 'w'))" \
+        "${CONF_JSON}" "${ENGINE}" "${TMP_JSON}" "${OVERRIDES}"
+    java -Xms${MIN_HEAP} -Xmx${MAX_HEAP} -cp "jars/*:bin" amlsim.AMLSim "${TMP_JSON}" 2>&1 | grep "Benchmark:" | sort -u
+    rm -f "${TMP_JSON}"
+done
+
+# Cleanup temporal outputs of AMLSim
+rm -f outputs/_*.csv outputs/_*.txt outputs/summary.csv
@@ -0,0 +1,301 @@
+#!/usr/bin/env bash
+
+if [[ $# -lt 1 ]]; then
+    echo "Usage: sh $0 [ConfJSON...] (the temporal files of each conf must be generated beforehand)"
+    exit 1
+fi
+
+MIN_HEAP=2g
+MAX_HEAP=4g
+TOLERANCE=0.1  # Maximum relative difference of the statistics between engines with different random sequences
+SERVER_PORT=${AMLSIM_PORT:-7979}  # Port number of the simulation server under test
+
+WORK_DIR=$(mktemp -d)
+NUM_FAILED=0
+
+# Write a copy of the conf JSON with the given "simulator" parameters
+# (the special key "alert_members" replaces the alert member file of the "temporal" section)
+make_conf() {
+    python3 -c "
+import json, sys
+c = json.load(open(sys.argv[1]))
+params = json.loads(sys.argv[3])
+if 'alert_members' in params:
+    c['temporal']['alert_members'] = params.pop('alert_members')
+c['simulator'].update(params)
+json.dump(c, open(sys.argv[2], 'w'))" "$1" "$2" "$3"
+}
+
+# Write a copy of the temporal files and the conf JSON where the accounts take all transaction models in turn
+# (including the mutual and forward models) and the random typologies run in the last quarter of the steps,
+# so that the sync steps and the beneficiaries added during the simulation are exercised
+make_fixture() {
+    python3 -c "
+import csv, json, os, shutil, sys
+c = json.load(open(sys.argv[1]))
+temporal = c['temporal']
+src = os.path.join(temporal['directory'], c['general']['simulation_name'])
+name = c['general']['simulation_name'] + '_models'
+dst = os.path.join(sys.argv[2], name)
+os.makedirs(dst, exist_ok=True)
+shutil.copy(os.path.join(src, temporal['transactions']), os.path.join(dst, temporal['transactions']))
+with open(os.path.join(src, temporal['accounts'])) as rf, open(os.path.join(dst, temporal['accounts']), 'w') as wf:
+    reader, writer = csv.reader(rf), csv.writer(wf, lineterminator='\n')
+    header = next(reader)
+    writer.writerow(header)
+    column = header.index('TX_BEHAVIOR_ID')
+    for i, row in enumerate(reader):
+        row[column] = str(i % 6)
+        writer.writerow(row)
+steps = c['general']['total_steps']
+with open(os.path.join(src, temporal['alert_members'])) as rf, open(os.path.join(dst, temporal['alert_members']), 'w') as wf:
+    reader, writer = csv.reader(rf), csv.writer(wf, lineterminator='\n')
+    header = next(reader)
+    writer.writerow(header)
+    for row in reader:
+        if row[header.index('modelID')] == '6':
+            row[header.index('startStep')] = str(steps * 3 // 4)
+            row[header.index('endStep')] = str(steps * 7 // 8)
+        writer.writerow(row)
+c['general']['simulation_name'] = name
+temporal['directory'] = sys.argv[2]
+json.dump(c, open(sys.argv[3], 'w'))" "$1" "${WORK_DIR}" "$2"
+}
+
+# Get the path of the transaction log, the motif log or another temporal file of the conf JSON
+# (an optional run name is the subdirectory of the batch runs and the server jobs)
+temporal_file() {
+    python3 -c "
+import json, os, sys
+c = json.load(open(sys.argv[1]))
+names = {'log': c['output']['transaction_log'], 'motif': c['output'].get('motif_log', 'motifs.csv')}
+name = names[sys.argv[2]] if sys.argv[2] in names else c['temporal'][sys.argv[2]]
+print(os.path.join(c['temporal']['directory'], c['general']['simulation_name'], sys.argv[3], name))" "$1" "$2" "${3:-}"
+}
+
+# Run the simulator with the conf JSON and the given "simulator" parameters, and save the transaction log
+run_sim() {
+    local conf=$1 name=$2 params=$3
+    make_conf "${conf}" "${WORK_DIR}/${name}.json" "${params}"
+    if ! java -Xms${MIN_HEAP} -Xmx${MAX_HEAP} -cp "jars/*:bin" amlsim.AMLSim "${WORK_DIR}/${name}.json" \
+            > "${WORK_DIR}/${name}.out" 2>&1; then
+        echo "FAILED: ${name} did not finish (see ${WORK_DIR}/${name}.out)"
+        NUM_FAILED=$((NUM_FAILED + 1))
+    fi
+    cp "$(temporal_file "${conf}" log)" "${WORK_DIR}/${name}.csv"
+}
+
+# Check that two transaction logs (or other files) are identical
+same_log() {
+    local suffix=${3:-csv}
+    if cmp -s "${WORK_DIR}/$1.${suffix}" "${WORK_DIR}/$2.${suffix}"; then
+        echo "OK: $1 = $2"
+    else
+        echo "FAILED: $1 != $2"
+        NUM_FAILED=$((NUM_FAILED + 1))
+    fi
+}
+
+# Extract the SAR transactions without balances (step, type, amount, originator, beneficiary, alert ID)
+# except the alerts listed in the optional file
+sar_rows() {
+    awk -F, 'FILENAME == ARGV[1] {excluded[$1] = 1; next}
+        FNR > 1 && $10 == 1 && !($11 in excluded) {print $1, $2, $3, $4, $7, $11}' \
+        "${2:-/dev/null}" "${WORK_DIR}/$1.csv" | sort
+}
+
+# Check that two transaction logs have the same SAR transactions (except the alerts listed in the optional file)
+same_sar() {
+    if cmp -s <(sar_rows "$1" "$3") <(sar_rows "$2" "$3"); then
+        echo "OK: SAR transactions of $1 = $2${3:+ (except the alerts in $(basename "$3"))}"
+    else
+        echo "FAILED: SAR transactions of $1 != $2"
+        NUM_FAILED=$((NUM_FAILED + 1))
+    fi
+}
+
+# Check that the number and the total amount of transactions of each type, and the number of SAR transactions,
+# are close between two transaction logs (engines with different random sequences)
+close_stats() {
+    if python3 -c "
+import csv, sys
+def stats(path):
+    result = {}
+    with open(path) as rf:
+        for row in csv.DictReader(rf):
+            for key, value in ((row['type'], float(row['amount'])), ('SAR', float(row['isSAR']))):
+                count, total = result.get(key, (0, 0.0))
+                result[key] = (count + 1, total + value)
+    return result
+s1, s2 = stats(sys.argv[1]), stats(sys.argv[2])
+ok = True
+for key in sorted(set(s1) | set(s2)):
+    v1, v2 = s1.get(key, (0, 0.0)), s2.get(key, (0, 0.0))
+    for name, a, b in (('count', v1[0], v2[0]), ('amount', v1[1], v2[1])):
+        if abs(a - b) > float(sys.argv[3]) * max(abs(a), abs(b)):
+            print('  %s %s: %s vs %s' % (key, name, a, b))
+            ok = False
+sys.exit(0 if ok else 1)" "${WORK_DIR}/$1.csv" "${WORK_DIR}/$2.csv" ${TOLERANCE}; then
+        echo "OK: statistics of $1 ~ $2"
+    else
+        echo "FAILED: statistics of $1 !~ $2"
+        NUM_FAILED=$((NUM_FAILED + 1))
+    fi
+}
+
+CONFS=()
+for CONF_JSON in "$@"; do
+    FIXTURE_JSON="${WORK_DIR}/fixture_${#CONFS[@]}.json"
+    make_fixture "${CONF_JSON}" "${FIXTURE_JSON}"
+    CONFS+=("${CONF_JSON}" "${FIXTURE_JSON}")
+done
+
+for CONF_JSON in "${CONFS[@]}"; do
+    echo "${CONF_JSON}"
+    NUM_STEPS=$(python3 -c "import json,sys; print(json.load(open(sys.argv[1]))['general']['total_steps'])" "${CONF_JSON}")
+    CHECKPOINT_STEP=$((NUM_STEPS / 2))
+
+    # Conservative engine: invariant to the number of partitions and the window size,
+    # and equivalent to the synchronous (lean) engine
+    run_sim "${CONF_JSON}" c1 '{"engine": "conservative", "partitions": 1, "max_window": 30}'
+    run_sim "${CONF_JSON}" c4w1 '{"engine": "conservative", "partitions": 4, "max_window": 1}'
+    run_sim "${CONF_JSON}" c7 '{"engine": "conservative", "partitions": 7, "max_window": 30}'
+    run_sim "${CONF_JSON}" lean '{"engine": "lean"}'
+    same_log c1 c4w1
+    same_log c1 c7
+    close_stats c1 lean
+
+    # Temporal blocking
+    run_sim "${CONF_JSON}" c4tb '{"engine": "conservative", "partitions": 4, "max_window": 30, "temporal_block": 8}'
+    same_log c1 c4tb
+
+    # Checkpoint and resume: identical to the uninterrupted simulation
+    run_sim "${CONF_JSON}" c4cp "{\"engine\": \"conservative\", \"partitions\": 4, \"max_window\": 30,
+        \"checkpoint_step\": ${CHECKPOINT_STEP}, \"checkpoint_file\": \"${WORK_DIR}/c4.bin\"}"
+    run_sim "${CONF_JSON}" c4rs "{\"engine\": \"conservative\", \"partitions\": 4, \"max_window\": 30,
+        \"resume_file\": \"${WORK_DIR}/c4.bin\"}"
+    same_log c1 c4cp
+    same_log c1 c4rs
+    run_sim "${CONF_JSON}" leancp "{\"engine\": \"lean\", \"checkpoint_step\": ${CHECKPOINT_STEP},
+        \"checkpoint_file\": \"${WORK_DIR}/lean.bin\"}"
+    run_sim "${CONF_JSON}" leanrs "{\"engine\": \"lean\", \"resume_file\": \"${WORK_DIR}/lean.bin\"}"
+    same_log lean leancp
+    same_log lean leanrs
+
+    # Distributed engine: identical to the conservative engine
+    run_sim "${CONF_JSON}" w2 '{"engine": "distributed", "partitions": 2, "max_window": 30, "workers": 2}'
+    run_sim "${CONF_JSON}" w3w1 '{"engine": "distributed", "partitions": 2, "max_window": 1, "workers": 3}'
+    same_log c1 w2
+    same_log c1 w3w1
+
+    # Lean engine: close to the mason engine
+    run_sim "${CONF_JSON}" mason '{"engine": "mason"}'
+    close_stats mason lean
+
+    # Alert threads: independent of the number of threads
+    run_sim "${CONF_JSON}" la1 '{"engine": "lean", "alert_threads": 1}'
+    run_sim "${CONF_JSON}" la3 '{"engine": "lean", "alert_threads": 3}'
+    same_log la1 la3
+
+    # Background mode: injecting no alerts reproduces the saved background,
+    # and the injected alerts make the same SAR transactions as the lean engine with alert threads
+    ALERT_MEMBERS=$(temporal_file "${CONF_JSON}" alert_members)
+    EMPTY_ALERTS=_regression_no_alerts.csv  # Relative to the temporal directory like the other input files
+    head -1 "${ALERT_MEMBERS}" > "$(dirname "${ALERT_MEMBERS}")/${EMPTY_ALERTS}"
+    run_sim "${CONF_JSON}" bgsave "{\"engine\": \"lean\", \"background_mode\": \"save\",
+        \"background_file\": \"${WORK_DIR}/bg.bin\"}"
+    run_sim "${CONF_JSON}" bgempty "{\"engine\": \"lean\", \"alert_threads\": 3, \"background_mode\": \"inject\",
+        \"background_file\": \"${WORK_DIR}/bg.bin\", \"alert_members\": \"${EMPTY_ALERTS}\"}"
+    run_sim "${CONF_JSON}" bginject "{\"engine\": \"lean\", \"alert_threads\": 3, \"background_mode\": \"inject\",
+        \"background_file\": \"${WORK_DIR}/bg.bin\"}"
+    rm -f "$(dirname "${ALERT_MEMBERS}")/${EMPTY_ALERTS}"
+    same_log bgsave bgempty
+    same_sar la3 bginject
+
+    # Alert subgraph: the same SAR transactions as the lean engine with alert threads
+    # (the walks of the random typologies may differ if the simulator warns about mutual accounts on them)
+    awk -F, 'NR == 1 {for(i = 1; i <= NF; i++) column[$i] = i; next}
+        $column["modelID"] == 6 {print $column["alertID"]}' "${ALERT_MEMBERS}" | sort -u > "${WORK_DIR}/random_alerts.txt"
+    for HOPS in 0 1; do
+        run_sim "${CONF_JSON}" sg${HOPS} "{\"engine\": \"lean\", \"alert_threads\": 1, \"subgraph_hops\": ${HOPS}}"
+        if grep -q "add beneficiaries from their incoming transactions" "${WORK_DIR}/sg${HOPS}.out"; then
+            same_sar la1 sg${HOPS} "${WORK_DIR}/random_alerts.txt"
+        else
+            same_sar la1 sg${HOPS}
+        fi
+    done
+
+    # Motif counter: the same transactions as without the counter, and the same counts for any partitions
+    MOTIF_PARAMS='"motif_max_length": 4, "motif_window": 10, "motif_history": 8, "motif_fan_threshold": 4'
+    run_sim "${CONF_JSON}" c1motif "{\"engine\": \"conservative\", \"partitions\": 1, \"max_window\": 30, ${MOTIF_PARAMS}}"
+    cp "$(temporal_file "${CONF_JSON}" motif)" "${WORK_DIR}/c1motif.motif"
+    run_sim "${CONF_JSON}" c4motif "{\"engine\": \"conservative\", \"partitions\": 4, \"max_window\": 1, ${MOTIF_PARAMS}}"
+    cp "$(temporal_file "${CONF_JSON}" motif)" "${WORK_DIR}/c4motif.motif"
+    same_log c1 c1motif
+    same_log c1motif c4motif motif
+
+    # Batch runner: concurrent runs in one JVM are identical to the single run
+    echo '{"threads": 2, "runs": [{"name": "_regression_batch0"}, {"name": "_regression_batch1"}]}' \
+        > "${WORK_DIR}/batch.json"
+    if ! java -Xms${MIN_HEAP} -Xmx${MAX_HEAP} -cp "jars/*:bin" amlsim.BatchRunner "${WORK_DIR}/lean.json" \
+            "${WORK_DIR}/batch.json" > "${WORK_DIR}/batch.out" 2>&1; then
+        echo "FAILED: batch did not finish (see ${WORK_DIR}/batch.out)"
+        NUM_FAILED=$((NUM_FAILED + 1))
+    fi
+    for RUN in _regression_batch0 _regression_batch1; do
+        cp "$(temporal_file "${CONF_JSON}" log ${RUN})" "${WORK_DIR}/${RUN}.csv"
+        rm -rf "$(dirname "$(temporal_file "${CONF_JSON}" log ${RUN})")"
+        same_log lean ${RUN}
+    done
+
+    # Simulation server: jobs (the second one from the cached input files) are identical to the single run
+    java -Xms${MIN_HEAP} -Xmx${MAX_HEAP} -cp "jars/*:bin" amlsim.SimulationServer ${SERVER_PORT} 2 \
+        > "${WORK_DIR}/server.out" 2>&1 &
+    SERVER_PID=$!
+    for RUN in _regression_job0 _regression_job1; do
+        if ! python3 -B -c "
+import socket, sys, time
+sys.path.insert(0, 'scripts')
+from amlsim_client import request
+for _ in range(60):  # Wait for the server to start
+    try:
+        sock = socket.create_connection(('127.0.0.1', int(sys.argv[1])))
+        break
+    except ConnectionRefusedError:
+        time.sleep(0.5)
+f = sock.makefile('rw')
+res = request(f, {'command': 'submit', 'conf': sys.argv[2], 'name': sys.argv[3]})
+res = request(f, {'command': 'status', 'job': res['job'], 'wait': True})
+sys.exit(0 if res.get('status') == 'finished' else 1)" ${SERVER_PORT} "${WORK_DIR}/lean.json" ${RUN}; then
+            echo "FAILED: server job ${RUN} did not finish (see ${WORK_DIR}/server.out)"
+            NUM_FAILED=$((NUM_FAILED + 1))
+        fi
+        cp "$(temporal_file "${CONF_JSON}" log ${RUN})" "${WORK_DIR}/${RUN}.csv"
+        rm -rf "$(dirname "$(temporal_file "${CONF_JSON}" log ${RUN})")"
+        same_log lean ${RUN}
+    done
+    AMLSIM_PORT=${SERVER_PORT} python3 scripts/amlsim_client.py shutdown > /dev/null
+    wait ${SERVER_PID}
+
+    # Tabulated inverse CDF of the normal transaction amounts (Kolmogorov-Smirnov test)
+    read -r ALPHA BETA AMOUNT_TOLERANCE <<< "$(python3 -c "
+import json, sys
+d = json.load(open(sys.argv[1]))['default']
+print(d.get('amount_alpha', 2.0), d.get('amount_beta', 5.0), d.get('amount_tolerance', 1E-6))" "${CONF_JSON}")"
+    if java -cp "jars/*:bin" amlsim.stat.InverseCDFTable ${ALPHA} ${BETA} ${AMOUNT_TOLERANCE} > "${WORK_DIR}/ks.out" 2>&1; then
+        echo "OK: Kolmogorov-Smirnov test of Beta(${ALPHA}, ${BETA})"
+    else
+        echo "FAILED: Kolmogorov-Smirnov test of Beta(${ALPHA}, ${BETA}) (see ${WORK_DIR}/ks.out)"
+        NUM_FAILED=$((NUM_FAILED + 1))
+    fi
+done
+
+# Cleanup temporal outputs of AMLSim
+rm -f outputs/_*.csv outputs/_*.txt outputs/summary.csv
+
+if [[ ${NUM_FAILED} -gt 0 ]]; then
+    echo "${NUM_FAILED} checks failed (outputs are kept in ${WORK_DIR})"
+    exit 1
+fi
+rm -rf "${WORK_DIR}"
+echo "All checks passed"
@@ -0,0 +1,17 @@
+#!/usr/bin/env bash
+
+if [[ $# -ne 2 ]]; then
+    echo "Usage: sh $0 [ConfJSON] [BatchJSON]"
+    exit 1
+fi
+
+MIN_HEAP=2g
+MAX_HEAP=8g
+
+CONF_JSON=$1
+BATCH_JSON=$2
+
+java -Xms${MIN_HEAP} -Xmx${MAX_HEAP} -cp "jars/*:bin" amlsim.BatchRunner "${CONF_JSON}" "${BATCH_JSON}"
+
+# Cleanup temporal outputs of AMLSim
+rm -f outputs/_*.csv outputs/_*.txt outputs/summary.csv
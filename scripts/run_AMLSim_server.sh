@@ -0,0 +1,11 @@
+#!/usr/bin/env bash
+
+if [[ $# -gt 4 ]]; then
+    echo "Usage: sh $0 [Port(Optional, default: 7878)] [Threads(Optional)] [QueueSize(Optional, default: 100)] [CacheSize(Optional, default: 4)]"
+    exit 1
+fi
+
+MIN_HEAP=2g
+MAX_HEAP=8g
+
+java -Xms${MIN_HEAP} -Xmx${MAX_HEAP} -cp "jars/*:bin" amlsim.SimulationServer "$@"
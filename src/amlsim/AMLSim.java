@@ -1,15 +1,17 @@
 package amlsim;
 
 import amlsim.model.ModelParameters;
-import amlsim.model.cash.CashInModel;
-import amlsim.model.cash.CashOutModel;
 import amlsim.model.aml.AMLTypology;
 import amlsim.stat.Diameter;
+import amlsim.stat.MotifCounter;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import paysim.*;
 
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.*;
 
 /**
@@ -17,28 +19,52 @@ import java.util.logging.*;
  */
 public class AMLSim extends ParameterizedPaySim {
 
-    private static SimProperties simProp;
+	// Simulation which the current thread runs (threads started by a simulation inherit it)
+	private static final InheritableThreadLocal<AMLSim> currentSim = new InheritableThreadLocal<>();
+
+    private final SimProperties simProp;
 	private static final int TX_SIZE = 10000000;  // Transaction buffer size
-	private static TransactionRepository txs = new TransactionRepository(TX_SIZE);
+	private TransactionRepository txs;
+	static final String TX_LOG_HEADER = "step,type,amount,nameOrig,oldbalanceOrg,newbalanceOrig,nameDest,oldbalanceDest,newbalanceDest,isSAR,alertID\n";
 	private static Logger logger = Logger.getLogger("AMLSim");
+	static {
+		Handler handler = new ConsoleHandler();
+		logger.addHandler(handler);
+		java.util.logging.Formatter formatter = new SimpleFormatter();
+		handler.setFormatter(formatter);
+	}
 //	private static int seed;
-	private static Random rand;
-
-	private Map<String, Integer> idMap = new HashMap<>();  // Account ID --> Index
-	private Map<Long, Alert> alerts = new HashMap<>();  // Alert ID --> Alert (AML typology) object
+	private Random rand;
+	private boolean streamRandom = false;  // Whether random numbers are drawn from the per-account streams
+	private ModelParameters modelParameters = new ModelParameters();  // Transaction model parameters (disabled by default)
+	private InputGraph inputGraph = null;  // Parsed input files (shared by simulations of a batch)
+	private Set<Integer> typologies = null;  // AML typology IDs to be simulated (null: all typologies)
+	private final TransactionTypes txTypes = new TransactionTypes();  // Transaction types of all input transactions
+	private final TransactionBatch batch = new TransactionBatch();  // Normal transactions of the running account
+	private int txBufferSize = TX_SIZE;  // Number of transactions buffered before writing the log
+	private long finishedSteps = 0;  // Number of finished steps
+	private long runTime = 0;  // Time to run all steps [ms]
+
+	private Long2ObjectOpenHashMap<Alert> alerts = new Long2ObjectOpenHashMap<>();  // Alert ID --> Alert (AML typology) object
+	private AlertSchedule alertSchedule = null;  // Scheduled transactions of all alerts
+	private List<Account> accounts = new ArrayList<>();  // Account list ordered by the index
+	private List<Account> actors = null;  // Accounts running at each step ordered by the index (null: all accounts)
 	private int numBranches = 0;
 	private ArrayList<Branch> branches = new ArrayList<>();
+	private final BranchLedger ledger = new BranchLedger();  // Cash transactions without partitioned engines
+	private RecentTransfers recentTransfers = null;  // Recent incoming transfers of all accounts
+	private MotifCounter motifCounter = null;  // Online counter of temporal motifs (null: disabled)
 	private int normalTxInterval = 30;  // Default transaction interval for normal accounts
 //    private int sarTxInterval = 10;  // Default transaction interval for SAR accounts
 //    private float sarBalanceRatio = 10.0F; // Multiplier of initial balance for SAR accounts
 
-	private static String simulatorName = null;
+	private String simulatorName = null;
 	private ArrayList<String> paramFile = new ArrayList<>();
 	private ArrayList<String> actions = new ArrayList<>();
 	private BufferedWriter bufWriter;
-	private static long numOfSteps = 1;  // Number of simulation steps
-	private static int currentLoop = 0;  // Simulation iteration counter
-	private static String txLogFileName = "";
+	private long numOfSteps = 1;  // Number of simulation steps
+	private int currentLoop = 0;  // Simulation iteration counter
+	private String txLogFileName = "";
 
 	private String accountFile = "";
 	private String transactionFile = "";
@@ -46,19 +72,59 @@ public class AMLSim extends ParameterizedPaySim {
 	private String counterFile = "";
 	private String diameterFile = "";
 
-	private static Diameter diameter;
+	private Diameter diameter;
 	private boolean computeDiameter = false;
 
+	private String engine = "mason";  // Simulation engine name
+	private long checkpointStep = -1;  // Simulation step to save a checkpoint
+	private Checkpoint checkpoint = null;  // Checkpoint which the simulation resumed from
+	private String backgroundMode = "";  // Background transaction cache mode ("save", "inject" or empty)
+	private BackgroundLog background = null;  // Background transactions being saved
+	private BitSet alertAccounts = null;  // Accounts reached by alert transactions (inject mode)
+
 
-	private AMLSim(long seed) {
-		super(seed);
+	/**
+	 * Create a simulation with the given properties
+	 * The created simulation becomes the current simulation of this thread.
+	 * @param simProp Simulation properties
+	 */
+	AMLSim(SimProperties simProp) {
+		super(simProp.getSeed());
 //		AMLSim.seed = (int)seed;
-		AMLSim.rand = new Random(seed);
+		this.simProp = simProp;
+		this.rand = new Random(simProp.getSeed());
+		currentSim.set(this);
+		this.engine = simProp.getEngine();
+		if(!engine.equals("mason") && !engine.equals("lean") && !engine.equals("conservative")
+				&& !engine.equals("distributed")){
+			throw new IllegalArgumentException("Unknown simulation engine: " + engine);
+		}
+		streamRandom = !engine.equals("mason");
+		this.checkpointStep = simProp.getCheckpointStep();
+		if((checkpointStep >= 0 || !simProp.getResumeFile().isEmpty())
+				&& !engine.equals("lean") && !engine.equals("conservative")){
+			throw new IllegalArgumentException("Checkpoints are supported only by the lean and conservative engines");
+		}
+		if(simProp.getMotifMaxLength() > 0 && engine.equals("distributed")){
+			throw new IllegalArgumentException("The motif counter is not supported by the distributed engine");
+		}
+		if(simProp.getSubgraphHops() >= 0 && !engine.equals("lean")){
+			throw new IllegalArgumentException("The alert subgraph mode is supported only by the lean engine");
+		}
+		// Typology transactions of the subgraph must not depend on the accounts outside it
+		if(simProp.getSubgraphHops() >= 0 && simProp.getAlertThreads() <= 0){
+			throw new IllegalArgumentException("The alert subgraph mode requires \"alert_threads\"");
+		}
+		this.backgroundMode = simProp.getBackgroundMode();
+		if(!backgroundMode.isEmpty()){
+			if(!backgroundMode.equals("save") && !backgroundMode.equals("inject")){
+				throw new IllegalArgumentException("Unknown background mode: " + backgroundMode);
+			}
+			if(engine.equals("distributed") || checkpointStep >= 0 || !simProp.getResumeFile().isEmpty()){
+				throw new IllegalArgumentException("The background mode is supported neither by the distributed engine nor with checkpoints");
+			}
+		}
 		super.setTagName("1");
-		Handler handler = new ConsoleHandler();
-		logger.addHandler(handler);
-		java.util.logging.Formatter formatter = new SimpleFormatter();
-		handler.setFormatter(formatter);
         simulatorName = simProp.getSimName();
 	}
 
@@ -66,20 +132,126 @@ public class AMLSim extends ParameterizedPaySim {
 //		return seed;
 //	}
  
+	/**
+	 * Get the random number generator
+	 * While an account runs in a partitioned engine, the random number stream of the account is returned.
+	 * @return Random number generator
+	 */
 	public static Random getRandom(){
-	    return rand;
+		StepContext context = StepContext.current();
+		if(context != null){
+			return context.getRandom();
+		}
+	    return currentSim.get().rand;
     }
 
+	/**
+	 * Get the simulation which the current thread runs
+	 * @return Simulation object
+	 */
+	static AMLSim current(){
+		return currentSim.get();
+	}
+
+	/**
+	 * Release the simulation of the current thread (e.g. a pooled thread which finished a simulation job),
+	 * so that the thread does not keep the accounts and the transaction network of the finished simulation
+	 */
+	static void releaseCurrent(){
+		currentSim.remove();
+	}
+
+	/**
+	 * Whether the simulation draws random numbers only from AMLSim.getRandom() (partitioned engines)
+	 * instead of the MASON random number generator
+	 * @return If true, the MASON random number generator must not be used
+	 */
+	public static boolean isStreamRandom(){
+		return currentSim.get().streamRandom || StepContext.current() != null;
+	}
+
 	public static Logger getLogger(){
 	    return logger;
     }
 
     public static SimProperties getSimProp(){
-		return simProp;
+		return currentSim.get().simProp;
+	}
+
+	/**
+	 * Get the transaction model parameters of the current simulation
+	 * @return Model parameters
+	 */
+	public static ModelParameters getModelParameters(){
+		return currentSim.get().modelParameters;
+	}
+
+	/**
+	 * Load the transaction model parameters of this simulation
+	 * @param propFile Model parameter file
+	 */
+	void loadModelParameters(String propFile){
+		this.modelParameters = ModelParameters.load(propFile);
+	}
+
+	/**
+	 * Build accounts and alerts from the parsed input files instead of loading them
+	 * @param inputGraph Parsed input files
+	 */
+	void setInputGraph(InputGraph inputGraph){
+		this.inputGraph = inputGraph;
+	}
+
+	/**
+	 * Simulate only the given AML typologies (alerts of the other typologies are skipped)
+	 * @param typologies AML typology IDs
+	 */
+	void setTypologies(Set<Integer> typologies){
+		this.typologies = typologies;
+	}
+
+	/**
+	 * Set the number of transactions buffered before writing the transaction log
+	 * @param txBufferSize Transaction buffer size
+	 */
+	void setTxBufferSize(int txBufferSize){
+		this.txBufferSize = txBufferSize;
+	}
+
+	long getFinishedSteps(){
+		return finishedSteps;
+	}
+
+	long getRunTime(){
+		return runTime;
+	}
+
+	/**
+	 * Get the transaction type dictionary of the current simulation
+	 * @return Transaction types of all input transactions
+	 */
+	static TransactionTypes getTxTypes(){
+		return currentSim.get().txTypes;
+	}
+
+	/**
+	 * Get the scheduled transactions of all alerts in the current simulation
+	 * @return Alert schedule
+	 */
+	static AlertSchedule getAlertSchedule(){
+		return currentSim.get().alertSchedule;
+	}
+
+	/**
+	 * Get the recent incoming transfers of all accounts in the current simulation
+	 * @return Ring buffers of the recent transfers
+	 */
+	static RecentTransfers getRecentTransfers(){
+		return currentSim.get().recentTransfers;
 	}
 
 	public void setCurrentLoop(int currentLoop){
-		AMLSim.currentLoop = currentLoop;
+		this.currentLoop = currentLoop;
 	}
     
     /**
@@ -89,9 +261,11 @@ public class AMLSim extends ParameterizedPaySim {
      */
     @Override
 	public void parseArgs(String[] args){
-	    String paysimPropFile = "paramFiles/paysim.properties";
-        super.setPropertiesFile(paysimPropFile);
-        logger.info("PaySim Properties File: " + paysimPropFile);
+		if(usePaySim()) {
+			String paysimPropFile = "paramFiles/paysim.properties";
+			super.setPropertiesFile(paysimPropFile);
+			logger.info("PaySim Properties File: " + paysimPropFile);
+		}
 
         numOfSteps = simProp.getSteps();
         logger.info("Simulation Steps: " + numOfSteps);
@@ -113,85 +287,71 @@ public class AMLSim extends ParameterizedPaySim {
      * @return Simulation steps as long
      */
 	public static long getNumOfSteps(){
-		return numOfSteps;
+		return currentSim.get().numOfSteps;
 	}
     
     /**
-     * Get an account object from an account ID
-     * @param id Account ID
-     * @return Account object
+     * Whether this simulation runs with the PaySim base class (MASON engine)
+     * The other engines never load the PaySim parameter files nor schedule PaySim agents.
+     * @return If true, PaySim is initialized
      */
-    private Account getAccountFromID(String id){
-		int index = this.idMap.get(id);
-		return (Account) this.getClients().get(index);
+    private boolean usePaySim(){
+		return engine.equals("mason");
 	}
-    
+
     /**
      * Initialize AMLSim by loading account and transaction list files
      */
 	public void initSimulation(){
-		// Load account file
-		try{
-			loadAccountFile(this.accountFile);
-		}catch(IOException e){
-			System.err.println("Cannot load account file: " + this.accountFile);
-			e.printStackTrace();
-			System.exit(1);
-		}
-
-		// Load transaction file
-		try{
-			loadTransactionFile(this.transactionFile);
-		}catch(IOException e){
-			System.err.println("Cannot load transaction file: " + this.transactionFile);
-			e.printStackTrace();
-			System.exit(1);
-		}
+		loadInputFiles();
+		super.initSimulation();
+	}
 
-		// Load alert member file
-		try{
-			loadAlertMemberFile(this.alertMemberFile);
-		}catch(IOException e){
-			System.err.println("Cannot load alert file: " + this.alertMemberFile);
-			e.printStackTrace();
-			System.exit(1);
+	/**
+	 * Load account, transaction and alert member list files
+	 * If the parsed input files are already given, create accounts and alerts from them.
+	 */
+	private void loadInputFiles(){
+		if(this.inputGraph == null){
+			try{
+				if(engine.equals("distributed")){  // Accounts of the banks assigned to this worker process
+					Set<String> banks = DistributedCoordinator.assignBanks(this.accountFile, simProp.getNumWorkers())
+							.get(DistributedWorker.getWorkerID());
+					this.inputGraph = InputGraph.loadPartition(this.accountFile, this.transactionFile,
+							this.alertMemberFile, banks);
+				}else{
+					this.inputGraph = InputGraph.load(this.accountFile, this.transactionFile, this.alertMemberFile,
+							simProp.getSubgraphHops());
+				}
+			}catch(IOException e){
+				System.err.println("Cannot load input files: " + e.getMessage());
+				e.printStackTrace();
+				System.exit(1);
+			}
 		}
-
-		super.initSimulation();
+		createAccounts();
+		createTransactionNetwork();
+		createAlerts();
 	}
 
 	public void loadParametersFromFile(){
-		super.loadParametersFromFile();
+		if(usePaySim()) {
+			super.loadParametersFromFile();
+		}
 
         // Default transaction interval for accounts
         this.normalTxInterval = simProp.getNormalTransactionInterval();
 //        this.sarTxInterval = simProp.getSarTransactionInterval();
 //        this.sarBalanceRatio = simProp.getSatBalanceRatio();
+        logger.info("Simulation engine: " + engine);
 
-		// Number of transactions for logging buffer
+		// Number of transactions for logging buffer (workers of the distributed engine write their own log partitions)
+        txs = new TransactionRepository(engine.equals("distributed") ? 1 : txBufferSize);
         int transactionLimit = simProp.getTransactionLimit();
         if(transactionLimit > 0){  // Set the limit only if the parameter is positive value
             txs.setLimit(transactionLimit);
         }
 
-		// Parameters of Cash Transactions
-		int norm_in_int = simProp.getCashTxInterval(true, false);  // Interval of cash-in transactions for normal account
-		int suspicious_in_int = simProp.getCashTxInterval(true, true);  // Interval of cash-in transactions for suspicious account
-		float norm_in_min = simProp.getCashTxMinAmount(true, false);  // Minimum amount of cash-in transactions for normal account
-		float norm_in_max = simProp.getCashTxMaxAmount(true, false);  // Maximum amount of cash-in transactions for normal account
-		float suspicious_in_min = simProp.getCashTxMinAmount(true, true);  // Minimum amount of cash-in transactions for suspicious account
-		float suspicious_in_max = simProp.getCashTxMaxAmount(true, true);  // Maximum amount of cash-in transactions for suspicious account
-		CashInModel.setParam(norm_in_int, suspicious_in_int, norm_in_min, norm_in_max, suspicious_in_min, suspicious_in_max);
-
-		int norm_out_int = simProp.getCashTxInterval(false, false);  // Interval of cash-out transactions for normal account
-		int suspicious_out_int = simProp.getCashTxInterval(false, true);  // Interval of cash-out transactions for suspicious account
-		float norm_out_min = simProp.getCashTxMinAmount(false, false);  // Minimum amount of cash-out transactions for normal account
-		float norm_out_max = simProp.getCashTxMaxAmount(false, false);  // Maximum amount of cash-out transactions for normal account
-		float suspicious_out_min = simProp.getCashTxMinAmount(false, true);  // Minimum amount of cash-out transactions for suspicious account
-		float suspicious_out_max = simProp.getCashTxMaxAmount(false, true);  // Maximum amount of cash-out transactions for suspicious account
-		CashOutModel.setParam(norm_out_int, suspicious_out_int, norm_out_min, norm_out_max, suspicious_out_min, suspicious_out_max);
-
-
 		// Create branches (for cash transactions)
 		this.numBranches = simProp.getNumBranches();
 		if(this.numBranches <= 0){
@@ -225,127 +385,223 @@ public class AMLSim extends ParameterizedPaySim {
 	}
 
 
-	private static Map<String, Integer> getColumnIndices(String header){
-		Map<String, Integer> columnIndex = new HashMap<>();
-		String[] element= header.split(",");
-		for(int i=0; i<element.length; i++){
-			columnIndex.put(element[i], i);
-		}
-		return columnIndex;
-	}
-
 //	private final Set<String> baseColumns = new HashSet<>(Arrays.asList("ACCOUNT_ID", "IS_SAR", "TX_BEHAVIOR_ID", "INIT_BALANCE", "START_DATE", "END_DATE"));
 
-	private void loadAccountFile(String accountFile) throws IOException{
-		BufferedReader reader = new BufferedReader(new FileReader(accountFile));
-		String line = reader.readLine();
-		logger.info("Account CSV header: " + line);
-		Map<String, Integer> columnIndex = getColumnIndices(line);
-
-		while((line = reader.readLine()) != null){
-			String[] elements = line.split(",");
-            String accountID = elements[columnIndex.get("ACCOUNT_ID")];
-			boolean isSAR = elements[columnIndex.get("IS_SAR")].toLowerCase().equals("true");
-			int modelID = Integer.parseInt(elements[columnIndex.get("TX_BEHAVIOR_ID")]);
-			float initBalance = Float.parseFloat(elements[columnIndex.get("INIT_BALANCE")]);
-			int start = Integer.parseInt(elements[columnIndex.get("START_DATE")]);
-			int end = Integer.parseInt(elements[columnIndex.get("END_DATE")]);
-			String bankID = elements[columnIndex.get("BANK_ID")];
-
+	private void createAccounts(){
+		int numAccounts = inputGraph.getNumAccounts();
+		int numSkipped = 0;
+		for(int i=0; i<numAccounts; i++){
+			numSkipped = skipAccounts(numSkipped, inputGraph.getNumSkipped(i));
+			InputGraph.AccountRow row = inputGraph.getAccount(i);
 			Account account;
-			if(isSAR){
-				account = new SARAccount(accountID, modelID, normalTxInterval, initBalance, start, end, bankID);
+			if(row.isSAR){
+				account = new SARAccount(row.id, row.modelID, normalTxInterval, row.initBalance, row.start, row.end, row.bankID);
 			}else{
-				account = new Account(accountID, modelID, normalTxInterval, initBalance, start, end, bankID);
+				account = new Account(row.id, row.modelID, normalTxInterval, row.initBalance, row.start, row.end, row.bankID);
 			}
 
-			int index = this.getClients().size();
+			int index = inputGraph.getAccountIndex(i);
+			while(this.accounts.size() < index){  // Accounts of the other partitions are not loaded
+				this.accounts.add(null);
+			}
 			account.setBranch(this.branches.get(index % this.numBranches));
-			this.getClients().add(account);
-			this.idMap.put(accountID, index);
-			this.schedule.scheduleRepeating(account);
+			account.setIndex(index);
+			this.accounts.add(account);
+			if(!streamRandom) {
+				this.schedule.scheduleRepeating(account);
+			}
+		}
+		skipAccounts(numSkipped, inputGraph.getNumSkipped(numAccounts));
+		while(this.accounts.size() < inputGraph.getNumIndices()){
+			this.accounts.add(null);
 		}
-		int numAccounts = idMap.size();
 		logger.info("Number of total accounts: " + numAccounts);
-		diameter = new Diameter(numAccounts);
-
-		reader.close();
+		if(inputGraph.isPartial()){  // The other accounts are passive counterparties
+			actors = new ArrayList<>(inputGraph.getNumActors());
+			for(int i=0; i<numAccounts; i++){
+				if(inputGraph.isActor(i)){
+					actors.add(accounts.get(inputGraph.getAccountIndex(i)));
+				}
+			}
+			if(engine.equals("distributed")){
+				logger.info("Partition: " + actors.size() + " accounts run their models");
+			}else{
+				logger.info("Alert subgraph: " + actors.size() + " accounts within " + simProp.getSubgraphHops()
+						+ " hops from the alert members run their models");
+			}
+		}
+		if(computeDiameter){
+			diameter = new Diameter(numAccounts);
+		}
+		recentTransfers = new RecentTransfers(accounts, simProp.getHistorySize());
+		if(simProp.getMotifMaxLength() > 0){
+			motifCounter = new MotifCounter(numAccounts, simProp.getMotifMaxLength(), simProp.getMotifWindow(),
+					simProp.getMotifHistory(), simProp.getMotifFanThreshold());
+		}
 	}
 
-	private void loadTransactionFile(String transactionFile) throws IOException{
-		BufferedReader reader = new BufferedReader(new FileReader(transactionFile));
-		String line = reader.readLine();
-		Map<String, Integer> columnIndex = getColumnIndices(line);
-		while((line = reader.readLine()) != null){
-			String[] elements = line.split(",");
-            String srcID = elements[columnIndex.get("src")];
-            String dstID = elements[columnIndex.get("dst")];
-
-            String ttype = elements[columnIndex.get("ttype")];
+	/**
+	 * Create the accounts out of the partition of this worker and discard them
+	 * The models of the accounts draw random numbers at the creation, so that the accounts of this worker
+	 * draw the same random numbers as the whole account list.
+	 * @param from The first skipped account to be created
+	 * @param to The end of the skipped accounts to be created (exclusive)
+	 * @return The end of the created accounts
+	 */
+	private int skipAccounts(int from, int to){
+		for(int k=from; k<to; k++){
+			new Account(null, inputGraph.getSkippedModel(k), normalTxInterval, 0,
+					inputGraph.getSkippedStart(k), inputGraph.getSkippedEnd(k));
+		}
+		return to;
+	}
 
-			Account src = getAccountFromID(srcID);
-			Account dst = getAccountFromID(dstID);
+	private void createTransactionNetwork(){
+		Map<String, Double> inputFrequencies = inputGraph.getTypeFrequencies();
+		if(inputFrequencies != null){  // Type codes in the same order as the whole transaction list (alert subgraph)
+			for(String name : inputFrequencies.keySet()){
+				txTypes.intern(name);
+			}
+		}
+		int numEdges = inputGraph.getNumEdges();
+		for(int i=0; i<numEdges; i++){
+			Account src = accounts.get(inputGraph.getEdgeSrc(i));
+			Account dst = accounts.get(inputGraph.getEdgeDst(i));
 			src.addBeneAcct(dst);
-			src.addTxType(dst, ttype);
-		}
-		reader.close();
-	}
-
-
-	private void loadAlertMemberFile(String alertFile) throws IOException{
-		logger.info("Load alert member list from:" + alertFile);
-
-		BufferedReader reader = new BufferedReader(new FileReader(alertFile));
-		String line = reader.readLine();
-		Map<String, Integer> columnIndex = getColumnIndices(line);
-		Map<Long, Integer> scheduleModels = new HashMap<>();
-		while((line = reader.readLine()) != null){
-			String[] elements = line.split(",");
-			long alertID = Long.parseLong(elements[columnIndex.get("alertID")]);
-            String accountID = elements[columnIndex.get("accountID")];
-			boolean isMain = elements[columnIndex.get("isMain")].toLowerCase().equals("true");
-			boolean isSAR = elements[columnIndex.get("isSAR")].toLowerCase().equals("true");
-			int modelID = Integer.parseInt(elements[columnIndex.get("modelID")]);
-			float minAmount = Float.parseFloat(elements[columnIndex.get("minAmount")]);
-			float maxAmount = Float.parseFloat(elements[columnIndex.get("maxAmount")]);
-			int startStep = Integer.parseInt(elements[columnIndex.get("startStep")]);
-			int endStep = Integer.parseInt(elements[columnIndex.get("endStep")]);
-			int scheduleID = Integer.parseInt(elements[columnIndex.get("scheduleID")]);
-
-			if(minAmount > maxAmount){
-				throw new IllegalArgumentException(String.format("minAmount %f is larger than maxAmount %f", minAmount, maxAmount));
+			src.addTxType(dst, txTypes.addInputType(inputGraph.getEdgeType(i)));
+		}
+		for(Account account : accounts){
+			if(account != null){
+				account.sortTxTypes();
 			}
-			if(startStep > endStep){
-				throw new IllegalArgumentException(String.format("startStep %d is larger than endStep %d", startStep, endStep));
+		}
+
+		// Transaction types to the other accounts follow the frequencies of the transaction graph generator
+		Map<String, Double> frequencies = null;
+		String typeFile = simProp.getTxTypeFile();
+		if(typeFile != null && !new File(typeFile).exists()){
+			logger.warning("Transaction type file " + typeFile + " is not found");
+		}else if(typeFile != null){
+			try{
+				frequencies = TransactionTypes.loadFrequencies(typeFile);
+			}catch(IOException e){
+				logger.warning("Cannot load transaction type file " + typeFile + ": " + e.getMessage());
 			}
+		}
+		if(frequencies == null){
+			Level level = typeFile != null ? Level.WARNING : Level.INFO;  // The configured file is not used
+			logger.log(level, "Transaction types are sampled by the frequencies in the input transactions");
+			frequencies = inputFrequencies;  // Counts of the loaded transactions unless this is an alert subgraph
+		}
+		txTypes.buildSampler(frequencies);
+	}
 
+	private void createAlerts(){
+		boolean saveBackground = backgroundMode.equals("save");
+		if(saveBackground){
+			logger.info("Alerts are skipped to save the background transactions (the SAR flags of the members are kept)");
+		}
+		List<Alert> alertList = new ArrayList<>();  // Alerts in the order of the first member rows
+		Long2IntOpenHashMap scheduleModels = new Long2IntOpenHashMap();
+		for(InputGraph.AlertMemberRow row : inputGraph.getAlertMembers()){
+			if(typologies != null && !typologies.contains(row.modelID)){  // Skip alerts of the other typologies
+				continue;
+			}
+			Account account = accounts.get(row.account);
+			account.setSAR(row.isSAR);  // SAR accounts have their own cash intervals also in the background
+			if(saveBackground){  // The background transactions are saved without alerts
+				continue;
+			}
+			if(inputGraph.isRemoteAlert(row.alertID)){  // The alert runs in the other workers
+				continue;
+			}
+			long alertID = row.alertID;
 			Alert alert;
-			if(alerts.containsKey(alertID)){  // Get an AML typology object and update the minimum/maximum amount
-				alert = alerts.get(alertID);
+			alert = alerts.get(alertID);
+			if(alert != null){  // Get an AML typology object and update the minimum/maximum amount
 				AMLTypology model = alert.getModel();
-				model.updateMinAmount(minAmount);
-				model.updateMaxAmount(maxAmount);
-				model.updateStartStep(startStep);
-				model.updateEndStep(endStep);
+				model.updateMinAmount(row.minAmount);
+				model.updateMaxAmount(row.maxAmount);
+				model.updateStartStep(row.startStep);
+				model.updateEndStep(row.endStep);
 
 			}else{  // Create a new AML typology object
-				AMLTypology model = AMLTypology.createTypology(modelID, minAmount, maxAmount, startStep, endStep);
+				AMLTypology model = AMLTypology.createTypology(row.modelID, row.minAmount, row.maxAmount,
+						row.startStep, row.endStep);
 				alert = new Alert(alertID, model, this);
 				alerts.put(alertID, alert);
+				alertList.add(alert);
 			}
-			Account account = getAccountFromID(accountID);
 			alert.addMember(account);
-			if(isMain){
+			if(row.isMain){
 				alert.setMainAccount(account);
 			}
-			account.setSAR(isSAR);
-			scheduleModels.put(alertID, scheduleID);
+			scheduleModels.put(alertID, row.scheduleID);
+		}
+		generateAlertSchedules(alertList, scheduleModels);
+	}
+
+	/**
+	 * Get the seed of the random streams of the alerts
+	 * @return Seed which makes the alert streams independent of the account streams
+	 */
+	private long getAlertSeed(){
+		return ~(long)simProp.getSeed();
+	}
+
+	/**
+	 * Define the transaction schedules of all alerts in parallel
+	 * Each alert draws random numbers from its own stream given by the seed and the alert ID,
+	 * so that the schedules do not depend on the number of threads nor the order of the alerts.
+	 * @param alertList All alerts
+	 * @param scheduleModels Alert ID --> Scheduling model ID
+	 */
+	private void generateAlertSchedules(List<Alert> alertList, Long2IntOpenHashMap scheduleModels){
+		int numAlerts = alertList.size();
+		if(numAlerts == 0){
+			return;
+		}
+		long[] randomStates = new long[numAlerts];
+		for(int i=0; i<numAlerts; i++){
+			randomStates[i] = StreamRandom.createState(getAlertSeed(), alertList.get(i).getAlertID());
+		}
+
+		int numThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), numAlerts));
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Future<?>> futures = new ArrayList<>();
+		for(int t=0; t<numThreads; t++){
+			final int from = (int)((long)numAlerts * t / numThreads);
+			final int to = (int)((long)numAlerts * (t + 1) / numThreads);
+			futures.add(executor.submit(() -> {
+				StepContext context = new StepContext();
+				StepContext.set(context);
+				try{
+					for(int i=from; i<to; i++){
+						Alert alert = alertList.get(i);
+						context.begin(i, randomStates);
+						try{
+							alert.getModel().setParameters(scheduleModels.get(alert.getAlertID()));
+						}finally{
+							context.end();
+						}
+					}
+				}finally{
+					StepContext.clear();
+				}
+			}));
 		}
-		for(long alertID : scheduleModels.keySet()){
-			int modelID = scheduleModels.get(alertID);
-			alerts.get(alertID).getModel().setParameters(modelID);
+		executor.shutdown();
+		try{
+			for(Future<?> future : futures){
+				future.get();
+			}
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while generating the alert schedules", e);
+		}catch (ExecutionException e){
+			throw new IllegalStateException("Failed to generate the alert schedules", e.getCause());
 		}
-		reader.close();
+		logger.info("Generated transaction schedules of " + numAlerts + " alerts with " + numThreads + " threads");
 	}
 
 	/**
@@ -353,19 +609,19 @@ public class AMLSim extends ParameterizedPaySim {
 	 * If the simulator name is not specified, generate it using the current time.
 	 */
 	private void initSimulatorName() {
-		if(AMLSim.simulatorName == null) {  // Not specified in the args
+		if(this.simulatorName == null) {  // Not specified in the args
 			Calendar c = Calendar.getInstance();
 			SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS");
-			AMLSim.simulatorName = "PS_" + format.format(c.getTime());
+			this.simulatorName = "PS_" + format.format(c.getTime());
 		}
-		logger.info("Simulator Name: " + AMLSim.simulatorName);
+		logger.info("Simulator Name: " + this.simulatorName);
 
         String dirPath = simProp.getOutputDir();
 		File f = new File(dirPath);
 		if(f.exists()){
             logger.warning("Output log directory already exists: " + dirPath);
         }else {
-            boolean result = f.mkdir();
+            boolean result = f.mkdirs();
             if (!result) {
                 throw new IllegalStateException("Output log directory cannot be created to: " + dirPath);
             }
@@ -390,7 +646,7 @@ public class AMLSim extends ParameterizedPaySim {
 		try {
 			FileWriter writer = new FileWriter(new File(logFileName));
 			this.bufWriter = new BufferedWriter(writer);
-			this.bufWriter.write("step,type,amount,nameOrig,oldbalanceOrg,newbalanceOrig,nameDest,oldbalanceDest,newbalanceDest,isSAR,alertID\n");
+			this.bufWriter.write(TX_LOG_HEADER);
 			this.bufWriter.close();
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -398,7 +654,7 @@ public class AMLSim extends ParameterizedPaySim {
 	}
 
 	static String getTxLogFileName(){
-		return txLogFileName;
+		return currentSim.get().txLogFileName;
 	}
 
 	public void executeSimulation(){
@@ -407,62 +663,391 @@ public class AMLSim extends ParameterizedPaySim {
 
 		// increase transfer limit with the current loop
 		initSimulatorName();
-		loadAggregatedFile();
 
 		//Initiate the dumpfile output writer
         txLogFileName = simProp.getOutputTxLogFile();
-		initTxLogBufWriter(txLogFileName);
+		if(engine.equals("distributed")){  // Worker process
+			txLogFileName = DistributedWorker.getPartitionFile(txLogFileName, DistributedWorker.getWorkerID());
+		}
+		if(simProp.getResumeFile().isEmpty()) {  // The log until the checkpoint is restored when resuming
+			initTxLogBufWriter(txLogFileName);
+		}
 		logger.info("Transaction log file: " + txLogFileName);
 
-		//add the param list to the object
-		setParamFileList(this.paramFile);
+		boolean benchmark = simProp.isBenchmark();
+		long memoryBefore = benchmark ? getUsedMemory() : 0;
+		long loadBegin = System.currentTimeMillis();
+		if(usePaySim()) {
+			loadAggregatedFile();
 
-		//Set all of the possible actions that can be done
-		setActionTypes(this.actions);
+			//add the param list to the object
+			setParamFileList(this.paramFile);
 
-		//Add the writer to the simulator
-		setWriter(this.bufWriter);
+			//Set all of the possible actions that can be done
+			setActionTypes(this.actions);
 
-		// Set total simulation steps
-		setNrOfSteps(numOfSteps);
+			//Add the writer to the simulator
+			setWriter(this.bufWriter);
 
-		// Create account objects
-		super.start();
+			// Set total simulation steps
+			setNrOfSteps(numOfSteps);
+
+			// Create account objects
+			super.start();
+		}else{
+			// Create account objects without PaySim
+			loadInputFiles();
+		}
+		long loadTime = System.currentTimeMillis() - loadBegin;
+		long loadMemory = benchmark ? getUsedMemory() - memoryBefore : -1;
+		long firstStep = 0;
+		if(!simProp.getResumeFile().isEmpty()){
+			firstStep = resumeCheckpoint(simProp.getResumeFile());
+		}
+		alertSchedule = AlertSchedule.build(accounts, numOfSteps);  // From the restored typology states if resumed
+		logger.info("Scheduled typology transactions: " + alertSchedule.size());
+		if(simProp.getAlertThreads() > 0 && !engine.equals("lean") && !backgroundMode.equals("inject")){
+			logger.warning("\"alert_threads\" is supported only by the lean engine");
+		}
+		if(backgroundMode.equals("save")){
+			String fileName = simProp.getBackgroundFile();
+			try{
+				background = BackgroundLog.create(fileName, accounts.size(), numOfSteps);
+			}catch (IOException e){
+				throw new IllegalStateException("Failed to create the background file: " + fileName, e);
+			}
+		}
 
 		// Starting the simulation
 		long begin = System.currentTimeMillis();
-		System.out.println("Starting PaySim Running for " + numOfSteps + " steps. Current loop:" + AMLSim.currentLoop);
+		System.out.println("Starting PaySim Running for " + numOfSteps + " steps. Current loop:" + this.currentLoop);
 
 		long step;
-		while ((step = super.schedule.getSteps()) < numOfSteps) {
-			if (!super.schedule.step(this))
-				break;
-			if (step % 100 == 0 && step != 0) {
-				long tm = System.currentTimeMillis();
-				System.out.println("Time Step " + step + ", " + (tm - begin)/1000 + " [s]");
-			}
-			else {
-				System.out.print("*");
-			}
-			if (computeDiameter && step % 10 == 0 && step > 0){
-				double[] result = diameter.computeDiameter();
-				writeDiameter(step, result);
+		if(backgroundMode.equals("inject")){
+			step = runInjection(begin);
+		}else if(engine.equals("conservative")){
+			step = runConservativeEngine(begin, firstStep);
+		}else if(engine.equals("distributed")){
+			step = runDistributedWorker();
+		}else if(engine.equals("lean")){
+			step = runLeanEngine(begin, firstStep);
+		}else {
+			CashSchedule cashSchedule = createCashSchedule(accounts, 0);
+			while ((step = super.schedule.getSteps()) < numOfSteps) {
+				if (!super.schedule.step(this))
+					break;
+				cashSchedule.run(step, null, null);
+				ledger.reconcile();
+				reportStep(step, begin);
 			}
 		}
-		txs.flushLog();
-		txs.writeCounterLog(numOfSteps, counterFile);
+		if(!engine.equals("distributed")) {  // The coordinator merges the logs of the workers
+			txs.flushLog();
+			txs.writeCounterLog(numOfSteps, counterFile);
+		}
+		if(background != null){
+			closeBackground();
+		}
+		if(motifCounter != null){
+			writeMotifLog(System.currentTimeMillis() - begin);
+		}
 		System.out.println(" - Finished running " + step + " steps ");
 
 		//Finishing the simulation
-		super.finish();
+		if(usePaySim()) {
+			super.finish();
+		}
 		long end = System.currentTimeMillis();
 
 		double total = end - begin;
 		total = total/1000;  // ms --> s
 		System.out.println("\nIt took: " + total + " seconds to execute the simulation\n");
-		System.out.println("Simulation name: " + AMLSim.simulatorName);
+		finishedSteps = step;
+		runTime = end - begin;
+		logCashTransactions();
+		logBenchmark(loadTime, loadMemory, runTime, step);
+		System.out.println("Simulation name: " + this.simulatorName);
 	}
     
+	/**
+	 * Run all steps with the lean engine
+	 * All active accounts run in the order of the account index at each step without the MASON schedule.
+	 * @param begin Start time of the simulation [ms]
+	 * @param firstStep The first simulation step (non-zero if resumed from a checkpoint)
+	 * @return Number of finished steps
+	 */
+	private long runLeanEngine(long begin, long firstStep){
+		int alertThreads = simProp.getAlertThreads();
+		List<Account> actors = this.actors != null ? this.actors : accounts;
+		CashSchedule cashSchedule = createCashSchedule(actors, firstStep);
+		AlertExecutor alertExecutor = alertThreads > 0
+				? new AlertExecutor(alertSchedule, alertThreads, getAlertSeed(), numOfSteps) : null;
+		long step;
+		try{
+			for(step = firstStep; step < numOfSteps; step++){
+				if(alertExecutor != null){  // Typology transactions of the step run before the accounts
+					alertExecutor.run(step);
+				}
+				for(Account account : actors){
+					account.step(step);
+				}
+				cashSchedule.run(step, null, null);
+				ledger.reconcile();
+				reportStep(step, begin);
+				if(step + 1 == checkpointStep){
+					saveCheckpoint(step + 1, null);
+				}
+			}
+		}finally{
+			if(alertExecutor != null){
+				alertExecutor.shutdown();
+			}
+		}
+		return step;
+	}
+
+	/**
+	 * Schedule the cash transactions of the accounts without partitioned engines
+	 * @param actors Accounts which run at each step
+	 * @param firstStep The first simulation step (non-zero if resumed from a checkpoint)
+	 * @return Cash schedule
+	 */
+	private CashSchedule createCashSchedule(List<Account> actors, long firstStep){
+		CashSchedule cashSchedule = new CashSchedule(accounts, numOfSteps);
+		for(Account account : actors){
+			cashSchedule.add(account, firstStep);
+		}
+		return cashSchedule;
+	}
+
+	/**
+	 * Run all steps by injecting the alerts into the saved background transactions
+	 * The normal models are not executed: the typology transactions of each step run with the alert executor
+	 * (the same as the lean engine with "alert_threads"), and then the background transactions of the step
+	 * are merged: only the balances and the log rows of the accounts reached by alert transactions are recomputed.
+	 * @param begin Start time of the simulation [ms]
+	 * @return Number of finished steps
+	 */
+	private long runInjection(long begin){
+		String fileName = simProp.getBackgroundFile();
+		alertAccounts = new BitSet(accounts.size());
+		AlertExecutor alertExecutor = new AlertExecutor(alertSchedule, simProp.getAlertThreads(), getAlertSeed(), numOfSteps);
+		long step;
+		try(BackgroundLog.Reader reader = new BackgroundLog.Reader(fileName, accounts, numOfSteps)){
+			for(step = 0; step < numOfSteps; step++){
+				alertExecutor.run(step);
+				while(reader.next(step)){
+					reader.apply();
+				}
+				ledger.reconcile();
+				reportStep(step, begin);
+			}
+		}catch (IOException e){
+			throw new IllegalStateException("Failed to replay the background file: " + fileName, e);
+		}finally{
+			alertExecutor.shutdown();
+		}
+		logger.info("Injected " + alerts.size() + " alerts into the background transactions: " + fileName
+				+ " (" + alertAccounts.cardinality() + " accounts reached by alert transactions)");
+		return step;
+	}
+
+	/**
+	 * Write the motif counts and show the totals and the overhead of the motif counter
+	 * @param runTime Time to run all steps [ms]
+	 */
+	private void writeMotifLog(long runTime){
+		String fileName = simProp.getMotifLogFile();
+		try{
+			motifCounter.writeLog(fileName);
+		}catch (IOException e){
+			throw new IllegalStateException("Failed to write the motif log: " + fileName, e);
+		}
+		logger.info("Motifs (fan-in, fan-out, cycles of length 2 and more) of alert transactions: "
+				+ Arrays.toString(motifCounter.getTotals(true)) + ", background transactions: "
+				+ Arrays.toString(motifCounter.getTotals(false)));
+		long elapsedTime = motifCounter.getElapsedTime();
+		logger.info(String.format("Motif counter: %d transactions in %d [ms] (%.1f%% of the run time): %s",
+				motifCounter.getNumEdges(), elapsedTime, elapsedTime * 100.0 / Math.max(runTime, 1), fileName));
+	}
+
+	/**
+	 * Finish the background file being saved
+	 */
+	private void closeBackground(){
+		String fileName = simProp.getBackgroundFile();
+		try{
+			background.close();
+		}catch (IOException e){
+			throw new IllegalStateException("Failed to save the background file: " + fileName, e);
+		}
+		logger.info("Saved " + background.getNumRecords() + " background transactions: " + fileName);
+		background = null;
+	}
+
+	/**
+	 * Save the simulation state before the given step to the checkpoint file
+	 * @param step The first simulation step after resuming from the checkpoint
+	 * @param randomStates Random stream states of all accounts, or null if the engine has no account streams
+	 */
+	private void saveCheckpoint(long step, long[] randomStates){
+		String fileName = simProp.getCheckpointFile();
+		try{
+			Checkpoint.save(fileName, step, rand, randomStates, accounts, branches, ledger, alerts, txs);
+		}catch (IOException e){
+			throw new IllegalStateException("Failed to save the checkpoint: " + fileName, e);
+		}
+		logger.info("Saved the checkpoint at step " + step + ": " + fileName);
+	}
+
+	/**
+	 * Restore the simulation state from a checkpoint file
+	 * @param fileName Checkpoint file name
+	 * @return The first simulation step after resuming from the checkpoint
+	 */
+	private long resumeCheckpoint(String fileName){
+		try{
+			checkpoint = Checkpoint.load(fileName, accounts, branches, ledger, alerts, txs);
+		}catch (IOException e){
+			throw new IllegalStateException("Failed to resume from the checkpoint: " + fileName, e);
+		}
+		if(engine.equals("conservative") && checkpoint.getRandomStates() == null){
+			throw new IllegalStateException("The checkpoint was saved without the conservative engine: " + fileName);
+		}
+		if(computeDiameter){
+			logger.warning("Diameters are not computed for the steps before the checkpoint");
+		}
+		if(motifCounter != null){
+			logger.warning("Motifs are not counted for the steps before the checkpoint");
+		}
+		rand = checkpoint.getRandom();
+		return checkpoint.getStep();
+	}
+
+	private static long getUsedMemory(){
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Log the startup time, memory usage per account and step throughput to compare the engines
+	 * @param loadTime Time to load the input files and initialize accounts [ms]
+	 * @param loadMemory Heap memory used by the loaded accounts, transaction network and alerts [bytes]
+	 *                   (negative if not measured)
+	 * @param runTime Time to run all steps [ms]
+	 * @param steps Number of finished steps
+	 */
+	private void logBenchmark(long loadTime, long loadMemory, long runTime, long steps){
+		int numAccounts = Math.max(accounts.size(), 1);
+		String memory = loadMemory < 0 ? "" : String.format(", memory/account=%d [bytes]", loadMemory / numAccounts);
+		logger.info(String.format("Benchmark: engine=%s, accounts=%d, startup=%d [ms]%s, throughput=%.1f [steps/s]",
+				engine, accounts.size(), loadTime, memory, steps * 1000.0 / Math.max(runTime, 1)));
+	}
+
+	/**
+	 * Show the total cash transactions of all branches (of the own accounts for a worker of the distributed engine)
+	 */
+	private void logCashTransactions(){
+		long numCashIn = 0;
+		long numCashOut = 0;
+		double balance = 0;
+		for(Branch branch : branches){
+			numCashIn += branch.getNumCashIn();
+			numCashOut += branch.getNumCashOut();
+			balance += branch.getBalance();
+		}
+		logger.info(String.format("Cash transactions: %d deposits, %d withdrawals, net cash %.2f at %d branches",
+				numCashIn, numCashOut, balance, branches.size()));
+	}
+
+	/**
+	 * Run all steps with the conservative parallel engine
+	 * @param begin Start time of the simulation [ms]
+	 * @param firstStep The first simulation step (non-zero if resumed from a checkpoint)
+	 * @return Number of finished steps
+	 */
+	private long runConservativeEngine(long begin, long firstStep){
+		ConservativeEngine conservativeEngine = new ConservativeEngine(accounts, simProp.getSeed(),
+				simProp.getNumPartitions(), simProp.getMaxWindow());
+		conservativeEngine.setBlockSize(simProp.getTemporalBlock());
+		if(checkpoint != null){
+			conservativeEngine.setRandomStates(checkpoint.getRandomStates());
+		}
+		long step = firstStep;
+		try {
+			while (step < numOfSteps) {
+				long limit = numOfSteps;
+				if (computeDiameter) {  // The window must end at the step of the diameter computation
+					limit = Math.min(limit, (step == 0 ? 10 : (step + 9) / 10 * 10) + 1);
+				}
+				if (step < checkpointStep) {  // The window must end at the checkpoint step
+					limit = Math.min(limit, checkpointStep);
+				}
+				long end = conservativeEngine.getWindowEnd(step, limit);
+				conservativeEngine.runWindow(step, end);
+				for (; step < end; step++) {
+					reportStep(step, begin);
+				}
+				if (step == checkpointStep) {
+					saveCheckpoint(step, conservativeEngine.getRandomStates());
+				}
+			}
+		}finally {
+			conservativeEngine.shutdown();
+		}
+		return step;
+	}
+
+	/**
+	 * Run the accounts assigned to this worker process of the distributed engine
+	 * @return Number of finished steps
+	 */
+	private long runDistributedWorker(){
+		int workerID = DistributedWorker.getWorkerID();
+		BitSet owned = new BitSet(accounts.size());
+		int[] actors = new int[this.actors.size()];
+		for(int i=0; i<actors.length; i++){
+			actors[i] = this.actors.get(i).getIndex();
+			owned.set(actors[i]);
+		}
+		BitSet walked = new BitSet(accounts.size());  // Accounts of the other workers which the random typologies walk through
+		for(int i=0; i<inputGraph.getNumAccounts(); i++){
+			if(inputGraph.isWalked(i)){
+				walked.set(inputGraph.getAccountIndex(i));
+			}
+		}
+		logger.info("Worker " + workerID + ": " + actors.length + " accounts");
+
+		try {
+			DistributedWorker worker = new DistributedWorker(accounts, owned, walked, actors, simProp.getSeed(),
+					simProp.getNumPartitions(), simProp.getMaxWindow(), txLogFileName);
+			worker.setBlockSize(simProp.getTemporalBlock());
+			return worker.run();
+		}catch (IOException e){
+			throw new IllegalStateException("Worker " + workerID + " failed", e);
+		}
+	}
+
+	/**
+	 * Show the progress and compute the diameter after a step finished
+	 * @param step Finished simulation step
+	 * @param begin Start time of the simulation [ms]
+	 */
+	private void reportStep(long step, long begin){
+		if (step % 100 == 0 && step != 0) {
+			long tm = System.currentTimeMillis();
+			System.out.println("Time Step " + step + ", " + (tm - begin)/1000 + " [s]");
+		}
+		else {
+			System.out.print("*");
+		}
+		if (computeDiameter && step % 10 == 0 && step > 0){
+			double[] result = diameter.computeDiameter();
+			writeDiameter(step, result);
+		}
+	}
+
     /**
      * Manage a transaction for logging and diameter computation of the whole transaction network
      * @param step Simulation step
@@ -475,20 +1060,224 @@ public class AMLSim extends ParameterizedPaySim {
      */
 	public static void handleTransaction(long step, String desc, float amt, Account orig, Account bene,
 										 boolean isSAR, long alertID){
+		StepContext context = StepContext.current();
+		if(context != null){  // Commit this transaction at the end of the window
+			context.addTransaction(step, desc, amt, orig, bene, isSAR, alertID);
+			return;
+		}
+		applyTransaction(step, desc, amt, orig, bene, isSAR, alertID);
+	}
+
+	/**
+	 * Manage a cash transaction between an account and its branch
+	 * The branch side is accumulated in the branch ledger of the current partition (or the simulation).
+	 * @param step Simulation step
+	 * @param amt Amount
+	 * @param account Account which deposits or withdraws the cash
+	 * @param isCashIn If true, deposit (cash-in), otherwise withdrawal (cash-out)
+	 */
+	public static void handleCashTransaction(long step, float amt, Account account, boolean isCashIn){
+		Branch branch = account.getBranch();
+		StepContext context = StepContext.current();
+		BranchLedger ledger = context != null ? context.getLedger() : currentSim.get().ledger;
+		ledger.add(branch, amt, isCashIn);
+		String desc = isCashIn ? "CASH-IN" : "CASH-OUT";
+		if(context != null){  // Commit this transaction at the end of the window
+			context.addCashTransaction(step, desc, amt, account, branch, isCashIn);
+			return;
+		}
+		applyCashTransaction(step, desc, amt, account, branch, isCashIn);
+	}
+
+	/**
+	 * Update the account balance and record a cash transaction (the balances of the branch are zero in the log)
+	 * @param step Simulation step
+	 * @param desc Transaction description (e.g. type)
+	 * @param amt Amount
+	 * @param account Account which deposits or withdraws the cash
+	 * @param branch Branch of the account
+	 * @param isCashIn If true, deposit (cash-in), otherwise withdrawal (cash-out)
+	 */
+	static void applyCashTransaction(long step, String desc, float amt, Account account, Branch branch, boolean isCashIn){
+		float before = (float)account.getBalance();
+		if(isCashIn){
+			account.withdraw(amt);
+		}else{
+			account.deposit(amt);
+		}
+		float after = (float)account.getBalance();
+		AMLSim sim = currentSim.get();
+		if(sim.background != null){
+			String row = isCashIn
+					? TransactionRepository.toCSV(step, desc, amt, account.getID(), before, after, branch.getID(), 0, 0, false, -1)
+					: TransactionRepository.toCSV(step, desc, amt, branch.getID(), 0, 0, account.getID(), before, after, false, -1);
+			sim.background.addCash(step, amt, account, isCashIn, row);
+			sim.txs.addRow(step, desc, false, row);
+		}else if(isCashIn){
+			sim.txs.addTransaction(step, desc, amt, account.getID(), branch.getID(), before, after, 0, 0, false, -1);
+		}else{
+			sim.txs.addTransaction(step, desc, amt, branch.getID(), account.getID(), 0, 0, before, after, false, -1);
+		}
+	}
+
+	/**
+	 * Replay a saved background cash transaction (inject mode)
+	 * The saved row of the transaction log is merged unless an alert transaction has reached the account.
+	 * @param step Simulation step
+	 * @param amt Amount
+	 * @param account Account which deposits or withdraws the cash
+	 * @param isCashIn If true, deposit (cash-in), otherwise withdrawal (cash-out)
+	 * @param after Balance of the account after the saved transaction
+	 * @param row Saved row of the transaction log
+	 */
+	static void replayCashTransaction(long step, float amt, Account account, boolean isCashIn, double after, String row){
+		AMLSim sim = currentSim.get();
+		Branch branch = account.getBranch();
+		String desc = isCashIn ? "CASH-IN" : "CASH-OUT";
+		sim.ledger.add(branch, amt, isCashIn);
+		if(sim.alertAccounts.get(account.getIndex())){
+			applyCashTransaction(step, desc, amt, account, branch, isCashIn);
+			return;
+		}
+		account.setBalance(after);
+		sim.txs.addRow(step, desc, false, row);
+	}
+
+	/**
+	 * Get the batch of normal transactions of the current thread
+	 * @return Transaction batch of the partition (partitioned engines) or the simulation
+	 */
+	public static TransactionBatch getTransactionBatch(){
+		StepContext context = StepContext.current();
+		return context != null ? context.getBatch() : currentSim.get().batch;
+	}
+
+	/**
+	 * Manage all transactions of a batch
+	 * @param batch Transaction batch
+	 */
+	static void handleTransactions(TransactionBatch batch){
+		int size = batch.size();
+		if(size == 0){
+			return;
+		}
+		batch.applyRandomValues();
+		AMLSim sim = currentSim.get();
+		StepContext context = StepContext.current();
+		if(context != null){  // Commit the transactions at the end of the window
+			context.addTransactions(batch, sim.txTypes);
+			return;
+		}
+
+		long step = batch.getStep();
+		Account orig = batch.getOrig();
+		for(int i=0; i<size; i++){
+			sim.apply(step, sim.txTypes.getName(batch.getType(i)), batch.getAmount(i), orig, batch.getBene(i), false, -1);
+		}
+	}
+
+	/**
+	 * Update the account balances and record a transaction
+	 * @param step Simulation step
+	 * @param desc Transaction description (e.g. type)
+	 * @param amt Amount
+	 * @param orig Originator account
+	 * @param bene Beneficiary account
+	 * @param isSAR SAR flag
+	 * @param alertID Alert ID
+	 */
+	static void applyTransaction(long step, String desc, float amt, Account orig, Account bene,
+								 boolean isSAR, long alertID){
+		currentSim.get().apply(step, desc, amt, orig, bene, isSAR, alertID);
+	}
+
+	/**
+	 * Update the account balances, record a transaction and notify the transaction observers
+	 * (recent transfers, motif counter, background file and diameter)
+	 * This is the only place where transfers between accounts are applied (except the replay of background transactions).
+	 */
+	private void apply(long step, String desc, float amt, Account orig, Account bene, boolean isSAR, long alertID){
         // Reduce the balance of the originator account
-        String origID = orig.getID();
 		float origBefore = (float)orig.getBalance();
 		orig.withdraw(amt);
 		float origAfter = (float)orig.getBalance();
 		
 		// Increase the balance of the beneficiary account
-        String beneID = bene.getID();
         float beneBefore = (float)bene.getBalance();
 		bene.deposit(amt);
 		float beneAfter = (float)bene.getBalance();
 
-		txs.addTransaction(step, desc, amt, origID, beneID, origBefore, origAfter, beneBefore, beneAfter, isSAR, alertID);
-		diameter.addEdge(origID, beneID);
+		// Only alert transactions are applied on inject (with or without an alert ID),
+		// so the balances of both accounts differ from the background from now on
+		if(alertAccounts != null){
+			alertAccounts.set(orig.getIndex());
+			alertAccounts.set(bene.getIndex());
+		}
+		String row = null;
+		if(background != null){
+			row = TransactionRepository.toCSV(step, desc, amt, orig.getID(), origBefore, origAfter,
+					bene.getID(), beneBefore, beneAfter, isSAR, alertID);
+			background.addTransfer(step, desc, amt, orig, bene, row);
+		}
+		record(step, desc, amt, orig, bene, origBefore, origAfter, beneBefore, beneAfter, isSAR, alertID, row);
+	}
+
+	/**
+	 * Replay a saved background transaction between accounts (inject mode)
+	 * The accounts which no alert transaction has reached take their balances from the background file,
+	 * and the saved row of the transaction log is merged if neither account has been reached.
+	 * Otherwise, the balances of the reached accounts are recomputed and the row is formatted again.
+	 * @param step Simulation step
+	 * @param desc Transaction description (e.g. type)
+	 * @param amt Amount
+	 * @param orig Originator account
+	 * @param bene Beneficiary account
+	 * @param origAfter Balance of the originator account after the saved transaction
+	 * @param beneAfter Balance of the beneficiary account after the saved transaction
+	 * @param row Saved row of the transaction log
+	 */
+	static void replayTransaction(long step, String desc, float amt, Account orig, Account bene,
+								  double origAfter, double beneAfter, String row){
+		AMLSim sim = currentSim.get();
+		boolean origReached = sim.alertAccounts.get(orig.getIndex());
+		boolean beneReached = sim.alertAccounts.get(bene.getIndex());
+		float origBefore = (float)orig.getBalance();
+		if(origReached){
+			orig.withdraw(amt);
+		}else{
+			orig.setBalance(origAfter);
+		}
+		float origAfterValue = (float)orig.getBalance();
+		float beneBefore = (float)bene.getBalance();
+		if(beneReached){
+			bene.deposit(amt);
+		}else{
+			bene.setBalance(beneAfter);
+		}
+		sim.record(step, desc, amt, orig, bene, origBefore, origAfterValue, beneBefore, (float)bene.getBalance(),
+				false, -1, origReached || beneReached ? null : row);
+	}
+
+	/**
+	 * Record an applied transfer to the transaction log and notify the observers
+	 * (recent transfers, motif counter and diameter)
+	 * @param row Formatted row of the transaction log, or null to format it from the other fields
+	 */
+	private void record(long step, String desc, float amt, Account orig, Account bene, float origBefore,
+						float origAfter, float beneBefore, float beneAfter, boolean isSAR, long alertID, String row){
+		recentTransfers.add(bene.getIndex(), orig.getIndex(), amt, step);
+		if(motifCounter != null){
+			motifCounter.add(step, orig.getIndex(), bene.getIndex(), alertID);
+		}
+		if(row != null){
+			txs.addRow(step, desc, isSAR, row);
+		}else{
+			txs.addTransaction(step, desc, amt, orig.getID(), bene.getID(), origBefore, origAfter,
+					beneBefore, beneAfter, isSAR, alertID);
+		}
+		if(computeDiameter){
+			diameter.addEdge(orig.getID(), bene.getID());
+		}
 	}
     
     /**
@@ -528,6 +1317,7 @@ public class AMLSim extends ParameterizedPaySim {
 
 		// Loading configuration JSON file instead of parsing command line arguments
         String confFile = args[0];
+        SimProperties simProp = null;
         try {
             simProp = new SimProperties(confFile);
         }catch (IOException e){
@@ -536,13 +1326,23 @@ public class AMLSim extends ParameterizedPaySim {
             System.exit(1);
         }
 
+        if(simProp.getEngine().equals("distributed") && DistributedWorker.getWorkerID() < 0){
+            // Coordinator process of the distributed engine
+            try {
+                new DistributedCoordinator(simProp, args).run();
+            }catch (IOException e){
+                System.err.println("Distributed simulation failed");
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+
+        AMLSim sim = new AMLSim(simProp);
         if(args.length >= 2){  // Load transaction model parameter file (optional)
         	String propFile = args[1];
-			ModelParameters.loadProperties(propFile);
+			sim.loadModelParameters(propFile);
 		}
-
-        int seed = simProp.getSeed();
-        AMLSim sim = new AMLSim(seed);
         sim.setCurrentLoop(0);
         sim.runSimulation(args);
 	}
@@ -2,16 +2,21 @@ package amlsim;
 
 import amlsim.model.*;
 import amlsim.model.cash.CashInModel;
+import amlsim.model.cash.CashModel;
 import amlsim.model.cash.CashOutModel;
 import amlsim.model.normal.*;
-import paysim.*;
 import sim.engine.SimState;
 import sim.engine.Steppable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
-public class Account extends Client implements Steppable {
+public class Account implements Steppable {
 
     protected String id;
+	private int index = -1;  // Account index (order in the account list)
 
 //    private Map<String, String> extraAttributes;
 	protected AbstractTransactionModel model;
@@ -20,6 +25,7 @@ public class Account extends Client implements Steppable {
 	protected boolean isSAR = false;
 //	private static Random rand = new Random(AMLSim.getSeed());
 	private Branch branch = null;
+	private double balance = 0;  // Current balance
 	private Set<String> origAcctIDs = new HashSet<>();  // Originator account ID set
 	private Set<String> beneAcctIDs = new HashSet<>();  // Beneficiary account ID set
     private List<Account> origAccts = new ArrayList<>();  // Originator accounts from which this account receives money
@@ -27,16 +33,14 @@ public class Account extends Client implements Steppable {
 //	private int numSAROrig = 0;  // Number of SAR originator accounts
 	private int numSARBene = 0;  // Number of SAR beneficiary accounts
 	private String bankID = "";  // Bank ID
-    
-    private Account prevOrig = null;  // Previous originator account
-	List<Alert> alerts = new ArrayList<>();
-    private Map<String, String> tx_types = new HashMap<>();  // Receiver Client ID --> Transaction Type
 
-	private static List<String> all_tx_types = new ArrayList<>();
-
-	private ArrayList<ActionProbability> probList;
-	private ArrayList<String> paramFile = new ArrayList<>();
-	private CurrentStepHandler stepHandler = null;
+	List<Alert> alerts = new ArrayList<>();
+	private static final int[] NO_BENES = new int[0];
+	private static final byte[] NO_TYPES = new byte[0];
+	// Transaction types of the input transactions: beneficiary account index (ascending) --> type code
+	private int[] txTypeBenes = NO_BENES;
+	private byte[] txTypeCodes = NO_TYPES;
+	private int numTxTypes = 0;
 
 	protected long startStep = 0;
 	protected long endStep = 0;
@@ -97,6 +101,18 @@ public class Account extends Client implements Steppable {
     	this.bankID = bankID;
 	}
 
+	void setIndex(int index){
+		this.index = index;
+	}
+
+	/**
+	 * Get the account index
+	 * @return Order of this account in the account list
+	 */
+	public int getIndex(){
+		return this.index;
+	}
+
 	public String getBankID() {
 		return this.bankID;
 	}
@@ -133,36 +149,113 @@ public class Account extends Client implements Steppable {
 		if(beneAcctIDs.contains(beneID)){  // Already added
 			return;
 		}
+		StepContext context = StepContext.current();
+		if(context != null){  // Change the transaction network at the end of the window
+			context.addEdge(this, bene);
+			return;
+		}
 
-		if(ModelParameters.shouldAddEdge(this, bene)){
-			beneAccts.add(bene);
-			beneAcctIDs.add(beneID);
+		if(addBeneSide(bene, true)){
+			bene.addOrigSide(this);
+		}
+	}
 
-			bene.origAccts.add(this);
-			bene.origAcctIDs.add(id);
+	/**
+	 * Add a transaction edge to the beneficiary list of this account
+	 * The distributed engine adds the edge to the originator list of the beneficiary on the worker owning it.
+	 * @param bene Beneficiary account
+	 * @param check If true, the edge is added only if the model parameters allow it
+	 * @return If true, the edge is added
+	 */
+	boolean addBeneSide(Account bene, boolean check){
+		if(beneAcctIDs.contains(bene.id) || check && !ModelParameters.shouldAddEdge(this, bene)){
+			return false;
+		}
+		beneAccts.add(bene);
+		beneAcctIDs.add(bene.id);
+		if(bene.isSAR){
+			numSARBene++;
+		}
+		return true;
+	}
 
-			if(bene.isSAR){
-				numSARBene++;
-			}
+	/**
+	 * Add a transaction edge to the originator list of this account
+	 * @param orig Originator account
+	 */
+	void addOrigSide(Account orig){
+		origAccts.add(orig);
+		origAcctIDs.add(orig.id);
+	}
+
+	/**
+	 * Add the transaction type of an input transaction from this account
+	 * sortTxTypes() must be called after all input transactions are added.
+	 * @param bene Beneficiary account
+	 * @param code Transaction type code
+	 */
+	void addTxType(Account bene, byte code){
+		if(numTxTypes == txTypeBenes.length){
+			int newSize = Math.max(4, numTxTypes * 2);
+			txTypeBenes = Arrays.copyOf(txTypeBenes, newSize);
+			txTypeCodes = Arrays.copyOf(txTypeCodes, newSize);
 		}
+		txTypeBenes[numTxTypes] = bene.index;
+		txTypeCodes[numTxTypes] = code;
+		numTxTypes++;
 	}
 
-	void addTxType(Account bene, String ttype){
-		this.tx_types.put(bene.id, ttype);
-		all_tx_types.add(ttype);
+	/**
+	 * Sort the transaction types by the beneficiary account index
+	 * If there are multiple transactions to the same beneficiary, the last one is used.
+	 */
+	void sortTxTypes(){
+		if(numTxTypes == 0){
+			return;
+		}
+		long[] keys = new long[numTxTypes];  // Beneficiary index and insertion order
+		for(int i=0; i<numTxTypes; i++){
+			keys[i] = ((long)txTypeBenes[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+		int[] benes = new int[numTxTypes];
+		byte[] codes = new byte[numTxTypes];
+		int size = 0;
+		for(int i=0; i<numTxTypes; i++){
+			int bene = (int)(keys[i] >>> 32);
+			if(i + 1 < numTxTypes && (int)(keys[i + 1] >>> 32) == bene){
+				continue;  // Overwritten by a later transaction
+			}
+			benes[size] = bene;
+			codes[size] = txTypeCodes[(int)keys[i]];
+			size++;
+		}
+		txTypeBenes = size == benes.length ? benes : Arrays.copyOf(benes, size);
+		txTypeCodes = size == codes.length ? codes : Arrays.copyOf(codes, size);
+		numTxTypes = size;
 	}
 
 	public String getTxType(Account bene){
-	    Random rand = AMLSim.getRandom();
-        String destID = bene.id;
-
-		if(this.tx_types.containsKey(destID)){
-			return tx_types.get(destID);
-		}else if(!this.tx_types.isEmpty()){
-			List<String> values = new ArrayList<>(this.tx_types.values());
-			return values.get(rand.nextInt(values.size()));
+		return AMLSim.getTxTypes().getName(getTxTypeCode(bene));
+	}
+
+	/**
+	 * Get the transaction type code to the beneficiary account
+	 * If the beneficiary is not an input beneficiary, one of the types of this account
+	 * (or of all accounts if this account has no input transactions) is chosen randomly.
+	 * @param bene Beneficiary account
+	 * @return Transaction type code
+	 */
+	byte getTxTypeCode(Account bene){
+		int i = Arrays.binarySearch(txTypeBenes, 0, numTxTypes, bene.index);
+		if(i >= 0){
+			return txTypeCodes[i];
+		}
+		Random rand = AMLSim.getRandom();
+		if(numTxTypes > 0){  // One of the types of this account
+			return txTypeCodes[rand.nextInt(numTxTypes)];
 		}else{
-			return Account.all_tx_types.get(rand.nextInt(Account.all_tx_types.size()));
+			return AMLSim.getTxTypes().sample(rand);
 		}
 	}
 
@@ -214,36 +307,96 @@ public class Account extends Client implements Steppable {
 	 */
 	@Override
 	public void step(SimState state) {
-		long currentStep = state.schedule.getSteps();  // Current simulation step
-        long start = this.startStep >= 0 ? this.startStep : 0;
-        long end = this.endStep > 0 ? this.endStep : AMLSim.getNumOfSteps();
-		if(currentStep < start || end < currentStep){
+		step(state.schedule.getSteps());
+	}
+
+	/**
+	 * Perform transactions at the specified step
+	 * @param step Current simulation step
+	 */
+	void step(long step){
+		if(!isActive(step)){
 			return;  // Skip transactions if this account is not active
 		}
-		handleAction(state);
+		handleAction(step);
 	}
 
+	/**
+	 * Check whether this account is active at the specified step
+	 * @param step Simulation step
+	 * @return If true, this account can make transactions at the step
+	 */
+	boolean isActive(long step){
+        long start = this.startStep >= 0 ? this.startStep : 0;
+        long end = this.endStep > 0 ? this.endStep : AMLSim.getNumOfSteps();
+		return start <= step && step <= end;
+	}
+
+	/**
+	 * Get the next step where this account may change the transaction network
+	 * @param step Current simulation step
+	 * @return The next synchronization step, or Long.MAX_VALUE if this account never changes the network
+	 */
+	long getNextSyncStep(long step){
+        long start = this.startStep >= 0 ? this.startStep : 0;
+        long end = this.endStep > 0 ? this.endStep : AMLSim.getNumOfSteps();
+		long next = this.model.getNextSyncStep(Math.max(step, start));
+		return next <= end ? next : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Check whether partitioned engines can run several consecutive steps of this account in one go
+	 * SAR accounts, alert members and accounts whose model depends on the other accounts run step by step.
+	 * @return If true, this account can run in temporal blocks
+	 */
+	boolean canRunInBlocks(){
+		return !isSAR && alerts.isEmpty() && model.canRunInBlocks();
+	}
 
 	public void handleAction(SimState state) {
-		AMLSim amlsim = (AMLSim) state;
-		long step = state.schedule.getSteps();
-		for(Alert ag : alerts){
-            if(this == ag.getMainAccount()){
-                ag.registerTransactions(step, this);
-            }
+		handleAction(state.schedule.getSteps());
+	}
+
+	void handleAction(long step) {
+		// Typology transactions of the alerts whose main account is this account
+		AMLSim.getAlertSchedule().execute(step, this);
+
+		// Normal transactions of this step are applied in a batch
+		TransactionBatch batch = AMLSim.getTransactionBatch();
+		batch.begin(step, this);
+		try{
+			this.model.makeTransaction(step);
+			AMLSim.handleTransactions(batch);
+		}finally{
+			batch.end();
 		}
+	}
 
-		this.model.makeTransaction(step);
-		handleCashTransaction(amlsim);
+	/**
+	 * Get the next step where a cash model of this account must be called
+	 * @param step Current simulation step
+	 * @param isCashIn If true, the cash-in model, otherwise the cash-out model
+	 * @return The next cash step, or Long.MAX_VALUE if there are no more cash transactions
+	 */
+	long getNextCashStep(long step, boolean isCashIn){
+        long start = this.startStep >= 0 ? this.startStep : 0;
+		CashModel cashModel = isCashIn ? this.cashInModel : this.cashOutModel;
+		return cashModel.getNextStep(Math.max(step, start));
 	}
 
 	/**
-	 * Make cash transactions (deposit and withdrawal)
+	 * Make a cash transaction (deposit or withdrawal) at the step scheduled by CashSchedule
+	 * @param step Current simulation step
+	 * @param isCashIn If true, the cash-in model, otherwise the cash-out model
+	 * @return The next cash step, or Long.MAX_VALUE if there are no more cash transactions
 	 */
-	private void handleCashTransaction(AMLSim amlsim){
-		long step = amlsim.schedule.getSteps();
-		this.cashInModel.makeTransaction(step);
-		this.cashOutModel.makeTransaction(step);
+	long handleCashTransaction(long step, boolean isCashIn){
+		if(!isActive(step)){
+			return Long.MAX_VALUE;  // The account is no longer active
+		}
+		CashModel cashModel = isCashIn ? this.cashInModel : this.cashOutModel;
+		cashModel.makeTransaction(step);
+		return cashModel.getNextStep(step);
 	}
 
     public AbstractTransactionModel getModel(){
@@ -252,10 +405,35 @@ public class Account extends Client implements Steppable {
 
 	/**
 	 * Get the previous originator account
-	 * @return Previous originator account objects
+	 * @return Originator account of the latest transfer to this account, or null if this account received nothing
 	 */
 	public Account getPrevOrig(){
-		return prevOrig;
+		return getNumRecentTransfers() > 0 ? getRecentOrig(0) : null;
+	}
+
+	/**
+	 * Get the number of recent incoming transfers kept for this account
+	 * @return Number of recent transfers (at most "history_size")
+	 */
+	public int getNumRecentTransfers(){
+		return AMLSim.getRecentTransfers().size(index);
+	}
+
+	/**
+	 * Get the originator account of a recent incoming transfer
+	 * @param i 0 for the latest transfer, 1 for the previous one, and so on
+	 * @return Originator account
+	 */
+	public Account getRecentOrig(int i){
+		return AMLSim.getRecentTransfers().getOrigAccount(index, i);
+	}
+
+	public float getRecentAmount(int i){
+		return AMLSim.getRecentTransfers().getAmount(index, i);
+	}
+
+	public long getRecentStep(int i){
+		return AMLSim.getRecentTransfers().getStep(index, i);
 	}
 
 	public String getName() {
@@ -278,27 +456,119 @@ public class Account extends Client implements Steppable {
 		return "C" + this.id;
 	}
 
-	public ArrayList<ActionProbability> getProbList() {
-		return probList;
+	/**
+	 * Get the current balance
+	 * @return Balance
+	 */
+	public double getBalance(){
+		return this.balance;
 	}
 
-	public void setProbList(ArrayList<ActionProbability> probList) {
-		this.probList = probList;
+	/**
+	 * Set the balance computed by another simulation (e.g. the saved background transactions)
+	 * @param balance Current balance
+	 */
+	void setBalance(double balance){
+		this.balance = balance;
+	}
+
+	/**
+	 * Increase the balance
+	 * @param amount Amount
+	 */
+	public void deposit(double amount){
+		this.balance += amount;
+	}
+
+	/**
+	 * Decrease the balance (the balance never becomes negative)
+	 * @param amount Amount
+	 */
+	public void withdraw(double amount){
+		if(this.balance < amount){
+			this.balance = 0;
+		}else{
+			this.balance -= amount;
+		}
 	}
 
-	public ArrayList<String> getParamFile() {
-		return paramFile;
+	/**
+	 * Write the balance, the transaction network around this account and the model state to a checkpoint
+	 * @param output Checkpoint output
+	 * @throws IOException if an I/O error occurs
+	 */
+	void saveState(DataOutput output) throws IOException{
+		output.writeDouble(balance);
+		writeAccounts(output, beneAccts);
+		writeAccounts(output, origAccts);
+		model.saveState(output);
+		cashInModel.saveState(output);
+		cashOutModel.saveState(output);
+
+		RecentTransfers recentTransfers = AMLSim.getRecentTransfers();
+		int size = recentTransfers.size(index);
+		output.writeInt(recentTransfers.getCount(index));
+		output.writeInt(size);
+		for(int i=size-1; i>=0; i--){  // From the oldest transfer
+			output.writeInt(recentTransfers.getOrig(index, i));
+			output.writeFloat(recentTransfers.getAmount(index, i));
+			output.writeLong(recentTransfers.getStep(index, i));
+		}
 	}
 
-	public void setParamFile(ArrayList<String> paramFile) {
-		this.paramFile = paramFile;
+	/**
+	 * Restore the balance, the transaction network around this account and the model state from a checkpoint
+	 * The originator and beneficiary lists keep the order in the checkpoint.
+	 * @param input Checkpoint input
+	 * @param accounts All accounts ordered by the account index
+	 * @throws IOException if an I/O error occurs
+	 */
+	void loadState(DataInput input, List<Account> accounts) throws IOException{
+		balance = input.readDouble();
+		beneAccts = readAccounts(input, accounts);
+		beneAcctIDs.clear();
+		numSARBene = 0;
+		for(Account bene : beneAccts){
+			beneAcctIDs.add(bene.id);
+			if(bene.isSAR){
+				numSARBene++;
+			}
+		}
+		origAccts = readAccounts(input, accounts);
+		origAcctIDs.clear();
+		for(Account orig : origAccts){
+			origAcctIDs.add(orig.id);
+		}
+		model.loadState(input, accounts);
+		cashInModel.loadState(input, accounts);
+		cashOutModel.loadState(input, accounts);
+
+		int count = input.readInt();
+		int size = input.readInt();
+		int[] recentOrigs = new int[size];
+		float[] recentAmounts = new float[size];
+		long[] recentSteps = new long[size];
+		for(int i=0; i<size; i++){
+			recentOrigs[i] = input.readInt();
+			recentAmounts[i] = input.readFloat();
+			recentSteps[i] = input.readLong();
+		}
+		AMLSim.getRecentTransfers().restore(index, count, recentOrigs, recentAmounts, recentSteps);
 	}
 
-	public CurrentStepHandler getStepHandler() {
-		return stepHandler;
+	private static void writeAccounts(DataOutput output, List<Account> list) throws IOException{
+		output.writeInt(list.size());
+		for(Account account : list){
+			output.writeInt(account.index);
+		}
 	}
 
-	public void setStepHandler(CurrentStepHandler stepHandler) {
-		this.stepHandler = stepHandler;
+	private static List<Account> readAccounts(DataInput input, List<Account> accounts) throws IOException{
+		int size = input.readInt();
+		List<Account> list = new ArrayList<>(size);
+		for(int i=0; i<size; i++){
+			list.add(accounts.get(input.readInt()));
+		}
+		return list;
 	}
 }
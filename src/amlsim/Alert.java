@@ -26,16 +26,6 @@ public class Alert {
         this.amlsim = sim;
     }
 
-    /**
-     * Add transactions
-     * @param step Current simulation step
-     */
-    void registerTransactions(long step, Account acct){
-        if(model.isValidStep(step)){
-            model.sendTransactions(step, acct);
-        }
-    }
-
     /**
      * Involve an account in this alert
      * @param acct Account object
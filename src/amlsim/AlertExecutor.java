@@ -0,0 +1,166 @@
+package amlsim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Executor of the scheduled typology transactions of independent alerts in parallel
+ * At each step, the alerts due at the step run color by color: alerts with the same color share no member accounts,
+ * so their events run concurrently on a thread pool and their transactions are buffered.
+ * The buffers are committed in the order of the alert schedule after each color,
+ * and each alert draws random numbers from its own stream of the step,
+ * so that the transaction log does not depend on the number of threads.
+ */
+class AlertExecutor {
+
+    private final AlertSchedule schedule;
+    private final long numSteps;
+    private final long[] alertSeeds;  // Alert number --> Seed of the random streams of the alert
+    private final int numThreads;
+    private final StepContext[] contexts;
+    private final long[][] randomStates;  // Thread --> Random stream state of the running alert
+    private final ExecutorService executor;
+
+    private int[] runStarts = new int[16];  // Events of the alerts due at the current step
+    private int[] runEnds = new int[16];
+    private long[] runKeys = new long[16];  // Color << 32 | run index
+
+    /**
+     * Create an executor and take over the events from the main accounts
+     * @param schedule Alert schedule
+     * @param numThreads Number of threads
+     * @param alertSeed Seed of the random streams of the alerts
+     * @param numSteps Number of simulation steps
+     */
+    AlertExecutor(AlertSchedule schedule, int numThreads, long alertSeed, long numSteps){
+        this.schedule = schedule;
+        this.numSteps = numSteps;
+        int numAlerts = schedule.getNumAlerts();
+        this.alertSeeds = new long[numAlerts];
+        for(int i=0; i<numAlerts; i++){
+            alertSeeds[i] = StreamRandom.createState(alertSeed, schedule.getAlert(i).getAlertID());
+        }
+        this.numThreads = Math.max(1, numThreads);
+        this.contexts = new StepContext[this.numThreads];
+        this.randomStates = new long[this.numThreads][1];
+        for(int i=0; i<this.numThreads; i++){
+            contexts[i] = new StepContext();
+        }
+        this.executor = Executors.newFixedThreadPool(this.numThreads);
+        schedule.setInline(false);
+        AMLSim.getLogger().info("Alert executor: " + this.numThreads + " threads, " + numAlerts + " alerts in "
+                + schedule.getNumColors() + " colors");
+    }
+
+    /**
+     * Execute all events of the step and commit their transactions
+     * @param step Current simulation step
+     */
+    void run(long step){
+        if(step < 0 || step >= numSteps){
+            return;
+        }
+        int begin = schedule.getBegin(step);
+        int end = schedule.getEnd(step);
+        if(begin == end){
+            return;
+        }
+
+        // Split the events into runs of the same alert, and order the runs by the color
+        int numRuns = 0;
+        for(int i=begin; i<end; ){
+            int alertNumber = schedule.getAlertNumber(i);
+            int j = i + 1;
+            while(j < end && schedule.getAlertNumber(j) == alertNumber){
+                j++;
+            }
+            if(!schedule.getAlert(alertNumber).getMainAccount().isActive(step)){
+                i = j;  // Inactive main accounts make no transactions as well as their steps
+                continue;
+            }
+            if(numRuns == runStarts.length){
+                runStarts = Arrays.copyOf(runStarts, numRuns * 2);
+                runEnds = Arrays.copyOf(runEnds, numRuns * 2);
+                runKeys = Arrays.copyOf(runKeys, numRuns * 2);
+            }
+            runStarts[numRuns] = i;
+            runEnds[numRuns] = j;
+            runKeys[numRuns] = ((long)schedule.getColor(alertNumber) << 32) | numRuns;
+            numRuns++;
+            i = j;
+        }
+        Arrays.sort(runKeys, 0, numRuns);
+
+        for(int from=0; from<numRuns; ){
+            int color = (int)(runKeys[from] >>> 32);
+            int to = from + 1;
+            while(to < numRuns && (int)(runKeys[to] >>> 32) == color){
+                to++;
+            }
+            runColor(step, from, to);
+            from = to;
+        }
+    }
+
+    /**
+     * Run the alerts of a color in contiguous chunks of threads and commit the buffers in order
+     */
+    private void runColor(long step, int from, int to){
+        int numChunks = Math.min(numThreads, to - from);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int t=0; t<numChunks; t++){
+            final int thread = t;
+            final int chunkFrom = from + (int)((long)(to - from) * t / numChunks);
+            final int chunkTo = from + (int)((long)(to - from) * (t + 1) / numChunks);
+            futures.add(executor.submit(() -> runChunk(step, thread, chunkFrom, chunkTo)));
+        }
+        try{
+            for(Future<?> future : futures){
+                future.get();
+            }
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running alerts at step " + step, e);
+        }catch (ExecutionException e){
+            throw new IllegalStateException("Failed to run alerts at step " + step, e.getCause());
+        }
+        for(int t=0; t<numChunks; t++){
+            TransactionBuffer buffer = contexts[t].getTransactions();
+            int size = buffer.size();
+            for(int i=0; i<size; i++){
+                buffer.commit(i);
+            }
+            buffer.clear();
+        }
+    }
+
+    private void runChunk(long step, int thread, int from, int to){
+        StepContext context = contexts[thread];
+        long[] state = randomStates[thread];
+        StepContext.set(context);
+        try{
+            for(int r=from; r<to; r++){
+                int run = (int)runKeys[r];
+                int first = runStarts[run];
+                int alertNumber = schedule.getAlertNumber(first);
+                state[0] = StreamRandom.createState(alertSeeds[alertNumber], step);
+                context.begin(schedule.getActor(first), state, 0);
+                try{
+                    for(int i=first; i<runEnds[run]; i++){
+                        schedule.executeEvent(step, i);
+                    }
+                }finally{
+                    context.end();
+                }
+            }
+        }finally{
+            StepContext.clear();
+        }
+    }
+
+    void shutdown(){
+        executor.shutdown();
+    }
+}
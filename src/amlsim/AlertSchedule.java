@@ -0,0 +1,257 @@
+package amlsim;
+
+import amlsim.model.aml.AMLTypology;
+
+import java.util.*;
+
+/**
+ * Step-indexed table of the scheduled transactions of all AML typologies
+ * Each typology adds its events (member slot and amount rule) after the schedule is defined,
+ * and the events are stored in a compressed table whose rows are simulation steps.
+ * Events of a step are ordered by the main account index, and then by the order of the alerts of the account
+ * and the order in which each typology added them, so that an account executes exactly the events due at the step
+ * in the same order as scanning its alerts.
+ * Alerts are also colored so that alerts which share a member account never have the same color,
+ * and an AlertExecutor can run the events of alerts with the same color concurrently.
+ */
+public class AlertSchedule {
+
+    private final int[] offsets;  // Step --> The first event of the step (offsets[numSteps]: number of events)
+    private final int[] actors;  // Event --> Main account index
+    private final AMLTypology[] models;  // Event --> Typology
+    private final int[] slots;  // Event --> Member slot of the typology
+    private final byte[] rules;  // Event --> Amount rule of the typology
+    private final int[] alertNumbers;  // Event --> Alert number
+    private final Alert[] alerts;  // Alert number --> Alert
+    private final int[] colors;  // Alert number --> Color of the alert in the conflict graph
+    private int numColors = 0;
+    private boolean inline = true;  // Whether the main accounts execute the events in their steps
+
+    private AlertSchedule(Builder builder, int numSteps){
+        int size = builder.size;
+        this.offsets = new int[numSteps + 1];
+        this.actors = new int[size];
+        this.models = new AMLTypology[size];
+        this.slots = new int[size];
+        this.rules = new byte[size];
+        this.alertNumbers = new int[size];
+        this.alerts = builder.alertList.toArray(new Alert[0]);
+        this.colors = new int[alerts.length];
+
+        // Stable counting sort by the step
+        for(int i=0; i<size; i++){
+            offsets[builder.steps[i] + 1]++;
+        }
+        for(int s=0; s<numSteps; s++){
+            offsets[s + 1] += offsets[s];
+        }
+        int[] next = Arrays.copyOf(offsets, numSteps);
+        for(int i=0; i<size; i++){
+            int pos = next[builder.steps[i]]++;
+            actors[pos] = builder.actors[i];
+            models[pos] = builder.models[i];
+            slots[pos] = builder.slots[i];
+            rules[pos] = builder.rules[i];
+            alertNumbers[pos] = builder.alertNumbers[i];
+        }
+        colorAlerts();
+    }
+
+    /**
+     * Color the conflict graph of the alerts greedily in the order of the alert numbers
+     * Two alerts conflict if they share a member account.
+     */
+    private void colorAlerts(){
+        Map<Alert, Integer> numbers = new HashMap<>();
+        for(int i=0; i<alerts.length; i++){
+            numbers.put(alerts[i], i);
+        }
+        BitSet used = new BitSet();
+        for(int i=0; i<alerts.length; i++){
+            used.clear();
+            for(Account member : alerts[i].getMembers()){
+                for(Alert other : member.alerts){
+                    Integer j = numbers.get(other);
+                    if(j != null && j < i){
+                        used.set(colors[j]);
+                    }
+                }
+            }
+            colors[i] = used.nextClearBit(0);
+            numColors = Math.max(numColors, colors[i] + 1);
+        }
+    }
+
+    /**
+     * Compile the events of all alerts
+     * @param accounts All accounts ordered by the account index
+     * @param numSteps Number of simulation steps
+     * @return Alert schedule
+     */
+    static AlertSchedule build(List<Account> accounts, long numSteps){
+        Builder builder = new Builder((int)numSteps);
+        for(Account account : accounts){
+            if(account == null){  // Not loaded by this worker of the distributed engine
+                continue;
+            }
+            for(Alert alert : account.alerts){
+                if(account == alert.getMainAccount()){
+                    builder.actor = account.getIndex();
+                    builder.model = alert.getModel();
+                    builder.alertNumber = builder.alertList.size();
+                    builder.alertList.add(alert);
+                    builder.model.addEvents(builder);
+                }
+            }
+        }
+        return new AlertSchedule(builder, (int)numSteps);
+    }
+
+    /**
+     * Execute the events of the account at the step
+     * @param step Current simulation step
+     * @param account Main account of the alerts
+     */
+    void execute(long step, Account account){
+        if(!inline || step < 0 || step >= offsets.length - 1){
+            return;
+        }
+        int begin = offsets[(int)step];
+        int end = offsets[(int)step + 1];
+        if(begin == end){
+            return;
+        }
+        int index = account.getIndex();
+        int lo = begin, hi = end;  // The first event of the account
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(actors[mid] < index){
+                lo = mid + 1;
+            }else{
+                hi = mid;
+            }
+        }
+        for(int i=lo; i<end && actors[i] == index; i++){
+            models[i].executeEvent(step, slots[i], rules[i]);
+        }
+    }
+
+    /**
+     * Set whether the main accounts execute the events in their steps
+     * @param inline If false, the events are executed only by an AlertExecutor
+     */
+    void setInline(boolean inline){
+        this.inline = inline;
+    }
+
+    /**
+     * Get the first event of the step
+     * @param step Simulation step
+     * @return Event index
+     */
+    int getBegin(long step){
+        return offsets[(int)step];
+    }
+
+    /**
+     * Get the end event of the step (exclusive)
+     * @param step Simulation step
+     * @return Event index
+     */
+    int getEnd(long step){
+        return offsets[(int)step + 1];
+    }
+
+    int getActor(int event){
+        return actors[event];
+    }
+
+    int getAlertNumber(int event){
+        return alertNumbers[event];
+    }
+
+    Alert getAlert(int alertNumber){
+        return alerts[alertNumber];
+    }
+
+    int getColor(int alertNumber){
+        return colors[alertNumber];
+    }
+
+    int getNumAlerts(){
+        return alerts.length;
+    }
+
+    int getNumColors(){
+        return numColors;
+    }
+
+    /**
+     * Execute an event
+     * @param step Current simulation step
+     * @param event Event index
+     */
+    void executeEvent(long step, int event){
+        models[event].executeEvent(step, slots[event], rules[event]);
+    }
+
+    /**
+     * Get the number of all events
+     * @return Number of scheduled typology events
+     */
+    int size(){
+        return actors.length;
+    }
+
+    /**
+     * Collector of the events of the typologies
+     */
+    public static class Builder {
+
+        private final int numSteps;
+        private final List<Alert> alertList = new ArrayList<>();  // Alert number --> Alert
+        private int actor;
+        private AMLTypology model;
+        private int alertNumber;
+        private int size = 0;
+        private int[] steps = new int[16];
+        private int[] actors = new int[16];
+        private AMLTypology[] models = new AMLTypology[16];
+        private int[] slots = new int[16];
+        private byte[] rules = new byte[16];
+        private int[] alertNumbers = new int[16];
+
+        private Builder(int numSteps){
+            this.numSteps = numSteps;
+        }
+
+        /**
+         * Add an event of the current typology
+         * Events out of the simulation steps or the valid steps of the typology are ignored.
+         * @param step Simulation step of the event
+         * @param slot Member slot of the typology
+         * @param rule Amount rule of the typology
+         */
+        public void add(long step, int slot, int rule){
+            if(step < 0 || step >= numSteps || !model.isValidStep(step)){
+                return;
+            }
+            if(size == steps.length){
+                int newSize = size * 2;
+                steps = Arrays.copyOf(steps, newSize);
+                actors = Arrays.copyOf(actors, newSize);
+                models = Arrays.copyOf(models, newSize);
+                slots = Arrays.copyOf(slots, newSize);
+                rules = Arrays.copyOf(rules, newSize);
+                alertNumbers = Arrays.copyOf(alertNumbers, newSize);
+            }
+            steps[size] = (int)step;
+            actors[size] = actor;
+            models[size] = model;
+            slots[size] = slot;
+            rules[size] = (byte)rule;
+            alertNumbers[size] = alertNumber;
+            size++;
+        }
+    }
+}
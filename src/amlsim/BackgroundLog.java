@@ -0,0 +1,234 @@
+package amlsim;
+
+import java.io.*;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of the background (normal and cash) transactions of a simulation without alerts
+ * A background file is a compressed binary file of the transactions in the order of the simulation steps.
+ * Each transaction is a compact record of the step, the account indices, the amount, the transaction type code,
+ * the account balances after the transaction and the row of the transaction log,
+ * and a type name is defined by a record before its first use.
+ * Simulations with different alerts replay the cached transactions instead of running the normal models:
+ * the rows of the accounts which no alert transaction reached are merged as they are,
+ * and only the balances and the rows of the other accounts are recomputed.
+ */
+class BackgroundLog implements Closeable {
+
+    private static final int MAGIC = 0x414D4C42;  // "AMLB"
+    private static final int VERSION = 2;
+
+    // Record kinds
+    static final byte TRANSFER = 0;  // Transaction between accounts
+    static final byte CASH_IN = 1;  // Deposit of an account to its branch
+    static final byte CASH_OUT = 2;  // Withdrawal of an account from its branch
+    private static final byte TYPE = 3;  // Definition of a transaction type name
+    private static final byte END = 4;  // End of the records
+
+    private final DataOutputStream output;
+    private final TransactionTypes types = new TransactionTypes();  // Type names defined in this file
+    private long numRecords = 0;
+
+    private BackgroundLog(DataOutputStream output){
+        this.output = output;
+    }
+
+    /**
+     * Create a background file
+     * @param fileName Background file name
+     * @param numAccounts Number of accounts
+     * @param numSteps Number of simulation steps
+     * @return Background file writer
+     * @throws IOException if the file cannot be created
+     */
+    static BackgroundLog create(String fileName, int numAccounts, long numSteps) throws IOException{
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(fileName))));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(numAccounts);
+        output.writeLong(numSteps);
+        return new BackgroundLog(output);
+    }
+
+    /**
+     * Add a transaction between accounts
+     * @param step Simulation step
+     * @param desc Transaction type
+     * @param amt Amount
+     * @param orig Originator account (the balance is already updated)
+     * @param bene Beneficiary account (the balance is already updated)
+     * @param row Row of the transaction log
+     */
+    void addTransfer(long step, String desc, float amt, Account orig, Account bene, String row){
+        try{
+            int size = types.size();
+            byte code = types.intern(desc);
+            if(types.size() > size){  // New type name
+                output.writeByte(TYPE);
+                output.writeUTF(desc);
+            }
+            output.writeByte(TRANSFER);
+            output.writeInt((int)step);
+            output.writeInt(orig.getIndex());
+            output.writeInt(bene.getIndex());
+            output.writeFloat(amt);
+            output.writeByte(code);
+            output.writeDouble(orig.getBalance());
+            output.writeDouble(bene.getBalance());
+            output.writeUTF(row);
+        }catch (IOException e){
+            throw new IllegalStateException("Failed to write the background transactions", e);
+        }
+        numRecords++;
+    }
+
+    /**
+     * Add a cash transaction between an account and its branch
+     * @param step Simulation step
+     * @param amt Amount
+     * @param account Account which deposits or withdraws the cash (the balance is already updated)
+     * @param isCashIn If true, deposit (cash-in), otherwise withdrawal (cash-out)
+     * @param row Row of the transaction log
+     */
+    void addCash(long step, float amt, Account account, boolean isCashIn, String row){
+        try{
+            output.writeByte(isCashIn ? CASH_IN : CASH_OUT);
+            output.writeInt((int)step);
+            output.writeInt(account.getIndex());
+            output.writeFloat(amt);
+            output.writeDouble(account.getBalance());
+            output.writeUTF(row);
+        }catch (IOException e){
+            throw new IllegalStateException("Failed to write the background transactions", e);
+        }
+        numRecords++;
+    }
+
+    long getNumRecords(){
+        return numRecords;
+    }
+
+    @Override
+    public void close() throws IOException{
+        output.writeByte(END);
+        output.close();
+    }
+
+    /**
+     * Sequential reader of a background file
+     */
+    static class Reader implements Closeable {
+
+        private final DataInputStream input;
+        private final TransactionTypes types = new TransactionTypes();
+        private final List<Account> accounts;
+
+        // The next record (kind END if no more records)
+        private byte kind;
+        private long step;
+        private Account orig;
+        private Account bene;
+        private float amount;
+        private byte type;
+        private double origAfter;  // Balance of the originator (the account of a cash transaction) after the record
+        private double beneAfter;
+        private String row;  // Row of the transaction log
+
+        /**
+         * Open a background file
+         * @param fileName Background file name
+         * @param accounts All accounts ordered by the account index (the same accounts as the background simulation)
+         * @param numSteps Number of simulation steps
+         * @throws IOException if the file cannot be loaded or does not match the simulation
+         */
+        Reader(String fileName, List<Account> accounts, long numSteps) throws IOException{
+            this.input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(fileName))));
+            this.accounts = accounts;
+            try{
+                if(input.readInt() != MAGIC){
+                    throw new IOException("Not a background file: " + fileName);
+                }
+                int version = input.readInt();
+                if(version != VERSION){
+                    throw new IOException("Unsupported background file version: " + version);
+                }
+                int numAccounts = input.readInt();
+                if(numAccounts != accounts.size()){
+                    throw new IOException("The number of accounts does not match the background file: "
+                            + accounts.size() + " (background: " + numAccounts + ")");
+                }
+                long steps = input.readLong();
+                if(steps != numSteps){
+                    throw new IOException("The number of steps does not match the background file: "
+                            + numSteps + " (background: " + steps + ")");
+                }
+                readRecord();
+            }catch (IOException e){
+                input.close();
+                throw e;
+            }
+        }
+
+        private void readRecord() throws IOException{
+            kind = input.readByte();
+            while(kind == TYPE){
+                types.intern(input.readUTF());
+                kind = input.readByte();
+            }
+            if(kind == END){
+                return;
+            }
+            step = input.readInt();
+            orig = accounts.get(input.readInt());
+            if(kind == TRANSFER){
+                bene = accounts.get(input.readInt());
+                amount = input.readFloat();
+                type = input.readByte();
+                origAfter = input.readDouble();
+                beneAfter = input.readDouble();
+            }else{
+                bene = null;
+                amount = input.readFloat();
+                origAfter = input.readDouble();
+            }
+            row = input.readUTF();
+        }
+
+        /**
+         * Move to the next record of the step
+         * @param step Current simulation step
+         * @return If false, no more records of the step
+         * @throws IOException if the file is broken
+         */
+        boolean next(long step) throws IOException{
+            if(kind == END || this.step > step){
+                return false;
+            }
+            if(this.step < step){
+                throw new IOException("Unordered background transactions at step " + this.step);
+            }
+            return true;
+        }
+
+        /**
+         * Merge the current record into the account balances and the transaction log, and read the next record
+         * @throws IOException if the file is broken
+         */
+        void apply() throws IOException{
+            if(kind == TRANSFER){
+                AMLSim.replayTransaction(step, types.getName(type), amount, orig, bene, origAfter, beneAfter, row);
+            }else{
+                AMLSim.replayCashTransaction(step, amount, orig, kind == CASH_IN, origAfter, row);
+            }
+            readRecord();
+        }
+
+        @Override
+        public void close() throws IOException{
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package amlsim;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Run multiple simulations with different random seeds, model parameters and typologies in one JVM
+ * The input files are loaded only once and shared by all runs.
+ * Each run has its own accounts, alerts, random number generator, model parameters and transaction log,
+ * and writes the output files to its own directory under the working directory.
+ * Runs are executed concurrently on a fixed thread pool with the lean or conservative engine.
+ */
+public class BatchRunner {
+
+    private static final Logger logger = AMLSim.getLogger();
+    private static final int BATCH_TX_SIZE = 1000000;  // Transaction buffer size of each run
+
+    /**
+     * Configuration of a run
+     */
+    static class Run {
+        final String name;  // Run name (output directory name)
+        final int seed;
+        final String modelParamFile;  // Transaction model parameter file (null: no parameters)
+        final Set<Integer> typologies;  // AML typology IDs (null: all typologies)
+
+        Run(String name, int seed, String modelParamFile, Set<Integer> typologies){
+            this.name = name;
+            this.seed = seed;
+            this.modelParamFile = modelParamFile;
+            this.typologies = typologies;
+        }
+    }
+
+    private final SimProperties simProp;
+    private final List<Run> runs = new ArrayList<>();
+    private final int numThreads;
+
+    /**
+     * Load a batch file
+     * @param simProp Simulation properties of the base configuration
+     * @param batchFile Batch JSON file which has a list of runs
+     * @throws IOException if the batch file cannot be loaded
+     */
+    BatchRunner(SimProperties simProp, String batchFile) throws IOException{
+        checkEngine(simProp);
+        this.simProp = simProp;
+
+        JSONObject batch = new JSONObject(new String(Files.readAllBytes(Paths.get(batchFile))));
+        this.numThreads = batch.optInt("threads", Runtime.getRuntime().availableProcessors());
+        if(numThreads <= 0){
+            throw new IllegalArgumentException("The number of threads must be positive: " + numThreads);
+        }
+        JSONArray runArray = batch.getJSONArray("runs");
+        Set<String> names = new HashSet<>();
+        for(int i=0; i<runArray.length(); i++){
+            JSONObject run = runArray.getJSONObject(i);
+            String name = run.optString("name", "run" + i);
+            if(!names.add(name)){
+                throw new IllegalArgumentException("Duplicated run name: " + name);
+            }
+            int seed = run.optInt("seed", simProp.getSeed());
+            String modelParamFile = run.optString("model_params", null);
+            Set<Integer> typologies = null;
+            JSONArray typologyArray = run.optJSONArray("typologies");
+            if(typologyArray != null){
+                typologies = new HashSet<>();
+                for(int j=0; j<typologyArray.length(); j++){
+                    typologies.add(typologyArray.getInt(j));
+                }
+            }
+            runs.add(new Run(name, seed, modelParamFile, typologies));
+        }
+    }
+
+    /**
+     * Check whether the simulation engine can run in a JVM with other simulations
+     * @param simProp Simulation properties
+     * @throws IllegalArgumentException if the engine is neither lean nor conservative
+     */
+    static void checkEngine(SimProperties simProp){
+        String engine = simProp.getEngine();
+        if(!engine.equals("lean") && !engine.equals("conservative")){
+            throw new IllegalArgumentException("Batch runs support only the lean and conservative engines: " + engine);
+        }
+    }
+
+    /**
+     * Run all simulations of the batch
+     * @return Number of failed runs
+     */
+    int run(){
+        long loadBegin = System.currentTimeMillis();
+        InputGraph inputGraph;
+        try{
+            inputGraph = InputGraph.load(simProp.getInputAcctFile(), simProp.getInputTxFile(),
+                    simProp.getInputAlertMemberFile(), simProp.getSubgraphHops());
+        }catch (IOException e){
+            throw new IllegalStateException("Cannot load input files", e);
+        }
+        logger.info(String.format("Batch: loaded %d accounts and %d transactions in %d [ms]",
+                inputGraph.getNumAccounts(), inputGraph.getNumEdges(), System.currentTimeMillis() - loadBegin));
+
+        long begin = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, Math.max(runs.size(), 1)));
+        Map<String, Future<?>> futures = new LinkedHashMap<>();
+        for(final Run run : runs){
+            futures.put(run.name, executor.submit(() -> runSimulation(simProp, run, inputGraph)));
+        }
+        executor.shutdown();
+
+        int numFailed = 0;
+        for(Map.Entry<String, Future<?>> entry : futures.entrySet()){
+            try{
+                entry.getValue().get();
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Batch was interrupted", e);
+            }catch (ExecutionException e){
+                logger.severe("Run " + entry.getKey() + " failed: " + e.getCause());
+                e.getCause().printStackTrace();
+                numFailed++;
+            }
+        }
+        logger.info(String.format("Batch: finished %d runs (%d failed) in %d [ms]",
+                runs.size(), numFailed, System.currentTimeMillis() - begin));
+        return numFailed;
+    }
+
+    /**
+     * Run a simulation in the current thread
+     * @param simProp Simulation properties of the base configuration
+     * @param run Run configuration
+     * @param inputGraph Parsed input files
+     * @return Finished simulation
+     */
+    static AMLSim runSimulation(SimProperties simProp, Run run, InputGraph inputGraph){
+        long begin = System.currentTimeMillis();
+        String outputDir = simProp.getOutputDir() + run.name + File.separator;
+        AMLSim sim = new AMLSim(simProp.createRun(run.seed, outputDir));
+        sim.setInputGraph(inputGraph);
+        sim.setTypologies(run.typologies);
+        sim.setTxBufferSize(BATCH_TX_SIZE);
+        if(run.modelParamFile != null){
+            sim.loadModelParameters(run.modelParamFile);
+        }
+        sim.setCurrentLoop(0);
+        sim.runSimulation(new String[0]);
+        logger.info(String.format("Batch: run %s (seed=%d) finished in %d [ms]: %s",
+                run.name, run.seed, System.currentTimeMillis() - begin, outputDir));
+        return sim;
+    }
+
+    public static void main(String[] args){
+        if(args.length < 2){
+            System.err.println("Usage: java amlsim.BatchRunner [ConfFile] [BatchFile]");
+            System.exit(1);
+        }
+        SimProperties simProp = null;
+        try{
+            simProp = new SimProperties(args[0]);
+        }catch (IOException e){
+            System.err.println("Cannot load configuration JSON file: " + args[0]);
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        int numFailed = 0;
+        try{
+            numFailed = new BatchRunner(simProp, args[1]).run();
+        }catch (IOException e){
+            System.err.println("Cannot load batch file: " + args[1]);
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(numFailed == 0 ? 0 : 1);
+    }
+}
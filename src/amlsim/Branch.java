@@ -1,18 +1,35 @@
 package amlsim;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * A branch of a bank
- * In cash transactions, this class perform like an account
+ * In cash transactions, this class is the counterparty of accounts.
+ * The cash of a branch is not updated by each transaction, but accumulated in branch ledgers
+ * (one for each partition) and reconciled at the step boundaries.
  */
-public class Branch extends Account {
+public class Branch {
 
-    private int id;  // Branch identifier
-    private float limitAmount = 100.0F;  // Limit of deposit/withdrawal amount
+    private final int id;  // Branch identifier (dense index in the branch list)
+    private final float limitAmount = 100.0F;  // Limit of deposit/withdrawal amount
+    private double balance = 0;  // Reconciled cash balance (deposits minus withdrawals)
+    private long numCashIn = 0;  // Number of reconciled deposits
+    private long numCashOut = 0;  // Number of reconciled withdrawals
 
     public Branch(int id){
         this.id = id;
     }
 
+    /**
+     * Get the branch identifier
+     * @return Branch identifier (order in the branch list)
+     */
+    int getBranchID(){
+        return id;
+    }
+
     /**
      * Get the limit of deposit/withdrawal amount
      * @return Limit of deposit/withdrawal amount
@@ -22,19 +39,66 @@ public class Branch extends Account {
     }
 
     /**
-     * Get the branch identifier as String
-     * @return Branch identifier
+     * Add the cash transactions accumulated in a ledger
+     * @param cashIn Total amount of deposits
+     * @param cashOut Total amount of withdrawals
+     * @param numIn Number of deposits
+     * @param numOut Number of withdrawals
      */
-    public String toString(){
-        return "B" + this.id;
+    void reconcile(double cashIn, double cashOut, int numIn, int numOut){
+        balance += cashIn - cashOut;
+        numCashIn += numIn;
+        numCashOut += numOut;
+    }
+
+    /**
+     * Get the cash balance of this branch
+     * @return Reconciled deposits minus withdrawals
+     */
+    public double getBalance(){
+        return balance;
+    }
+
+    public long getNumCashIn(){
+        return numCashIn;
+    }
+
+    public long getNumCashOut(){
+        return numCashOut;
+    }
+
+    /**
+     * Write the reconciled cash of this branch to a checkpoint
+     * @param output Checkpoint output
+     * @throws IOException if an I/O error occurs
+     */
+    void saveState(DataOutput output) throws IOException{
+        output.writeDouble(balance);
+        output.writeLong(numCashIn);
+        output.writeLong(numCashOut);
+    }
+
+    /**
+     * Restore the reconciled cash of this branch from a checkpoint
+     * @param input Checkpoint input
+     * @throws IOException if an I/O error occurs
+     */
+    void loadState(DataInput input) throws IOException{
+        balance = input.readDouble();
+        numCashIn = input.readLong();
+        numCashOut = input.readLong();
     }
 
     /**
-     * Get the branch identifier as String
+     * Get the branch identifier as String (e.g. in the transaction log)
      * @return Branch identifier
      */
-    public String getName() {
-        return toString();
+    public String getID(){
+        return "B" + this.id;
+    }
+
+    public String toString(){
+        return getID();
     }
 
 }
@@ -0,0 +1,125 @@
+package amlsim;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ledger of cash transactions which are not yet reconciled to the branches
+ * Each partition (or the simulation without partitions) accumulates the deposits and withdrawals
+ * in its own ledger, so that threads never update the shared branches while they run the accounts.
+ * The ledger is reconciled to the branches at the step (window) boundary.
+ * Only the branches with cash transactions are visited, so the cost is proportional to the number of cash transactions.
+ */
+class BranchLedger {
+
+    private static final int INITIAL_SIZE = 16;
+
+    private Branch[] branches = new Branch[INITIAL_SIZE];  // Branch ID --> Branch (null: no cash transactions)
+    private double[] cashIn = new double[INITIAL_SIZE];
+    private double[] cashOut = new double[INITIAL_SIZE];
+    private int[] numCashIn = new int[INITIAL_SIZE];
+    private int[] numCashOut = new int[INITIAL_SIZE];
+    private int[] touched = new int[INITIAL_SIZE];  // IDs of branches with cash transactions since the last reconciliation
+    private int numTouched = 0;
+
+    /**
+     * Record a cash transaction
+     * @param branch Branch
+     * @param amount Transaction amount
+     * @param isCashIn If true, a deposit to the branch, otherwise a withdrawal from the branch
+     */
+    void add(Branch branch, float amount, boolean isCashIn){
+        int id = touch(branch);
+        if(isCashIn){
+            cashIn[id] += amount;
+            numCashIn[id]++;
+        }else{
+            cashOut[id] += amount;
+            numCashOut[id]++;
+        }
+    }
+
+    /**
+     * Register a branch with cash transactions since the last reconciliation
+     * @param branch Branch
+     * @return Branch ID
+     */
+    private int touch(Branch branch){
+        int id = branch.getBranchID();
+        if(id >= branches.length){
+            int newSize = Math.max(id + 1, branches.length * 2);
+            branches = Arrays.copyOf(branches, newSize);
+            cashIn = Arrays.copyOf(cashIn, newSize);
+            cashOut = Arrays.copyOf(cashOut, newSize);
+            numCashIn = Arrays.copyOf(numCashIn, newSize);
+            numCashOut = Arrays.copyOf(numCashOut, newSize);
+        }
+        if(branches[id] == null){
+            branches[id] = branch;
+            if(numTouched == touched.length){
+                touched = Arrays.copyOf(touched, numTouched * 2);
+            }
+            touched[numTouched++] = id;
+        }
+        return id;
+    }
+
+    /**
+     * Write the cash transactions which are not yet reconciled to a checkpoint
+     * @param output Checkpoint output
+     * @throws IOException if an I/O error occurs
+     */
+    void saveState(DataOutput output) throws IOException{
+        output.writeInt(numTouched);
+        for(int i=0; i<numTouched; i++){
+            int id = touched[i];
+            output.writeInt(id);
+            output.writeDouble(cashIn[id]);
+            output.writeDouble(cashOut[id]);
+            output.writeInt(numCashIn[id]);
+            output.writeInt(numCashOut[id]);
+        }
+    }
+
+    /**
+     * Restore the cash transactions which are not yet reconciled from a checkpoint
+     * This ledger must be empty before calling this method.
+     * @param input Checkpoint input
+     * @param branches All branches ordered by the branch ID
+     * @throws IOException if an I/O error occurs or a branch does not exist
+     */
+    void loadState(DataInput input, List<Branch> branches) throws IOException{
+        int size = input.readInt();
+        for(int i=0; i<size; i++){
+            int id = input.readInt();
+            if(id < 0 || id >= branches.size()){
+                throw new IOException("Branch " + id + " in the checkpoint does not exist");
+            }
+            touch(branches.get(id));
+            cashIn[id] = input.readDouble();
+            cashOut[id] = input.readDouble();
+            numCashIn[id] = input.readInt();
+            numCashOut[id] = input.readInt();
+        }
+    }
+
+    /**
+     * Add the accumulated cash transactions to the branches and clear this ledger
+     * This method must be called when no threads add cash transactions to this ledger.
+     */
+    void reconcile(){
+        for(int i=0; i<numTouched; i++){
+            int id = touched[i];
+            branches[id].reconcile(cashIn[id], cashOut[id], numCashIn[id], numCashOut[id]);
+            branches[id] = null;
+            cashIn[id] = 0;
+            cashOut[id] = 0;
+            numCashIn[id] = 0;
+            numCashOut[id] = 0;
+        }
+        numTouched = 0;
+    }
+}
@@ -0,0 +1,86 @@
+package amlsim;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Step-indexed queue of the cash transactions (deposits and withdrawals) of a set of accounts
+ * Each event is the next step where the cash-in or cash-out model of an account is due,
+ * so that only the due accounts are visited at each step instead of calling the cash models of all accounts.
+ * The events of a step run after all accounts of the step in the order of the account index (cash-in first),
+ * and each of them schedules the next event of the model.
+ */
+class CashSchedule {
+
+    private final List<Account> accounts;
+    private final IntArrayList[] events;  // Step --> Account index * 2 + (0: cash-in, 1: cash-out)
+
+    /**
+     * Create an empty schedule
+     * @param accounts All accounts ordered by the account index
+     * @param numSteps Number of simulation steps (events after the last step are discarded)
+     */
+    CashSchedule(List<Account> accounts, long numSteps){
+        this.accounts = accounts;
+        this.events = new IntArrayList[(int)numSteps];
+    }
+
+    /**
+     * Schedule the cash-in and cash-out models of an account
+     * @param account Account
+     * @param step The first step to run (e.g. the step resumed from a checkpoint)
+     */
+    void add(Account account, long step){
+        add(account.getNextCashStep(step, true), account.getIndex() * 2);
+        add(account.getNextCashStep(step, false), account.getIndex() * 2 + 1);
+    }
+
+    private void add(long step, int event){
+        if(step >= events.length){
+            return;
+        }
+        IntArrayList list = events[(int)step];
+        if(list == null){
+            list = new IntArrayList();
+            events[(int)step] = list;
+        }
+        list.add(event);
+    }
+
+    /**
+     * Run the cash models which are due at the step and schedule their next events
+     * @param step Current simulation step
+     * @param context Context of the partition (null: without partitioned engines)
+     * @param randomStates Random stream states of the partitioned engine: the cash models of the account index i
+     *                     draw random numbers from the slot (number of accounts + i)
+     */
+    void run(long step, StepContext context, long[] randomStates){
+        if(step >= events.length || events[(int)step] == null){
+            return;
+        }
+        IntArrayList list = events[(int)step];
+        events[(int)step] = null;
+        int[] due = list.elements();
+        int n = list.size();
+        Arrays.sort(due, 0, n);
+        for(int i=0; i<n; i++){
+            int event = due[i];
+            int index = event >> 1;
+            boolean isCashIn = (event & 1) == 0;
+            if(context != null){  // Cash transactions are ordered after the transactions of all accounts
+                context.begin(accounts.size() + index, randomStates);
+            }
+            long next;
+            try{
+                next = accounts.get(index).handleCashTransaction(step, isCashIn);
+            }finally{
+                if(context != null){
+                    context.end();
+                }
+            }
+            add(next, event);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package amlsim;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checkpoint of the simulation state at the beginning of a step
+ * A checkpoint file is a compressed binary file which contains the random number generator states,
+ * the transaction counters and the transaction log until the checkpoint, the balances, transaction network
+ * and model states of all accounts, the cash of all branches and the branch ledger, and the typology states
+ * (schedules and amounts) of all alerts.
+ * The checkpoint does not depend on the transaction log file of the simulation which saved it.
+ * A simulation can resume from a checkpoint any number of times with different typologies or parameters.
+ * Alerts which do not exist in the checkpoint or whose typology is changed keep the newly generated state.
+ */
+class Checkpoint {
+
+    private static final int MAGIC = 0x414D4C43;  // "AMLC"
+    private static final int VERSION = 7;
+
+    private final long step;
+    private final Random random;
+    private final long[] randomStates;
+
+    private Checkpoint(long step, Random random, long[] randomStates){
+        this.step = step;
+        this.random = random;
+        this.randomStates = randomStates;
+    }
+
+    /**
+     * Get the first simulation step after resuming from this checkpoint
+     * @return Simulation step
+     */
+    long getStep(){
+        return step;
+    }
+
+    /**
+     * Get the global random number generator
+     * @return Random number generator restored from this checkpoint
+     */
+    Random getRandom(){
+        return random;
+    }
+
+    /**
+     * Get the random stream states of all accounts (partitioned engines)
+     * @return Random stream states, or null if the checkpoint was saved without account streams
+     */
+    long[] getRandomStates(){
+        return randomStates;
+    }
+
+    /**
+     * Save the simulation state to a checkpoint file
+     * @param fileName Checkpoint file name
+     * @param step The first simulation step after resuming from this checkpoint
+     * @param random Global random number generator
+     * @param randomStates Random stream states of all accounts, or null if the engine has no account streams
+     * @param accounts All accounts ordered by the account index
+     * @param branches All branches ordered by the branch ID
+     * @param ledger Branch ledger of the simulation without partitions (the ledgers of partitions are reconciled
+     *               at each window boundary)
+     * @param alerts Alert ID --> Alert object
+     * @param txs Transaction repository
+     * @throws IOException if an I/O error occurs
+     */
+    static void save(String fileName, long step, Random random, long[] randomStates, List<Account> accounts,
+                     List<Branch> branches, BranchLedger ledger, Map<Long, Alert> alerts,
+                     TransactionRepository txs) throws IOException{
+        try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(fileName))))){
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(step);
+
+            ByteArrayOutputStream randomBytes = new ByteArrayOutputStream();
+            try(ObjectOutputStream oos = new ObjectOutputStream(randomBytes)){
+                oos.writeObject(random);
+            }
+            output.writeInt(randomBytes.size());
+            randomBytes.writeTo(output);
+            if(randomStates == null){
+                output.writeInt(-1);
+            }else{
+                output.writeInt(randomStates.length);
+                for(long state : randomStates){
+                    output.writeLong(state);
+                }
+            }
+
+            txs.saveState(output);
+
+            output.writeInt(accounts.size());
+            for(Account account : accounts){
+                output.writeUTF(account.getID());
+                account.saveState(output);
+            }
+
+            output.writeInt(branches.size());
+            for(Branch branch : branches){
+                branch.saveState(output);
+            }
+            ledger.saveState(output);
+
+            // Each alert state is written as a block, so that a variant simulation can skip changed alerts
+            List<Long> alertIDs = new ArrayList<>(alerts.keySet());
+            Collections.sort(alertIDs);
+            output.writeInt(alertIDs.size());
+            ByteArrayOutputStream alertBytes = new ByteArrayOutputStream();
+            DataOutputStream alertOutput = new DataOutputStream(alertBytes);
+            for(long alertID : alertIDs){
+                Alert alert = alerts.get(alertID);
+                alertBytes.reset();
+                alert.getModel().saveState(alertOutput);
+                alertOutput.flush();
+                output.writeLong(alertID);
+                output.writeUTF(alert.getModel().getModelName());
+                output.writeInt(alertBytes.size());
+                alertBytes.writeTo(output);
+            }
+        }
+    }
+
+    /**
+     * Restore the simulation state from a checkpoint file
+     * Accounts, branches and alerts must be initialized before calling this method.
+     * @param fileName Checkpoint file name
+     * @param accounts All accounts ordered by the account index
+     * @param branches All branches ordered by the branch ID
+     * @param ledger Empty branch ledger of the simulation without partitions
+     * @param alerts Alert ID --> Alert object
+     * @param txs Transaction repository
+     * @return Checkpoint object with the simulation step and random number generator states
+     * @throws IOException if an I/O error occurs or the checkpoint does not match the accounts
+     */
+    static Checkpoint load(String fileName, List<Account> accounts, List<Branch> branches, BranchLedger ledger,
+                           Map<Long, Alert> alerts, TransactionRepository txs) throws IOException{
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(fileName))))){
+            if(input.readInt() != MAGIC){
+                throw new IOException("Not a checkpoint file: " + fileName);
+            }
+            int version = input.readInt();
+            if(version != VERSION){
+                throw new IOException("Unsupported checkpoint version: " + version);
+            }
+            long step = input.readLong();
+
+            byte[] randomBytes = new byte[input.readInt()];
+            input.readFully(randomBytes);
+            Random random = readRandom(randomBytes);
+            long[] randomStates = null;
+            int numStates = input.readInt();
+            if(numStates >= 0){
+                randomStates = new long[numStates];
+                for(int i=0; i<numStates; i++){
+                    randomStates[i] = input.readLong();
+                }
+            }
+
+            txs.loadState(input);
+
+            int numAccounts = input.readInt();
+            if(numAccounts != accounts.size()){
+                throw new IOException("The number of accounts does not match the checkpoint: "
+                        + accounts.size() + " != " + numAccounts);
+            }
+            for(Account account : accounts){
+                String id = input.readUTF();
+                if(!id.equals(account.getID())){
+                    throw new IOException("Account " + account.getID() + " does not match the checkpoint: " + id);
+                }
+                account.loadState(input, accounts);
+            }
+
+            int numBranches = input.readInt();
+            if(numBranches != branches.size()){
+                throw new IOException("The number of branches does not match the checkpoint: "
+                        + branches.size() + " != " + numBranches);
+            }
+            for(Branch branch : branches){
+                branch.loadState(input);
+            }
+            ledger.loadState(input, branches);
+
+            int numAlerts = input.readInt();
+            int numRestored = 0;
+            for(int i=0; i<numAlerts; i++){
+                long alertID = input.readLong();
+                String modelName = input.readUTF();
+                byte[] alertBytes = new byte[input.readInt()];
+                input.readFully(alertBytes);
+                Alert alert = alerts.get(alertID);
+                if(alert != null && alert.getModel().getModelName().equals(modelName)){
+                    alert.getModel().loadState(new DataInputStream(new ByteArrayInputStream(alertBytes)), accounts);
+                    numRestored++;
+                }
+            }
+            AMLSim.getLogger().info("Resumed from the checkpoint " + fileName + " at step " + step + ": "
+                    + numRestored + " of " + alerts.size() + " alerts restored");
+            return new Checkpoint(step, random, randomStates);
+        }
+    }
+
+    private static Random readRandom(byte[] bytes) throws IOException{
+        try(ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes)){
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException{
+                if(!desc.getName().equals(Random.class.getName())){  // Accept only the random number generator
+                    throw new InvalidClassException(desc.getName(), "Unexpected class in the checkpoint");
+                }
+                return super.resolveClass(desc);
+            }
+        }){
+            return (Random)ois.readObject();
+        }catch (ClassNotFoundException e){
+            throw new IOException("Invalid random number generator in the checkpoint", e);
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package amlsim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Conservative parallel simulation engine
+ * Accounts are split into partitions, and each partition runs over a window of steps without a barrier at each step.
+ * Accounts interact only through the account balances, the transaction log and the transaction network.
+ * Transactions are buffered as timestamped records and committed in the order of (step, account index)
+ * at the end of each window, so the balances and the log do not depend on the number of partitions.
+ * A window never contains a step after the first step where an account may change the transaction network
+ * (e.g. mutual model), and such a step runs as a single-step window (the lookahead of the partitions).
+ * With temporal blocking, accounts which depend only on their own state run several consecutive steps in one go,
+ * and their transactions are merged back into the order of (step, account index) before the commit.
+ * Cash transactions of each partition run from its cash schedule after all accounts of each step
+ * with a random stream of each account separate from the account stream, and they are committed
+ * after the other transactions of the step.
+ */
+class ConservativeEngine {
+
+    private final List<Account> accounts;
+    private final int[] actors;  // Indices of accounts which this engine runs
+    private final List<Account> syncAccounts = new ArrayList<>();  // Accounts which may change the transaction network
+    private final int numPartitions;
+    private final int maxWindow;
+    private final int[] bounds;  // Partition i has actors [bounds[i], bounds[i+1])
+    private final boolean[] blockable;  // Whether each actor can run in temporal blocks
+    private int blockSize = 1;  // Number of steps in a temporal block (1: disabled)
+    private final long[] randomStates;  // Random stream state of each account (and of its cash models)
+    private final CashSchedule[] cashSchedules;  // Cash transactions of each partition
+    protected final StepContext[] contexts;
+    private final int[] cursors;  // Commit position of each partition buffer
+    private final ExecutorService executor;
+
+    /**
+     * Create a conservative engine
+     * @param accounts All accounts ordered by the account index
+     * @param seed Seed of randomness
+     * @param numPartitions Number of partitions
+     * @param maxWindow Maximum number of steps in a window
+     */
+    ConservativeEngine(List<Account> accounts, long seed, int numPartitions, int maxWindow){
+        this(accounts, allIndices(accounts.size()), seed, numPartitions, maxWindow);
+    }
+
+    /**
+     * Create a conservative engine which runs only a part of the accounts
+     * @param accounts All accounts ordered by the account index
+     * @param actors Ascending indices of accounts to be run by this engine
+     * @param seed Seed of randomness
+     * @param numPartitions Number of partitions
+     * @param maxWindow Maximum number of steps in a window
+     */
+    ConservativeEngine(List<Account> accounts, int[] actors, long seed, int numPartitions, int maxWindow){
+        if(numPartitions <= 0){
+            throw new IllegalArgumentException("The number of partitions must be positive: " + numPartitions);
+        }
+        if(maxWindow <= 0){
+            throw new IllegalArgumentException("The maximum window size must be positive: " + maxWindow);
+        }
+        this.accounts = accounts;
+        this.actors = actors;
+        this.numPartitions = Math.max(1, Math.min(numPartitions, actors.length));
+        this.maxWindow = maxWindow;
+
+        int numActors = actors.length;
+        this.bounds = new int[this.numPartitions + 1];
+        for(int i=0; i<=this.numPartitions; i++){
+            bounds[i] = (int)((long)numActors * i / this.numPartitions);
+        }
+        this.randomStates = StreamRandom.createStates(seed, accounts.size() * 2);
+        this.contexts = new StepContext[this.numPartitions];
+        this.cashSchedules = new CashSchedule[this.numPartitions];
+        for(int i=0; i<this.numPartitions; i++){
+            contexts[i] = new StepContext();
+            cashSchedules[i] = new CashSchedule(accounts, AMLSim.getNumOfSteps());
+            for(int j = bounds[i]; j < bounds[i + 1]; j++){
+                cashSchedules[i].add(accounts.get(actors[j]), 0);  // Restored cash models keep their next steps
+            }
+        }
+        this.cursors = new int[this.numPartitions];
+        this.executor = Executors.newFixedThreadPool(this.numPartitions);
+
+        this.blockable = new boolean[numActors];
+        for(int i=0; i<numActors; i++){
+            Account account = accounts.get(actors[i]);
+            if(account.getNextSyncStep(0) != Long.MAX_VALUE){
+                syncAccounts.add(account);
+            }
+            blockable[i] = account.canRunInBlocks();
+        }
+        AMLSim.getLogger().info("Conservative engine: " + this.numPartitions + " partitions, "
+                + syncAccounts.size() + " accounts with synchronization steps");
+    }
+
+    private static int[] allIndices(int size){
+        int[] indices = new int[size];
+        for(int i=0; i<size; i++){
+            indices[i] = i;
+        }
+        return indices;
+    }
+
+    /**
+     * Set the number of steps which an account runs in one go (temporal blocking)
+     * @param blockSize Number of steps in a temporal block (1: run all accounts step by step)
+     */
+    void setBlockSize(int blockSize){
+        if(blockSize <= 0){
+            throw new IllegalArgumentException("The temporal block size must be positive: " + blockSize);
+        }
+        this.blockSize = blockSize;
+        if(blockSize > 1){
+            int numBlockable = 0;
+            for(boolean b : blockable){
+                if(b) numBlockable++;
+            }
+            AMLSim.getLogger().info("Temporal blocking: " + blockSize + " steps, "
+                    + numBlockable + " of " + actors.length + " accounts");
+        }
+    }
+
+    /**
+     * Get the random stream states of all accounts (e.g. to save a checkpoint)
+     * @return Random stream states ordered by the account index, followed by the streams of their cash models
+     */
+    long[] getRandomStates(){
+        return randomStates.clone();
+    }
+
+    /**
+     * Restore the random stream states of all accounts (e.g. from a checkpoint)
+     * @param states Random stream states ordered by the account index, followed by the streams of their cash models
+     */
+    void setRandomStates(long[] states){
+        if(states.length != randomStates.length){
+            throw new IllegalArgumentException("The number of random streams does not match: "
+                    + states.length + " != " + randomStates.length);
+        }
+        System.arraycopy(states, 0, randomStates, 0, states.length);
+    }
+
+    /**
+     * Get the next step where an account of this engine may change the transaction network
+     * @param step Current simulation step
+     * @return The next synchronization step, or Long.MAX_VALUE if there are no such steps
+     */
+    long getNextSyncStep(long step){
+        long syncStep = Long.MAX_VALUE;
+        for(Account account : syncAccounts){
+            syncStep = Math.min(syncStep, account.getNextSyncStep(step));
+            if(syncStep == step){
+                break;
+            }
+        }
+        return syncStep;
+    }
+
+    /**
+     * Get the end of the next window
+     * @param step The first step of the window
+     * @param limit The maximum end step (exclusive)
+     * @return The end step of the window (exclusive)
+     */
+    long getWindowEnd(long step, long limit){
+        return getWindowEnd(step, limit, getNextSyncStep(step), maxWindow);
+    }
+
+    /**
+     * Get the end of the next window
+     * @param step The first step of the window
+     * @param limit The maximum end step (exclusive)
+     * @param syncStep The next synchronization step
+     * @param maxWindow Maximum number of steps in a window
+     * @return The end step of the window (exclusive)
+     */
+    static long getWindowEnd(long step, long limit, long syncStep, int maxWindow){
+        long end = Math.min(limit, step + maxWindow);
+        if(syncStep == step){
+            return Math.min(end, step + 1);
+        }
+        return Math.min(end, syncStep);
+    }
+
+    /**
+     * Run all partitions over the window and commit the transactions
+     * @param begin The first step of the window
+     * @param end The end step of the window (exclusive)
+     */
+    void runWindow(long begin, long end){
+        execute(begin, end);
+        commit(begin, end);
+    }
+
+    /**
+     * Run all partitions over the window without committing the transactions
+     * @param begin The first step of the window
+     * @param end The end step of the window (exclusive)
+     */
+    void execute(final long begin, final long end){
+        List<Future<?>> futures = new ArrayList<>(numPartitions);
+        for(int i=0; i<numPartitions; i++){
+            final int partition = i;
+            futures.add(executor.submit(() -> runPartition(partition, begin, end)));
+        }
+        for(Future<?> future : futures){
+            try{
+                future.get();
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Simulation was interrupted", e);
+            }catch (ExecutionException e){
+                throw new IllegalStateException("Simulation failed at steps " + begin + "-" + end, e.getCause());
+            }
+        }
+    }
+
+    private void runPartition(int partition, long begin, long end){
+        StepContext context = contexts[partition];
+        StepContext.set(context);
+        try{
+            if(blockSize <= 1){
+                runSteps(context, partition, begin, end, false);
+                return;
+            }
+            TransactionBuffer buffer = context.getTransactions();
+            for(long blockBegin = begin; blockBegin < end; blockBegin += blockSize){
+                long blockEnd = Math.min(end, blockBegin + blockSize);
+                int from = buffer.size();
+                runBlock(context, partition, blockBegin, blockEnd);
+                int mid = buffer.size();
+                runSteps(context, partition, blockBegin, blockEnd, true);
+                buffer.mergeBlock(from, mid, buffer.size(), blockBegin, blockEnd);
+            }
+        }finally{
+            StepContext.clear();
+        }
+    }
+
+    /**
+     * Run the accounts of a partition step by step
+     * @param context Context of the partition
+     * @param partition Partition index
+     * @param begin The first step
+     * @param end The end step (exclusive)
+     * @param skipBlockable If true, accounts which can run in temporal blocks are skipped
+     */
+    private void runSteps(StepContext context, int partition, long begin, long end, boolean skipBlockable){
+        for(long step = begin; step < end; step++){
+            for(int i = bounds[partition]; i < bounds[partition + 1]; i++){
+                if(skipBlockable && blockable[i]){
+                    continue;
+                }
+                int actor = actors[i];
+                context.begin(actor, randomStates);
+                try{
+                    accounts.get(actor).step(step);
+                }finally{
+                    context.end();
+                }
+            }
+            cashSchedules[partition].run(step, context, randomStates);
+        }
+    }
+
+    /**
+     * Run each account of a partition which can run in temporal blocks over all steps of a block
+     * @param context Context of the partition
+     * @param partition Partition index
+     * @param begin The first step of the block
+     * @param end The end step of the block (exclusive)
+     */
+    private void runBlock(StepContext context, int partition, long begin, long end){
+        for(int i = bounds[partition]; i < bounds[partition + 1]; i++){
+            if(!blockable[i]){
+                continue;
+            }
+            int actor = actors[i];
+            Account account = accounts.get(actor);
+            context.begin(actor, randomStates);
+            try{
+                for(long step = begin; step < end; step++){
+                    account.step(step);
+                }
+            }finally{
+                context.end();
+            }
+        }
+    }
+
+    /**
+     * Commit buffered transactions in the order of (step, account index), reconcile the branch ledgers
+     * and apply the changes of the network
+     * @param begin The first step of the window
+     * @param end The end step of the window (exclusive)
+     */
+    void commit(long begin, long end){
+        commitTransactions(begin, end);
+        finishCommit();
+    }
+
+    /**
+     * Commit buffered transactions in the order of (step, account index) without clearing the buffers
+     * @param begin The first step of the window
+     * @param end The end step of the window (exclusive)
+     */
+    protected void commitTransactions(long begin, long end){
+        for(int i=0; i<numPartitions; i++){
+            cursors[i] = 0;
+        }
+        for(long step = begin; step < end; step++){
+            commitStep(step, accounts.size());  // Transactions of the accounts
+            commitStep(step, Integer.MAX_VALUE);  // Cash transactions (actor: number of accounts + account index)
+        }
+    }
+
+    /**
+     * Clear the transaction buffers, reconcile the branch ledgers and apply the changes of the network
+     */
+    protected void finishCommit(){
+        for(StepContext context : contexts){
+            context.getTransactions().clear();
+            context.getLedger().reconcile();
+        }
+        commitEdges();
+    }
+
+    /**
+     * Commit the buffered transactions of a step from all partitions until the actor limit
+     * @param step Simulation step
+     * @param actorLimit The end of the actor indices to be committed (exclusive)
+     */
+    private void commitStep(long step, int actorLimit){
+        for(int i=0; i<numPartitions; i++){
+            TransactionBuffer buffer = contexts[i].getTransactions();
+            int size = buffer.size();
+            int j = cursors[i];
+            while(j < size && buffer.getStep(j) == step && buffer.getActor(j) < actorLimit){
+                commitTransaction(buffer, j);
+                j++;
+            }
+            cursors[i] = j;
+        }
+    }
+
+    /**
+     * Commit a buffered transaction
+     * @param buffer Transaction buffer of a partition
+     * @param i Index of the transaction in the buffer
+     */
+    protected void commitTransaction(TransactionBuffer buffer, int i){
+        buffer.commit(i);
+    }
+
+    /**
+     * Apply the deferred changes of the transaction network in the order of the account index
+     */
+    protected void commitEdges(){
+        for(StepContext context : contexts){
+            context.applyEdges();
+        }
+    }
+
+    void shutdown(){
+        executor.shutdown();
+    }
+}
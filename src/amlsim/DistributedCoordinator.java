@@ -0,0 +1,531 @@
+package amlsim;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Coordinator of the distributed engine
+ * Accounts are assigned to worker processes on this host by their bank IDs.
+ * The coordinator advances windows of steps, and receives only the transactions and the transaction edges between
+ * accounts of different workers through loopback sockets. It forwards each transaction in the order of
+ * (step, account index) only to the workers owning its accounts, and routes their balances back to the worker
+ * which generated the transaction. Each edge goes to the worker owning the beneficiary account
+ * and to the workers whose random typologies walk through the originator account.
+ * Finally, it merges the transaction log partitions written by the workers by the keys of the global order.
+ * The output is identical to the conservative engine with the same seed.
+ */
+class DistributedCoordinator {
+
+    static final String WORKER_PROPERTY = "amlsim.worker";  // System property of the worker ID
+    static final String PORT_PROPERTY = "amlsim.coordinator.port";  // System property of the coordinator port
+
+    static final byte RUN = 1;
+    static final byte FINISH = 2;
+
+    private static final Logger logger = AMLSim.getLogger();
+
+    private SimProperties simProp;
+    private String[] args;  // Command line arguments passed to the workers
+    private int numWorkers;
+    private int[] owners;  // Account index --> Worker ID
+
+    private Process[] processes;
+    private DataInputStream[] ins;
+    private DataOutputStream[] outs;
+    private BitSet[] subscriptions;  // Worker ID --> Accounts of the other workers which its random typologies walk through
+
+    // Buffers of each worker reused over the windows
+    private RemoteTransactions[] received;  // Transactions with the other workers generated by the worker
+    private RemoteTransactions[] forwarded;  // Transactions of the other workers with the accounts of the worker
+    private float[][] balances;  // Position of a received transaction * 4 --> Balances of the originator and beneficiary
+    private IntArrayList[] receivedEdges;  // Actor, originator and beneficiary of the edges added by the worker
+    private IntArrayList[] forwardedEdges;
+
+    DistributedCoordinator(SimProperties simProp, String[] args){
+        this.simProp = simProp;
+        this.args = args;
+        this.numWorkers = simProp.getNumWorkers();
+        if(numWorkers <= 0){
+            throw new IllegalArgumentException("The number of workers must be positive: " + numWorkers);
+        }
+    }
+
+    /**
+     * Assign banks to workers (sorted bank IDs are assigned to workers in round-robin)
+     * @param accountFile Account list CSV file
+     * @param numWorkers Number of workers
+     * @return Bank IDs of each worker
+     * @throws IOException if the file cannot be loaded
+     */
+    static List<Set<String>> assignBanks(String accountFile, int numWorkers) throws IOException{
+        SortedSet<String> bankIDs = loadBankIDs(accountFile, new TreeSet<>());
+        if(bankIDs.size() < numWorkers){
+            logger.warning("Number of banks " + bankIDs.size() + " is less than the number of workers " + numWorkers);
+        }
+        List<Set<String>> banks = new ArrayList<>(numWorkers);
+        for(int i=0; i<numWorkers; i++){
+            banks.add(new HashSet<>());
+        }
+        int i = 0;
+        for(String bankID : bankIDs){
+            banks.get(i++ % numWorkers).add(bankID);
+        }
+        return banks;
+    }
+
+    /**
+     * Load the bank IDs of the account list
+     * @param accountFile Account list CSV file
+     * @param bankIDs Collection of the bank IDs in the order of the accounts (output)
+     * @return The given collection
+     * @throws IOException if the file cannot be loaded
+     */
+    private static <T extends Collection<String>> T loadBankIDs(String accountFile, T bankIDs) throws IOException{
+        try(BufferedReader reader = new BufferedReader(new FileReader(accountFile))){
+            String line = reader.readLine();
+            int bankColumn = Arrays.asList(line.split(",")).indexOf("BANK_ID");
+            while((line = reader.readLine()) != null){
+                bankIDs.add(line.split(",")[bankColumn]);
+            }
+        }
+        return bankIDs;
+    }
+
+    /**
+     * Get the worker ID of each account
+     * @param accountFile Account list CSV file
+     * @return Worker ID of each account ordered by the account index
+     * @throws IOException if the file cannot be loaded
+     */
+    private int[] loadOwners(String accountFile) throws IOException{
+        Map<String, Integer> bankWorkers = new HashMap<>();
+        List<Set<String>> banks = assignBanks(accountFile, numWorkers);
+        for(int i=0; i<numWorkers; i++){
+            for(String bankID : banks.get(i)){
+                bankWorkers.put(bankID, i);
+            }
+        }
+        List<String> bankIDs = loadBankIDs(accountFile, new ArrayList<>());
+        int[] owners = new int[bankIDs.size()];
+        for(int i=0; i<owners.length; i++){
+            owners[i] = bankWorkers.get(bankIDs.get(i));
+        }
+        return owners;
+    }
+
+    /**
+     * Run the distributed simulation
+     */
+    void run() throws IOException{
+        long numOfSteps = simProp.getSteps();
+        int maxWindow = simProp.getMaxWindow();
+        String txLogFile = simProp.getOutputTxLogFile();
+        if(simProp.isComputeDiameter()){
+            logger.warning("Transaction graph diameter computation is not supported by the distributed engine");
+        }
+
+        File dir = new File(simProp.getOutputDir());
+        if(!dir.exists() && !dir.mkdir()){
+            throw new IllegalStateException("Output log directory cannot be created to: " + dir);
+        }
+        owners = loadOwners(simProp.getInputAcctFile());
+        logger.info("Distributed engine: " + numWorkers + " workers, " + owners.length + " accounts");
+
+        long begin = System.currentTimeMillis();
+        ServerSocket server = new ServerSocket(0, numWorkers, InetAddress.getLoopbackAddress());
+        try{
+            startWorkers(server.getLocalPort());
+            long[] syncSteps = connectWorkers(server);
+            System.out.println("Starting " + numWorkers + " workers for " + numOfSteps + " steps");
+
+            long step = 0;
+            while(step < numOfSteps){
+                long syncStep = Long.MAX_VALUE;
+                for(long s : syncSteps){
+                    syncStep = Math.min(syncStep, s);
+                }
+                long end = ConservativeEngine.getWindowEnd(step, numOfSteps, syncStep, maxWindow);
+                for(DataOutputStream out : outs){
+                    out.writeByte(RUN);
+                    out.writeLong(step);
+                    out.writeLong(end);
+                    out.flush();
+                }
+                exchangeTransactions();
+                for(int i=0; i<numWorkers; i++){
+                    syncSteps[i] = ins[i].readLong();
+                }
+
+                for(; step < end; step++){
+                    if (step % 100 == 0 && step != 0) {
+                        long tm = System.currentTimeMillis();
+                        System.out.println("Time Step " + step + ", " + (tm - begin)/1000 + " [s]");
+                    }
+                    else {
+                        System.out.print("*");
+                    }
+                }
+            }
+            for(DataOutputStream out : outs){
+                out.writeByte(FINISH);
+                out.flush();
+            }
+            waitWorkers();
+            System.out.println(" - Finished running " + step + " steps ");
+        }finally{
+            server.close();
+            if(processes != null){
+                for(Process process : processes){
+                    if(process != null && process.isAlive()){
+                        process.destroy();
+                    }
+                }
+            }
+        }
+
+        mergeLogs(txLogFile, numOfSteps);
+        long end = System.currentTimeMillis();
+        System.out.println("\nIt took: " + (end - begin) / 1000.0 + " seconds to execute the simulation\n");
+    }
+
+    private void startWorkers(int port) throws IOException{
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String workerHeap = simProp.getWorkerHeap();
+        String simName = System.getProperty("simulation_name");
+        processes = new Process[numWorkers];
+        for(int i=0; i<numWorkers; i++){
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            if(!workerHeap.isEmpty()){
+                command.add("-Xmx" + workerHeap);
+            }
+            command.add("-D" + WORKER_PROPERTY + "=" + i);
+            command.add("-D" + PORT_PROPERTY + "=" + port);
+            if(simName != null){
+                command.add("-Dsimulation_name=" + simName);
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(AMLSim.class.getName());
+            command.addAll(Arrays.asList(args));
+
+            File workerLog = new File(simProp.getOutputDir() + "worker" + i + ".log");
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(workerLog);
+            processes[i] = builder.start();
+            logger.info("Started worker " + i + " (log: " + workerLog + ")");
+        }
+    }
+
+    /**
+     * Accept connections from all workers, and send each worker its accounts which the other workers walk through
+     * @return The first synchronization step of each worker
+     */
+    private long[] connectWorkers(ServerSocket server) throws IOException{
+        ins = new DataInputStream[numWorkers];
+        outs = new DataOutputStream[numWorkers];
+        subscriptions = new BitSet[numWorkers];
+        long[] syncSteps = new long[numWorkers];
+        server.setSoTimeout(1000);
+        int numConnected = 0;
+        while(numConnected < numWorkers){
+            Socket socket;
+            try{
+                socket = server.accept();
+            }catch (SocketTimeoutException e){  // Workers may be loading the transaction network
+                for(int i=0; i<numWorkers; i++){
+                    if(!processes[i].isAlive()){
+                        throw new IllegalStateException("Worker " + i + " exited with code " + processes[i].exitValue());
+                    }
+                }
+                continue;
+            }
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            int workerID = in.readInt();
+            if(workerID < 0 || workerID >= numWorkers || ins[workerID] != null){
+                throw new IllegalStateException("Invalid worker ID: " + workerID);
+            }
+            ins[workerID] = in;
+            outs[workerID] = out;
+            syncSteps[workerID] = in.readLong();
+            subscriptions[workerID] = new BitSet();
+            int numWalked = in.readInt();
+            for(int i=0; i<numWalked; i++){
+                subscriptions[workerID].set(in.readInt());
+            }
+            numConnected++;
+        }
+
+        BitSet subscribed = new BitSet();
+        for(BitSet walked : subscriptions){
+            subscribed.or(walked);
+        }
+        received = new RemoteTransactions[numWorkers];
+        forwarded = new RemoteTransactions[numWorkers];
+        balances = new float[numWorkers][];
+        receivedEdges = new IntArrayList[numWorkers];
+        forwardedEdges = new IntArrayList[numWorkers];
+        for(int w=0; w<numWorkers; w++){
+            received[w] = new RemoteTransactions();
+            forwarded[w] = new RemoteTransactions();
+            balances[w] = new float[1024];
+            receivedEdges[w] = new IntArrayList();
+            forwardedEdges[w] = new IntArrayList();
+
+            int numSubscribed = 0;
+            for(int i = subscribed.nextSetBit(0); i >= 0; i = subscribed.nextSetBit(i + 1)){
+                if(owners[i] == w){
+                    numSubscribed++;
+                }
+            }
+            DataOutputStream out = outs[w];
+            out.writeInt(numSubscribed);
+            for(int i = subscribed.nextSetBit(0); i >= 0; i = subscribed.nextSetBit(i + 1)){
+                if(owners[i] == w){
+                    out.writeInt(i);
+                }
+            }
+            out.flush();
+        }
+        return syncSteps;
+    }
+
+    private void waitWorkers(){
+        for(int i=0; i<numWorkers; i++){
+            try{
+                int code = processes[i].waitFor();
+                if(code != 0){
+                    throw new IllegalStateException("Worker " + i + " exited with code " + code);
+                }
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the workers", e);
+            }
+        }
+    }
+
+    /**
+     * Route the transactions and the transaction edges of a window between the workers
+     * Each worker sends the transactions with the accounts of the other workers in the order of (step, account index),
+     * and the coordinator forwards them to the owners of the accounts in the same order.
+     * The owners reply the balances of their accounts in the forwarded order,
+     * and the balances go back to the worker which generated the transaction in its own order.
+     */
+    private void exchangeTransactions() throws IOException{
+        for(int w=0; w<numWorkers; w++){
+            DataInputStream in = ins[w];
+            received[w].clear();
+            received[w].read(in, w);
+            receivedEdges[w].clear();
+            int numEdges = in.readInt();
+            for(int i=0; i<numEdges * 3; i++){
+                receivedEdges[w].add(in.readInt());
+            }
+            forwarded[w].clear();
+            forwardedEdges[w].clear();
+            if(balances[w].length < received[w].size() * 4){
+                balances[w] = new float[received[w].size() * 8];
+            }
+        }
+        forwardTransactions();
+        forwardEdges();
+        for(int w=0; w<numWorkers; w++){
+            DataOutputStream out = outs[w];
+            forwarded[w].write(out);
+            IntArrayList edges = forwardedEdges[w];
+            out.writeInt(edges.size() / 3);
+            for(int i=0; i<edges.size(); i++){
+                out.writeInt(edges.getInt(i));
+            }
+            out.flush();
+        }
+
+        // Receive the balances of the own accounts of each worker in the forwarded order
+        for(int w=0; w<numWorkers; w++){
+            DataInputStream in = ins[w];
+            RemoteTransactions records = forwarded[w];
+            for(int k=0; k<records.size(); k++){
+                float[] values = balances[records.getSource(k)];
+                int position = records.getPosition(k) * 4;
+                if(owners[records.getOrig(k)] == w){
+                    values[position] = in.readFloat();
+                    values[position + 1] = in.readFloat();
+                }
+                if(owners[records.getBene(k)] == w){
+                    values[position + 2] = in.readFloat();
+                    values[position + 3] = in.readFloat();
+                }
+            }
+        }
+
+        // Send the balances of the accounts of the other workers to the worker which generated the transactions
+        for(int w=0; w<numWorkers; w++){
+            DataOutputStream out = outs[w];
+            RemoteTransactions records = received[w];
+            float[] values = balances[w];
+            for(int k=0; k<records.size(); k++){
+                if(owners[records.getOrig(k)] != w){
+                    out.writeFloat(values[k * 4]);
+                    out.writeFloat(values[k * 4 + 1]);
+                }
+                if(owners[records.getBene(k)] != w){
+                    out.writeFloat(values[k * 4 + 2]);
+                    out.writeFloat(values[k * 4 + 3]);
+                }
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Merge the received transactions in the order of (step, account index), and forward each of them
+     * to the workers owning the originator and/or beneficiary accounts except the worker which generated it
+     */
+    private void forwardTransactions(){
+        int[] cursors = new int[numWorkers];
+        while(true){
+            int next = -1;
+            for(int w=0; w<numWorkers; w++){
+                if(cursors[w] < received[w].size() && (next < 0
+                        || received[w].compare(cursors[w], received[next], cursors[next]) < 0)){
+                    next = w;
+                }
+            }
+            if(next < 0){
+                return;
+            }
+            int k = cursors[next]++;
+            int origOwner = owners[received[next].getOrig(k)];
+            int beneOwner = owners[received[next].getBene(k)];
+            if(origOwner != next){
+                forwarded[origOwner].add(received[next], k);
+            }
+            if(beneOwner != next && beneOwner != origOwner){
+                forwarded[beneOwner].add(received[next], k);
+            }
+        }
+    }
+
+    /**
+     * Merge the received transaction edges in the order of the actors, and forward each of them to the worker
+     * owning the beneficiary account and to the workers which walk through the originator account
+     */
+    private void forwardEdges(){
+        int[] cursors = new int[numWorkers];
+        while(true){
+            int next = -1;
+            for(int w=0; w<numWorkers; w++){
+                if(cursors[w] < receivedEdges[w].size() && (next < 0
+                        || receivedEdges[w].getInt(cursors[w]) < receivedEdges[next].getInt(cursors[next]))){
+                    next = w;
+                }
+            }
+            if(next < 0){
+                return;
+            }
+            int i = cursors[next];
+            cursors[next] += 3;
+            int orig = receivedEdges[next].getInt(i + 1);
+            int bene = receivedEdges[next].getInt(i + 2);
+            for(int w=0; w<numWorkers; w++){
+                if(w != next && (owners[bene] == w || subscriptions[w].get(orig))){
+                    forwardedEdges[w].addElements(forwardedEdges[w].size(), receivedEdges[next].elements(), i, 3);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge the transaction log partitions of the workers by the keys of the global order,
+     * and write the transaction log and counter log files
+     */
+    private void mergeLogs(String txLogFile, long numOfSteps) throws IOException{
+        TransactionRepository counter = new TransactionRepository(0);
+        int transactionLimit = simProp.getTransactionLimit();
+        if(transactionLimit > 0){
+            counter.setLimit(transactionLimit);
+        }
+
+        BufferedReader[] readers = new BufferedReader[numWorkers];
+        long[] keys = new long[numWorkers];
+        String[] lines = new String[numWorkers];
+        try(Closeable partitions = () -> closeReaders(readers)){
+            for(int i=0; i<numWorkers; i++){
+                readers[i] = new BufferedReader(new FileReader(DistributedWorker.getPartitionFile(txLogFile, i)));
+                readers[i].readLine();  // Skip the header
+                readNextLine(readers[i], keys, lines, i);
+            }
+
+            try(BufferedWriter writer = new BufferedWriter(new FileWriter(txLogFile))){
+                writer.write(AMLSim.TX_LOG_HEADER);
+                while(true){
+                    int next = -1;
+                    for(int i=0; i<numWorkers; i++){
+                        if(lines[i] != null && (next < 0 || keys[i] < keys[next])){
+                            next = i;
+                        }
+                    }
+                    if(next < 0){
+                        break;
+                    }
+                    String line = lines[next];
+                    String[] fields = line.split(",");  // step,type,...,isSAR,alertID
+                    if(counter.countTransaction(Long.parseLong(fields[0]), fields[1], fields[9].equals("1"))){
+                        writer.write(line);
+                        writer.write("\n");
+                    }
+                    readNextLine(readers[next], keys, lines, next);
+                }
+            }
+        }
+        for(int i=0; i<numWorkers; i++){
+            new File(DistributedWorker.getPartitionFile(txLogFile, i)).delete();
+        }
+        counter.writeCounterLog(numOfSteps, simProp.getCounterLogFile());
+        logger.info("Transaction log file: " + txLogFile);
+    }
+
+    /**
+     * Close the opened readers of the transaction log partitions
+     * @param readers Readers of the partitions (null if not opened)
+     * @throws IOException if a reader cannot be closed
+     */
+    private static void closeReaders(BufferedReader[] readers) throws IOException{
+        IOException error = null;
+        for(BufferedReader reader : readers){
+            if(reader == null){
+                continue;
+            }
+            try{
+                reader.close();
+            }catch(IOException e){
+                if(error == null){
+                    error = e;
+                }else{
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if(error != null){
+            throw error;
+        }
+    }
+
+    private static void readNextLine(BufferedReader reader, long[] keys, String[] lines, int i) throws IOException{
+        String line = reader.readLine();
+        if(line == null){
+            lines[i] = null;
+            return;
+        }
+        int pos = line.indexOf(',');
+        keys[i] = Long.parseLong(line.substring(0, pos));
+        lines[i] = line.substring(pos + 1);
+    }
+}
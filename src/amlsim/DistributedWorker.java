@@ -0,0 +1,375 @@
+package amlsim;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Worker process of the distributed engine
+ * Each worker loads only the accounts of the banks assigned to the worker and the accounts which they may transact with
+ * (passive counterparties), and runs only its own accounts.
+ * At the end of each window, the worker commits the transactions between its own accounts locally,
+ * and sends only the transactions with the accounts of the other workers to the coordinator.
+ * The coordinator forwards them to the workers owning the counterparties, and the balances of the counterparties
+ * come back in the same order. Each account is updated by the transactions in the order of (step, account index)
+ * only on the worker owning it.
+ * Each worker writes the transactions generated by its own accounts to a transaction log partition
+ * with the key of the order, so that the coordinator merges the partitions into the global order.
+ * Branches belong to no worker, and the cash of the branches is accumulated in the branch ledgers of each worker.
+ */
+class DistributedWorker extends ConservativeEngine {
+
+    private final int workerID = getWorkerID();
+    private final List<Account> accounts;
+    private final RecentTransfers recentTransfers;
+    private final BitSet owned;  // Accounts assigned to this worker
+    private final BitSet walked;  // Accounts of the other workers which the random typologies of this worker walk through
+    private final BitSet subscribed = new BitSet();  // Own accounts which the other workers walk through
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final BufferedWriter writer;  // Writer of the transaction log partition
+
+    // Committed transactions of the window in the order of (step, account index), and the balances of their accounts
+    private int numCommitted = 0;
+    private TransactionBuffer[] committedBuffers = new TransactionBuffer[1024];
+    private int[] committedIndices = new int[1024];
+    private float[] origBefore = new float[1024];
+    private float[] origAfter = new float[1024];
+    private float[] beneBefore = new float[1024];
+    private float[] beneAfter = new float[1024];
+
+    private final RemoteTransactions outgoing = new RemoteTransactions();  // Own transactions with the other workers
+    private final RemoteTransactions incoming = new RemoteTransactions();  // Transactions of the other workers
+
+    // Transaction edges added by the own accounts (actor, originator and beneficiary), and by the other workers
+    private final IntArrayList localEdges = new IntArrayList();
+    private final IntArrayList remoteEdges = new IntArrayList();
+
+    /**
+     * Get the worker ID of this process
+     * @return Worker ID, or -1 if this process is not a worker
+     */
+    static int getWorkerID(){
+        return Integer.getInteger(DistributedCoordinator.WORKER_PROPERTY, -1);
+    }
+
+    /**
+     * Get the transaction log partition file of a worker
+     * @param txLogFile Transaction log file name
+     * @param workerID Worker ID
+     * @return Transaction log partition file name
+     */
+    static String getPartitionFile(String txLogFile, int workerID){
+        return txLogFile + ".part" + workerID;
+    }
+
+    /**
+     * Create a worker and connect to the coordinator
+     * @param accounts Accounts ordered by the account index (null: not loaded by this worker)
+     * @param owned Accounts assigned to this worker
+     * @param walked Accounts of the other workers which the random typologies of this worker walk through
+     * @param actors Ascending indices of the accounts assigned to this worker
+     * @param seed Seed of randomness
+     * @param numPartitions Number of partitions (threads) in this worker
+     * @param maxWindow Maximum number of steps in a window
+     * @param logFile Transaction log partition file (the header is already written)
+     */
+    DistributedWorker(List<Account> accounts, BitSet owned, BitSet walked, int[] actors, long seed,
+                      int numPartitions, int maxWindow, String logFile) throws IOException{
+        super(accounts, actors, seed, numPartitions, maxWindow);
+        this.accounts = accounts;
+        this.recentTransfers = AMLSim.getRecentTransfers();
+        this.owned = owned;
+        this.walked = walked;
+
+        int port = Integer.getInteger(DistributedCoordinator.PORT_PROPERTY, -1);
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.writer = new BufferedWriter(new FileWriter(logFile, true));
+    }
+
+    /**
+     * Run windows of steps requested by the coordinator until it finishes the simulation
+     * @return Number of finished steps
+     */
+    long run() throws IOException{
+        out.writeInt(workerID);
+        out.writeLong(getNextSyncStep(0));
+        out.writeInt(walked.cardinality());
+        for(int i = walked.nextSetBit(0); i >= 0; i = walked.nextSetBit(i + 1)){
+            out.writeInt(i);
+        }
+        out.flush();
+        int numSubscribed = in.readInt();
+        for(int i=0; i<numSubscribed; i++){
+            subscribed.set(in.readInt());
+        }
+
+        long step = 0;
+        try{
+            while(in.readByte() == DistributedCoordinator.RUN){
+                long begin = in.readLong();
+                long end = in.readLong();
+                execute(begin, end);
+
+                numCommitted = 0;
+                outgoing.clear();
+                commitTransactions(begin, end);  // Record the order of the transactions instead of applying them
+                addLocalEdges();
+                outgoing.write(out);
+                writeEdges();
+                out.flush();
+
+                incoming.clear();
+                incoming.read(in, -1);
+                readEdges();
+                applyTransactions();
+                readRemoteBalances();
+                writeTransactions();
+                finishCommit();
+
+                step = end;
+                out.writeLong(getNextSyncStep(end));
+                out.flush();
+            }
+        }finally{
+            writer.close();
+            shutdown();
+        }
+        return step;
+    }
+
+    private boolean isOwned(Account account){
+        return account != null && owned.get(account.getIndex());
+    }
+
+    @Override
+    protected void commitTransaction(TransactionBuffer buffer, int i){
+        if(numCommitted == committedIndices.length){
+            int newSize = numCommitted * 2;
+            committedBuffers = Arrays.copyOf(committedBuffers, newSize);
+            committedIndices = Arrays.copyOf(committedIndices, newSize);
+            origBefore = Arrays.copyOf(origBefore, newSize);
+            origAfter = Arrays.copyOf(origAfter, newSize);
+            beneBefore = Arrays.copyOf(beneBefore, newSize);
+            beneAfter = Arrays.copyOf(beneAfter, newSize);
+        }
+        if(buffer.getBranch(i) == null && !(isOwned(buffer.getOrig(i)) && isOwned(buffer.getBene(i)))){
+            outgoing.add(buffer, i, workerID, numCommitted);
+        }
+        committedBuffers[numCommitted] = buffer;
+        committedIndices[numCommitted] = i;
+        numCommitted++;
+    }
+
+    /**
+     * Add the deferred transaction edges of the own accounts to their beneficiary lists in the order of the actors
+     * Whether an edge is added depends only on the originator account, which is the actor of the edge.
+     */
+    private void addLocalEdges(){
+        localEdges.clear();
+        for(StepContext context : contexts){
+            int size = context.getNumEdges();
+            for(int i=0; i<size; i++){
+                Account orig = context.getEdgeOrig(i);
+                Account bene = context.getEdgeBene(i);
+                if(orig.addBeneSide(bene, true)){
+                    localEdges.add(context.getEdgeActor(i));
+                    localEdges.add(orig.getIndex());
+                    localEdges.add(bene.getIndex());
+                }
+            }
+            context.clearEdges();
+        }
+    }
+
+    /**
+     * Send the added edges to the beneficiaries of the other workers or from the accounts which they walk through
+     */
+    private void writeEdges() throws IOException{
+        int numEdges = 0;
+        for(int i=0; i<localEdges.size(); i+=3){
+            if(!owned.get(localEdges.getInt(i + 2)) || subscribed.get(localEdges.getInt(i + 1))){
+                numEdges++;
+            }
+        }
+        out.writeInt(numEdges);
+        for(int i=0; i<localEdges.size(); i+=3){
+            if(!owned.get(localEdges.getInt(i + 2)) || subscribed.get(localEdges.getInt(i + 1))){
+                out.writeInt(localEdges.getInt(i));
+                out.writeInt(localEdges.getInt(i + 1));
+                out.writeInt(localEdges.getInt(i + 2));
+            }
+        }
+    }
+
+    private void readEdges() throws IOException{
+        remoteEdges.clear();
+        int numEdges = in.readInt();
+        for(int i=0; i<numEdges * 3; i++){
+            remoteEdges.add(in.readInt());
+        }
+    }
+
+    /**
+     * Update the balances of the own accounts with the own transactions and the transactions of the other workers
+     * in the order of (step, account index), and send the balances of the own accounts of the transactions
+     * of the other workers to the coordinator in the received order
+     */
+    private void applyTransactions() throws IOException{
+        int k = 0;
+        for(int j=0; j<numCommitted; j++){
+            TransactionBuffer buffer = committedBuffers[j];
+            int i = committedIndices[j];
+            for(; k < incoming.size() && compare(incoming, k, buffer, i) < 0; k++){
+                applyRemoteTransaction(k);
+            }
+            applyTransaction(buffer, i, j);
+        }
+        for(; k < incoming.size(); k++){
+            applyRemoteTransaction(k);
+        }
+        out.flush();
+    }
+
+    private static int compare(RemoteTransactions remote, int k, TransactionBuffer buffer, int i){
+        int c = Long.compare(remote.getStep(k), buffer.getStep(i));
+        return c != 0 ? c : Integer.compare(remote.getActor(k), buffer.getActor(i));
+    }
+
+    /**
+     * Apply an own transaction to the own accounts (the same as AMLSim.applyTransaction and applyCashTransaction)
+     * The balances of the branches are zero, and the balances of the accounts of the other workers come later.
+     */
+    private void applyTransaction(TransactionBuffer buffer, int i, int j){
+        float amount = buffer.getAmount(i);
+        Account orig = buffer.getOrig(i);
+        Account bene = buffer.getBene(i);
+        origBefore[j] = origAfter[j] = beneBefore[j] = beneAfter[j] = 0;
+        if(buffer.getBranch(i) != null){  // Cash-in withdraws from the account, and cash-out deposits to it
+            if(orig != null){
+                origBefore[j] = (float)orig.getBalance();
+                orig.withdraw(amount);
+                origAfter[j] = (float)orig.getBalance();
+            }else{
+                beneBefore[j] = (float)bene.getBalance();
+                bene.deposit(amount);
+                beneAfter[j] = (float)bene.getBalance();
+            }
+            return;
+        }
+        if(isOwned(orig)){
+            origBefore[j] = (float)orig.getBalance();
+            orig.withdraw(amount);
+            origAfter[j] = (float)orig.getBalance();
+        }
+        if(isOwned(bene)){
+            beneBefore[j] = (float)bene.getBalance();
+            bene.deposit(amount);
+            beneAfter[j] = (float)bene.getBalance();
+            recentTransfers.add(bene.getIndex(), orig.getIndex(), amount, buffer.getStep(i));
+        }
+    }
+
+    /**
+     * Apply a transaction of another worker to the own accounts, and send their balances
+     */
+    private void applyRemoteTransaction(int k) throws IOException{
+        float amount = incoming.getAmount(k);
+        int orig = incoming.getOrig(k);
+        int bene = incoming.getBene(k);
+        if(owned.get(orig)){
+            Account account = accounts.get(orig);
+            out.writeFloat((float)account.getBalance());
+            account.withdraw(amount);
+            out.writeFloat((float)account.getBalance());
+        }
+        if(owned.get(bene)){
+            Account account = accounts.get(bene);
+            out.writeFloat((float)account.getBalance());
+            account.deposit(amount);
+            out.writeFloat((float)account.getBalance());
+            recentTransfers.add(bene, orig, amount, incoming.getStep(k));
+        }
+    }
+
+    /**
+     * Receive the balances of the accounts of the other workers in the order of the own transactions with them
+     */
+    private void readRemoteBalances() throws IOException{
+        for(int k=0; k<outgoing.size(); k++){
+            int j = outgoing.getPosition(k);
+            if(!owned.get(outgoing.getOrig(k))){
+                origBefore[j] = in.readFloat();
+                origAfter[j] = in.readFloat();
+            }
+            if(!owned.get(outgoing.getBene(k))){
+                beneBefore[j] = in.readFloat();
+                beneAfter[j] = in.readFloat();
+            }
+        }
+    }
+
+    /**
+     * Write the own transactions with the key of the global order (step, account index)
+     * The cash transactions of the account index i have the actor index (number of accounts + i).
+     */
+    private void writeTransactions() throws IOException{
+        long numActors = accounts.size() * 2L;
+        for(int j=0; j<numCommitted; j++){
+            TransactionBuffer buffer = committedBuffers[j];
+            int i = committedIndices[j];
+            Account orig = buffer.getOrig(i);
+            Account bene = buffer.getBene(i);
+            Branch branch = buffer.getBranch(i);
+            String origID = orig != null ? orig.getID() : branch.getID();
+            String beneID = bene != null ? bene.getID() : branch.getID();
+            long key = buffer.getStep(i) * numActors + buffer.getActor(i);
+            writer.write(key + "," + TransactionRepository.toCSV(buffer.getStep(i), buffer.getDescription(i),
+                    buffer.getAmount(i), origID, origBefore[j], origAfter[j], beneID, beneBefore[j], beneAfter[j],
+                    buffer.isSAR(i), buffer.getAlertID(i)) + "\n");
+            committedBuffers[j] = null;
+        }
+    }
+
+    /**
+     * Add the transaction edges of all workers to the originator lists of the own beneficiary accounts,
+     * and to the beneficiary lists of the accounts of the other workers which this worker walks through,
+     * in the order of the actors
+     */
+    @Override
+    protected void commitEdges(){
+        int i = 0;
+        int j = 0;
+        while(i < localEdges.size() || j < remoteEdges.size()){
+            if(j >= remoteEdges.size() || i < localEdges.size() && localEdges.getInt(i) < remoteEdges.getInt(j)){
+                Account bene = accounts.get(localEdges.getInt(i + 2));
+                if(isOwned(bene)){
+                    bene.addOrigSide(accounts.get(localEdges.getInt(i + 1)));
+                }
+                i += 3;
+                continue;
+            }
+            int orig = remoteEdges.getInt(j + 1);
+            int bene = remoteEdges.getInt(j + 2);
+            if(accounts.get(orig) == null || accounts.get(bene) == null){
+                throw new IllegalStateException("Transaction edge between accounts out of the partition: "
+                        + orig + " -> " + bene);
+            }
+            if(owned.get(bene)){
+                accounts.get(bene).addOrigSide(accounts.get(orig));
+            }
+            if(walked.get(orig)){
+                accounts.get(orig).addBeneSide(accounts.get(bene), false);
+            }
+            j += 3;
+        }
+    }
+}
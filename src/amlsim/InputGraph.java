@@ -0,0 +1,708 @@
+package amlsim;
+
+import amlsim.model.AbstractTransactionModel;
+import amlsim.model.aml.AMLTypology;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Parsed contents of the input files (account list, transaction list and alert member list)
+ * This object is immutable after loading, so that multiple simulations can build their own accounts
+ * and alerts from the same input files without parsing them again.
+ * An alert subgraph holds only the accounts within a number of hops from the alert members
+ * and the accounts which the random typologies may walk through (actors),
+ * the accounts adjacent to them (passive counterparties) and the transactions from or to the actors.
+ * A partition of the distributed engine holds only the accounts of some banks (actors) and the accounts
+ * which they may transact with, and the accounts keep their indices in the whole account list.
+ */
+class InputGraph {
+
+    /**
+     * A row of the account list
+     */
+    static class AccountRow {
+        final String id;
+        final boolean isSAR;
+        final int modelID;
+        final float initBalance;
+        final int start;
+        final int end;
+        final String bankID;
+
+        AccountRow(String id, boolean isSAR, int modelID, float initBalance, int start, int end, String bankID){
+            this.id = id;
+            this.isSAR = isSAR;
+            this.modelID = modelID;
+            this.initBalance = initBalance;
+            this.start = start;
+            this.end = end;
+            this.bankID = bankID;
+        }
+    }
+
+    /**
+     * A row of the alert member list
+     */
+    static class AlertMemberRow {
+        final long alertID;
+        final int account;  // Account index
+        final boolean isMain;
+        final boolean isSAR;
+        final int modelID;
+        final float minAmount;
+        final float maxAmount;
+        final int startStep;
+        final int endStep;
+        final int scheduleID;
+
+        AlertMemberRow(long alertID, int account, boolean isMain, boolean isSAR, int modelID, float minAmount,
+                       float maxAmount, int startStep, int endStep, int scheduleID){
+            this.alertID = alertID;
+            this.account = account;
+            this.isMain = isMain;
+            this.isSAR = isSAR;
+            this.modelID = modelID;
+            this.minAmount = minAmount;
+            this.maxAmount = maxAmount;
+            this.startStep = startStep;
+            this.endStep = endStep;
+            this.scheduleID = scheduleID;
+        }
+    }
+
+    private final List<AccountRow> accounts = new ArrayList<>();
+    private final Map<String, Integer> idMap = new HashMap<>();  // Account ID --> Index
+    private int[] indices = null;  // Loaded account --> Index in the whole account list (null: the loaded order)
+    private int numIndices = 0;  // Number of accounts in the whole account list (partition)
+    private int numSkipped = 0;
+    private int[] skipped = null;  // Model ID, start and end steps of the accounts out of the partition in order
+    private int[] skippedBefore = null;  // Loaded account --> Number of the skipped accounts before it (partition)
+    private int numEdges = 0;
+    private int[] edgeSrcs = new int[1024];
+    private int[] edgeDsts = new int[1024];
+    private String[] edgeTypes = new String[1024];
+    private final List<AlertMemberRow> alertMembers = new ArrayList<>();
+    private BitSet actors = null;  // Indices of the accounts which run their models (null: all accounts)
+    private BitSet walked = new BitSet();  // Indices of the accounts on the walks from the actors (partition)
+    private Map<String, Double> typeFrequencies = null;  // Transaction type --> Number of all input transactions (alert subgraph)
+    private Set<Long> remoteAlerts = Collections.emptySet();  // Alerts without actors (partition)
+
+    /**
+     * Receiver of the rows of the transaction list
+     */
+    private interface EdgeVisitor {
+        void visit(String srcID, String dstID, String ttype);
+    }
+
+    /**
+     * Load the input files
+     * @param accountFile Account list CSV file
+     * @param transactionFile Transaction list CSV file
+     * @param alertMemberFile Alert member list CSV file
+     * @return Parsed input files
+     * @throws IOException if an input file cannot be loaded
+     */
+    static InputGraph load(String accountFile, String transactionFile, String alertMemberFile) throws IOException{
+        InputGraph graph = new InputGraph();
+        graph.loadAccountFile(accountFile, null);
+        graph.loadTransactionFile(transactionFile);
+        graph.loadAlertMemberFile(alertMemberFile);
+        return graph;
+    }
+
+    /**
+     * Load the subgraph of the input files within the given number of hops from the alert members
+     * Hops follow the transactions in both directions. The walks of the random typologies follow the transactions
+     * from the main accounts up to the number of members, so that their beneficiaries are the same as all accounts.
+     * The accounts on the walks which add the transactions to their originators during the simulation (mutual model)
+     * extend the walks to the originators, and their originators run as well (recursively for the originators
+     * with such models), so that the new beneficiaries come from the accounts in the subgraph.
+     * The transaction list is scanned once for each hop and once more for the transactions of the extracted accounts,
+     * so that only the account IDs of the frontiers and the rows of the subgraph are kept in memory.
+     * @param accountFile Account list CSV file
+     * @param transactionFile Transaction list CSV file
+     * @param alertMemberFile Alert member list CSV file
+     * @param hops Number of hops from the alert members (negative: load all accounts)
+     * @return Parsed input files of the subgraph
+     * @throws IOException if an input file cannot be loaded
+     */
+    static InputGraph load(String accountFile, String transactionFile, String alertMemberFile, int hops)
+            throws IOException{
+        if(hops < 0){
+            return load(accountFile, transactionFile, alertMemberFile);
+        }
+        Set<String> reached = new HashSet<>();  // Accounts within the hops
+        Map<String, Integer> walked = new HashMap<>();  // Account ID --> Remaining length of the random walks
+        loadAlertMembers(alertMemberFile, reached, walked);
+
+        // Breadth-first search from the alert members
+        Set<String> frontier = new HashSet<>(reached);
+        for(int hop=0; hop < hops && !frontier.isEmpty(); hop++){
+            final Set<String> current = frontier;
+            final Set<String> next = new HashSet<>();
+            scanTransactionFile(transactionFile, (srcID, dstID, ttype) -> {
+                if(current.contains(srcID) && !reached.contains(dstID)){
+                    next.add(dstID);
+                }
+                if(current.contains(dstID) && !reached.contains(srcID)){
+                    next.add(srcID);
+                }
+            });
+            reached.addAll(next);
+            frontier = next;
+        }
+        Set<String> mutualIDs = extendWalks(accountFile, transactionFile, walked);
+        Set<String> actorIDs = new HashSet<>(reached);
+        actorIDs.addAll(walked.keySet());
+        addOriginators(accountFile, transactionFile, mutualIDs, actorIDs);
+        if(!mutualIDs.isEmpty()){
+            AMLSim.getLogger().warning("Warning: " + mutualIDs.size() + " accounts on the walks of the random typologies"
+                    + " add beneficiaries from their incoming transactions: the walks may differ from the full simulation"
+                    + " because the normal transactions draw from a different random sequence");
+        }
+
+        // Transactions from or to the actors, and their counterparties
+        Set<String> accountIDs = new HashSet<>(actorIDs);
+        List<String[]> edges = new ArrayList<>();
+        Map<String, Double> frequencies = new LinkedHashMap<>();  // In the order of the first transactions
+        scanTransactionFile(transactionFile, (srcID, dstID, ttype) -> {
+            frequencies.merge(ttype, 1.0, Double::sum);
+            if(actorIDs.contains(srcID) || actorIDs.contains(dstID)){
+                accountIDs.add(srcID);
+                accountIDs.add(dstID);
+                edges.add(new String[]{srcID, dstID, ttype});
+            }
+        });
+
+        InputGraph graph = new InputGraph();
+        graph.loadAccountFile(accountFile, accountIDs);
+        graph.actors = new BitSet(graph.accounts.size());
+        for(String accountID : actorIDs){
+            graph.actors.set(graph.getIndex(accountID));
+        }
+        for(String[] edge : edges){
+            graph.addEdge(graph.getIndex(edge[0]), graph.getIndex(edge[1]), edge[2]);
+        }
+        graph.typeFrequencies = Collections.unmodifiableMap(frequencies);
+        graph.loadAlertMemberFile(alertMemberFile);
+        return graph;
+    }
+
+    /**
+     * Load the partition of the input files for a worker of the distributed engine
+     * The actors are the accounts of the given banks. The other accounts are loaded as passive counterparties
+     * if they are adjacent to the actors, members of the alerts with actors or on the walks of their random typologies.
+     * The transactions from or to the actors, from the members of the alerts and the originators of the actors
+     * (their transaction types) and from the accounts on the walks are loaded, so that the actors make the same
+     * transactions as the whole input files.
+     * The account list is scanned twice, and the transaction list is scanned once for each step of the walks
+     * and twice more for the originators and the transactions of the partition.
+     * @param accountFile Account list CSV file
+     * @param transactionFile Transaction list CSV file
+     * @param alertMemberFile Alert member list CSV file
+     * @param banks Bank IDs of the actors
+     * @return Parsed input files of the partition
+     * @throws IOException if an input file cannot be loaded
+     */
+    static InputGraph loadPartition(String accountFile, String transactionFile, String alertMemberFile,
+                                    Set<String> banks) throws IOException{
+        Set<String> actorIDs = new HashSet<>();
+        Set<String> fanInIDs = new HashSet<>();  // Actors which make the transactions from their originators
+        scanAccountFile(accountFile, (accountID, elements, columnIndex) -> {
+            if(banks.contains(elements[columnIndex.get("BANK_ID")])){
+                actorIDs.add(accountID);
+                if(AbstractTransactionModel.sendsFromOriginators(
+                        Integer.parseInt(elements[columnIndex.get("TX_BEHAVIOR_ID")]))){
+                    fanInIDs.add(accountID);
+                }
+            }
+        });
+
+        // Members of the alerts with actors, and the random walks from the main accounts of the actors
+        Set<Long> alertIDs = new HashSet<>();
+        Set<String> members = new HashSet<>();
+        Map<String, Integer> walked = new HashMap<>();  // Account ID --> Remaining length of the random walks
+        loadAlertMembers(alertMemberFile, actorIDs, alertIDs, members, walked);
+        Set<String> mutualIDs = extendWalks(accountFile, transactionFile, walked);
+
+        // Originators of the actors which make the transactions from them (their transaction types),
+        // including the beneficiaries which may add the transactions to the actors during the simulation
+        Set<String> origIDs = new HashSet<>();
+        scanTransactionFile(transactionFile, (srcID, dstID, ttype) -> {
+            if(fanInIDs.contains(dstID)){
+                origIDs.add(srcID);
+            }else if(fanInIDs.contains(srcID)){
+                origIDs.add(dstID);
+            }
+        });
+
+        // Transactions of the partition, and their counterparties
+        Set<String> accountIDs = new HashSet<>(actorIDs);
+        accountIDs.addAll(members);
+        accountIDs.addAll(walked.keySet());
+        List<String[]> edges = new ArrayList<>();
+        Map<String, Double> frequencies = new LinkedHashMap<>();  // In the order of the first transactions
+        scanTransactionFile(transactionFile, (srcID, dstID, ttype) -> {
+            frequencies.merge(ttype, 1.0, Double::sum);
+            if(actorIDs.contains(srcID) || actorIDs.contains(dstID) || walked.containsKey(srcID)
+                    || mutualIDs.contains(dstID) || members.contains(srcID) || origIDs.contains(srcID)){
+                accountIDs.add(srcID);
+                accountIDs.add(dstID);
+                edges.add(new String[]{srcID, dstID, ttype});
+            }
+        });
+
+        InputGraph graph = new InputGraph();
+        graph.indices = new int[accountIDs.size()];
+        graph.skipped = new int[1024];
+        graph.skippedBefore = new int[accountIDs.size() + 1];
+        graph.loadAccountFile(accountFile, accountIDs);
+        graph.actors = new BitSet(graph.accounts.size());
+        for(int i=0; i<graph.accounts.size(); i++){
+            String accountID = graph.accounts.get(i).id;
+            if(actorIDs.contains(accountID)){
+                graph.actors.set(i);
+            }else if(walked.containsKey(accountID)){
+                graph.walked.set(i);
+            }
+        }
+        for(String[] edge : edges){
+            graph.addEdge(graph.getIndex(edge[0]), graph.getIndex(edge[1]), edge[2]);
+        }
+        graph.typeFrequencies = Collections.unmodifiableMap(frequencies);
+        graph.remoteAlerts = new HashSet<>();
+        graph.loadAlertMemberFile(alertMemberFile, alertIDs);
+        return graph;
+    }
+
+    /**
+     * Extend the random walks by one step for each scan of the transaction list
+     * A walk continues to the beneficiaries of each account, and also to the originators of the accounts whose model
+     * adds the transactions to the originators during the simulation (e.g. mutual model).
+     * @param accountFile Account list CSV file
+     * @param transactionFile Transaction list CSV file
+     * @param walked Account ID --> Remaining length of the walks from the account (updated)
+     * @return IDs of the accounts on the walks which may add the transactions to their originators
+     * @throws IOException if an input file cannot be loaded
+     */
+    private static Set<String> extendWalks(String accountFile, String transactionFile, Map<String, Integer> walked)
+            throws IOException{
+        Set<String> mutualIDs = new HashSet<>();
+        Map<String, Integer> frontier = new HashMap<>(walked);
+        while(!frontier.isEmpty()){
+            final Map<String, Integer> current = frontier;
+            final Set<String> currentMutual = new HashSet<>();
+            scanAccountFile(accountFile, (accountID, elements, columnIndex) -> {
+                if(current.containsKey(accountID) && AbstractTransactionModel.addsOriginatorEdges(
+                        Integer.parseInt(elements[columnIndex.get("TX_BEHAVIOR_ID")]))){
+                    currentMutual.add(accountID);
+                }
+            });
+            mutualIDs.addAll(currentMutual);
+            final Map<String, Integer> next = new HashMap<>();
+            scanTransactionFile(transactionFile, (srcID, dstID, ttype) -> {
+                extendWalk(walked, next, dstID, current.getOrDefault(srcID, 0) - 1);
+                if(currentMutual.contains(dstID)){
+                    extendWalk(walked, next, srcID, current.get(dstID) - 1);
+                }
+            });
+            frontier = next;
+        }
+        return mutualIDs;
+    }
+
+    /**
+     * Add the originators of the accounts to the actors
+     * The originators which add the transactions to their own originators during the simulation (e.g. mutual model)
+     * also add their originators, so that the incoming transactions of the accounts come from the actors.
+     * @param accountFile Account list CSV file
+     * @param transactionFile Transaction list CSV file
+     * @param accountIDs IDs of the accounts whose originators run
+     * @param actorIDs IDs of the actors (updated)
+     * @throws IOException if an input file cannot be loaded
+     */
+    private static void addOriginators(String accountFile, String transactionFile, Set<String> accountIDs,
+                                       Set<String> actorIDs) throws IOException{
+        Set<String> visited = new HashSet<>(accountIDs);
+        Set<String> frontier = accountIDs;
+        while(!frontier.isEmpty()){
+            final Set<String> current = frontier;
+            final Set<String> added = new HashSet<>();
+            scanTransactionFile(transactionFile, (srcID, dstID, ttype) -> {
+                if(current.contains(dstID) && visited.add(srcID)){
+                    added.add(srcID);
+                }
+            });
+            actorIDs.addAll(added);
+            final Set<String> next = new HashSet<>();
+            if(!added.isEmpty()){
+                scanAccountFile(accountFile, (accountID, elements, columnIndex) -> {
+                    if(added.contains(accountID) && AbstractTransactionModel.addsOriginatorEdges(
+                            Integer.parseInt(elements[columnIndex.get("TX_BEHAVIOR_ID")]))){
+                        next.add(accountID);
+                    }
+                });
+            }
+            frontier = next;
+        }
+    }
+
+    private static void extendWalk(Map<String, Integer> walked, Map<String, Integer> next, String accountID,
+                                   int remaining){
+        if(remaining > 0 && walked.getOrDefault(accountID, 0) < remaining){
+            walked.put(accountID, remaining);
+            next.merge(accountID, remaining, Math::max);
+        }
+    }
+
+    private static Map<String, Integer> getColumnIndices(String header){
+        Map<String, Integer> columnIndex = new HashMap<>();
+        String[] element= header.split(",");
+        for(int i=0; i<element.length; i++){
+            columnIndex.put(element[i], i);
+        }
+        return columnIndex;
+    }
+
+    private int getIndex(String accountID){
+        Integer index = idMap.get(accountID);
+        if(index == null){
+            throw new IllegalArgumentException("Unknown account ID: " + accountID);
+        }
+        return index;
+    }
+
+    /**
+     * Receiver of the rows of the account list
+     */
+    private interface AccountVisitor {
+        void visit(String accountID, String[] elements, Map<String, Integer> columnIndex) throws IOException;
+    }
+
+    private static void scanAccountFile(String accountFile, AccountVisitor visitor) throws IOException{
+        try(BufferedReader reader = new BufferedReader(new FileReader(accountFile))){
+            String line = reader.readLine();
+            Map<String, Integer> columnIndex = getColumnIndices(line);
+            int idColumn = columnIndex.get("ACCOUNT_ID");
+            while((line = reader.readLine()) != null){
+                String[] elements = line.split(",");
+                visitor.visit(elements[idColumn], elements, columnIndex);
+            }
+        }
+    }
+
+    /**
+     * Load the account list
+     * @param accountFile Account list CSV file
+     * @param accountIDs Account IDs to be loaded (null: all accounts)
+     * @throws IOException if the file cannot be loaded
+     */
+    private void loadAccountFile(String accountFile, Set<String> accountIDs) throws IOException{
+        try(BufferedReader reader = new BufferedReader(new FileReader(accountFile))){
+            String line = reader.readLine();
+            AMLSim.getLogger().info("Account CSV header: " + line);
+            Map<String, Integer> columnIndex = getColumnIndices(line);
+
+            int row = 0;  // Index in the whole account list
+            for(; (line = reader.readLine()) != null; row++){
+                String[] elements = line.split(",");
+                String accountID = elements[columnIndex.get("ACCOUNT_ID")];
+                int modelID = Integer.parseInt(elements[columnIndex.get("TX_BEHAVIOR_ID")]);
+                int start = Integer.parseInt(elements[columnIndex.get("START_DATE")]);
+                int end = Integer.parseInt(elements[columnIndex.get("END_DATE")]);
+                if(accountIDs != null && !accountIDs.contains(accountID)){
+                    if(skipped != null){
+                        addSkipped(modelID, start, end);
+                    }
+                    continue;
+                }
+                boolean isSAR = elements[columnIndex.get("IS_SAR")].toLowerCase().equals("true");
+                float initBalance = Float.parseFloat(elements[columnIndex.get("INIT_BALANCE")]);
+                String bankID = elements[columnIndex.get("BANK_ID")];
+
+                if(indices != null){  // Partition: the accounts keep their indices in the whole list
+                    indices[accounts.size()] = row;
+                    skippedBefore[accounts.size()] = numSkipped;
+                }
+                idMap.put(accountID, indices != null ? row : accounts.size());
+                accounts.add(new AccountRow(accountID, isSAR, modelID, initBalance, start, end, bankID));
+            }
+            numIndices = indices != null ? row : accounts.size();
+            if(skippedBefore != null){
+                skippedBefore[accounts.size()] = numSkipped;
+            }
+        }
+    }
+
+    private void addSkipped(int modelID, int start, int end){
+        if(numSkipped * 3 + 3 > skipped.length){
+            skipped = Arrays.copyOf(skipped, skipped.length * 2);
+        }
+        skipped[numSkipped * 3] = modelID;
+        skipped[numSkipped * 3 + 1] = start;
+        skipped[numSkipped * 3 + 2] = end;
+        numSkipped++;
+    }
+
+    private void loadTransactionFile(String transactionFile) throws IOException{
+        Map<String, String> txTypes = new HashMap<>();  // Share the same transaction type strings
+        scanTransactionFile(transactionFile, (srcID, dstID, ttype) ->
+                addEdge(getIndex(srcID), getIndex(dstID), txTypes.computeIfAbsent(ttype, t -> t)));
+    }
+
+    private static void scanTransactionFile(String transactionFile, EdgeVisitor visitor) throws IOException{
+        try(BufferedReader reader = new BufferedReader(new FileReader(transactionFile))){
+            String line = reader.readLine();
+            Map<String, Integer> columnIndex = getColumnIndices(line);
+            int srcColumn = columnIndex.get("src");
+            int dstColumn = columnIndex.get("dst");
+            int typeColumn = columnIndex.get("ttype");
+            while((line = reader.readLine()) != null){
+                String[] elements = line.split(",");
+                visitor.visit(elements[srcColumn], elements[dstColumn], elements[typeColumn]);
+            }
+        }
+    }
+
+    private void addEdge(int src, int dst, String ttype){
+        if(numEdges == edgeSrcs.length){
+            int newSize = numEdges * 2;
+            edgeSrcs = Arrays.copyOf(edgeSrcs, newSize);
+            edgeDsts = Arrays.copyOf(edgeDsts, newSize);
+            edgeTypes = Arrays.copyOf(edgeTypes, newSize);
+        }
+        edgeSrcs[numEdges] = src;
+        edgeDsts[numEdges] = dst;
+        edgeTypes[numEdges] = ttype;
+        numEdges++;
+    }
+
+    /**
+     * Load the member accounts of all alerts and the walks of the random typologies
+     * @param alertFile Alert member list CSV file
+     * @param members Account IDs of the alert members (output)
+     * @param walks Main account ID --> Maximum length of the random walks from the account (output)
+     * @throws IOException if the file cannot be loaded
+     */
+    private static void loadAlertMembers(String alertFile, Set<String> members, Map<String, Integer> walks)
+            throws IOException{
+        loadAlertMembers(alertFile, null, new HashSet<>(), members, walks);
+    }
+
+    /**
+     * Load the member accounts of the alerts with actors and the walks of their random typologies
+     * @param alertFile Alert member list CSV file
+     * @param actorIDs Account IDs of the actors (null: all accounts)
+     * @param alertIDs IDs of the alerts with actors (output)
+     * @param members Account IDs of the members of the alerts (output)
+     * @param walks Main account ID --> Maximum length of the random walks from the actor (output)
+     * @throws IOException if the file cannot be loaded
+     */
+    private static void loadAlertMembers(String alertFile, Set<String> actorIDs, Set<Long> alertIDs,
+                                         Set<String> members, Map<String, Integer> walks) throws IOException{
+        Map<Long, List<String>> alertMembers = new LinkedHashMap<>();
+        Map<Long, Integer> numMembers = new HashMap<>();
+        Map<Long, String> mainAccounts = new HashMap<>();
+        Map<Long, Integer> modelIDs = new HashMap<>();
+        try(BufferedReader reader = new BufferedReader(new FileReader(alertFile))){
+            String line = reader.readLine();
+            Map<String, Integer> columnIndex = getColumnIndices(line);
+            while((line = reader.readLine()) != null){
+                String[] elements = line.split(",");
+                long alertID = Long.parseLong(elements[columnIndex.get("alertID")]);
+                String accountID = elements[columnIndex.get("accountID")];
+                alertMembers.computeIfAbsent(alertID, k -> new ArrayList<>()).add(accountID);
+                if(actorIDs == null || actorIDs.contains(accountID)){
+                    alertIDs.add(alertID);
+                }
+                numMembers.merge(alertID, 1, Integer::sum);
+                modelIDs.put(alertID, Integer.parseInt(elements[columnIndex.get("modelID")]));
+                if(elements[columnIndex.get("isMain")].toLowerCase().equals("true")){
+                    mainAccounts.put(alertID, accountID);
+                }
+            }
+        }
+        for(long alertID : alertIDs){
+            members.addAll(alertMembers.get(alertID));
+        }
+        for(Map.Entry<Long, String> entry : mainAccounts.entrySet()){
+            long alertID = entry.getKey();
+            if(actorIDs != null && !actorIDs.contains(entry.getValue())){  // Run by the other partition
+                continue;
+            }
+            int length = AMLTypology.getWalkLength(modelIDs.get(alertID), numMembers.get(alertID));
+            if(length > 0){
+                walks.merge(entry.getValue(), length, Math::max);
+            }
+        }
+    }
+
+    private void loadAlertMemberFile(String alertFile) throws IOException{
+        loadAlertMemberFile(alertFile, null);
+    }
+
+    /**
+     * Load the alert member list
+     * @param alertFile Alert member list CSV file
+     * @param alertIDs IDs of the alerts with actors (null: all alerts): only the rows of the loaded accounts
+     *                 are loaded for the other alerts
+     * @throws IOException if the file cannot be loaded
+     */
+    private void loadAlertMemberFile(String alertFile, Set<Long> alertIDs) throws IOException{
+        AMLSim.getLogger().info("Load alert member list from:" + alertFile);
+        try(BufferedReader reader = new BufferedReader(new FileReader(alertFile))){
+            String line = reader.readLine();
+            Map<String, Integer> columnIndex = getColumnIndices(line);
+            while((line = reader.readLine()) != null){
+                String[] elements = line.split(",");
+                long alertID = Long.parseLong(elements[columnIndex.get("alertID")]);
+                String accountID = elements[columnIndex.get("accountID")];
+                if(alertIDs != null && !alertIDs.contains(alertID)){
+                    if(!idMap.containsKey(accountID)){
+                        continue;
+                    }
+                    remoteAlerts.add(alertID);
+                }
+                boolean isMain = elements[columnIndex.get("isMain")].toLowerCase().equals("true");
+                boolean isSAR = elements[columnIndex.get("isSAR")].toLowerCase().equals("true");
+                int modelID = Integer.parseInt(elements[columnIndex.get("modelID")]);
+                float minAmount = Float.parseFloat(elements[columnIndex.get("minAmount")]);
+                float maxAmount = Float.parseFloat(elements[columnIndex.get("maxAmount")]);
+                int startStep = Integer.parseInt(elements[columnIndex.get("startStep")]);
+                int endStep = Integer.parseInt(elements[columnIndex.get("endStep")]);
+                int scheduleID = Integer.parseInt(elements[columnIndex.get("scheduleID")]);
+
+                if(minAmount > maxAmount){
+                    throw new IllegalArgumentException(String.format("minAmount %f is larger than maxAmount %f", minAmount, maxAmount));
+                }
+                if(startStep > endStep){
+                    throw new IllegalArgumentException(String.format("startStep %d is larger than endStep %d", startStep, endStep));
+                }
+                alertMembers.add(new AlertMemberRow(alertID, getIndex(accountID), isMain, isSAR, modelID,
+                        minAmount, maxAmount, startStep, endStep, scheduleID));
+            }
+        }
+    }
+
+    int getNumAccounts(){
+        return accounts.size();
+    }
+
+    /**
+     * Get the index of a loaded account
+     * @param i Order of the account in the loaded accounts
+     * @return Index in the whole account list (partition), otherwise the order of the loaded accounts
+     */
+    int getAccountIndex(int i){
+        return indices != null ? indices[i] : i;
+    }
+
+    /**
+     * Get the number of account indices
+     * @return Number of accounts in the whole account list (partition), otherwise the number of loaded accounts
+     */
+    int getNumIndices(){
+        return numIndices;
+    }
+
+    /**
+     * Get the number of the accounts out of the partition before a loaded account
+     * The partition creates them only to draw the same random numbers as the whole account list.
+     * @param i Order of the account in the loaded accounts (the number of the loaded accounts: all skipped accounts)
+     * @return Number of the skipped accounts (always zero unless this is a partition)
+     */
+    int getNumSkipped(int i){
+        return skippedBefore != null ? skippedBefore[i] : 0;
+    }
+
+    int getSkippedModel(int k){
+        return skipped[k * 3];
+    }
+
+    int getSkippedStart(int k){
+        return skipped[k * 3 + 1];
+    }
+
+    int getSkippedEnd(int k){
+        return skipped[k * 3 + 2];
+    }
+
+    AccountRow getAccount(int index){
+        return accounts.get(index);
+    }
+
+    /**
+     * Whether the account runs its models
+     * @param index Order of the account in the loaded accounts
+     * @return If false, the account is a passive counterparty of an alert subgraph or a partition
+     */
+    boolean isActor(int index){
+        return actors == null || actors.get(index);
+    }
+
+    /**
+     * Get the number of accounts which run their models
+     * @return All accounts unless this is an alert subgraph or a partition
+     */
+    int getNumActors(){
+        return actors == null ? accounts.size() : actors.cardinality();
+    }
+
+    /**
+     * Whether the random typologies of the actors may walk through a passive counterparty of a partition
+     * @param index Order of the account in the loaded accounts
+     * @return If true, the transaction edges which the other partitions add from the account must be applied
+     */
+    boolean isWalked(int index){
+        return walked.get(index);
+    }
+
+    /**
+     * Whether only a part of the loaded accounts run their models
+     * @return If true, this is an alert subgraph or a partition
+     */
+    boolean isPartial(){
+        return actors != null;
+    }
+
+    /**
+     * Get the frequencies of the transaction types in the whole transaction list
+     * @return Transaction type --> Number of transactions in the order of the first transactions,
+     * or null if all transactions are loaded
+     */
+    Map<String, Double> getTypeFrequencies(){
+        return typeFrequencies;
+    }
+
+    int getNumEdges(){
+        return numEdges;
+    }
+
+    int getEdgeSrc(int i){
+        return edgeSrcs[i];
+    }
+
+    int getEdgeDst(int i){
+        return edgeDsts[i];
+    }
+
+    String getEdgeType(int i){
+        return edgeTypes[i];
+    }
+
+    /**
+     * Whether an alert runs in the other partitions
+     * @param alertID Alert ID
+     * @return If true, only the SAR flags of the loaded members apply
+     */
+    boolean isRemoteAlert(long alertID){
+        return remoteAlerts.contains(alertID);
+    }
+
+    List<AlertMemberRow> getAlertMembers(){
+        return Collections.unmodifiableList(alertMembers);
+    }
+}
@@ -0,0 +1,109 @@
+package amlsim;
+
+import java.util.List;
+
+/**
+ * Ring buffers of the recent incoming transfers of all accounts
+ * Each account has a fixed number of slots in shared primitive arrays, which keep the originator account index,
+ * amount and step of the last transfers to the account. The buffers are updated when transactions are applied
+ * to the balances, so they never allocate objects and the memory per account is constant.
+ */
+class RecentTransfers {
+
+    private final List<Account> accounts;  // All accounts ordered by the account index
+    private final int capacity;  // Number of transfers kept for each account
+    private final int[] origs;  // Account index * capacity + slot --> Originator account index
+    private final float[] amounts;  // Account index * capacity + slot --> Amount
+    private final int[] steps;  // Account index * capacity + slot --> Step
+    private final int[] counts;  // Account index --> Total number of transfers to the account
+
+    /**
+     * Allocate the ring buffers
+     * @param accounts All accounts ordered by the account index
+     * @param capacity Number of transfers kept for each account
+     */
+    RecentTransfers(List<Account> accounts, int capacity){
+        if(capacity <= 0){
+            throw new IllegalArgumentException("The history size must be positive: " + capacity);
+        }
+        int numAccounts = accounts.size();
+        this.accounts = accounts;
+        this.capacity = capacity;
+        this.origs = new int[numAccounts * capacity];
+        this.amounts = new float[numAccounts * capacity];
+        this.steps = new int[numAccounts * capacity];
+        this.counts = new int[numAccounts];
+    }
+
+    /**
+     * Record a transfer to an account
+     * @param bene Beneficiary account index
+     * @param orig Originator account index
+     * @param amount Amount
+     * @param step Simulation step
+     */
+    void add(int bene, int orig, float amount, long step){
+        int slot = bene * capacity + counts[bene] % capacity;
+        origs[slot] = orig;
+        amounts[slot] = amount;
+        steps[slot] = (int)step;
+        counts[bene]++;
+    }
+
+    /**
+     * Get the number of transfers kept for an account
+     * @param account Account index
+     * @return Number of recent transfers (at most the capacity)
+     */
+    int size(int account){
+        return Math.min(counts[account], capacity);
+    }
+
+    private int slot(int account, int i){
+        if(i < 0 || i >= size(account)){
+            throw new IndexOutOfBoundsException("No recent transfer " + i + " to account " + account);
+        }
+        return account * capacity + Math.floorMod(counts[account] - 1 - i, capacity);
+    }
+
+    /**
+     * Get the originator of a recent transfer
+     * @param account Beneficiary account index
+     * @param i 0 for the latest transfer, 1 for the previous one, and so on
+     * @return Originator account index
+     */
+    int getOrig(int account, int i){
+        return origs[slot(account, i)];
+    }
+
+    Account getOrigAccount(int account, int i){
+        return accounts.get(getOrig(account, i));
+    }
+
+    float getAmount(int account, int i){
+        return amounts[slot(account, i)];
+    }
+
+    long getStep(int account, int i){
+        return steps[slot(account, i)];
+    }
+
+    int getCount(int account){
+        return counts[account];
+    }
+
+    /**
+     * Restore the transfers of an account (e.g. from a checkpoint)
+     * @param account Account index
+     * @param count Total number of transfers to the account
+     * @param orig Originator account indices from the oldest transfer
+     * @param amount Amounts from the oldest transfer
+     * @param step Steps from the oldest transfer
+     */
+    void restore(int account, int count, int[] orig, float[] amount, long[] step){
+        counts[account] = count - orig.length;
+        for(int i=0; i<orig.length; i++){
+            add(account, orig[i], amount[i], step[i]);
+        }
+    }
+}
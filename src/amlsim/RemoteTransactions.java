@@ -0,0 +1,193 @@
+package amlsim;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Buffer of transactions between accounts of different workers of the distributed engine
+ * The accounts are identified by the indices, because a worker does not load the accounts of the other workers
+ * unless they are counterparties of its own accounts.
+ * The buffer keeps its arrays over the windows, so that exchanging transactions does not allocate per-field arrays.
+ */
+class RemoteTransactions {
+
+    private static final int INITIAL_SIZE = 1024;
+
+    private int size = 0;
+    private long[] steps = new long[INITIAL_SIZE];
+    private int[] actors = new int[INITIAL_SIZE];  // Index of the account which generated the transaction
+    private String[] descriptions = new String[INITIAL_SIZE];
+    private float[] amounts = new float[INITIAL_SIZE];
+    private int[] origs = new int[INITIAL_SIZE];
+    private int[] benes = new int[INITIAL_SIZE];
+    private boolean[] isSAR = new boolean[INITIAL_SIZE];
+    private long[] alertIDs = new long[INITIAL_SIZE];
+    private int[] sources = new int[INITIAL_SIZE];  // Worker ID which the transaction came from
+    private int[] positions = new int[INITIAL_SIZE];  // Position of the transaction in the transactions of the source
+
+    void clear(){
+        Arrays.fill(descriptions, 0, size, null);
+        size = 0;
+    }
+
+    int size(){
+        return size;
+    }
+
+    private void grow(){
+        int newSize = steps.length * 2;
+        steps = Arrays.copyOf(steps, newSize);
+        actors = Arrays.copyOf(actors, newSize);
+        descriptions = Arrays.copyOf(descriptions, newSize);
+        amounts = Arrays.copyOf(amounts, newSize);
+        origs = Arrays.copyOf(origs, newSize);
+        benes = Arrays.copyOf(benes, newSize);
+        isSAR = Arrays.copyOf(isSAR, newSize);
+        alertIDs = Arrays.copyOf(alertIDs, newSize);
+        sources = Arrays.copyOf(sources, newSize);
+        positions = Arrays.copyOf(positions, newSize);
+    }
+
+    /**
+     * Add a buffered transfer between accounts
+     * @param buffer Transaction buffer of a partition
+     * @param i Index of the transaction in the buffer
+     * @param source Worker ID of this process
+     * @param position Position of the transaction in the committed transactions of the worker
+     */
+    void add(TransactionBuffer buffer, int i, int source, int position){
+        if(size == steps.length){
+            grow();
+        }
+        steps[size] = buffer.getStep(i);
+        actors[size] = buffer.getActor(i);
+        descriptions[size] = buffer.getDescription(i);
+        amounts[size] = buffer.getAmount(i);
+        origs[size] = buffer.getOrig(i).getIndex();
+        benes[size] = buffer.getBene(i).getIndex();
+        isSAR[size] = buffer.isSAR(i);
+        alertIDs[size] = buffer.getAlertID(i);
+        sources[size] = source;
+        positions[size] = position;
+        size++;
+    }
+
+    /**
+     * Add a transaction of another buffer with its source and position
+     * @param other Transactions received from a worker
+     * @param i Index of the transaction in the other buffer
+     */
+    void add(RemoteTransactions other, int i){
+        if(size == steps.length){
+            grow();
+        }
+        steps[size] = other.steps[i];
+        actors[size] = other.actors[i];
+        descriptions[size] = other.descriptions[i];
+        amounts[size] = other.amounts[i];
+        origs[size] = other.origs[i];
+        benes[size] = other.benes[i];
+        isSAR[size] = other.isSAR[i];
+        alertIDs[size] = other.alertIDs[i];
+        sources[size] = other.sources[i];
+        positions[size] = other.positions[i];
+        size++;
+    }
+
+    /**
+     * Read transactions written by write(DataOutput) and append them to this buffer
+     * The position of each transaction is the order in the input stream.
+     * @param input Input stream
+     * @param source Worker ID which the transactions come from
+     * @throws IOException if the transactions cannot be read
+     */
+    void read(DataInput input, int source) throws IOException{
+        int n = input.readInt();
+        for(int i=0; i<n; i++){
+            if(size == steps.length){
+                grow();
+            }
+            steps[size] = input.readLong();
+            actors[size] = input.readInt();
+            descriptions[size] = input.readUTF();
+            amounts[size] = input.readFloat();
+            origs[size] = input.readInt();
+            benes[size] = input.readInt();
+            isSAR[size] = input.readBoolean();
+            alertIDs[size] = input.readLong();
+            sources[size] = source;
+            positions[size] = i;
+            size++;
+        }
+    }
+
+    /**
+     * Write all transactions of this buffer
+     * @param output Output stream
+     * @throws IOException if the transactions cannot be written
+     */
+    void write(DataOutput output) throws IOException{
+        output.writeInt(size);
+        for(int i=0; i<size; i++){
+            output.writeLong(steps[i]);
+            output.writeInt(actors[i]);
+            output.writeUTF(descriptions[i]);
+            output.writeFloat(amounts[i]);
+            output.writeInt(origs[i]);
+            output.writeInt(benes[i]);
+            output.writeBoolean(isSAR[i]);
+            output.writeLong(alertIDs[i]);
+        }
+    }
+
+    long getStep(int i){
+        return steps[i];
+    }
+
+    int getActor(int i){
+        return actors[i];
+    }
+
+    String getDescription(int i){
+        return descriptions[i];
+    }
+
+    float getAmount(int i){
+        return amounts[i];
+    }
+
+    int getOrig(int i){
+        return origs[i];
+    }
+
+    int getBene(int i){
+        return benes[i];
+    }
+
+    boolean isSAR(int i){
+        return isSAR[i];
+    }
+
+    long getAlertID(int i){
+        return alertIDs[i];
+    }
+
+    int getSource(int i){
+        return sources[i];
+    }
+
+    int getPosition(int i){
+        return positions[i];
+    }
+
+    /**
+     * Compare the order of two transactions in the commit order of (step, account index)
+     * @return Negative if the i-th transaction of this buffer comes first
+     */
+    int compare(int i, RemoteTransactions other, int j){
+        int c = Long.compare(steps[i], other.steps[j]);
+        return c != 0 ? c : Integer.compare(actors[i], other.actors[j]);
+    }
+}
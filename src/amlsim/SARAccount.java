@@ -1,7 +1,11 @@
 package amlsim;
 
 import amlsim.model.aml.*;
-import sim.engine.SimState;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * Suspicious account class
@@ -19,17 +23,16 @@ public class SARAccount extends Account {
 //		this.sarModel.setParameters(interval, (float)this.getBalance(), this.startStep, this.endStep);
 //	}
 
-	public void handleAction(SimState state){
-	    AMLSim amlsim = (AMLSim) state;
-		super.handleAction(amlsim);
+	void handleAction(long step){
+		super.handleAction(step);
 
-		boolean success = handleAlert(amlsim);
+		boolean success = handleAlert(step);
 		if(success){
 			count++;
 		}
 	}
 
-	private boolean handleAlert(AMLSim amlsim){
+	private boolean handleAlert(long step){
 		if(alerts.isEmpty()){
 			return false;
 		}
@@ -37,10 +40,22 @@ public class SARAccount extends Account {
 		Alert fg = alerts.get(count % alerts.size());
 		AMLTypology model = fg.getModel();
 
-		model.makeTransaction(amlsim.schedule.getSteps());
+		model.makeTransaction(step);
 		return true;
 	}
 
+	@Override
+	void saveState(DataOutput output) throws IOException{
+		super.saveState(output);
+		output.writeInt(count);
+	}
+
+	@Override
+	void loadState(DataInput input, List<Account> accounts) throws IOException{
+		super.loadState(input, accounts);
+		count = input.readInt();
+	}
+
 	public String toString() {
 		return "F" + this.id;
 	}
@@ -2,24 +2,34 @@ package amlsim;
 
 import java.io.*;
 import java.nio.file.*;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import org.json.*;
 
+import amlsim.stat.InverseCDFTable;
 import org.apache.commons.math3.distribution.BetaDistribution;
 
 
 /**
  * Simulation properties and global parameters loaded from the configuration JSON file
  */
-public class SimProperties {
+public class SimProperties implements Cloneable {
 
     private static final String separator = File.separator;
     private JSONObject generalProp;
     private JSONObject simProp;
     private JSONObject inputProp;
+    private JSONObject generatorProp;  // Input files of the transaction graph generator
     private JSONObject outputProp;
     private JSONObject cashInProp;
     private JSONObject cashOutProp;
+    // Parameters of cash transactions: cashIndex(isCashIn, isSAR) --> interval and amount range
+    private int[] cashIntervals;
+    private float[] cashMinAmounts;
+    private float[] cashMaxAmounts;
     private String workDir;
+    private String outputDir;  // Output directory (the same as the working directory by default)
     private float marginRatio;  // Ratio of margin for AML typology transactions
     private float scatterVariance;  // Scatter transactions shouldn't be exactly identical
     private float gatherVariance;  // Gather transactions shouldn't be exactly identical
@@ -47,16 +57,27 @@ public class SimProperties {
     private float amountBeta;
 
     protected BetaDistribution amountDistribution;
+    private InverseCDFTable amountTable;  // Tabulated quantiles of amountDistribution (null: exact quantiles)
+    private double amountTolerance;  // Maximum error of the tabulated quantiles (0: exact quantiles)
+    // Round amount distributions shared by all models: (alpha, beta) --> InverseCDFTable or BetaDistribution
+    private final Map<Long, Object> roundAmountSamplers = new ConcurrentHashMap<>();
 
 
     SimProperties(String jsonName) throws IOException{
-        String jsonStr = loadTextFile(jsonName);
-        JSONObject jsonObject = new JSONObject(jsonStr);
+        this(new JSONObject(loadTextFile(jsonName)));
+    }
+
+    /**
+     * Load simulation properties from a configuration JSON object
+     * @param jsonObject Configuration JSON object
+     */
+    SimProperties(JSONObject jsonObject){
         JSONObject defaultProp = jsonObject.getJSONObject("default");
 
         generalProp = jsonObject.getJSONObject("general");
         simProp = jsonObject.getJSONObject("simulator");
         inputProp = jsonObject.getJSONObject("temporal");  // Input directory of this simulator is temporal directory
+        generatorProp = jsonObject.optJSONObject("input");
         outputProp = jsonObject.getJSONObject("output");
 
         normalTxInterval = simProp.getInt("transaction_interval");
@@ -69,12 +90,28 @@ public class SimProperties {
         amountBeta = defaultProp.getFloat("amount_beta");
 
         amountDistribution = new BetaDistribution(amountAlpha, amountBeta);
+        amountTolerance = defaultProp.optDouble("amount_tolerance", 1E-6);
+        if(amountTolerance > 0){
+            amountTable = new InverseCDFTable(amountDistribution, amountTolerance);
+            System.out.printf("Transaction amount table: %d cells, max error %e\n",
+                    amountTable.getNumCells(), amountTable.getMaxError());
+        }
 
         System.out.printf("General transaction interval: %d\n", normalTxInterval);
         System.out.printf("Base transaction amount: Normal = %f, Suspicious= %f\n", minTxAmount, maxTxAmount);
         
         cashInProp = defaultProp.getJSONObject("cash_in");
         cashOutProp = defaultProp.getJSONObject("cash_out");
+        cashIntervals = new int[4];
+        cashMinAmounts = new float[4];
+        cashMaxAmounts = new float[4];
+        for(int i=0; i<4; i++){
+            JSONObject cashProp = i < 2 ? cashInProp : cashOutProp;
+            String prefix = i % 2 == 1 ? "fraud_" : "normal_";
+            cashIntervals[i] = cashProp.getInt(prefix + "interval");
+            cashMinAmounts[i] = cashProp.getFloat(prefix + "min_amount");
+            cashMaxAmounts[i] = cashProp.getFloat(prefix + "max_amount");
+        }
         marginRatio = defaultProp.getFloat("margin_ratio");
         scatterVariance = defaultProp.getFloat("scatter_variance");
         gatherVariance = defaultProp.getFloat("gather_variance");
@@ -99,9 +136,28 @@ public class SimProperties {
         String simName = getSimName();
         workDir = inputProp.getString("directory") + separator + simName + separator;
         System.out.println("Working directory: " + workDir);
+        outputDir = workDir;
+    }
+
+    /**
+     * Create properties of a run in a batch, which shares the input files with this simulation
+     * @param seed Seed of randomness
+     * @param outputDir Output directory of the run
+     * @return Simulation properties of the run
+     */
+    SimProperties createRun(int seed, String outputDir){
+        SimProperties prop;
+        try {
+            prop = (SimProperties) clone();
+        }catch (CloneNotSupportedException e){
+            throw new IllegalStateException(e);
+        }
+        prop.seed = seed;
+        prop.outputDir = outputDir.endsWith(separator) ? outputDir : outputDir + separator;
+        return prop;
     }
 
-    private static String loadTextFile(String jsonName) throws IOException{
+    static String loadTextFile(String jsonName) throws IOException{
         Path file = Paths.get(jsonName);
         byte[] bytes = Files.readAllBytes(file);
         return new String(bytes);
@@ -142,9 +198,30 @@ public class SimProperties {
         //        )
         //    );
 
-        return minTxAmount + (maxTxAmount_ - minTxAmount) * (float) amountDistribution.inverseCumulativeProbability(
-            AMLSim.getRandom().nextFloat()
-        );
+        float prob = AMLSim.getRandom().nextFloat();
+        double quantile = amountTable != null ? amountTable.inverseCumulativeProbability(prob)
+                : amountDistribution.inverseCumulativeProbability(prob);
+        return minTxAmount + (maxTxAmount_ - minTxAmount) * (float) quantile;
+    }
+
+    /**
+     * Draw the round amount probability of a transaction model from a beta distribution
+     * The quantile table (or the distribution) of each parameter pair is created once and shared by all models.
+     * @param alpha Alpha parameter of the beta distribution
+     * @param beta Beta parameter of the beta distribution
+     * @return Round amount probability
+     */
+    public float drawRoundAmountProbability(float alpha, float beta){
+        double prob = AMLSim.getRandom().nextDouble();
+        long key = ((long)Float.floatToIntBits(alpha) << 32) | (Float.floatToIntBits(beta) & 0xFFFFFFFFL);
+        Object sampler = roundAmountSamplers.computeIfAbsent(key, k -> {
+            BetaDistribution distribution = new BetaDistribution(null, alpha, beta);  // Never sampled directly
+            return amountTolerance > 0 ? new InverseCDFTable(distribution, amountTolerance) : distribution;
+        });
+        if(sampler instanceof InverseCDFTable){
+            return (float) ((InverseCDFTable) sampler).inverseCumulativeProbability(prob);
+        }
+        return (float) ((BetaDistribution) sampler).inverseCumulativeProbability(prob);
     }
 
     public static float getRandom(float min, float max) {
@@ -152,15 +229,37 @@ public class SimProperties {
     }
 
     public static float makeTransactionMoreRealistic(float amount, float variance, float roundAmountProbability) {
-        // add a certain amount of variance
-        float new_amount = amount * getRandom( (float) 1.0 - variance, (float) 1.0 + variance);
-
-        // with a certain probability, make the transaction round
-        if (getRandom(0, 1) < roundAmountProbability && new_amount > 100.0) {
-            new_amount = (float) (Math.floor(new_amount / 100) * 100.0);
+        Random rand = AMLSim.getRandom();
+        float varianceValue = rand.nextFloat();
+        float roundValue = rand.nextFloat();
+        return roundAmount(applyVariance(amount, variance, varianceValue), roundValue, roundAmountProbability);
+    }
+
+    /**
+     * Add a certain amount of variance to a transaction amount
+     * @param amount Transaction amount
+     * @param variance Maximum ratio of the variance
+     * @param value Uniform random value in [0, 1)
+     * @return Amount in [amount * (1 - variance), amount * (1 + variance))
+     */
+    static float applyVariance(float amount, float variance, float value){
+        float min = (float) 1.0 - variance;
+        float max = (float) 1.0 + variance;
+        return amount * (min + value * (max - min));
+    }
+
+    /**
+     * With a certain probability, make the transaction amount round
+     * @param amount Transaction amount
+     * @param value Uniform random value in [0, 1)
+     * @param roundAmountProbability Probability to round the amount
+     * @return Amount rounded down to a multiple of 100, or the original amount
+     */
+    static float roundAmount(float amount, float value, float roundAmountProbability){
+        if (value < roundAmountProbability && amount > 100.0) {
+            return (float) (Math.floor(amount / 100) * 100.0);
         }
-
-        return new_amount;
+        return amount;
     }
 
 //    public float getSuspiciousTxAmount(){
@@ -219,6 +318,163 @@ public class SimProperties {
         return simProp.getInt("numBranches");
     }
 
+    /**
+     * Get the simulation engine name
+     * "mason" (default): step all accounts with the MASON schedule
+     * "conservative": run partitions of accounts in parallel over windows of steps
+     * "distributed": run accounts of each bank in worker processes on this host
+     * @return Simulation engine name
+     */
+    String getEngine(){
+        return simProp.optString("engine", "mason");
+    }
+
+    /**
+     * Get the number of account partitions for the partitioned engines
+     * @return Number of partitions (the number of available processors if not specified)
+     */
+    int getNumPartitions(){
+        return simProp.optInt("partitions", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Get the number of worker processes for the distributed engine
+     * @return Number of worker processes
+     */
+    int getNumWorkers(){
+        return simProp.optInt("workers", 2);
+    }
+
+    /**
+     * Get the maximum heap size of each worker process for the distributed engine (e.g. "2g")
+     * @return Maximum heap size, or an empty string to use the default heap size
+     */
+    String getWorkerHeap(){
+        return simProp.optString("worker_heap", "");
+    }
+
+    /**
+     * Get the maximum number of steps which partitions run ahead without synchronization
+     * @return Maximum window size of steps
+     */
+    int getMaxWindow(){
+        return simProp.optInt("max_window", 30);
+    }
+
+    /**
+     * Get the number of steps which an account without dependencies on the other accounts runs in one go
+     * @return Temporal block size of steps (1: disabled)
+     */
+    int getTemporalBlock(){
+        return simProp.optInt("temporal_block", 1);
+    }
+
+    /**
+     * Whether the heap memory used by the loaded accounts is measured for the benchmark log
+     * (this forces garbage collections before and after loading the input files)
+     * @return If true, the memory usage per account is logged
+     */
+    boolean isBenchmark(){
+        return simProp.optBoolean("benchmark", false);
+    }
+
+    /**
+     * Get the number of recent incoming transfers kept for each account (e.g. for the mutual and forward models)
+     * @return History size
+     */
+    int getHistorySize(){
+        return simProp.optInt("history_size", 4);
+    }
+
+    /**
+     * Get the number of threads which run the typology transactions of independent alerts in parallel
+     * @return Number of threads (0: the main accounts run the typology transactions in their steps)
+     */
+    int getAlertThreads(){
+        return simProp.optInt("alert_threads", 0);
+    }
+
+    /**
+     * Get the simulation step to save a checkpoint (the state before this step)
+     * @return Simulation step, or -1 if no checkpoint is saved
+     */
+    long getCheckpointStep(){
+        return simProp.optLong("checkpoint_step", -1);
+    }
+
+    /**
+     * Get the checkpoint file to be saved
+     * @return Checkpoint file name (the default is "checkpoint.bin" in the output directory)
+     */
+    String getCheckpointFile(){
+        return simProp.optString("checkpoint_file", outputDir + "checkpoint.bin");
+    }
+
+    /**
+     * Get the checkpoint file to resume the simulation from
+     * @return Checkpoint file name, or an empty string to run from the first step
+     */
+    String getResumeFile(){
+        return simProp.optString("resume_file", "");
+    }
+
+    /**
+     * Get the number of hops of the alert neighborhood subgraph
+     * @return Only the accounts within this number of hops from the alert members run (-1: all accounts run)
+     */
+    int getSubgraphHops(){
+        return simProp.optInt("subgraph_hops", -1);
+    }
+
+    /**
+     * Get the maximum length of temporal cycles counted online
+     * @return Maximum cycle length (0: the motif counter is disabled)
+     */
+    int getMotifMaxLength(){
+        return simProp.optInt("motif_max_length", 0);
+    }
+
+    /**
+     * Get the number of steps in which the transactions of a motif are made
+     * @return Window size of motifs
+     */
+    int getMotifWindow(){
+        return simProp.optInt("motif_window", 10);
+    }
+
+    /**
+     * Get the number of recent transactions kept for each account and direction by the motif counter
+     * @return History size of the motif counter
+     */
+    int getMotifHistory(){
+        return simProp.optInt("motif_history", 8);
+    }
+
+    /**
+     * Get the number of distinct counterparties within the window of a fan-in/fan-out burst
+     * @return Burst threshold
+     */
+    int getMotifFanThreshold(){
+        return simProp.optInt("motif_fan_threshold", 5);
+    }
+
+    /**
+     * Get the mode of the background (normal and cash) transaction cache
+     * @return "save" to simulate without alerts and save the background transactions,
+     * "inject" to replay the saved background transactions with the alerts, or an empty string to disable
+     */
+    String getBackgroundMode(){
+        return simProp.optString("background_mode", "");
+    }
+
+    /**
+     * Get the background transaction file to be saved or replayed
+     * @return Background file name (the default is "background.bin" in the output directory)
+     */
+    String getBackgroundFile(){
+        return simProp.optString("background_file", outputDir + "background.bin");
+    }
+
     String getInputAcctFile(){
         return workDir + inputProp.getString("accounts");
     }
@@ -231,8 +487,19 @@ public class SimProperties {
         return workDir + inputProp.getString("alert_members");
     }
 
+    /**
+     * Get the transaction type CSV file of the transaction graph generator
+     * @return Transaction type file name, or null if it is not specified
+     */
+    String getTxTypeFile(){
+        if(generatorProp == null || !generatorProp.has("transaction_type")){
+            return null;
+        }
+        return generatorProp.getString("directory") + separator + generatorProp.getString("transaction_type");
+    }
+
     String getOutputTxLogFile(){
-        return workDir + outputProp.getString("transaction_log");
+        return outputDir + outputProp.getString("transaction_log");
     }
 
 //    public String getOutputAlertMemberFile(){
@@ -244,30 +511,35 @@ public class SimProperties {
 //    }
 
     String getOutputDir(){
-        return workDir;
+        return outputDir;
     }
 
     String getCounterLogFile(){
-        return workDir + outputProp.getString("counter_log");
+        return outputDir + outputProp.getString("counter_log");
+    }
+
+    String getMotifLogFile(){
+        return outputDir + outputProp.optString("motif_log", "motifs.csv");
     }
 
     String getDiameterLogFile(){
-        return workDir + outputProp.getString("diameter_log");
+        return outputDir + outputProp.getString("diameter_log");
+    }
+
+    private static int cashIndex(boolean isCashIn, boolean isSAR){
+        return (isCashIn ? 0 : 2) + (isSAR ? 1 : 0);
     }
 
-    int getCashTxInterval(boolean isCashIn, boolean isSAR){
-        String key = isSAR ? "fraud_interval" : "normal_interval";
-        return isCashIn ? cashInProp.getInt(key) : cashOutProp.getInt(key);
+    public int getCashTxInterval(boolean isCashIn, boolean isSAR){
+        return cashIntervals[cashIndex(isCashIn, isSAR)];
     }
 
-    float getCashTxMinAmount(boolean isCashIn, boolean isSAR){
-        String key = isSAR ? "fraud_min_amount" : "normal_min_amount";
-        return isCashIn ? cashInProp.getFloat(key) : cashOutProp.getFloat(key);
+    public float getCashTxMinAmount(boolean isCashIn, boolean isSAR){
+        return cashMinAmounts[cashIndex(isCashIn, isSAR)];
     }
 
-    float getCashTxMaxAmount(boolean isCashIn, boolean isSAR){
-        String key = isSAR ? "fraud_max_amount" : "normal_max_amount";
-        return isCashIn ? cashInProp.getFloat(key) : cashOutProp.getFloat(key);
+    public float getCashTxMaxAmount(boolean isCashIn, boolean isSAR){
+        return cashMaxAmounts[cashIndex(isCashIn, isSAR)];
     }
 }
 
@@ -0,0 +1,425 @@
+package amlsim;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Long-lived simulation server which runs simulation jobs submitted through a local socket
+ * The server keeps the JVM warm and caches recently used input graphs, so that small simulations
+ * do not pay for the JVM startup, class loading, CSV parsing and JIT compilation at each run.
+ * Jobs run on a bounded thread pool with the lean or conservative engine.
+ *
+ * Each request and response is a JSON object in a line:
+ * {"command": "submit", "conf": "conf.json", "overrides": {"general": {"random_seed": 1}}, "name": "job1",
+ *  "model_params": "paramFiles/model.properties", "typologies": [1, 2]}
+ * {"command": "status", "job": 1, "wait": true}
+ * {"command": "jobs"}
+ * {"command": "stats"}
+ * {"command": "shutdown"}
+ */
+public class SimulationServer {
+
+    private static final Logger logger = AMLSim.getLogger();
+    private static final int DEFAULT_PORT = 7878;
+    private static final int MAX_JOBS = 10000;  // Maximum number of jobs whose status are kept
+
+    /**
+     * Simulation job
+     */
+    private static class Job {
+        final long id;
+        final String name;
+        final long submitTime = System.currentTimeMillis();
+        volatile String status = "queued";  // queued, running, finished or failed
+        volatile long startTime = 0;
+        volatile long endTime = 0;
+        volatile long steps = 0;
+        volatile long runTime = 0;
+        volatile String outputDir = "";
+        volatile String error = null;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Job(long id, String name){
+            this.id = id;
+            this.name = name;
+        }
+
+        JSONObject toJSON(){
+            JSONObject json = new JSONObject();
+            json.put("job", id);
+            json.put("name", name);
+            json.put("status", status);
+            json.put("output", outputDir);
+            if(startTime > 0){
+                json.put("wait_time", startTime - submitTime);
+                json.put("elapsed", (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime);
+            }
+            if(status.equals("finished")){
+                json.put("steps", steps);
+                json.put("throughput", steps * 1000.0 / Math.max(runTime, 1));  // Steps per second
+            }
+            if(error != null){
+                json.put("error", error);
+            }
+            return json;
+        }
+    }
+
+    /**
+     * LRU cache of parsed input files
+     * Each input graph is loaded once by the first job which needs it, while jobs with other graphs
+     * (or the cached graphs) do not wait for the load.
+     */
+    private static class GraphCache {
+
+        /**
+         * Loading or loaded input graph with the time of the last access
+         */
+        private static class Entry extends FutureTask<InputGraph> {
+            volatile long lastAccess;
+
+            Entry(Callable<InputGraph> loader){
+                super(loader);
+            }
+        }
+
+        private final int capacity;
+        private final ConcurrentHashMap<String, Entry> graphs = new ConcurrentHashMap<>();
+        private final AtomicLong clock = new AtomicLong(0);  // Counter of accesses as the time of the LRU order
+        private final AtomicLong hits = new AtomicLong(0);
+        private final AtomicLong misses = new AtomicLong(0);
+
+        GraphCache(int capacity){
+            this.capacity = capacity;
+        }
+
+        /**
+         * Get the parsed input files of a simulation, and load them if they are not cached or modified
+         * @param simProp Simulation properties
+         * @return Parsed input files
+         * @throws IOException if an input file cannot be loaded
+         */
+        InputGraph get(SimProperties simProp) throws IOException{
+            final String[] files = {simProp.getInputAcctFile(), simProp.getInputTxFile(), simProp.getInputAlertMemberFile()};
+            StringBuilder keyBuilder = new StringBuilder();
+            for(String file : files){
+                File f = new File(file);
+                keyBuilder.append(f.getCanonicalPath()).append(':').append(f.lastModified()).append(';');
+            }
+            final int hops = simProp.getSubgraphHops();
+            String key = keyBuilder.append("hops:").append(hops).toString();
+            Entry created = new Entry(() -> InputGraph.load(files[0], files[1], files[2], hops));
+            Entry entry = graphs.computeIfAbsent(key, k -> created);
+            entry.lastAccess = clock.incrementAndGet();
+            if(entry == created){  // Load the graph in this thread without blocking the other keys
+                misses.incrementAndGet();
+                entry.run();
+                evict();
+            }else{
+                hits.incrementAndGet();
+            }
+            try{
+                return entry.get();
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while loading the input graph");
+            }catch (ExecutionException e){
+                graphs.remove(key, entry);  // The next job retries the load
+                Throwable cause = e.getCause();
+                if(cause instanceof IOException){
+                    throw (IOException)cause;
+                }
+                if(cause instanceof RuntimeException){
+                    throw (RuntimeException)cause;
+                }
+                throw new IOException("Cannot load the input graph", cause);
+            }
+        }
+
+        /**
+         * Remove the least recently used graphs which exceed the capacity
+         */
+        private void evict(){
+            while(graphs.size() > capacity){
+                Map.Entry<String, Entry> oldest = null;
+                for(Map.Entry<String, Entry> e : graphs.entrySet()){
+                    if(oldest == null || e.getValue().lastAccess < oldest.getValue().lastAccess){
+                        oldest = e;
+                    }
+                }
+                if(oldest == null){
+                    return;
+                }
+                graphs.remove(oldest.getKey(), oldest.getValue());
+            }
+        }
+
+        JSONObject toJSON(){
+            JSONObject json = new JSONObject();
+            json.put("size", graphs.size());
+            json.put("capacity", capacity);
+            json.put("hits", hits.get());
+            json.put("misses", misses.get());
+            return json;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+    private final GraphCache cache;
+    private final AtomicLong jobCounter = new AtomicLong(0);
+    private final Map<Long, Job> jobs = Collections.synchronizedMap(new LinkedHashMap<Long, Job>(){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Job> eldest){
+            return size() > MAX_JOBS;
+        }
+    });
+    private volatile boolean running = true;
+
+    /**
+     * Create a server listening on the loopback address
+     * @param port Port number (0: any free port)
+     * @param numThreads Number of jobs running at the same time
+     * @param queueSize Maximum number of queued jobs
+     * @param cacheSize Maximum number of cached input graphs
+     * @throws IOException if the port cannot be opened
+     */
+    SimulationServer(int port, int numThreads, int queueSize, int cacheSize) throws IOException{
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize));
+        this.cache = new GraphCache(cacheSize);
+        logger.info(String.format("Simulation server: port=%d, threads=%d, queue=%d, cache=%d",
+                serverSocket.getLocalPort(), numThreads, queueSize, cacheSize));
+    }
+
+    int getPort(){
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accept connections until the server is shut down
+     */
+    void serve(){
+        while(running){
+            try{
+                final Socket socket = serverSocket.accept();
+                clients.execute(() -> handleConnection(socket));
+            }catch (SocketException e){
+                if(running){
+                    logger.warning("Server socket error: " + e.getMessage());
+                }
+            }catch (IOException e){
+                logger.warning("Cannot accept a connection: " + e.getMessage());
+            }
+        }
+        executor.shutdown();
+        clients.shutdown();
+        try{
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);  // Finish the submitted jobs
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Simulation server stopped");
+    }
+
+    private void handleConnection(Socket socket){
+        try(Socket s = socket;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))){
+            String line;
+            while((line = reader.readLine()) != null){
+                if(line.trim().isEmpty()){
+                    continue;
+                }
+                JSONObject response;
+                try{
+                    response = handleRequest(new JSONObject(line));
+                }catch (RuntimeException e){
+                    response = new JSONObject().put("error", e.toString());
+                }
+                writer.write(response.toString());
+                writer.write("\n");
+                writer.flush();
+            }
+        }catch (IOException e){
+            logger.fine("Connection closed: " + e.getMessage());
+        }
+    }
+
+    private JSONObject handleRequest(JSONObject request){
+        String command = request.getString("command");
+        switch(command){
+            case "submit": return submit(request);
+            case "status": return status(request.getLong("job"), request.optBoolean("wait", false));
+            case "jobs": return listJobs();
+            case "stats": return stats();
+            case "shutdown": return shutdown();
+            default: throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    /**
+     * Overwrite properties of a configuration JSON object (each section is merged)
+     * @param conf Configuration JSON object
+     * @param overrides Properties to be overwritten
+     */
+    private static void merge(JSONObject conf, JSONObject overrides){
+        for(String key : overrides.keySet()){
+            Object value = overrides.get(key);
+            JSONObject section = conf.optJSONObject(key);
+            if(section != null && value instanceof JSONObject){
+                merge(section, (JSONObject) value);
+            }else{
+                conf.put(key, value);
+            }
+        }
+    }
+
+    private JSONObject submit(JSONObject request){
+        if(!running){
+            throw new IllegalStateException("The server is shutting down");
+        }
+        JSONObject conf;
+        try{
+            conf = new JSONObject(SimProperties.loadTextFile(request.getString("conf")));
+        }catch (IOException e){
+            throw new IllegalArgumentException("Cannot load configuration JSON file: " + request.getString("conf"));
+        }
+        JSONObject overrides = request.optJSONObject("overrides");
+        if(overrides != null){
+            merge(conf, overrides);
+        }
+        final SimProperties simProp = new SimProperties(conf);
+        BatchRunner.checkEngine(simProp);
+
+        Set<Integer> typologies = null;
+        JSONArray typologyArray = request.optJSONArray("typologies");
+        if(typologyArray != null){
+            typologies = new HashSet<>();
+            for(int i=0; i<typologyArray.length(); i++){
+                typologies.add(typologyArray.getInt(i));
+            }
+        }
+        long id = jobCounter.incrementAndGet();
+        String name = request.optString("name", "job" + id);
+        final BatchRunner.Run run = new BatchRunner.Run(name, simProp.getSeed(),
+                request.optString("model_params", null), typologies);
+        final Job job = new Job(id, name);
+        jobs.put(id, job);
+        try{
+            executor.execute(() -> runJob(job, simProp, run));
+        }catch (RejectedExecutionException e){
+            job.error = "The job queue is full";
+            job.status = "failed";
+            job.done.countDown();
+        }
+        return job.toJSON();
+    }
+
+    private void runJob(Job job, SimProperties simProp, BatchRunner.Run run){
+        job.startTime = System.currentTimeMillis();
+        job.status = "running";
+        try{
+            InputGraph inputGraph = cache.get(simProp);
+            job.outputDir = simProp.getOutputDir() + run.name + File.separator;
+            AMLSim sim = BatchRunner.runSimulation(simProp, run, inputGraph);
+            job.steps = sim.getFinishedSteps();
+            job.runTime = sim.getRunTime();
+            job.status = "finished";
+        }catch (Exception e){
+            logger.warning("Job " + job.id + " failed: " + e);
+            job.error = e.toString();
+            job.status = "failed";
+        }finally{
+            AMLSim.releaseCurrent();  // The pooled thread must not keep the finished simulation
+            job.endTime = System.currentTimeMillis();
+            job.done.countDown();
+        }
+    }
+
+    private JSONObject status(long id, boolean wait){
+        Job job = jobs.get(id);
+        if(job == null){
+            throw new IllegalArgumentException("Unknown job: " + id);
+        }
+        if(wait){
+            try{
+                job.done.await();
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+        return job.toJSON();
+    }
+
+    private JSONObject listJobs(){
+        JSONArray array = new JSONArray();
+        synchronized (jobs){
+            for(Job job : jobs.values()){
+                array.put(job.toJSON());
+            }
+        }
+        return new JSONObject().put("jobs", array);
+    }
+
+    private JSONObject stats(){
+        Map<String, Integer> counts = new HashMap<>();
+        double totalSteps = 0;
+        double totalTime = 0;
+        synchronized (jobs){
+            for(Job job : jobs.values()){
+                counts.put(job.status, counts.getOrDefault(job.status, 0) + 1);
+                if(job.status.equals("finished")){
+                    totalSteps += job.steps;
+                    totalTime += job.runTime;
+                }
+            }
+        }
+        JSONObject json = new JSONObject();
+        for(String status : new String[]{"queued", "running", "finished", "failed"}){
+            json.put(status, counts.getOrDefault(status, 0));
+        }
+        json.put("threads", executor.getMaximumPoolSize());
+        json.put("throughput", totalSteps * 1000.0 / Math.max(totalTime, 1));  // Average steps per second
+        json.put("cache", cache.toJSON());
+        return json;
+    }
+
+    private JSONObject shutdown(){
+        running = false;
+        try{
+            serverSocket.close();
+        }catch (IOException e){
+            logger.warning("Cannot close the server socket: " + e.getMessage());
+        }
+        return new JSONObject().put("status", "shutdown");
+    }
+
+    public static void main(String[] args){
+        int port = args.length >= 1 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int numThreads = args.length >= 2 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int queueSize = args.length >= 3 ? Integer.parseInt(args[2]) : 100;
+        int cacheSize = args.length >= 4 ? Integer.parseInt(args[3]) : 4;
+        try{
+            new SimulationServer(port, numThreads, queueSize, cacheSize).serve();
+            System.exit(0);
+        }catch (IOException e){
+            System.err.println("Cannot start the simulation server on port " + port);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
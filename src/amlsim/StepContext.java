@@ -0,0 +1,146 @@
+package amlsim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Execution context of a thread which runs a partition of accounts in a partitioned engine
+ * While a context is set to the current thread, transactions and changes of the transaction network
+ * are deferred to the context, and random numbers are drawn from the stream of the current account.
+ */
+class StepContext {
+
+    private static final ThreadLocal<StepContext> current = new ThreadLocal<>();
+
+    /**
+     * Get the context of the current thread
+     * @return Context object, or null if the current thread does not run a partition
+     */
+    static StepContext current(){
+        return current.get();
+    }
+
+    static void set(StepContext context){
+        current.set(context);
+    }
+
+    static void clear(){
+        current.remove();
+    }
+
+    private final StreamRandom random = new StreamRandom();
+    private final TransactionBuffer transactions = new TransactionBuffer();
+    private final TransactionBatch batch = new TransactionBatch();
+    private final BranchLedger ledger = new BranchLedger();  // Cash transactions of this partition
+    private final List<Account> edgeOrigs = new ArrayList<>();  // Deferred transaction edges (originators)
+    private final List<Account> edgeBenes = new ArrayList<>();  // Deferred transaction edges (beneficiaries)
+    private final List<Integer> edgeActors = new ArrayList<>();  // Accounts which added the deferred edges
+    private int actor = -1;  // Index of the account which is running
+
+    /**
+     * Start the step of an account
+     * @param actor Account index
+     * @param randomStates Random stream states of all accounts
+     */
+    void begin(int actor, long[] randomStates){
+        begin(actor, randomStates, actor);
+    }
+
+    /**
+     * Start the step of an account with a random stream which is not the stream of the account
+     * @param actor Account index
+     * @param randomStates Random stream states
+     * @param slot Slot of the stream
+     */
+    void begin(int actor, long[] randomStates, int slot){
+        this.actor = actor;
+        random.bind(randomStates, slot);
+    }
+
+    /**
+     * Finish the step of the current account
+     */
+    void end(){
+        random.unbind();
+        actor = -1;
+    }
+
+    StreamRandom getRandom(){
+        return random;
+    }
+
+    TransactionBuffer getTransactions(){
+        return transactions;
+    }
+
+    void addTransaction(long step, String desc, float amt, Account orig, Account bene, boolean isSAR, long alertID){
+        transactions.add(step, actor, desc, amt, orig, bene, isSAR, alertID);
+    }
+
+    void addCashTransaction(long step, String desc, float amt, Account account, Branch branch, boolean isCashIn){
+        transactions.addCash(step, actor, desc, amt, account, branch, isCashIn);
+    }
+
+    TransactionBatch getBatch(){
+        return batch;
+    }
+
+    BranchLedger getLedger(){
+        return ledger;
+    }
+
+    /**
+     * Buffer all normal transactions of a batch
+     * @param batch Transaction batch of the current account
+     * @param txTypes Transaction type dictionary
+     */
+    void addTransactions(TransactionBatch batch, TransactionTypes txTypes){
+        long step = batch.getStep();
+        Account orig = batch.getOrig();
+        int size = batch.size();
+        for(int i=0; i<size; i++){
+            transactions.add(step, actor, txTypes.getName(batch.getType(i)), batch.getAmount(i), orig,
+                    batch.getBene(i), false, -1);
+        }
+    }
+
+    void addEdge(Account orig, Account bene){
+        edgeOrigs.add(orig);
+        edgeBenes.add(bene);
+        edgeActors.add(actor);
+    }
+
+    int getNumEdges(){
+        return edgeOrigs.size();
+    }
+
+    Account getEdgeOrig(int i){
+        return edgeOrigs.get(i);
+    }
+
+    Account getEdgeBene(int i){
+        return edgeBenes.get(i);
+    }
+
+    int getEdgeActor(int i){
+        return edgeActors.get(i);
+    }
+
+    void clearEdges(){
+        edgeOrigs.clear();
+        edgeBenes.clear();
+        edgeActors.clear();
+    }
+
+    /**
+     * Add the deferred transaction edges to the transaction network in order
+     * This method must be called from a thread without any context.
+     */
+    void applyEdges(){
+        int numEdges = edgeOrigs.size();
+        for(int i=0; i<numEdges; i++){
+            edgeOrigs.get(i).addBeneAcct(edgeBenes.get(i));
+        }
+        clearEdges();
+    }
+}
@@ -0,0 +1,126 @@
+package amlsim;
+
+import java.util.Random;
+
+/**
+ * Random number generator backed by independent streams (SplitMix64)
+ * The state of each stream is stored in a slot of a shared long array (e.g. one slot per account),
+ * and this generator is bound to one of the slots before drawing random numbers.
+ * The random numbers of a stream do not depend on threads or the order of the other streams.
+ */
+class StreamRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long[] states = null;  // Shared stream states
+    private int slot = -1;  // Slot of the bound stream
+    private long state;  // Current state of the bound stream
+
+    StreamRandom(){
+        super(0L);
+    }
+
+    /**
+     * Create initial states of random number streams
+     * @param seed Seed of randomness
+     * @param size Number of streams
+     * @return Initial stream states
+     */
+    static long[] createStates(long seed, int size){
+        long[] states = new long[size];
+        for(int i=0; i<size; i++){
+            states[i] = createState(seed, i);
+        }
+        return states;
+    }
+
+    /**
+     * Create the initial state of a random number stream
+     * @param seed Seed of randomness
+     * @param key Stream key (e.g. account index or alert ID)
+     * @return Initial stream state
+     */
+    static long createState(long seed, long key){
+        return mix64(mix64(seed) + GOLDEN_GAMMA * (key + 1));
+    }
+
+    private static long mix64(long z){
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Bind this generator to a stream
+     * @param states Stream states
+     * @param slot Slot of the stream
+     */
+    void bind(long[] states, int slot){
+        this.states = states;
+        this.slot = slot;
+        this.state = states[slot];
+    }
+
+    /**
+     * Store the current state to the bound stream and release it
+     */
+    void unbind(){
+        if(states != null){
+            states[slot] = state;
+            states = null;
+            slot = -1;
+        }
+    }
+
+    boolean isBound(){
+        return states != null;
+    }
+
+    @Override
+    public synchronized void setSeed(long seed){
+        this.state = seed;  // Called only from the constructor of Random
+    }
+
+    @Override
+    protected int next(int bits){
+        state += GOLDEN_GAMMA;
+        return (int)(mix64(state) >>> (64 - bits));
+    }
+
+    /**
+     * Fill an array with uniform random floats in [0, 1)
+     * The values are the same as consecutive nextFloat() calls, but a stream generator fills them in one loop.
+     * @param rand Random number generator
+     * @param values Output array
+     * @param offset The first index of the array
+     * @param length Number of random values
+     */
+    static void nextFloats(Random rand, float[] values, int offset, int length){
+        if(rand instanceof StreamRandom){
+            StreamRandom stream = (StreamRandom) rand;
+            long s = stream.state;
+            for(int i=0; i<length; i++){
+                s += GOLDEN_GAMMA;
+                values[offset + i] = (int)(mix64(s) >>> 40) / ((float)(1 << 24));
+            }
+            stream.state = s;
+        }else{
+            for(int i=0; i<length; i++){
+                values[offset + i] = rand.nextFloat();
+            }
+        }
+    }
+
+    @Override
+    public double nextGaussian(){
+        // Polar method without keeping the second value, because the bound stream changes between calls
+        double v1, v2, s;
+        do{
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        }while(s >= 1 || s == 0);
+        return v1 * StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+    }
+}
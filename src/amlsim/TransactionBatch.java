@@ -0,0 +1,163 @@
+package amlsim;
+
+import java.util.Arrays;
+
+/**
+ * Reusable batch of normal transactions which an account makes at a step
+ * Normal models fill the beneficiary, amount and type code arrays, and the engine applies the balances,
+ * counters and log records of the whole batch in one loop after the model finished the step.
+ * The random values of the realistic amounts (variance and round amount decisions) of the whole batch
+ * are drawn in one pass into a reusable buffer and applied in one loop over the amount arrays.
+ */
+public class TransactionBatch {
+
+    private static final int INITIAL_SIZE = 16;
+
+    private long step = -1;
+    private Account orig = null;  // Originator account of all transactions in this batch
+    private int size = 0;
+    private Account[] benes = new Account[INITIAL_SIZE];
+    private float[] amounts = new float[INITIAL_SIZE];
+    private byte[] types = new byte[INITIAL_SIZE];  // Transaction type codes
+    private float[] variances = new float[INITIAL_SIZE];  // Maximum ratios of the variance (0: exact amount)
+    private float[] roundProbs = new float[INITIAL_SIZE];  // Round amount probabilities (negative: exact amount)
+    private int numRealistic = 0;  // Number of transactions whose amounts are made more realistic
+    private float[] draws = new float[INITIAL_SIZE * 2];  // Random values of the variances and the round amount decisions
+
+    /**
+     * Start a batch of transactions from an account
+     * @param step Current simulation step
+     * @param orig Originator account
+     */
+    void begin(long step, Account orig){
+        this.step = step;
+        this.orig = orig;
+        this.size = 0;
+        this.numRealistic = 0;
+    }
+
+    /**
+     * Check whether this batch collects the transactions from the account
+     * @param account Account object
+     * @return If true, transactions from the account can be added to this batch
+     */
+    public boolean isOpen(Account account){
+        return orig == account;
+    }
+
+    /**
+     * Add a transaction from the originator account of this batch
+     * The transaction type is determined at this point, so that random numbers are drawn in the same order
+     * as a single transaction.
+     * @param bene Beneficiary account
+     * @param amount Transaction amount
+     */
+    public void add(Account bene, float amount){
+        if(amount <= 0){  // Invalid transaction amount
+            AMLSim.getLogger().warning("Warning: invalid transaction amount: " + amount);
+            return;
+        }
+        add(bene, amount, 0.0F, -1.0F);
+    }
+
+    /**
+     * Add a transaction whose amount is made more realistic (variance and round amounts)
+     * The amount is computed as SimProperties.makeTransactionMoreRealistic by applyRandomValues()
+     * after all transactions of the batch are added.
+     * @param bene Beneficiary account
+     * @param amount Base transaction amount
+     * @param variance Maximum ratio of the variance
+     * @param roundAmountProbability Probability to round the amount
+     */
+    public void addRealistic(Account bene, float amount, float variance, float roundAmountProbability){
+        add(bene, amount, variance, Math.max(roundAmountProbability, 0.0F));
+        numRealistic++;
+    }
+
+    private void add(Account bene, float amount, float variance, float roundProb){
+        if(size == benes.length){
+            int newSize = size * 2;
+            benes = Arrays.copyOf(benes, newSize);
+            amounts = Arrays.copyOf(amounts, newSize);
+            types = Arrays.copyOf(types, newSize);
+            variances = Arrays.copyOf(variances, newSize);
+            roundProbs = Arrays.copyOf(roundProbs, newSize);
+        }
+        benes[size] = bene;
+        amounts[size] = amount;
+        variances[size] = variance;
+        roundProbs[size] = roundProb;
+        types[size] = orig.getTxTypeCode(bene);
+        size++;
+    }
+
+    /**
+     * Draw the random values of all realistic amounts in one pass and apply the variances and round amounts
+     * Transactions whose amounts become invalid are removed.
+     */
+    void applyRandomValues(){
+        if(numRealistic == 0){
+            return;
+        }
+        if(draws.length < numRealistic * 2){
+            draws = new float[Math.max(numRealistic * 2, draws.length * 2)];
+        }
+        StreamRandom.nextFloats(AMLSim.getRandom(), draws, 0, numRealistic * 2);
+
+        int d = 0;
+        int n = 0;
+        for(int i=0; i<size; i++){
+            float amount = amounts[i];
+            if(roundProbs[i] >= 0){
+                amount = SimProperties.roundAmount(SimProperties.applyVariance(amount, variances[i], draws[d]),
+                        draws[d + 1], roundProbs[i]);
+                d += 2;
+            }
+            if(amount <= 0){  // Invalid transaction amount
+                AMLSim.getLogger().warning("Warning: invalid transaction amount: " + amount);
+                continue;
+            }
+            benes[n] = benes[i];
+            amounts[n] = amount;
+            types[n] = types[i];
+            n++;
+        }
+        Arrays.fill(benes, n, size, null);
+        size = n;
+        numRealistic = 0;
+    }
+
+    long getStep(){
+        return step;
+    }
+
+    Account getOrig(){
+        return orig;
+    }
+
+    int size(){
+        return size;
+    }
+
+    Account getBene(int i){
+        return benes[i];
+    }
+
+    float getAmount(int i){
+        return amounts[i];
+    }
+
+    byte getType(int i){
+        return types[i];
+    }
+
+    /**
+     * Close this batch and remove all transactions (keep the allocated arrays)
+     */
+    void end(){
+        Arrays.fill(benes, 0, size, null);
+        size = 0;
+        numRealistic = 0;
+        orig = null;
+    }
+}
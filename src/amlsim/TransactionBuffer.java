@@ -0,0 +1,215 @@
+package amlsim;
+
+import java.util.Arrays;
+
+/**
+ * Buffer of transactions which are generated by a partition of accounts and not yet committed
+ * (applied to the account balances and logged)
+ */
+class TransactionBuffer {
+
+    private static final int INITIAL_SIZE = 1024;
+
+    private int size = 0;
+    private long[] steps = new long[INITIAL_SIZE];
+    private int[] actors = new int[INITIAL_SIZE];  // Index of the account which generated the transaction
+    private String[] descriptions = new String[INITIAL_SIZE];
+    private float[] amounts = new float[INITIAL_SIZE];
+    private Account[] origs = new Account[INITIAL_SIZE];
+    private Account[] benes = new Account[INITIAL_SIZE];
+    private Branch[] branches = new Branch[INITIAL_SIZE];  // Branch of a cash transaction (null: transfer between accounts)
+    private boolean[] isSAR = new boolean[INITIAL_SIZE];
+    private long[] alertIDs = new long[INITIAL_SIZE];
+
+    void add(long step, int actor, String desc, float amt, Account orig, Account bene, boolean sar, long alertID){
+        if(size == steps.length){
+            grow();
+        }
+        steps[size] = step;
+        actors[size] = actor;
+        descriptions[size] = desc;
+        amounts[size] = amt;
+        origs[size] = orig;
+        benes[size] = bene;
+        branches[size] = null;
+        isSAR[size] = sar;
+        alertIDs[size] = alertID;
+        size++;
+    }
+
+    /**
+     * Add a cash transaction between an account and a branch
+     * The branch side of the originator (cash-out) or the beneficiary (cash-in) account is null.
+     */
+    void addCash(long step, int actor, String desc, float amt, Account account, Branch branch, boolean isCashIn){
+        add(step, actor, desc, amt, isCashIn ? account : null, isCashIn ? null : account, false, -1);
+        branches[size - 1] = branch;
+    }
+
+    private void grow(){
+        int newSize = steps.length * 2;
+        steps = Arrays.copyOf(steps, newSize);
+        actors = Arrays.copyOf(actors, newSize);
+        descriptions = Arrays.copyOf(descriptions, newSize);
+        amounts = Arrays.copyOf(amounts, newSize);
+        origs = Arrays.copyOf(origs, newSize);
+        benes = Arrays.copyOf(benes, newSize);
+        branches = Arrays.copyOf(branches, newSize);
+        isSAR = Arrays.copyOf(isSAR, newSize);
+        alertIDs = Arrays.copyOf(alertIDs, newSize);
+    }
+
+    int size(){
+        return size;
+    }
+
+    long getStep(int i){
+        return steps[i];
+    }
+
+    int getActor(int i){
+        return actors[i];
+    }
+
+    String getDescription(int i){
+        return descriptions[i];
+    }
+
+    float getAmount(int i){
+        return amounts[i];
+    }
+
+    Account getOrig(int i){
+        return origs[i];
+    }
+
+    Account getBene(int i){
+        return benes[i];
+    }
+
+    Branch getBranch(int i){
+        return branches[i];
+    }
+
+    boolean isSAR(int i){
+        return isSAR[i];
+    }
+
+    long getAlertID(int i){
+        return alertIDs[i];
+    }
+
+    /**
+     * Apply the i-th transaction to the account balances and log it
+     * @param i Index of the transaction in this buffer
+     */
+    void commit(int i){
+        if(branches[i] != null){
+            boolean isCashIn = origs[i] != null;
+            AMLSim.applyCashTransaction(steps[i], descriptions[i], amounts[i], isCashIn ? origs[i] : benes[i],
+                    branches[i], isCashIn);
+            return;
+        }
+        AMLSim.applyTransaction(steps[i], descriptions[i], amounts[i], origs[i], benes[i], isSAR[i], alertIDs[i]);
+    }
+
+    /**
+     * Reorder the transactions of a temporal block in the order of (step, account index)
+     * The first run [from, mid) is generated account by account over the block (ascending account indices),
+     * and the second run [mid, to) is generated step by step (ascending account indices at each step).
+     * The order of the transactions generated by the same account at the same step is preserved.
+     * @param from The first index of the block in this buffer
+     * @param mid The first index of the second run
+     * @param to The end index of the block (exclusive)
+     * @param begin The first step of the block
+     * @param end The end step of the block (exclusive)
+     */
+    void mergeBlock(int from, int mid, int to, long begin, long end){
+        if(from == mid || mid == to && end - begin <= 1){
+            return;  // Already ordered
+        }
+        int numSteps = (int)(end - begin);
+        int[] firstBounds = new int[numSteps + 1];  // Run 1 has transactions [firstBounds[s], firstBounds[s+1]) at step s
+        int[] secondBounds = new int[numSteps + 1];
+        int[] firstIndices = new int[mid - from];
+        for(int i=from; i<mid; i++){
+            firstBounds[(int)(steps[i] - begin) + 1]++;
+        }
+        for(int s=0; s<numSteps; s++){
+            firstBounds[s + 1] += firstBounds[s];
+        }
+        int[] next = Arrays.copyOf(firstBounds, numSteps);
+        for(int i=from; i<mid; i++){
+            firstIndices[next[(int)(steps[i] - begin)]++] = i;
+        }
+        int j = mid;
+        for(int s=0; s<numSteps; s++){
+            while(j < to && steps[j] == begin + s){
+                j++;
+            }
+            secondBounds[s + 1] = j - mid;
+        }
+
+        int[] order = new int[to - from];
+        int k = 0;
+        for(int s=0; s<numSteps; s++){
+            int a = firstBounds[s];
+            int b = mid + secondBounds[s];
+            int aEnd = firstBounds[s + 1];
+            int bEnd = mid + secondBounds[s + 1];
+            while(a < aEnd || b < bEnd){
+                if(b >= bEnd || a < aEnd && actors[firstIndices[a]] < actors[b]){
+                    order[k++] = firstIndices[a++];
+                }else{
+                    order[k++] = b++;
+                }
+            }
+        }
+        permute(from, order);
+    }
+
+    private void permute(int from, int[] order){
+        int n = order.length;
+        long[] newSteps = new long[n];
+        int[] newActors = new int[n];
+        String[] newDescriptions = new String[n];
+        float[] newAmounts = new float[n];
+        Account[] newOrigs = new Account[n];
+        Account[] newBenes = new Account[n];
+        Branch[] newBranches = new Branch[n];
+        boolean[] newIsSAR = new boolean[n];
+        long[] newAlertIDs = new long[n];
+        for(int i=0; i<n; i++){
+            int src = order[i];
+            newSteps[i] = steps[src];
+            newActors[i] = actors[src];
+            newDescriptions[i] = descriptions[src];
+            newAmounts[i] = amounts[src];
+            newOrigs[i] = origs[src];
+            newBenes[i] = benes[src];
+            newBranches[i] = branches[src];
+            newIsSAR[i] = isSAR[src];
+            newAlertIDs[i] = alertIDs[src];
+        }
+        System.arraycopy(newSteps, 0, steps, from, n);
+        System.arraycopy(newActors, 0, actors, from, n);
+        System.arraycopy(newDescriptions, 0, descriptions, from, n);
+        System.arraycopy(newAmounts, 0, amounts, from, n);
+        System.arraycopy(newOrigs, 0, origs, from, n);
+        System.arraycopy(newBenes, 0, benes, from, n);
+        System.arraycopy(newBranches, 0, branches, from, n);
+        System.arraycopy(newIsSAR, 0, isSAR, from, n);
+        System.arraycopy(newAlertIDs, 0, alertIDs, from, n);
+    }
+
+    /**
+     * Remove all transactions (keep the allocated arrays)
+     */
+    void clear(){
+        Arrays.fill(descriptions, 0, size, null);
+        Arrays.fill(origs, 0, size, null);
+        Arrays.fill(benes, 0, size, null);
+        Arrays.fill(branches, 0, size, null);
+        size = 0;
+    }
+}
@@ -1,9 +1,6 @@
 package amlsim;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -30,6 +27,7 @@ public class TransactionRepository {
     private float[] destAfter;
     private boolean[] isSAR;
     private long[] alertIDs;
+    private String[] rows;  // Formatted rows merged from another log (null: format the fields)
 
     private Map<Long, Integer> txCounter;
     private Map<Long, Integer> sarTxCounter;
@@ -51,6 +49,7 @@ public class TransactionRepository {
         this.destAfter = new float[size];
         this.isSAR = new boolean[size];
         this.alertIDs = new long[size];
+        this.rows = new String[size];
     }
 
     void setLimit(int limit){
@@ -59,11 +58,9 @@ public class TransactionRepository {
 
     void addTransaction(long step, String desc, float amt, String origID, String destID, float origBefore,
                         float origAfter, float destBefore, float destAfter, boolean isSAR, long aid){
-        if(count >= limit){
-            if(count == limit){
-                System.err.println("Warning: the number of output transactions has reached the limit: " + limit);
+        if(!countTransaction(step, desc, isSAR)){
+            if(index > 0){  // Flush the buffered transactions when the number of transactions reached the limit
                 flushLog();
-                count++;
             }
             return;
         }
@@ -80,6 +77,49 @@ public class TransactionRepository {
         this.isSAR[index] = isSAR;
         this.alertIDs[index] = aid;
 
+        index++;
+        if(index >= size){
+            flushLog();
+        }
+    }
+
+    /**
+     * Add a normal transaction whose row of the transaction log is already formatted
+     * @param step Simulation step
+     * @param desc Transaction description (e.g. type)
+     * @param isSAR SAR flag
+     * @param row Row of the transaction log without the line separator
+     */
+    void addRow(long step, String desc, boolean isSAR, String row){
+        if(!countTransaction(step, desc, isSAR)){
+            if(index > 0){
+                flushLog();
+            }
+            return;
+        }
+        this.rows[index] = row;
+        index++;
+        if(index >= size){
+            flushLog();
+        }
+    }
+
+    /**
+     * Count a transaction for the counter log
+     * @param step Simulation step
+     * @param desc Transaction description (e.g. type)
+     * @param isSAR SAR flag
+     * @return If false, the number of output transactions has reached the limit and the transaction is not logged
+     */
+    boolean countTransaction(long step, String desc, boolean isSAR){
+        if(count >= limit){
+            if(count == limit){
+                System.err.println("Warning: the number of output transactions has reached the limit: " + limit);
+                count++;
+            }
+            return false;
+        }
+
         if(isSAR){
             sarTxCounter.put(step, sarTxCounter.getOrDefault(step, 0) + 1);
         }else if(!desc.contains("CASH-")) {
@@ -88,13 +128,22 @@ public class TransactionRepository {
         }
 
         count++;
-        index++;
-        if(index >= size){
-            flushLog();
-        }
+        return true;
+    }
+
+    /**
+     * Convert a transaction to a line of the transaction log CSV file
+     * @return CSV line without the line separator
+     */
+    static String toCSV(long step, String desc, float amt, String origID, float origBefore, float origAfter,
+                        String destID, float destBefore, float destAfter, boolean isSAR, long aid){
+        return step + "," + desc + "," + getDoublePrecision(amt) + "," +
+                origID + "," + getDoublePrecision(origBefore) + "," + getDoublePrecision(origAfter) + "," +
+                destID + "," + getDoublePrecision(destBefore) + "," + getDoublePrecision(destAfter) + "," +
+                (isSAR ? "1" : "0") + "," + aid;
     }
 
-    private double getDoublePrecision(double d) {
+    private static double getDoublePrecision(double d) {
         // Round down amount to two digits (e.g. 12.3456 --> 12.34)
         // DecimalFormat will not be used because of its computation cost
         return (int)(d * 100) / 100.0;
@@ -122,10 +171,14 @@ public class TransactionRepository {
             BufferedWriter writer = new BufferedWriter(writer1);
 
             for(int i = 0; i < this.index; i++){
-                writer.write(steps[i] + "," + descriptions[i] + "," + getDoublePrecision(amounts[i]) + "," +
-                        origIDs[i] + "," + getDoublePrecision(origBefore[i]) + "," + getDoublePrecision(origAfter[i]) + "," +
-                        destIDs[i] + "," + getDoublePrecision(destBefore[i]) + "," + getDoublePrecision(destAfter[i]) + "," +
-                        (isSAR[i] ? "1" : "0") + "," + alertIDs[i] + "\n");
+                if(rows[i] != null){
+                    writer.write(rows[i]);
+                    writer.write("\n");
+                    rows[i] = null;
+                    continue;
+                }
+                writer.write(toCSV(steps[i], descriptions[i], amounts[i], origIDs[i], origBefore[i], origAfter[i],
+                        destIDs[i], destBefore[i], destAfter[i], isSAR[i], alertIDs[i]) + "\n");
             }
             writer.flush();
             writer.close();
@@ -135,4 +188,68 @@ public class TransactionRepository {
         index = 0;
     }
 
+    /**
+     * Flush the buffered transactions and write the repository state to a checkpoint
+     * The state consists of the transaction counters and the contents of the transaction log file,
+     * so that the checkpoint does not depend on the log file after it is saved.
+     * @param output Checkpoint output
+     * @throws IOException if an I/O error occurs
+     */
+    void saveState(DataOutput output) throws IOException{
+        flushLog();
+        output.writeInt(count);
+        writeCounter(output, txCounter);
+        writeCounter(output, sarTxCounter);
+        File logFile = new File(AMLSim.getTxLogFileName());
+        long length = logFile.length();
+        output.writeLong(length);
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))){
+            copy(in, output, length);
+        }
+    }
+
+    /**
+     * Restore the repository state from a checkpoint
+     * The transaction log until the checkpoint is written to the transaction log file of this simulation.
+     * @param input Checkpoint input
+     * @throws IOException if an I/O error occurs
+     */
+    void loadState(DataInput input) throws IOException{
+        index = 0;
+        count = input.readInt();
+        txCounter = readCounter(input);
+        sarTxCounter = readCounter(input);
+        long length = input.readLong();
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(AMLSim.getTxLogFileName()))){
+            copy(input, new DataOutputStream(out), length);
+        }
+    }
+
+    private static void copy(DataInput input, DataOutput output, long length) throws IOException{
+        byte[] buffer = new byte[8192];
+        long remaining = length;
+        while(remaining > 0){
+            int n = (int)Math.min(buffer.length, remaining);
+            input.readFully(buffer, 0, n);
+            output.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    private static void writeCounter(DataOutput output, Map<Long, Integer> counter) throws IOException{
+        output.writeInt(counter.size());
+        for(Map.Entry<Long, Integer> entry : counter.entrySet()){
+            output.writeLong(entry.getKey());
+            output.writeInt(entry.getValue());
+        }
+    }
+
+    private static Map<Long, Integer> readCounter(DataInput input) throws IOException{
+        int size = input.readInt();
+        Map<Long, Integer> counter = new HashMap<>();
+        for(int i=0; i<size; i++){
+            counter.put(input.readLong(), input.readInt());
+        }
+        return counter;
+    }
 }
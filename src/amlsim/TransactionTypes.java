@@ -0,0 +1,163 @@
+package amlsim;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Dictionary of transaction types with byte codes and a weighted sampler of the types
+ * Each account keeps the codes of the transaction types to its beneficiaries instead of the type strings.
+ * The sampler is a Walker alias table, which draws a type in constant time without allocation
+ * for transactions to accounts which are not input beneficiaries.
+ */
+class TransactionTypes {
+
+    private static final int MAX_TYPES = Byte.MAX_VALUE + 1;
+
+    private final List<String> names = new ArrayList<>();  // Code --> Transaction type
+    private final Map<String, Byte> codes = new HashMap<>();  // Transaction type --> Code
+    private final List<Double> counts = new ArrayList<>();  // Number of input transactions of each type
+    private double[] probs = null;  // Alias table: probability to accept the code of each column
+    private byte[] aliases = null;  // Alias table: alternative code of each column
+
+    /**
+     * Get the code of a transaction type, and add the type to this dictionary if it is new
+     * @param name Transaction type
+     * @return Code of the transaction type
+     */
+    byte intern(String name){
+        Byte code = codes.get(name);
+        if(code == null){
+            if(names.size() >= MAX_TYPES){
+                throw new IllegalArgumentException("Too many transaction types (at most " + MAX_TYPES + "): " + name);
+            }
+            code = (byte)names.size();
+            names.add(name);
+            codes.put(name, code);
+            counts.add(0.0);
+        }
+        return code;
+    }
+
+    /**
+     * Add the transaction type of an input transaction
+     * @param name Transaction type
+     * @return Code of the transaction type
+     */
+    byte addInputType(String name){
+        byte code = intern(name);
+        counts.set(code, counts.get(code) + 1);
+        return code;
+    }
+
+    String getName(byte code){
+        return names.get(code);
+    }
+
+    int size(){
+        return names.size();
+    }
+
+    /**
+     * Load the frequencies of transaction types from the transaction type CSV file of the transaction graph generator
+     * @param typeFile Transaction type CSV file with "Type" and "Frequency" columns
+     * @return Transaction type --> Frequency
+     * @throws IOException if the file cannot be loaded
+     */
+    static Map<String, Double> loadFrequencies(String typeFile) throws IOException{
+        Map<String, Double> frequencies = new LinkedHashMap<>();
+        try(BufferedReader reader = new BufferedReader(new FileReader(typeFile))){
+            String line = reader.readLine();  // Header
+            while((line = reader.readLine()) != null){
+                String[] elements = line.split(",");
+                if(elements.length < 2){
+                    continue;
+                }
+                frequencies.put(elements[0].trim(), Double.parseDouble(elements[1].trim()));
+            }
+        }
+        return frequencies;
+    }
+
+    /**
+     * Build the alias table of the transaction types
+     * @param frequencies Transaction type --> Frequency,
+     *                    or null to use the number of input transactions of each type as the weight
+     */
+    void buildSampler(Map<String, Double> frequencies){
+        if(frequencies != null){
+            for(String name : frequencies.keySet()){
+                intern(name);
+            }
+        }
+        int n = names.size();
+        double[] weights = new double[n];
+        double total = 0;
+        for(int i=0; i<n; i++){
+            weights[i] = frequencies != null ? frequencies.getOrDefault(names.get(i), 0.0) : counts.get(i);
+            if(weights[i] < 0){
+                throw new IllegalArgumentException("Negative frequency of the transaction type: " + names.get(i));
+            }
+            total += weights[i];
+        }
+        if(!(total > 0)){
+            probs = null;
+            aliases = null;
+            return;
+        }
+
+        // Vose's alias method
+        probs = new double[n];
+        aliases = new byte[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numSmall = 0;
+        int numLarge = 0;
+        double[] scaled = new double[n];
+        for(int i=0; i<n; i++){
+            scaled[i] = weights[i] * n / total;
+            if(scaled[i] < 1.0){
+                small[numSmall++] = i;
+            }else{
+                large[numLarge++] = i;
+            }
+        }
+        while(numSmall > 0 && numLarge > 0){
+            int s = small[--numSmall];
+            int l = large[--numLarge];
+            probs[s] = scaled[s];
+            aliases[s] = (byte)l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+            if(scaled[l] < 1.0){
+                small[numSmall++] = l;
+            }else{
+                large[numLarge++] = l;
+            }
+        }
+        while(numLarge > 0){
+            int l = large[--numLarge];
+            probs[l] = 1.0;
+            aliases[l] = (byte)l;
+        }
+        while(numSmall > 0){  // Rounding errors
+            int s = small[--numSmall];
+            probs[s] = 1.0;
+            aliases[s] = (byte)s;
+        }
+    }
+
+    /**
+     * Draw a transaction type code in proportion to the weights
+     * @param rand Random number generator
+     * @return Code of the transaction type
+     */
+    byte sample(Random rand){
+        if(probs == null){
+            throw new IllegalStateException("No transaction types to be sampled");
+        }
+        double x = rand.nextDouble() * probs.length;
+        int column = (int)x;
+        return x - column < probs[column] ? (byte)column : aliases[column];
+    }
+}
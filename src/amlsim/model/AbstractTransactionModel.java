@@ -2,8 +2,13 @@ package amlsim.model;
 
 import amlsim.Account;
 import amlsim.AMLSim;
+import amlsim.SimProperties;
+import amlsim.TransactionBatch;
 
-import org.apache.commons.math3.distribution.BetaDistribution;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
 
 
 /**
@@ -21,6 +26,26 @@ public abstract class AbstractTransactionModel {
 
 //    protected static Random rand = new Random(AMLSim.getSeed());
 
+    /**
+     * Whether the model of the given ID may add transactions to the originators of the account
+     * (the beneficiary list grows from the originator list during the simulation)
+     * @param modelID Transaction model ID
+     * @return If true, the beneficiaries of the account may become any of its originators
+     */
+    public static boolean addsOriginatorEdges(int modelID){
+        return modelID == MUTUAL;
+    }
+
+    /**
+     * Whether the model of the given ID makes the transactions from the originators of the account
+     * (the transaction types are drawn from the transactions of the originators)
+     * @param modelID Transaction model ID
+     * @return If true, the originators of the account send money on behalf of this model
+     */
+    public static boolean sendsFromOriginators(int modelID){
+        return modelID == FAN_IN;
+    }
+
     protected Account account;  // Account object
     protected int interval = 1; // Default transaction interval
     protected float balance;  // Current balance
@@ -28,22 +53,38 @@ public abstract class AbstractTransactionModel {
     protected long endStep = -1;  // The end step of transactions
     protected boolean isSAR = false;
 
-    protected float roundAmountProbability;
-
-    final private static float roundAmountAlpha = AMLSim.getSimProp().getNormalRoundAmountAlpha();
-    final private static float roundAmountBeta = AMLSim.getSimProp().getNormalRoundAmountBeta();
+    private float roundAmountProbability = -1;  // Drawn at the first transaction (negative: not yet drawn)
 
     protected float maxTxAmount;
 
     public AbstractTransactionModel() {
-        // a beta distribution is used to model the round amount affinity of the actor
-        BetaDistribution betaDistribution = new BetaDistribution(roundAmountAlpha, roundAmountBeta);
-        roundAmountProbability = (float) betaDistribution.inverseCumulativeProbability(AMLSim.getRandom().nextDouble());
-
         maxTxAmount = AMLSim.getSimProp().getMaxTxAmount() +
                        AMLSim.getSimProp().getMaxTxAmountRange() * AMLSim.getRandom().nextFloat();
     }
 
+    /**
+     * Get the probability that a transaction amount of this model is rounded
+     * The probability is drawn at the first call, so that models which never make transactions
+     * (e.g. cash models) do not draw it.
+     * @return Round amount probability
+     */
+    protected float getRoundAmountProbability(){
+        if(roundAmountProbability < 0){
+            roundAmountProbability = drawRoundAmountProbability();
+        }
+        return roundAmountProbability;
+    }
+
+    /**
+     * Draw the round amount probability
+     * A beta distribution is used to model the round amount affinity of the actor.
+     * @return Round amount probability
+     */
+    protected float drawRoundAmountProbability(){
+        SimProperties simProp = AMLSim.getSimProp();
+        return simProp.drawRoundAmountProbability(simProp.getNormalRoundAmountAlpha(), simProp.getNormalRoundAmountBeta());
+    }
+
     /**
      * Get the assumed number of transactions in this simulation
      * @return Number of total transactions
@@ -93,6 +134,92 @@ public abstract class AbstractTransactionModel {
      */
     public abstract void makeTransaction(long step);
 
+    /**
+     * Get the next step where this model may change the transaction network (e.g. add a new beneficiary account)
+     * Partitioned engines synchronize all accounts at the step.
+     * @param step Current simulation step
+     * @return The next synchronization step (not earlier than the current step),
+     * or Long.MAX_VALUE if this model never changes the transaction network
+     */
+    public long getNextSyncStep(long step){
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Whether this model depends only on its own cursors, random stream and beneficiary list within a window
+     * Partitioned engines may run several consecutive steps of such an account in one go (temporal blocking).
+     * @return If true, the transactions do not depend on the other accounts within a window
+     */
+    public boolean canRunInBlocks(){
+        return false;
+    }
+
+    /**
+     * Get the next step of the transaction interval from "startStep"
+     * @param step Current simulation step
+     * @return The first step satisfying (step - startStep) % interval == 0 (not earlier than the current step)
+     */
+    protected long getNextIntervalStep(long step){
+        return step + Math.floorMod(startStep - step, (long)interval);
+    }
+
+    /**
+     * Write the mutable state of this model to a checkpoint
+     * Subclasses with their own cursors or schedules must write them after the state of the superclass.
+     * @param output Checkpoint output
+     * @throws IOException if an I/O error occurs
+     */
+    public void saveState(DataOutput output) throws IOException{
+        output.writeInt(interval);
+        output.writeFloat(balance);
+        output.writeLong(startStep);
+        output.writeLong(endStep);
+        output.writeFloat(roundAmountProbability);
+        output.writeFloat(maxTxAmount);
+    }
+
+    /**
+     * Restore the mutable state of this model from a checkpoint
+     * @param input Checkpoint input
+     * @param accounts All accounts ordered by the account index
+     * @throws IOException if an I/O error occurs
+     */
+    public void loadState(DataInput input, List<Account> accounts) throws IOException{
+        interval = input.readInt();
+        balance = input.readFloat();
+        startStep = input.readLong();
+        endStep = input.readLong();
+        roundAmountProbability = input.readFloat();
+        maxTxAmount = input.readFloat();
+    }
+
+    /**
+     * Write simulation steps to a checkpoint
+     * @param output Checkpoint output
+     * @param steps Simulation steps
+     * @throws IOException if an I/O error occurs
+     */
+    protected static void writeSteps(DataOutput output, long[] steps) throws IOException{
+        output.writeInt(steps.length);
+        for(long step : steps){
+            output.writeLong(step);
+        }
+    }
+
+    /**
+     * Read simulation steps from a checkpoint
+     * @param input Checkpoint input
+     * @return Simulation steps
+     * @throws IOException if an I/O error occurs
+     */
+    protected static long[] readSteps(DataInput input) throws IOException{
+        long[] steps = new long[input.readInt()];
+        for(int i=0; i<steps.length; i++){
+            steps[i] = input.readLong();
+        }
+        return steps;
+    }
+
     /**
      * Generate the start transaction step (to decentralize transaction distribution)
      * @param range Simulation step range
@@ -172,6 +299,24 @@ public abstract class AbstractTransactionModel {
         makeTransaction(step, amount, orig, dest, false, -1);
     }
 
+    /**
+     * Generate and register a transaction whose amount is made more realistic (for normal transactions)
+     * @param step Current simulation step
+     * @param amount Base transaction amount
+     * @param variance Maximum ratio of the variance of the amount
+     * @param dest Destination account
+     */
+    protected void makeRealisticTransaction(long step, float amount, float variance, Account dest){
+        float roundAmountProbability = getRoundAmountProbability();
+        TransactionBatch batch = AMLSim.getTransactionBatch();
+        if(batch.isOpen(this.account)){  // Variance and round amounts are applied to the whole batch
+            batch.addRealistic(dest, amount, variance, roundAmountProbability);
+        }else{
+            this.makeTransaction(step, SimProperties.makeTransactionMoreRealistic(amount, variance, roundAmountProbability),
+                    this.account, dest);
+        }
+    }
+
     /**
      * Generate and register a transaction (for normal transactions)
      * @param step Current simulation step
@@ -179,7 +324,12 @@ public abstract class AbstractTransactionModel {
      * @param dest Destination account
      */
     protected void makeTransaction(long step, float amount, Account dest){
-        this.makeTransaction(step, amount, this.account, dest);
+        TransactionBatch batch = AMLSim.getTransactionBatch();
+        if(batch.isOpen(this.account)){  // Applied after this model finished the step
+            batch.add(dest, amount);
+        }else{
+            this.makeTransaction(step, amount, this.account, dest);
+        }
     }
 
 }
@@ -1,7 +1,6 @@
 package amlsim.model;
 
 import java.io.*;
-import java.util.Random;
 import java.util.Properties;
 
 import amlsim.AMLSim;
@@ -9,118 +8,142 @@ import amlsim.Account;
 
 /**
  * Adjust transaction parameters for fine-tuning of the transaction network
+ * Each simulation has its own parameters, and the static methods refer to the parameters of the current simulation.
+ * The parameters are compiled into immutable tables indexed by the pair of SAR flags (originator, beneficiary)
+ * when they are loaded, so that each transaction looks up one row and draws one random value.
  */
 public class ModelParameters {
 
-//    private static Random rand = new Random(AMLSim.getSeed());
-    private static Random rand = AMLSim.getRandom();
-    private static Properties prop = null;
-
-    private static float SAR2SAR_EDGE_THRESHOLD = 0.0F;
-    private static float SAR2NORMAL_EDGE_THRESHOLD = 0.0F;
-    private static float NORMAL2SAR_EDGE_THRESHOLD = 0.0F;
-    private static float NORMAL2NORMAL_EDGE_THRESHOLD = 0.0F;
-    
-    private static float SAR2SAR_TX_PROB = 1.0F;
-    private static float SAR2NORMAL_TX_PROB = 1.0F;
-    private static float NORMAL2SAR_TX_PROB = 1.0F;
-    private static float NORMAL2NORMAL_TX_PROB = 1.0F;
-
-    private static float SAR2SAR_AMOUNT_RATIO = 1.0F;
-    private static float SAR2NORMAL_AMOUNT_RATIO = 1.0F;
-    private static float NORMAL2SAR_AMOUNT_RATIO = 1.0F;
-    private static float NORMAL2NORMAL_AMOUNT_RATIO = 1.0F;
-
-    private static float NORMAL_HIGH_RATIO = 1.0F;  // High transaction amount ratio from normal accounts
-    private static float NORMAL_LOW_RATIO = 1.0F;  // Low transaction amount ratio from normal accounts
-    private static float NORMAL_HIGH_PROB = 0.0F;  // Probability of transactions with high amount
-    private static float NORMAL_LOW_PROB = 0.0F;  // Probability of transactions with low amount
-    private static float NORMAL_SKIP_PROB = 0.0F;  // Probability of skipping transactions
+    // Row of the tables: (originator, beneficiary)
+    private static final int NORMAL2NORMAL = 0;
+    private static final int NORMAL2SAR = 1;
+    private static final int SAR2NORMAL = 2;
+    private static final int SAR2SAR = 3;
+    private static final String[] ROW_NAMES = {"Normal -> Normal", "Normal -> SAR", "SAR -> Normal", "SAR -> SAR"};
+    private static final String[] ROW_KEYS = {"normal2normal", "normal2sar", "sar2normal", "sar2sar"};
+
+    // Outcomes of a transaction in each row: high amount, low amount, skip and the base amount ratio
+    private static final int NUM_OUTCOMES = 4;
+
+    private final boolean valid;  // Whether the parameters are loaded
+    private final float[] edgeThresholds = new float[4];  // Row --> Minimum proportion of SAR beneficiary accounts
+    private final int minNormal2SARNeighbors;  // Minimum number of beneficiary accounts for normal -> SAR edges
+    // Row * NUM_OUTCOMES + outcome --> Cumulative probability and amount ratio (0: no transaction)
+    private final float[] bounds = new float[4 * NUM_OUTCOMES];
+    private final float[] ratios = new float[4 * NUM_OUTCOMES];
 
     /**
-     * Whether it adjusts parameters of normal transactions
-     * @return If true, it affects to normal transaction models
-     * If false, it does not any effects to all normal transactions
+     * Create parameters which do not adjust any transactions
      */
-    public static boolean isValid(){
-        return prop != null;
+    public ModelParameters(){
+        this.valid = false;
+        this.minNormal2SARNeighbors = 0;
     }
-    
-    private static float getRatio(String key, float defaultValue){
-        String value = System.getProperty(key);
-        if(value == null){
-            value = prop.getProperty(key, String.valueOf(defaultValue));
+
+    /**
+     * Load and compile the parameters from a properties file
+     * @param prop Model parameters
+     */
+    private ModelParameters(Properties prop){
+        this.valid = true;
+        float[] txProbs = new float[4];
+        float[] amountRatios = new float[4];
+        for(int row=0; row<4; row++){
+            edgeThresholds[row] = getRatio(prop, ROW_KEYS[row] + ".edge.threshold", 1.0F);
+            txProbs[row] = getRatio(prop, ROW_KEYS[row] + ".tx.prob", 1.0F);
+            amountRatios[row] = getRatio(prop, ROW_KEYS[row] + ".amount.ratio", 1.0F);
+        }
+        float highRatio = getRatio(prop, "normal.high.ratio", 1.0F);  // High transaction amount ratio from normal accounts
+        float lowRatio = getRatio(prop, "normal.low.ratio", 1.0F);  // Low transaction amount ratio from normal accounts
+        float highProb = getRatio(prop, "normal.high.prob", 1.0F);  // Probability of transactions with high amount
+        float lowProb = getRatio(prop, "normal.low.prob", 1.0F);  // Probability of transactions with low amount
+        float skipProb = getRatio(prop, "normal.skip.prob", 1.0F);  // Probability of skipping transactions
+        if(highRatio < 1.0){
+            throw new IllegalArgumentException("The high transaction amount ratio must be 1.0 or more");
+        }
+        if(lowRatio <= 0.0 || 1.0 < lowRatio){
+            throw new IllegalArgumentException("The low transaction amount ratio must be positive and 1.0 or less");
+        }
+        if(1.0 < highProb + lowProb + skipProb){
+            throw new IllegalArgumentException("The sum of high, low and skip transaction probabilities" +
+                                                       " must be 1.0 or less");
+        }
+        float threshold = edgeThresholds[NORMAL2SAR];
+        this.minNormal2SARNeighbors = threshold > 0.0F ? (int) Math.floor(1 / threshold) : 0;
+
+        // A transaction is made with the probability of the row, and then transactions from normal accounts
+        // have high, low or skipped amounts: the cumulative probabilities of both decisions share one random value
+        for(int row=0; row<4; row++){
+            int base = row * NUM_OUTCOMES;
+            float txProb = txProbs[row];
+            boolean normalOrig = row == NORMAL2NORMAL || row == NORMAL2SAR;
+            float high = normalOrig ? highProb : 0.0F;
+            float low = normalOrig ? lowProb : 0.0F;
+            float skip = normalOrig ? skipProb : 0.0F;
+            bounds[base] = txProb * high;
+            ratios[base] = amountRatios[row] * highRatio;
+            bounds[base + 1] = txProb * (high + low);
+            ratios[base + 1] = amountRatios[row] * lowRatio;
+            bounds[base + 2] = txProb * (high + low + skip);
+            ratios[base + 2] = 0.0F;
+            bounds[base + 3] = txProb;
+            ratios[base + 3] = amountRatios[row];
         }
-        return Float.parseFloat(value);
-    }
 
-    private static float getRatio(String key){
-        return getRatio(key, 1.0F);
+        System.out.println("Transaction Probability:");
+        for(int row=SAR2SAR; row>=0; row--){
+            System.out.println("\t" + ROW_NAMES[row] + ": " + txProbs[row]);
+        }
+        System.out.println("Transaction edge addition threshold (proportion of SAR accounts):");
+        for(int row=SAR2SAR; row>=0; row--){
+            System.out.println("\t" + ROW_NAMES[row] + ": " + edgeThresholds[row]);
+        }
+        System.out.println("Transaction amount ratio:");
+        for(int row=SAR2SAR; row>=0; row--){
+            System.out.println("\t" + ROW_NAMES[row] + ": " + amountRatios[row]);
+        }
     }
 
-    public static void loadProperties(String propFile){
+    /**
+     * Load the parameters from a file
+     * @param propFile Model parameter file, or null for no parameters
+     * @return Compiled parameters (they do not adjust any transactions if the file cannot be loaded)
+     */
+    public static ModelParameters load(String propFile){
         if(propFile == null){
-            return;
+            return new ModelParameters();
         }
         System.out.println("Model parameter file: " + propFile);
-        try{
-            prop = new Properties();
-            prop.load(new FileInputStream(propFile));
+        Properties prop = new Properties();
+        try(InputStream input = new FileInputStream(propFile)){
+            prop.load(input);
         }catch (IOException e){
             System.err.println("Cannot load model parameter file: " + propFile);
             e.printStackTrace();
-            prop = null;
-            return;
+            return new ModelParameters();
         }
+        return new ModelParameters(prop);
+    }
 
-        SAR2SAR_EDGE_THRESHOLD = getRatio("sar2sar.edge.threshold");
-        SAR2NORMAL_EDGE_THRESHOLD = getRatio("sar2normal.edge.threshold");
-        NORMAL2SAR_EDGE_THRESHOLD = getRatio("normal2sar.edge.threshold");
-        NORMAL2NORMAL_EDGE_THRESHOLD = getRatio("normal2normal.edge.threshold");
-        
-        SAR2SAR_TX_PROB = getRatio("sar2sar.tx.prob");
-        SAR2NORMAL_TX_PROB = getRatio("sar2normal.tx.prob");
-        NORMAL2SAR_TX_PROB = getRatio("normal2sar.tx.prob");
-        NORMAL2NORMAL_TX_PROB = getRatio("normal2normal.tx.prob");
-
-        SAR2SAR_AMOUNT_RATIO = getRatio("sar2sar.amount.ratio");
-        SAR2NORMAL_AMOUNT_RATIO = getRatio("sar2normal.amount.ratio");
-        NORMAL2SAR_AMOUNT_RATIO = getRatio("normal2sar.amount.ratio");
-        NORMAL2NORMAL_AMOUNT_RATIO = getRatio("normal2normal.amount.ratio");
-
-        NORMAL_HIGH_RATIO = getRatio("normal.high.ratio", 1.0F);
-        NORMAL_LOW_RATIO = getRatio("normal.low.ratio", 1.0F);
-        NORMAL_HIGH_PROB = getRatio("normal.high.prob", 1.0F);
-        NORMAL_LOW_PROB = getRatio("normal.low.prob", 1.0F);
-        NORMAL_SKIP_PROB = getRatio("normal.skip.prob", 1.0F);
-        if(NORMAL_HIGH_RATIO < 1.0){
-            throw new IllegalArgumentException("The high transaction amount ratio must be 1.0 or more");
-        }
-        if(NORMAL_LOW_RATIO <= 0.0 || 1.0 < NORMAL_LOW_RATIO){
-            throw new IllegalArgumentException("The low transaction amount ratio must be positive and 1.0 or less");
-        }
-        if(1.0 < NORMAL_HIGH_PROB + NORMAL_LOW_PROB + NORMAL_SKIP_PROB){
-            throw new IllegalArgumentException("The sum of high, low and skip transaction probabilities" +
-                                                       " must be 1.0 or less");
+    private static float getRatio(Properties prop, String key, float defaultValue){
+        String value = System.getProperty(key);
+        if(value == null){
+            value = prop.getProperty(key, String.valueOf(defaultValue));
         }
+        return Float.parseFloat(value);
+    }
 
-        System.out.println("Transaction Probability:");
-        System.out.println("\tSAR -> SAR: " + SAR2SAR_TX_PROB);
-        System.out.println("\tSAR -> Normal: " + SAR2NORMAL_TX_PROB);
-        System.out.println("\tNormal -> SAR: " + NORMAL2SAR_TX_PROB);
-        System.out.println("\tNormal -> Normal: " + NORMAL2NORMAL_TX_PROB);
-
-        System.out.println("Transaction edge addition threshold (proportion of SAR accounts):");
-        System.out.println("\tSAR -> SAR: " + SAR2SAR_EDGE_THRESHOLD);
-        System.out.println("\tSAR -> Normal: " + SAR2NORMAL_EDGE_THRESHOLD);
-        System.out.println("\tNormal -> SAR: " + NORMAL2SAR_EDGE_THRESHOLD);
-        System.out.println("\tNormal -> Normal: " + NORMAL2NORMAL_EDGE_THRESHOLD);
+    private static int getRow(Account orig, Account bene){
+        return (orig.isSAR() ? SAR2NORMAL : NORMAL2NORMAL) + (bene.isSAR() ? 1 : 0);
+    }
 
-        System.out.println("Transaction amount ratio:");
-        System.out.println("\tSAR -> SAR: " + SAR2SAR_AMOUNT_RATIO);
-        System.out.println("\tSAR -> Normal: " + SAR2NORMAL_AMOUNT_RATIO);
-        System.out.println("\tNormal -> SAR: " + NORMAL2SAR_AMOUNT_RATIO);
-        System.out.println("\tNormal -> Normal: " + NORMAL2NORMAL_AMOUNT_RATIO);
+    /**
+     * Whether it adjusts parameters of normal transactions
+     * @return If true, it affects to normal transaction models
+     * If false, it does not any effects to all normal transactions
+     */
+    public static boolean isValid(){
+        return AMLSim.getModelParameters().valid;
     }
 
     /**
@@ -128,7 +151,7 @@ public class ModelParameters {
      * @return Amount ratio [0.9, 1.1]
      */
     public static float generateAmountRatio(){  // [0.9, 1.1]
-        return rand.nextFloat() * 0.2F + 0.9F;
+        return AMLSim.getRandom().nextFloat() * 0.2F + 0.9F;
     }
 
     /**
@@ -139,51 +162,24 @@ public class ModelParameters {
      * @return Adjusted amount (If it should not make this transaction, return non-positive value)
      */
     public static float adjustAmount(Account orig, Account bene, float baseAmount){
+        return AMLSim.getModelParameters().adjust(orig, bene, baseAmount);
+    }
+
+    private float adjust(Account orig, Account bene, float baseAmount){
         // Generate decentralized amount with up to 10% noise
         float amount = baseAmount * generateAmountRatio();
-
-        if(!isValid()){
+        if(!valid){
             return amount;
         }
 
-        float ratio;
-        float prob = rand.nextFloat();
-        
-        if(orig.isSAR()){  // SAR originator
-            if(bene.isSAR()){  // SAR -> SAR
-                if(SAR2SAR_TX_PROB <= prob){
-                    return 0.0F;
-                }
-                ratio = SAR2SAR_AMOUNT_RATIO;
-            }else{  // SAR -> Normal
-                if(SAR2NORMAL_TX_PROB <= prob){
-                    return 0.0F;
-                }
-                ratio = SAR2NORMAL_AMOUNT_RATIO;
-            }
-        }else{  // Normal originator
-            if(bene.isSAR()){  // Normal -> SAR
-                if(NORMAL2SAR_TX_PROB <= prob){
-                    return 0.0F;
-                }
-                ratio = NORMAL2SAR_AMOUNT_RATIO;
-            }else{  // Normal -> Normal
-                if(NORMAL2NORMAL_TX_PROB <= prob){
-                    return 0.0F;
-                }
-                ratio = NORMAL2NORMAL_AMOUNT_RATIO;
-            }
-            
-            prob = rand.nextFloat();
-            if(prob < NORMAL_HIGH_PROB){  // High-amount payment transaction (near to the upper limit)
-                ratio *= NORMAL_HIGH_RATIO;
-            }else if(prob < NORMAL_HIGH_PROB + NORMAL_LOW_PROB){  // Low-amount transaction
-                ratio *= NORMAL_LOW_RATIO;
-            }else if(prob < NORMAL_HIGH_PROB + NORMAL_LOW_PROB + NORMAL_SKIP_PROB){
-                return 0.0F;  // Skip this transaction
+        int base = getRow(orig, bene) * NUM_OUTCOMES;
+        float prob = AMLSim.getRandom().nextFloat();
+        for(int i=0; i<NUM_OUTCOMES; i++){
+            if(prob < bounds[base + i]){
+                return amount * ratios[base + i];
             }
         }
-        return amount * ratio;
+        return 0.0F;  // No transaction with the probability of the row
     }
 
     /**
@@ -193,35 +189,24 @@ public class ModelParameters {
      * @return If the transaction should be actually added, return true.
      */
     public static boolean shouldAddEdge(Account orig, Account bene){
-        if(!isValid()){  // It always adds this edge
+        return AMLSim.getModelParameters().shouldAdd(orig, bene);
+    }
+
+    private boolean shouldAdd(Account orig, Account bene){
+        if(!valid){  // It always adds this edge
             return true;
         }
-        // Proportion of SAR beneficiary accounts of the originator account
-//        float benePropThreshold = SAR2NORMAL_EDGE_THRESHOLD;
-//        int beneNumThreshold = (int) Math.floor(1 / NORMAL2SAR_EDGE_THRESHOLD);
-
-        int numNeighbors = orig.getBeneList().size();
+        int row = getRow(orig, bene);
         float propSARBene = orig.getPropSARBene();
-
-        if(orig.isSAR()){  // SAR originator
-            if(bene.isSAR()){  // SAR -> SAR
-                return propSARBene >= SAR2SAR_EDGE_THRESHOLD;
-            }else{  // SAR -> Normal
-                // Allow edge creations if the ratio of SAR beneficiary accounts is enough large
-                return propSARBene >= SAR2NORMAL_EDGE_THRESHOLD;
-            }
-        }else{  // Normal originator
-            if(bene.isSAR()){  // Normal -> SAR
-                // Create a transaction edge if the ratio of SAR beneficiary accounts is still large
-                if(NORMAL2SAR_EDGE_THRESHOLD <= 0.0F){
-                    return true;
-                }
-                return numNeighbors > (int) Math.floor(1 / NORMAL2SAR_EDGE_THRESHOLD)
-                        && propSARBene >= NORMAL2SAR_EDGE_THRESHOLD;
-            }else{  // Normal -> Normal
-                return propSARBene >= NORMAL2NORMAL_EDGE_THRESHOLD;
+        if(row == NORMAL2SAR){
+            // Create a transaction edge if the ratio of SAR beneficiary accounts is still large
+            if(edgeThresholds[row] <= 0.0F){
+                return true;
             }
+            return orig.getBeneList().size() > minNormal2SARNeighbors && propSARBene >= edgeThresholds[row];
         }
+        // Allow edge creations if the ratio of SAR beneficiary accounts is enough large
+        return propSARBene >= edgeThresholds[row];
     }
 
 }
@@ -15,8 +15,16 @@ package amlsim.model.aml;
 import amlsim.AMLSim;
 import amlsim.Account;
 import amlsim.Alert;
+import amlsim.AlertSchedule;
 import amlsim.model.AbstractTransactionModel;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
 /**
  * Suspicious transaction models
  */
@@ -39,7 +47,30 @@ public abstract class AMLTypology extends AbstractTransactionModel {
     static final int SIMULTANEOUS = 3;  // All transactions are performed at single step simultaneously
 
     final float marginRatio = AMLSim.getSimProp().getMarginRatio();  // Each member holds this ratio of the received amount
+
+    private long amountStep = -1;  // Simulation step of the shared amount
+    private float stepAmount = 0.0F;  // Amount shared by the transactions of the step
+
+    // Transaction schedule: a shared template (fixed schedules), a seed to regenerate the steps (random schedules),
+    // or the steps restored from a checkpoint
+    private ScheduleTemplate template = null;
+    private long templateBase = 0;  // Simulation step of the offset 0 of the template
+    private boolean randomSchedule = false;
+    private long scheduleSeed = 0;
+    private long[] restoredSteps = null;
     
+    /**
+     * Get the maximum number of transactions of an alert along the transaction network beyond its members
+     * A random typology walks from the main account to one of the beneficiaries of the previous beneficiary,
+     * and makes at most one transaction for each member.
+     * @param modelID Alert transaction model ID as int
+     * @param numMembers Number of alert members
+     * @return Maximum length of the walk from the main account (0: transactions only between the members)
+     */
+    public static int getWalkLength(int modelID, int numMembers){
+        return modelID == RANDOM ? numMembers : 0;
+    }
+
     /**
      * Create an AML typology object (alert transaction model)
      * @param modelID Alert transaction model ID as int
@@ -150,7 +181,43 @@ public abstract class AMLTypology extends AbstractTransactionModel {
      * @return A random amount within "minAmount" and "maxAmount"
      */
     float getRandomAmount(){
-        return alert.getSimulator().random.nextFloat() * (maxAmount - minAmount) + minAmount;
+        float value = AMLSim.isStreamRandom() ? AMLSim.getRandom().nextFloat() : alert.getSimulator().random.nextFloat();
+        return value * (maxAmount - minAmount) + minAmount;
+    }
+
+    /**
+     * Get a random amount shared by all transactions of this typology at the step
+     * The amount is drawn at the first transaction of the step.
+     * @param step Current simulation step
+     * @return A random amount within "minAmount" and "maxAmount"
+     */
+    float getStepAmount(long step){
+        if(step != amountStep){
+            stepAmount = getRandomAmount();
+            amountStep = step;
+        }
+        return stepAmount;
+    }
+
+    /**
+     * Generate a random long value
+     * @param n Upper bound (exclusive)
+     * @return Random long value within 0 and n-1
+     */
+    private long nextRandomLong(long n){
+        if(!AMLSim.isStreamRandom()){
+            return alert.getSimulator().random.nextLong(n);
+        }
+        if(n <= 0){
+            throw new IllegalArgumentException("n must be positive, got: " + n);
+        }
+        Random rand = AMLSim.getRandom();
+        long bits, value;
+        do{
+            bits = rand.nextLong() >>> 1;
+            value = bits % n;
+        }while(bits - value + (n - 1) < 0);
+        return value;
     }
 
     /**
@@ -158,7 +225,77 @@ public abstract class AMLTypology extends AbstractTransactionModel {
      * @return Random simulation step within startStep and endStep
      */
     long getRandomStep(){
-        return alert.getSimulator().random.nextLong(getStepRange()) + startStep;
+        return nextRandomLong(getStepRange()) + startStep;
+    }
+
+    /**
+     * Generate a random simulation step of a random schedule
+     * @param random Random number generator of the schedule
+     * @return Random simulation step within startStep and endStep
+     */
+    long getRandomStep(SplittableRandom random){
+        return random.nextLong(getStepRange()) + startStep;
+    }
+
+    /**
+     * Generate a random simulation step of a random schedule from the given start and end steps
+     * @param random Random number generator of the schedule
+     * @param start Minimum simulation step
+     * @param end Maximum simulation step (exclusive)
+     * @return Random simulation step within the given step range
+     */
+    long getRandomStepRange(SplittableRandom random, long start, long end){
+        if(start < startStep || endStep < end){
+            throw new IllegalArgumentException("The start and end steps must be within " + startStep + " and " + endStep);
+        }else if(end < start){
+            throw new IllegalArgumentException("The start and end steps are unordered");
+        }
+        return random.nextLong(end - start) + start;
+    }
+
+    /**
+     * Use a shared template as the transaction schedule of this alert
+     * @param template Schedule template
+     * @param base Simulation step of the offset 0
+     */
+    void setSchedule(ScheduleTemplate template, long base){
+        this.template = template;
+        this.templateBase = base;
+        this.randomSchedule = false;
+    }
+
+    /**
+     * Use a random transaction schedule, which is regenerated from a seed by "generateSteps"
+     */
+    void setRandomSchedule(){
+        this.template = null;
+        this.randomSchedule = true;
+        this.scheduleSeed = AMLSim.getRandom().nextLong();
+    }
+
+    /**
+     * Generate the steps of the random schedule
+     * @param random Random number generator of the schedule (the same sequence at each call)
+     * @return Simulation steps
+     */
+    long[] generateSteps(SplittableRandom random){
+        throw new IllegalStateException(getModelName() + " has no random schedule");
+    }
+
+    /**
+     * Get the simulation steps of the scheduled transactions
+     * The steps are not kept by this object, so callers should keep them while they are needed.
+     * @return Simulation steps (empty if this typology has no schedule)
+     */
+    long[] getSchedule(){
+        if(restoredSteps != null){
+            return restoredSteps;
+        }else if(template != null){
+            return template.toSteps(templateBase);
+        }else if(randomSchedule){
+            return generateSteps(new SplittableRandom(scheduleSeed));
+        }
+        return new long[0];
     }
 
     /**
@@ -174,7 +311,7 @@ public abstract class AMLTypology extends AbstractTransactionModel {
             throw new IllegalArgumentException("The start and end steps are unordered");
         }
         long range = end - start;
-        return alert.getSimulator().random.nextLong(range) + start;
+        return nextRandomLong(range) + start;
     }
 
 
@@ -187,6 +324,39 @@ public abstract class AMLTypology extends AbstractTransactionModel {
     public final void makeTransaction(long step) {
     }
 
-    public abstract void sendTransactions(long step, Account acct);
+    /**
+     * Add the scheduled transactions of this typology to the alert schedule
+     * This method is called after "setParameters" (or restoring a checkpoint), and the events of the same step
+     * are executed in the order of the calls.
+     * @param schedule Alert schedule builder
+     */
+    public abstract void addEvents(AlertSchedule.Builder schedule);
+
+    /**
+     * Make a scheduled transaction
+     * @param step Current simulation step
+     * @param slot Member slot given to the alert schedule
+     * @param rule Amount rule given to the alert schedule
+     */
+    public abstract void executeEvent(long step, int slot, int rule);
+
+    @Override
+    public void saveState(DataOutput output) throws IOException{
+        super.saveState(output);
+        output.writeFloat(minAmount);
+        output.writeFloat(maxAmount);
+        output.writeLong(startStep);
+        output.writeLong(endStep);
+        writeSteps(output, getSchedule());
+    }
 
+    @Override
+    public void loadState(DataInput input, List<Account> accounts) throws IOException{
+        super.loadState(input, accounts);
+        minAmount = input.readFloat();
+        maxAmount = input.readFloat();
+        startStep = input.readLong();
+        endStep = input.readLong();
+        restoredSteps = readSteps(input);
+    }
 }
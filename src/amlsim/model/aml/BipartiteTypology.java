@@ -5,6 +5,7 @@
 package amlsim.model.aml;
 
 import amlsim.Account;
+import amlsim.AlertSchedule;
 
 import java.util.*;
 
@@ -14,9 +15,18 @@ import java.util.*;
  */
 public class BipartiteTypology extends AMLTypology {
 
+    private int targetBegin = 0;  // Member positions of the beneficiaries of the main account
+    private int targetEnd = 0;
+
     @Override
     public void setParameters(int modelID) {
-
+        List<Account> members = alert.getMembers();  // All members
+        int numOrigs = members.size() / 2;  // The first half accounts are originators
+        MemberRoles roles = new MemberRoles(members, numOrigs, members.size() - numOrigs);
+        if(roles.getLayer(alert.getMainAccount()) == 0){  // Only the main account sends money at each step
+            targetBegin = roles.getTargetBegin(0);
+            targetEnd = roles.getTargetEnd(0);
+        }
     }
 
 //    @Override
@@ -37,21 +47,22 @@ public class BipartiteTypology extends AMLTypology {
     }
 
     @Override
-    public void sendTransactions(long step, Account acct) {
-        float amount = getRandomAmount();  // The amount of each transaction
-        List<Account> members = alert.getMembers();  // All members
-
-        int last_orig_index = members.size() / 2;  // The first half accounts are originators
-        for(int i=0; i<last_orig_index; i++){
-            Account orig = members.get(i);
-            if(!orig.getID().equals(acct.getID())){
-                continue;
-            }
-
-            for(int j=last_orig_index; j<members.size(); j++){
-                Account bene = members.get(j);  // The latter half accounts are beneficiaries
-                makeTransaction(step, amount, orig, bene);
+    public void addEvents(AlertSchedule.Builder schedule) {
+        for(long step=startStep; step<=endStep; step++){
+            for(int j=targetBegin; j<targetEnd; j++){  // The latter half accounts are beneficiaries
+                schedule.add(step, j, 0);
             }
         }
     }
+
+    /**
+     * Create a transaction from the main account to a beneficiary
+     * @param step Current simulation step
+     * @param slot Member index of the beneficiary (the latter half accounts)
+     * @param rule Unused (transactions of the same step share the amount)
+     */
+    @Override
+    public void executeEvent(long step, int slot, int rule) {
+        makeTransaction(step, getStepAmount(step), alert.getMainAccount(), alert.getMembers().get(slot));
+    }
 }
@@ -6,17 +6,20 @@ package amlsim.model.aml;
 
 import amlsim.AMLSim;
 import amlsim.Account;
+import amlsim.AlertSchedule;
 
 import java.util.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Cycle transaction model
  */
 public class CycleTypology extends AMLTypology {
 
-    // Transaction schedule
-    private long[] steps;  // Array of simulation steps when each transaction is scheduled to be made
     private float amount = 0.0F;  // Current transaction amount
+    private int scheduleID;  // Schedule model ID of the random schedule
 
     CycleTypology(float minAmount, float maxAmount, int startStep, int endStep){
         super(minAmount, maxAmount, startStep, endStep);
@@ -31,7 +34,6 @@ public class CycleTypology extends AMLTypology {
 
         List<Account> members = alert.getMembers();  // All members
         int length = members.size();  // Number of members (total transactions)
-        steps = new long[length];
 
         int allStep = (int)AMLSim.getNumOfSteps();
         int period = (int)(endStep - startStep);
@@ -40,34 +42,42 @@ public class CycleTypology extends AMLTypology {
         this.endStep = Math.min(this.startStep + period, allStep);
 
         if(modelID == FIXED_INTERVAL){  // Ordered, same interval
-            period = (int)(endStep - startStep);
-            if(length < period){
-                this.interval = period / length; // If there is enough number of available steps, make transaction with interval
-                for(int i=0; i<length-1; i++){
-                    steps[i] = startStep + interval * i;
-                }
-                steps[length-1] = endStep;
+            final int fixedPeriod = (int)(endStep - startStep);
+            if(length < fixedPeriod){
+                // If there is enough number of available steps, make transaction with interval
+                final int fixedInterval = fixedPeriod / length;
+                this.interval = fixedInterval;
+                setSchedule(ScheduleTemplate.get(CycleTypology.class, modelID, length, fixedPeriod,
+                        i -> i < length - 1 ? fixedInterval * i : fixedPeriod), startStep);
             }else{
                 this.interval = 1;
-                long batch = length / period;  // Because of too many transactions, make one or more transactions per step
-                for(int i=0; i<length-1; i++){
-                    steps[i] = startStep + i / batch;
-                }
-                steps[length-1] = endStep;
+                final int batch = length / fixedPeriod;  // Because of too many transactions, make one or more transactions per step
+                setSchedule(ScheduleTemplate.get(CycleTypology.class, modelID, length, fixedPeriod,
+                        i -> i < length - 1 ? i / batch : fixedPeriod), startStep);
             }
         }else if(modelID == RANDOM_INTERVAL || modelID == UNORDERED){  // Random interval
             this.interval = 1;
-            // Ensure the specified period
-            steps[0] = startStep;
-            steps[1] = endStep;
-            for(int i=2; i<length; i++){
-                steps[i] = getRandomStep();
-            }
-            if(modelID == RANDOM_INTERVAL){
-                Arrays.sort(steps);  // Ordered
-            }
+            this.scheduleID = modelID;
+            setRandomSchedule();
+        }else{  // No schedule: all transactions at the step 0
+            setSchedule(ScheduleTemplate.get(CycleTypology.class, modelID, length, 0, i -> 0), 0);
         }
-//        System.out.println(Arrays.toString(steps));
+    }
+
+    @Override
+    long[] generateSteps(SplittableRandom random){
+        int length = alert.getMembers().size();
+        long[] steps = new long[length];
+        // Ensure the specified period
+        steps[0] = startStep;
+        steps[1] = endStep;
+        for(int i=2; i<length; i++){
+            steps[i] = getRandomStep(random);
+        }
+        if(scheduleID == RANDOM_INTERVAL){
+            Arrays.sort(steps);  // Ordered
+        }
+        return steps;
     }
 
 //    @Override
@@ -80,28 +90,42 @@ public class CycleTypology extends AMLTypology {
         return "CycleTypology";
     }
 
+    @Override
+    public void addEvents(AlertSchedule.Builder schedule) {
+        long[] steps = getSchedule();
+        for(int i=0; i<steps.length; i++){
+            schedule.add(steps[i], i, 0);  // From the i-th member to the next member
+        }
+    }
+
     /**
-     * Create and add transactions
+     * Create a cycle transaction
      * @param step Current simulation step
+     * @param slot Index of the originator member
+     * @param rule Unused (the amount decreases with each transaction)
      */
     @Override
-    public void sendTransactions(long step, Account acct) {
-        int length = alert.getMembers().size();
-        long alertID = alert.getAlertID();
-        boolean isSAR = alert.isSAR();
-
-        // Create cycle transactions
-        for(int i=0; i<length; i++) {
-            if (steps[i] == step) {
-                int j = (i + 1) % length;  // i, j: index of the previous, next account
-                Account src = alert.getMembers().get(i);  // The previous account
-                Account dst = alert.getMembers().get(j);  // The next account
-                makeTransaction(step, amount, src, dst, isSAR, alertID);
-
-                // Update the next transaction amount
-                float margin = amount * marginRatio;
-                amount = Math.max(amount - margin, minAmount);
-            }
-        }
+    public void executeEvent(long step, int slot, int rule) {
+        List<Account> members = alert.getMembers();
+        int j = (slot + 1) % members.size();  // slot, j: index of the previous, next account
+        Account src = members.get(slot);  // The previous account
+        Account dst = members.get(j);  // The next account
+        makeTransaction(step, amount, src, dst, alert.isSAR(), alert.getAlertID());
+
+        // Update the next transaction amount
+        float margin = amount * marginRatio;
+        amount = Math.max(amount - margin, minAmount);
+    }
+
+    @Override
+    public void saveState(DataOutput output) throws IOException{
+        super.saveState(output);
+        output.writeFloat(amount);
+    }
+
+    @Override
+    public void loadState(DataInput input, List<Account> accounts) throws IOException{
+        super.loadState(input, accounts);
+        amount = input.readFloat();
     }
 }
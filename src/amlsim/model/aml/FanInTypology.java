@@ -6,11 +6,14 @@ package amlsim.model.aml;
 
 import amlsim.Account;
 import amlsim.AMLSim;
-
-import org.apache.commons.math3.distribution.BetaDistribution;
+import amlsim.AlertSchedule;
+import amlsim.SimProperties;
 
 import java.util.*;
 import java.lang.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Multiple accounts send money to the main account
@@ -19,25 +22,22 @@ public class FanInTypology extends AMLTypology {
 
     // Originators and the main beneficiary
     private Account bene;  // The destination (beneficiary) account
-    private List<Account> origList = new ArrayList<>();  // The origin (originator) accounts
+    private int benePosition;  // Member position of the beneficiary (the other members are originators in order)
 
-    private long[] steps;
     private static final int SIMULTANEOUS = 1;
     private static final int FIXED_INTERVAL = 2;
     private static final int RANDOM_RANGE = 3;
 
-    final private static float gatherVariance = AMLSim.getSimProp().getGatherVariance();
-    final private static float roundAmountAlpha = AMLSim.getSimProp().getSarRoundAmountAlpha();
-    final private static float roundAmountBeta = AMLSim.getSimProp().getSarRoundAmountBeta();
-
-    private float roundAmountProbability;
+    final private float gatherVariance = AMLSim.getSimProp().getGatherVariance();
 
     FanInTypology(float minAmount, float maxAmount, int start, int end){
         super(minAmount, maxAmount, start, end);
+    }
 
-        // a beta distribution is used to model the round amount affinity of the actor
-        BetaDistribution betaDistribution = new BetaDistribution(roundAmountAlpha, roundAmountBeta);
-        roundAmountProbability = (float) betaDistribution.inverseCumulativeProbability(AMLSim.getRandom().nextDouble());
+    @Override
+    protected float drawRoundAmountProbability(){
+        SimProperties simProp = AMLSim.getSimProp();
+        return simProp.drawRoundAmountProbability(simProp.getSarRoundAmountAlpha(), simProp.getSarRoundAmountBeta());
     }
 
     public void setParameters(int schedulingID){
@@ -46,61 +46,82 @@ public class FanInTypology extends AMLTypology {
         List<Account> members = alert.getMembers();
         Account mainAccount = alert.getMainAccount();
         bene = mainAccount != null ? mainAccount : members.get(0);  // The main account is the beneficiary
-        for(Account orig : members){  // The rest of accounts are originators
-            if(orig != bene) origList.add(orig);
-        }
+        benePosition = members.indexOf(bene);  // The rest of accounts are originators
 
         // Set transaction schedule
-        int numOrigs = origList.size();
+        final int numOrigs = members.size() - 1;
         int totalStep = (int)(endStep - startStep + 1);
         int defaultInterval = Math.max(totalStep / numOrigs, 1);
 
         this.startStep = generateStartStep(defaultInterval);  //  decentralize the first transaction step
 
-        steps = new long[numOrigs];
         if(schedulingID == SIMULTANEOUS){
             long step = getRandomStep();
-            Arrays.fill(steps, step);
-        }else if(schedulingID == FIXED_INTERVAL chec) {
-            int range = (int)(endStep - startStep + 1);
+            setSchedule(ScheduleTemplate.get(FanInTypology.class, schedulingID, numOrigs, 0, i -> 0), step);
+        }else if(schedulingID == FIXED_INTERVAL) {
+            final int range = (int)(endStep - startStep + 1);
             if(numOrigs < range){
-                interval = range / numOrigs;
-                for(int i=0; i<numOrigs; i++){
-                    steps[i] = startStep + interval*i;
-                    System.out.println("step " + this.steps[i]);
-                }
+                final int fixedInterval = range / numOrigs;
+                interval = fixedInterval;
+                setSchedule(ScheduleTemplate.get(FanInTypology.class, schedulingID, numOrigs, range,
+                        i -> fixedInterval * i), startStep);
             }else{
-                long batch = numOrigs / range;
-                for(int i=0; i<numOrigs; i++){
-                    steps[i] = startStep + i/batch;
-                    System.out.println("step " + this.steps[i]);
-                }
+                final int batch = numOrigs / range;
+                setSchedule(ScheduleTemplate.get(FanInTypology.class, schedulingID, numOrigs, range,
+                        i -> i / batch), startStep);
             }
+            AMLSim.getLogger().fine("Fixed interval fan-in schedule from step " + startStep + " with interval " + interval);
         }else if(schedulingID == RANDOM_RANGE){
-            for(int i=0; i<numOrigs; i++){
-                steps[i] = getRandomStep();
-            }
+            setRandomSchedule();
+        }else{  // No schedule: all transactions at the step 0
+            setSchedule(ScheduleTemplate.get(FanInTypology.class, schedulingID, numOrigs, 0, i -> 0), 0);
         }
     }
 
+    @Override
+    long[] generateSteps(SplittableRandom random){
+        long[] steps = new long[alert.getMembers().size() - 1];
+        for(int i=0; i<steps.length; i++){
+            steps[i] = getRandomStep(random);
+        }
+        return steps;
+    }
+
+    /**
+     * Get an originator account
+     * @param i Index of the originator
+     * @return The i-th member except the beneficiary
+     */
+    private Account getOrig(int i){
+        return alert.getMembers().get(i < benePosition ? i : i + 1);
+    }
+
     @Override
     public String getModelName() {
         return "FanInTypology";
     }
 
-    public void sendTransactions(long step, Account acct){
-        long alertID = alert.getAlertID();
-        boolean isSAR = alert.isSAR();
-        float amount = getRandomAmount();
-
-        for(int i = 0; i< origList.size(); i++){
-            if(steps[i] == step){
-                Account orig = origList.get(i);
-                makeTransaction(
-                    step, AMLSim.getSimProp().makeTransactionMoreRealistic(amount, gatherVariance, roundAmountProbability),
-                    orig, bene, isSAR, alertID
-                );
-            }
+    @Override
+    public void addEvents(AlertSchedule.Builder schedule){
+        long[] steps = getSchedule();
+        for(int i=0; i<steps.length; i++){
+            schedule.add(steps[i], i, 0);  // From the i-th originator
         }
     }
+
+    /**
+     * Create a transaction from an originator to the main account
+     * @param step Current simulation step
+     * @param slot Index of the originator
+     * @param rule Unused (transactions of the same step share the base amount)
+     */
+    @Override
+    public void executeEvent(long step, int slot, int rule){
+        float amount = getStepAmount(step);
+        Account orig = getOrig(slot);
+        makeTransaction(
+            step, AMLSim.getSimProp().makeTransactionMoreRealistic(amount, gatherVariance, getRoundAmountProbability()),
+            orig, bene, alert.isSAR(), alert.getAlertID()
+        );
+    }
 }
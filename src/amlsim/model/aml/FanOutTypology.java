@@ -5,8 +5,12 @@
 package amlsim.model.aml;
 
 import amlsim.Account;
+import amlsim.AlertSchedule;
 
 import java.util.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * The main account distributes money to multiple members
@@ -15,9 +19,7 @@ public class FanOutTypology extends AMLTypology {
 
     // Originator and beneficiary accounts
     private Account orig;
-    private List<Account> beneList = new ArrayList<>();
-
-    private long[] steps;
+    private int origPosition;  // Member position of the originator (the other members are beneficiaries in order)
 
     FanOutTypology(float minAmount, float maxAmount, int minStep, int maxStep){
         super(minAmount, maxAmount, minStep, maxStep);
@@ -32,59 +34,75 @@ public class FanOutTypology extends AMLTypology {
         List<Account> members = alert.getMembers();
         Account mainAccount = alert.getMainAccount();
         orig = mainAccount != null ? mainAccount : members.get(0);
-        for(Account bene : members){
-            if(orig != bene) beneList.add(bene);
-        }
+        origPosition = members.indexOf(orig);
 
         // Set schedule
-        int numBenes = beneList.size();
+        final int numBenes = members.size() - 1;
         int totalStep = (int)(endStep - startStep + 1);
         int defaultInterval = Math.max(totalStep / numBenes, 1);
         this.startStep = generateStartStep(defaultInterval);  //  decentralize the first transaction step
 
-        steps = new long[numBenes];
         if(scheduleID == SIMULTANEOUS){
             long step = getRandomStep();
-            Arrays.fill(steps, step);
+            setSchedule(ScheduleTemplate.get(FanOutTypology.class, scheduleID, numBenes, 0, i -> 0), step);
         }else if(scheduleID == FIXED_INTERVAL){
-            int range = (int)(endStep - startStep + 1);
+            final int range = (int)(endStep - startStep + 1);
             if(numBenes < range){
-                interval = range / numBenes;
-                for(int i=0; i<numBenes; i++){
-                    steps[i] = startStep + interval*i;
-                }
+                final int fixedInterval = range / numBenes;
+                interval = fixedInterval;
+                setSchedule(ScheduleTemplate.get(FanOutTypology.class, scheduleID, numBenes, range,
+                        i -> fixedInterval * i), startStep);
             }else{
-                long batch = numBenes / range;
-                for(int i=0; i<numBenes; i++){
-                    steps[i] = startStep + i/batch;
-                }
+                final int batch = numBenes / range;
+                setSchedule(ScheduleTemplate.get(FanOutTypology.class, scheduleID, numBenes, range,
+                        i -> i / batch), startStep);
             }
         }else if(scheduleID == RANDOM_INTERVAL || scheduleID == UNORDERED){
-            for(int i=0; i<numBenes; i++){
-                steps[i] = getRandomStep();
-            }
+            setRandomSchedule();
+        }else{  // No schedule: all transactions at the step 0
+            setSchedule(ScheduleTemplate.get(FanOutTypology.class, scheduleID, numBenes, 0, i -> 0), 0);
         }
     }
 
+    @Override
+    long[] generateSteps(SplittableRandom random){
+        long[] steps = new long[alert.getMembers().size() - 1];
+        for(int i=0; i<steps.length; i++){
+            steps[i] = getRandomStep(random);
+        }
+        return steps;
+    }
+
+    /**
+     * Get a beneficiary account
+     * @param i Index of the beneficiary
+     * @return The i-th member except the originator
+     */
+    private Account getBene(int i){
+        return alert.getMembers().get(i < origPosition ? i : i + 1);
+    }
+
     @Override
     public String getModelName() {
         return "FanOutTypology";
     }
 
     @Override
-    public void sendTransactions(long step, Account acct) {
-        if(!orig.getID().equals(acct.getID())){
-            return;
+    public void addEvents(AlertSchedule.Builder schedule) {
+        long[] steps = getSchedule();
+        for(int i=0; i<steps.length; i++){
+            schedule.add(steps[i], i, 0);  // To the i-th beneficiary
         }
-        long alertID = alert.getAlertID();
-        boolean isSAR = alert.isSAR();
-        float amount = getRandomAmount();
+    }
 
-        for(int i = 0; i< beneList.size(); i++){
-            if(steps[i] == step){
-                Account bene = beneList.get(i);
-                makeTransaction(step, amount, orig, bene, isSAR, alertID);
-            }
-        }
+    /**
+     * Create a transaction from the main account to a beneficiary
+     * @param step Current simulation step
+     * @param slot Index of the beneficiary
+     * @param rule Unused (transactions of the same step share the amount)
+     */
+    @Override
+    public void executeEvent(long step, int slot, int rule) {
+        makeTransaction(step, getStepAmount(step), orig, getBene(slot), alert.isSAR(), alert.getAlertID());
     }
 }
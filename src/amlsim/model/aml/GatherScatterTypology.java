@@ -1,18 +1,26 @@
 package amlsim.model.aml;
 
 import amlsim.Account;
+import amlsim.AlertSchedule;
 
 import java.util.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Gather-Scatter transaction model (Multiple accounts -> fan-in -> main account -> fan-out -> multiple accounts)
  */
 public class GatherScatterTypology extends AMLTypology {
 
-    private List<Account> origAccts = new ArrayList<>();
-    private List<Account> beneAccts = new ArrayList<>();
-    private long[] gatherSteps;
-    private long[] scatterSteps;
+    // Amount rules of the scheduled transactions
+    private static final int GATHER = 0;  // Random amount to the main account
+    private static final int SETTLE = 1;  // No transaction: define the scatter amount from the received amount
+    private static final int SCATTER = 2;  // Scatter amount from the main account
+
+    private int mainPosition;  // Member position of the main account (the other members are originators and then beneficiaries)
+    private int numOrigMembers;
+    private int numBeneMembers;
     private long middleStep;
     private float totalReceivedAmount = 0.0F;
     private float scatterAmount = 0.0F;  // Scatter transaction amount will be defined after gather transactions
@@ -26,39 +34,44 @@ public class GatherScatterTypology extends AMLTypology {
         middleStep = (startStep + endStep) / 2;
 //        System.out.println(startStep + " " + middleStep + " " + endStep);
 
-        int numSubMembers = alert.getMembers().size() - 1;
-        int numOrigMembers = numSubMembers / 2;
-        int numBeneMembers = numSubMembers - numOrigMembers;
+        List<Account> members = alert.getMembers();
+        Account mainAcct = alert.getMainAccount();
+        mainPosition = mainAcct != null ? members.indexOf(mainAcct) : members.size();
 
-        gatherSteps = new long[numOrigMembers];
-        scatterSteps = new long[numBeneMembers];
+        int numSubMembers = members.size() - 1;
+        numOrigMembers = numSubMembers / 2;
+        numBeneMembers = numSubMembers - numOrigMembers;
+        setRandomSchedule();
+    }
 
-        Account mainAcct = alert.getMainAccount();
-        List<Account> subMembers = new ArrayList<>();
-        for (Account acct : alert.getMembers()){
-            if(acct != mainAcct){
-                subMembers.add(acct);
-            }
-        }
-        assert(numSubMembers == subMembers.size());
-        for(int i=0; i<numSubMembers; i++){
-            Account acct = subMembers.get(i);
-            if(i < numOrigMembers){
-                origAccts.add(acct);
-            }else{
-                beneAccts.add(acct);
-            }
-        }
+    /**
+     * Generate the gather steps followed by the scatter steps
+     * @param random Random number generator of the schedule
+     * @return Simulation steps
+     */
+    @Override
+    long[] generateSteps(SplittableRandom random){
+        long[] steps = new long[numOrigMembers + numBeneMembers];
 
         // Ensure the specified period
-        gatherSteps[0] = startStep;
+        steps[0] = startStep;
         for(int i=1; i<numOrigMembers; i++){
-            gatherSteps[i] = getRandomStepRange(startStep, middleStep);
+            steps[i] = getRandomStepRange(random, startStep, middleStep);
         }
-        scatterSteps[0] = endStep;
+        steps[numOrigMembers] = endStep;
         for(int i=1; i<numBeneMembers; i++){
-            scatterSteps[i] = getRandomStepRange(middleStep + 1, endStep);
+            steps[numOrigMembers + i] = getRandomStepRange(random, middleStep + 1, endStep);
         }
+        return steps;
+    }
+
+    /**
+     * Get a member account except the main account
+     * @param i Index of the originators (0 to numOrigMembers-1) and the beneficiaries (the rest)
+     * @return The i-th member except the main account
+     */
+    private Account getSubMember(int i){
+        return alert.getMembers().get(i < mainPosition ? i : i + 1);
     }
 
 //    @Override
@@ -67,34 +80,42 @@ public class GatherScatterTypology extends AMLTypology {
 //    }
 
     @Override
-    public void sendTransactions(long step, Account acct) {
-        long alertID = alert.getAlertID();
-        boolean isSAR = alert.isSAR();
-        int numGathers = gatherSteps.length;
-        int numScatters = scatterSteps.length;
-
-        if(step <= middleStep){
-            for(int i=0; i<numGathers; i++){
-                if(gatherSteps[i] == step){
-                    Account orig = origAccts.get(i);
-                    Account bene = alert.getMainAccount();
-                    float amount = getRandomAmount();
-                    makeTransaction(step, amount, orig, bene, isSAR, alertID);
-                    totalReceivedAmount += amount;
-                }
+    public void addEvents(AlertSchedule.Builder schedule) {
+        long[] steps = getSchedule();
+        for(int i=0; i<numOrigMembers; i++){
+            if(steps[i] <= middleStep){
+                schedule.add(steps[i], i, GATHER);
             }
-        }else{
-            for(int i=0; i<numScatters; i++){
-                if(scatterSteps[i] == step){
-                    Account orig = alert.getMainAccount();
-                    Account bene = beneAccts.get(i);
-                    makeTransaction(step, scatterAmount, orig, bene, isSAR, alertID);
-                }
+        }
+        schedule.add(middleStep, 0, SETTLE);  // After the gather transactions of the middle step
+        for(int i=0; i<numBeneMembers; i++){
+            long step = steps[numOrigMembers + i];
+            if(step > middleStep){
+                schedule.add(step, i, SCATTER);
             }
         }
-        if(step == middleStep){  // Define the amount of scatter transactions
+    }
+
+    /**
+     * Create a gather or scatter transaction, or define the scatter amount
+     * @param step Current simulation step
+     * @param slot Index of the originator (gather) or the beneficiary (scatter)
+     * @param rule GATHER, SETTLE or SCATTER
+     */
+    @Override
+    public void executeEvent(long step, int slot, int rule) {
+        long alertID = alert.getAlertID();
+        boolean isSAR = alert.isSAR();
+        Account mainAcct = alert.getMainAccount();
+        if(rule == GATHER){
+            float amount = getRandomAmount();
+            makeTransaction(step, amount, getSubMember(slot), mainAcct, isSAR, alertID);
+            totalReceivedAmount += amount;
+        }else if(rule == SCATTER){
+            makeTransaction(step, scatterAmount, mainAcct, getSubMember(numOrigMembers + slot), isSAR, alertID);
+        }else{  // Define the amount of scatter transactions
             float margin = totalReceivedAmount * marginRatio;
-            scatterAmount = (totalReceivedAmount - margin) / numScatters;
+            scatterAmount = (totalReceivedAmount - margin) / numBeneMembers;
         }
     }
 
@@ -102,5 +123,20 @@ public class GatherScatterTypology extends AMLTypology {
     public String getModelName() {
         return "GatherScatterTypology";
     }
-}
 
+    @Override
+    public void saveState(DataOutput output) throws IOException{
+        super.saveState(output);
+        output.writeLong(middleStep);
+        output.writeFloat(totalReceivedAmount);
+        output.writeFloat(scatterAmount);
+    }
+
+    @Override
+    public void loadState(DataInput input, List<Account> accounts) throws IOException{
+        super.loadState(input, accounts);
+        middleStep = input.readLong();
+        totalReceivedAmount = input.readFloat();
+        scatterAmount = input.readFloat();
+    }
+}
@@ -0,0 +1,85 @@
+package amlsim.model.aml;
+
+import amlsim.Account;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.util.List;
+
+/**
+ * Index of the roles of alert members in layered typologies (e.g. bipartite and stack)
+ * The members are split into consecutive layers in the member order, and each member of a layer
+ * sends money to all members of the next layer. The index maps an account to its layer and position,
+ * so that a typology finds the role of an account and its beneficiary range without scanning the members.
+ */
+class MemberRoles {
+
+    private final int[] layerBounds;  // Layer --> The first member position (the last element: number of members)
+    private final Int2IntOpenHashMap positions = new Int2IntOpenHashMap();  // Account index --> Member position
+
+    /**
+     * Build the index of the members
+     * @param members Alert members
+     * @param layerSizes Number of members in each layer (the sum must be the number of members)
+     */
+    MemberRoles(List<Account> members, int... layerSizes){
+        layerBounds = new int[layerSizes.length + 1];
+        for(int i=0; i<layerSizes.length; i++){
+            layerBounds[i + 1] = layerBounds[i] + layerSizes[i];
+        }
+        if(layerBounds[layerSizes.length] != members.size()){
+            throw new IllegalArgumentException("The layer sizes do not match the number of members: " + members.size());
+        }
+        positions.defaultReturnValue(-1);
+        for(int i=members.size()-1; i>=0; i--){  // The first position if an account appears twice
+            positions.put(members.get(i).getIndex(), i);
+        }
+    }
+
+    /**
+     * Get the member position of an account
+     * @param account Account object
+     * @return Member position, or -1 if the account is not a member
+     */
+    int getPosition(Account account){
+        return account != null ? positions.get(account.getIndex()) : -1;
+    }
+
+    /**
+     * Get the layer of an account
+     * @param account Account object
+     * @return Layer, or -1 if the account is not a member
+     */
+    int getLayer(Account account){
+        int position = getPosition(account);
+        if(position < 0){
+            return -1;
+        }
+        int layer = 0;
+        while(layerBounds[layer + 1] <= position){
+            layer++;
+        }
+        return layer;
+    }
+
+    int getLayerSize(int layer){
+        return layerBounds[layer + 1] - layerBounds[layer];
+    }
+
+    /**
+     * Get the first member position of the beneficiaries of a layer (the next layer)
+     * @param layer Layer of the originator
+     * @return The first position (equal to getTargetEnd if the layer is the last one)
+     */
+    int getTargetBegin(int layer){
+        return layerBounds[Math.min(layer + 1, layerBounds.length - 1)];
+    }
+
+    /**
+     * Get the end member position (exclusive) of the beneficiaries of a layer (the next layer)
+     * @param layer Layer of the originator
+     * @return The end position
+     */
+    int getTargetEnd(int layer){
+        return layerBounds[Math.min(layer + 2, layerBounds.length - 1)];
+    }
+}
@@ -6,8 +6,12 @@ package amlsim.model.aml;
 
 import amlsim.AMLSim;
 import amlsim.Account;
+import amlsim.AlertSchedule;
 
 import java.util.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * The main account makes a transaction with one of the neighbor accounts
@@ -17,17 +21,27 @@ import java.util.*;
 public class RandomTypology extends AMLTypology {
 
 //    private static Random rand = new Random();
-    private static Random rand = AMLSim.getRandom();
-    private Set<Long> steps = new HashSet<>();  // Set of simulation steps when the transaction is performed
     private Account nextOrig;  // Originator account for the next transaction
 
     @Override
     public void setParameters(int modelID) {
+        setRandomSchedule();
+        nextOrig = alert.getMainAccount();
+    }
+
+    /**
+     * Generate sorted distinct simulation steps when the transaction is performed
+     * @param random Random number generator of the schedule
+     * @return Simulation steps
+     */
+    @Override
+    long[] generateSteps(SplittableRandom random){
         int numMembers = alert.getMembers().size();
+        long[] randomSteps = new long[numMembers];
         for(int i=0; i<numMembers; i++) {
-            steps.add(getRandomStep());
+            randomSteps[i] = getRandomStep(random);
         }
-        nextOrig = alert.getMainAccount();
+        return Arrays.stream(randomSteps).sorted().distinct().toArray();
     }
 
 //    @Override
@@ -44,14 +58,23 @@ public class RandomTypology extends AMLTypology {
         return "RandomTypology";
     }
 
-    public boolean isValidStep(long step){
-        return super.isValidStep(step) && steps.contains(step);
+    @Override
+    public void addEvents(AlertSchedule.Builder schedule){
+        for(long step : getSchedule()){
+            schedule.add(step, 0, 0);
+        }
     }
 
-    public void sendTransactions(long step, Account acct){
+    /**
+     * Create a transaction from the current originator to one of its neighbors
+     * @param step Current simulation step
+     * @param slot Unused (the originator is the previous beneficiary)
+     * @param rule Unused (the amount is drawn for each transaction)
+     */
+    @Override
+    public void executeEvent(long step, int slot, int rule){
         boolean isSAR = alert.isSAR();
         long alertID = alert.getAlertID();
-        if(!isValidStep(step))return;
 
         List<Account> beneList = nextOrig.getBeneList();
         int numBenes = beneList.size();
@@ -59,9 +82,22 @@ public class RandomTypology extends AMLTypology {
 
         float amount = getRandomAmount();
 
-        int idx = rand.nextInt(numBenes);
+        int idx = AMLSim.getRandom().nextInt(numBenes);
         Account bene = beneList.get(idx);
         makeTransaction(step, amount, nextOrig, bene, isSAR, (int)alertID);  // Main account makes transactions to one of the neighbors
         nextOrig = bene;  // The next originator account is the previous beneficiary account
     }
+
+    @Override
+    public void saveState(DataOutput output) throws IOException{
+        super.saveState(output);
+        output.writeInt(nextOrig != null ? nextOrig.getIndex() : -1);
+    }
+
+    @Override
+    public void loadState(DataInput input, List<Account> accounts) throws IOException{
+        super.loadState(input, accounts);
+        int index = input.readInt();
+        nextOrig = index >= 0 ? accounts.get(index) : null;
+    }
 }
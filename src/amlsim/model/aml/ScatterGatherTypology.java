@@ -2,37 +2,40 @@ package amlsim.model.aml;
 
 import amlsim.Account;
 import amlsim.AMLSim;
-
-import org.apache.commons.math3.distribution.BetaDistribution;
+import amlsim.AlertSchedule;
+import amlsim.SimProperties;
 
 import java.util.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Scatter-Gather transaction model (Main originator account -> fan-out -> multiple accounts -> fan-in -> single account)
  */
 public class ScatterGatherTypology extends AMLTypology {
 
+    // Amount rules of the scheduled transactions
+    private static final int SCATTER = 0;  // Scatter amount from the main account to an intermediate account
+    private static final int GATHER = 1;  // Gather amount from an intermediate account to the last beneficiary
+
     private Account orig = null;  // The first sender (main) account
     private Account bene = null;  // The last beneficiary account
-    private List<Account> intermediate = new ArrayList<>();
-    private long[] scatterSteps;
-    private long[] gatherSteps;
+    private int mainPosition;  // Member position of the main account (the first of the other members is the last beneficiary)
+    private int numIntermediates;
     private float scatterAmount;
     private float gatherAmount;
 
-    final private static float scatterVariance = AMLSim.getSimProp().getScatterVariance();
-    final private static float gatherVariance = AMLSim.getSimProp().getGatherVariance();
-    final private static float roundAmountAlpha = AMLSim.getSimProp().getSarRoundAmountAlpha();
-    final private static float roundAmountBeta = AMLSim.getSimProp().getSarRoundAmountBeta();
-
-    private float roundAmountProbability;
-
+    final private float scatterVariance = AMLSim.getSimProp().getScatterVariance();
+    final private float gatherVariance = AMLSim.getSimProp().getGatherVariance();
     ScatterGatherTypology(float minAmount, float maxAmount, int startStep, int endStep) {
         super(minAmount, maxAmount, startStep, endStep);
+    }
 
-        // a beta distribution is used to model the round amount affinity of the actor
-        BetaDistribution betaDistribution = new BetaDistribution(roundAmountAlpha, roundAmountBeta);
-        roundAmountProbability = (float) betaDistribution.inverseCumulativeProbability(AMLSim.getRandom().nextDouble());
+    @Override
+    protected float drawRoundAmountProbability(){
+        SimProperties simProp = AMLSim.getSimProp();
+        return simProp.drawRoundAmountProbability(simProp.getSarRoundAmountAlpha(), simProp.getSarRoundAmountBeta());
     }
 
 
@@ -42,30 +45,43 @@ public class ScatterGatherTypology extends AMLTypology {
         float margin = scatterAmount * marginRatio;
         gatherAmount = Math.max(scatterAmount - margin, minAmount);
 
+        List<Account> members = alert.getMembers();
         orig = alert.getMainAccount();
-        for (Account acct : alert.getMembers()) {
-            if (acct == orig) {
-                continue;
-            }
-            if (bene == null) {
-                bene = acct;
-            } else {
-                intermediate.add(acct);
-            }
-        }
+        mainPosition = orig != null ? members.indexOf(orig) : members.size();
+        bene = members.get(mainPosition == 0 ? 1 : 0);
+        numIntermediates = members.size() - 2;
+        setRandomSchedule();
+    }
 
-        int size = alert.getMembers().size() - 2;
-        scatterSteps = new long[size];
-        gatherSteps = new long[size];
+    /**
+     * Generate the scatter steps followed by the gather steps
+     * @param random Random number generator of the schedule
+     * @return Simulation steps
+     */
+    @Override
+    long[] generateSteps(SplittableRandom random){
+        int size = numIntermediates;
+        long[] steps = new long[size * 2];
 
         long middleStep = (endStep + startStep) / 2;
         // Ensure the specified period
-        scatterSteps[0] = startStep;
-        gatherSteps[0] = endStep;
+        steps[0] = startStep;
+        steps[size] = endStep;
         for (int i = 1; i < size; i++) {
-            scatterSteps[i] = getRandomStepRange(startStep, middleStep);
-            gatherSteps[i] = getRandomStepRange(middleStep + 1, endStep);
+            steps[i] = getRandomStepRange(random, startStep, middleStep);
+            steps[size + i] = getRandomStepRange(random, middleStep + 1, endStep);
         }
+        return steps;
+    }
+
+    /**
+     * Get an intermediate account
+     * @param i Index of the intermediate account
+     * @return The i-th member except the main account and the last beneficiary
+     */
+    private Account getIntermediate(int i){
+        int position = i + 1;  // Members after the last beneficiary
+        return alert.getMembers().get(position < mainPosition ? position : position + 1);
     }
 
 //    @Override
@@ -76,26 +92,39 @@ public class ScatterGatherTypology extends AMLTypology {
 //    }
 
     @Override
-    public void sendTransactions(long step, Account acct) {
+    public void addEvents(AlertSchedule.Builder schedule) {
+        long[] steps = getSchedule();
+        int size = numIntermediates;
+        for(int i=0; i<size; i++){
+            schedule.add(steps[i], i, SCATTER);
+            if(steps[size + i] != steps[i]){  // Each intermediate account makes one transaction at a step
+                schedule.add(steps[size + i], i, GATHER);
+            }
+        }
+    }
+
+    /**
+     * Create a scatter or gather transaction
+     * @param step Current simulation step
+     * @param slot Index of the intermediate account
+     * @param rule SCATTER or GATHER
+     */
+    @Override
+    public void executeEvent(long step, int slot, int rule) {
         long alertID = alert.getAlertID();
         boolean isSAR = alert.isSAR();
-        int numTotalMembers = alert.getMembers().size();
-        int numMidMembers = numTotalMembers - 2;
-
-        for(int i=0; i<numMidMembers; i++){
-            if(scatterSteps[i] == step){
-                Account _bene = intermediate.get(i);
-                makeTransaction(
-                    step, AMLSim.getSimProp().makeTransactionMoreRealistic(scatterAmount, scatterVariance, roundAmountProbability),
-                    orig, _bene, isSAR, alertID
-                );
-            }else if(gatherSteps[i] == step) {
-                Account _orig = intermediate.get(i);
-                makeTransaction(
-                    step, AMLSim.getSimProp().makeTransactionMoreRealistic(gatherAmount, gatherVariance, roundAmountProbability),
-                     _orig, bene, isSAR, alertID
-                );
-            }
+        if(rule == SCATTER){
+            Account _bene = getIntermediate(slot);
+            makeTransaction(
+                step, AMLSim.getSimProp().makeTransactionMoreRealistic(scatterAmount, scatterVariance, getRoundAmountProbability()),
+                orig, _bene, isSAR, alertID
+            );
+        }else{
+            Account _orig = getIntermediate(slot);
+            makeTransaction(
+                step, AMLSim.getSimProp().makeTransactionMoreRealistic(gatherAmount, gatherVariance, getRoundAmountProbability()),
+                 _orig, bene, isSAR, alertID
+            );
         }
     }
 
@@ -103,4 +132,18 @@ public class ScatterGatherTypology extends AMLTypology {
     public String getModelName() {
         return "ScatterGatherTypology";
     }
+
+    @Override
+    public void saveState(DataOutput output) throws IOException{
+        super.saveState(output);
+        output.writeFloat(scatterAmount);
+        output.writeFloat(gatherAmount);
+    }
+
+    @Override
+    public void loadState(DataInput input, List<Account> accounts) throws IOException{
+        super.loadState(input, accounts);
+        scatterAmount = input.readFloat();
+        gatherAmount = input.readFloat();
+    }
 }
@@ -0,0 +1,103 @@
+package amlsim.model.aml;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Shared immutable pattern of a fixed transaction schedule (flyweight)
+ * A fixed schedule depends only on the typology, the scheduling model, the number of transactions and the period,
+ * so alerts of the same shape share one template of step offsets and keep only the first step.
+ * The shared templates are bounded for long-lived processes (e.g. the simulation server):
+ * when the limit is reached, a new shape gets a template of its own which is not shared.
+ */
+final class ScheduleTemplate {
+
+    private static final int MAX_TEMPLATES = 4096;  // Maximum number of shared templates
+    private static final Map<Key, ScheduleTemplate> templates = new ConcurrentHashMap<>();
+
+    private final int[] offsets;  // Transaction --> Step offset from the first step of the alert
+
+    private ScheduleTemplate(int size, IntUnaryOperator offset){
+        this.offsets = new int[size];
+        for(int i=0; i<size; i++){
+            offsets[i] = offset.applyAsInt(i);
+        }
+    }
+
+    /**
+     * Get the shared template of a schedule shape, and create it at the first call
+     * @param typology Typology class
+     * @param scheduleID Scheduling model ID
+     * @param size Number of transactions
+     * @param period Period of the schedule
+     * @param offset Transaction --> Step offset (called only if the template does not exist)
+     * @return Schedule template
+     */
+    static ScheduleTemplate get(Class<? extends AMLTypology> typology, int scheduleID, int size, long period,
+                                IntUnaryOperator offset){
+        Key key = new Key(typology, scheduleID, size, period);
+        ScheduleTemplate template = templates.get(key);
+        if(template != null){
+            return template;
+        }
+        if(templates.size() >= MAX_TEMPLATES){
+            return new ScheduleTemplate(size, offset);
+        }
+        return templates.computeIfAbsent(key, k -> new ScheduleTemplate(size, offset));
+    }
+
+    /**
+     * Get the number of distinct templates
+     * @return Number of templates
+     */
+    static int getNumTemplates(){
+        return templates.size();
+    }
+
+    int size(){
+        return offsets.length;
+    }
+
+    /**
+     * Get the simulation steps of an alert
+     * @param base The first step of the alert (offset 0)
+     * @return Simulation steps
+     */
+    long[] toSteps(long base){
+        long[] steps = new long[offsets.length];
+        for(int i=0; i<offsets.length; i++){
+            steps[i] = base + offsets[i];
+        }
+        return steps;
+    }
+
+    private static final class Key {
+        private final Class<? extends AMLTypology> typology;
+        private final int scheduleID;
+        private final int size;
+        private final long period;
+
+        Key(Class<? extends AMLTypology> typology, int scheduleID, int size, long period){
+            this.typology = typology;
+            this.scheduleID = scheduleID;
+            this.size = size;
+            this.period = period;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key key = (Key) o;
+            return typology == key.typology && scheduleID == key.scheduleID && size == key.size && period == key.period;
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash(typology, scheduleID, size, period);
+        }
+    }
+}
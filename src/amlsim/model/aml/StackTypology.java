@@ -5,14 +5,40 @@
 package amlsim.model.aml;
 
 import amlsim.Account;
+import amlsim.AlertSchedule;
+
+import java.util.List;
 
 /**
  * Stacked bipartite transactions
  */
 public class StackTypology extends AMLTypology {
-    
+
+    // Layers of the members
+    private static final int ORIG_LAYER = 0;  // Originator accounts --> Intermediate accounts
+    private static final int MID_LAYER = 1;  // Intermediate accounts --> Beneficiary accounts
+
+    private int origMembers;  // First 1/3 accounts are originator accounts
+    private int midMembers;  // Second 1/3 accounts are intermediate accounts
+    private int beneMembers;  // Rest of accounts are beneficiary accounts
+    private int mainLayer = -1;  // Layer of the main account (only the main account sends money at each step)
+    private int targetBegin = 0;  // Member positions of the beneficiaries of the main account
+    private int targetEnd = 0;
+
     @Override
     public void setParameters(int modelID) {
+        List<Account> members = alert.getMembers();
+        int totalMembers = members.size();
+        origMembers = totalMembers / 3;
+        midMembers = origMembers;
+        beneMembers = totalMembers - origMembers * 2;
+
+        MemberRoles roles = new MemberRoles(members, origMembers, midMembers, beneMembers);
+        mainLayer = roles.getLayer(alert.getMainAccount());
+        if(mainLayer == ORIG_LAYER || mainLayer == MID_LAYER){
+            targetBegin = roles.getTargetBegin(mainLayer);
+            targetEnd = roles.getTargetEnd(mainLayer);
+        }
     }
 
 //    @Override
@@ -34,39 +60,30 @@ public class StackTypology extends AMLTypology {
     }
 
     @Override
-    public void sendTransactions(long step, Account acct) {
-
-        int total_members = alert.getMembers().size();
-        int orig_members = total_members / 3;  // First 1/3 accounts are originator accounts
-        int mid_members = orig_members;  // Second 1/3 accounts are intermediate accounts
-        int bene_members = total_members - orig_members * 2;  // Rest of accounts are beneficiary accounts
-
-        float amount1 = getRandomAmount();
-        float total_flow = amount1 * orig_members * mid_members;  // Total transaction amount
-        float amount2 = total_flow / (mid_members * bene_members);
-
-        for(int i=0; i<orig_members; i++){  // originator accounts --> Intermediate accounts
-            Account orig = alert.getMembers().get(i);
-            if(!orig.getID().equals(acct.getID())){
-                continue;
-            }
-
-            for(int j=orig_members; j<(orig_members+mid_members); j++){
-                Account bene = alert.getMembers().get(j);
-                makeTransaction(step, amount1, orig, bene);
+    public void addEvents(AlertSchedule.Builder schedule) {
+        for(long step=startStep; step<=endStep; step++){
+            for(int j=targetBegin; j<targetEnd; j++){  // Members of the next layer of the main account
+                schedule.add(step, j, mainLayer);
             }
         }
+    }
 
-        for(int i=orig_members; i<(orig_members+mid_members); i++){   // Intermediate accounts --> Beneficiary accounts
-            Account orig = alert.getMembers().get(i);
-            if(!orig.getID().equals(acct.getID())){
-                continue;
-            }
-
-            for(int j=(orig_members+mid_members); j<total_members; j++){
-                Account bene = alert.getMembers().get(j);
-                makeTransaction(step, amount2, orig, bene);
-            }
+    /**
+     * Create a transaction from the main account to a member of the next layer
+     * @param step Current simulation step
+     * @param slot Member index of the beneficiary
+     * @param rule Layer of the main account (transactions of the same step share the amount of the first layer)
+     */
+    @Override
+    public void executeEvent(long step, int slot, int rule) {
+        float amount1 = getStepAmount(step);
+        float amount;
+        if(rule == ORIG_LAYER){
+            amount = amount1;
+        }else{
+            float total_flow = amount1 * origMembers * midMembers;  // Total transaction amount
+            amount = total_flow / (midMembers * beneMembers);
         }
+        makeTransaction(step, amount, alert.getMainAccount(), alert.getMembers().get(slot));
     }
 }
@@ -1,30 +1,77 @@
 package amlsim.model.cash;
 
 import amlsim.AMLSim;
+import amlsim.Account;
+import amlsim.SimProperties;
 import amlsim.model.AbstractTransactionModel;
 
-import java.util.Random;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
 
 /**
- * Cash transaction model (between an account and a deposit account)
+ * Cash transaction model (between an account and a branch)
  * There are two subclasses: CashInModel (deposit) and CashOutModel (withdrawal)
+ * An account makes a cash transaction at every "normal_interval" ("fraud_interval" for SAR accounts) steps
+ * from a random phase, and the simulation calls the model only at its next step (amlsim.CashSchedule).
  */
 public abstract class CashModel extends AbstractTransactionModel {
 
-//    protected static Random rand = new Random();
-    protected static Random rand = AMLSim.getRandom();
+    private long nextStep = -1;  // Next step of a cash transaction (negative: not yet scheduled)
 
-    protected double[] randValues;  // Random values to generate transaction amounts
-    protected static final int randSize = 10;  // Number of random values to be stored
+    /**
+     * Whether this model deposits money to the branch
+     * @return If true, cash-in (deposit), otherwise cash-out (withdrawal)
+     */
+    protected abstract boolean isCashIn();
 
-    public CashModel(){
-        randValues = new double[randSize];
-        for(int i = 0; i< randSize; i++){
-            randValues[i] = rand.nextGaussian();  // from -1.0 to 1.0
+    // Abstract methods from TransactionModel
+    public abstract String getModelName();  // Get transaction type description
+
+    private int getCashInterval(){
+        return AMLSim.getSimProp().getCashTxInterval(isCashIn(), account.isSAR());
+    }
+
+    private float computeAmount(){
+        SimProperties simProp = AMLSim.getSimProp();
+        float min = simProp.getCashTxMinAmount(isCashIn(), account.isSAR());
+        float max = simProp.getCashTxMaxAmount(isCashIn(), account.isSAR());
+        return min + AMLSim.getRandom().nextFloat() * (max - min);
+    }
+
+    @Override
+    public void makeTransaction(long step) {
+        if(nextStep < 0){  // The first active step of the account: draw the phase of the interval
+            int interval = getCashInterval();
+            nextStep = interval > 0 ? step + AMLSim.getRandom().nextInt(interval) : Long.MAX_VALUE;
+        }
+        if(step < nextStep){
+            return;
         }
+        nextStep = step + getCashInterval();
+        AMLSim.handleCashTransaction(step, computeAmount(), account, isCashIn());
     }
 
-    // Abstract methods from TransactionModel
-    public abstract String getModelName();  // Get transaction type description
-    public abstract void makeTransaction(long step);  // Create and add transactions
+    /**
+     * Get the next step where this model must be called
+     * @param step Current simulation step
+     * @return The next cash step, the current step if the phase is not yet drawn,
+     * or Long.MAX_VALUE if this model makes no cash transactions
+     */
+    public long getNextStep(long step){
+        return nextStep >= 0 ? nextStep : step;
+    }
+
+    @Override
+    public void saveState(DataOutput output) throws IOException{
+        super.saveState(output);
+        output.writeLong(nextStep);
+    }
+
+    @Override
+    public void loadState(DataInput input, List<Account> accounts) throws IOException{
+        super.loadState(input, accounts);
+        nextStep = input.readLong();
+    }
 }
@@ -1,52 +1,17 @@
 package amlsim.model.cash;
 
-import amlsim.Branch;
-
 /**
  * Cash-out (withdrawal) model
  */
 public class CashOutModel extends CashModel {
 
-    private static int NORMAL_INTERVAL = 1;
-    private static int SUSPICIOUS_INTERVAL = 1;
-    private static float NORMAL_MIN = 10;
-    private static float NORMAL_MAX = 100;
-    private static float SUSPICIOUS_MIN = 10;
-    private static float SUSPICIOUS_MAX = 100;
-
-    public static void setParam(int norm_int, int case_int, float norm_min, float norm_max, float case_min, float case_max){
-        NORMAL_INTERVAL = norm_int;
-        SUSPICIOUS_INTERVAL = case_int;
-        NORMAL_MIN = norm_min;
-        NORMAL_MAX = norm_max;
-        SUSPICIOUS_MIN = case_min;
-        SUSPICIOUS_MAX = case_max;
-    }
-
-    private boolean isNextStep(long step){
+    @Override
+    protected boolean isCashIn() {
         return false;
     }
 
-    private float computeAmount(){
-        if(this.account.isSAR()){
-            return SUSPICIOUS_MIN + rand.nextFloat() * (SUSPICIOUS_MAX - SUSPICIOUS_MIN);
-        }else{
-            return NORMAL_MIN + rand.nextFloat() * (NORMAL_MAX - NORMAL_MIN);
-        }
-    }
-
     @Override
     public String getModelName() {
         return "CASH-OUT";
     }
-
-    @Override
-    public void makeTransaction(long step) {
-//        List<AMLTransaction> txs = new ArrayList<>();
-        if(isNextStep(step)){
-            Branch branch = account.getBranch();
-            float amount = computeAmount();
-            makeTransaction(step, amount, branch, account, "CASH-OUT");
-        }
-    }
 }
@@ -12,6 +12,11 @@ public class EmptyModel extends AbstractTransactionModel {
         return "Default";
     }
 
+    @Override
+    public boolean canRunInBlocks(){
+        return true;
+    }
+
     @Override
     public void makeTransaction(long step) {
         // Do nothing in default
@@ -2,6 +2,9 @@ package amlsim.model.normal;
 
 import amlsim.*;
 import amlsim.model.AbstractTransactionModel;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -41,8 +44,20 @@ public class FanInTransactionModel extends AbstractTransactionModel {
 
         Account orig = origs.get(index);
         float amount = orig.getModel().getTransactionAmount(maxTxAmount);
-        makeTransaction(step, AMLSim.getSimProp().makeTransactionMoreRealistic(amount, (float) 1.0, roundAmountProbability),
+        makeTransaction(step, AMLSim.getSimProp().makeTransactionMoreRealistic(amount, (float) 1.0, getRoundAmountProbability()),
                         orig, this.account);
         index++;
     }
+
+    @Override
+    public void saveState(DataOutput output) throws IOException{
+        super.saveState(output);
+        output.writeInt(index);
+    }
+
+    @Override
+    public void loadState(DataInput input, List<Account> accounts) throws IOException{
+        super.loadState(input, accounts);
+        index = input.readInt();
+    }
 }
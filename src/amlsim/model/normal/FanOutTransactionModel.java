@@ -4,6 +4,9 @@ import amlsim.*;
 import amlsim.model.AbstractTransactionModel;
 import amlsim.model.ModelParameters;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -25,6 +28,11 @@ public class FanOutTransactionModel extends AbstractTransactionModel {
         return "FanOut";
     }
 
+    @Override
+    public boolean canRunInBlocks(){
+        return true;
+    }
+
     private boolean isValidStep(long step){
         return (step - startStep) % interval == 0;
     }
@@ -45,10 +53,20 @@ public class FanOutTransactionModel extends AbstractTransactionModel {
 
         amount = ModelParameters.adjustAmount(account, bene, amount);
         if(amount > 0) {
-            this.makeTransaction(
-                step, AMLSim.getSimProp().makeTransactionMoreRealistic(amount, (float) 1.0, roundAmountProbability), bene
-            );
+            makeRealisticTransaction(step, amount, (float) 1.0, bene);
         }
         index++;
     }
+
+    @Override
+    public void saveState(DataOutput output) throws IOException{
+        super.saveState(output);
+        output.writeInt(index);
+    }
+
+    @Override
+    public void loadState(DataInput input, List<Account> accounts) throws IOException{
+        super.loadState(input, accounts);
+        index = input.readInt();
+    }
 }
@@ -5,13 +5,19 @@ import amlsim.model.AbstractTransactionModel;
 
 import amlsim.*;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
 /**
  * Send money received from an account to another account in a similar way
+ * If this account received a transfer since the previous forward transaction, the latest received amount
+ * is forwarded, otherwise a base amount is sent.
  */
 public class ForwardTransactionModel extends AbstractTransactionModel {
     private int index = 0;
+    private long lastStep = -1;  // Step of the previous forward transaction
 
     public void setParameters(int interval, float balance, long start, long end){
         super.setParameters(interval, balance, start, end);
@@ -25,6 +31,11 @@ public class ForwardTransactionModel extends AbstractTransactionModel {
         return "Forward";
     }
 
+    @Override
+    public long getNextSyncStep(long step) {
+        return getNextIntervalStep(step);  // The latest incoming transfer must be committed before each transaction
+    }
+
     @Override
     public void makeTransaction(long step) {
 
@@ -41,10 +52,26 @@ public class ForwardTransactionModel extends AbstractTransactionModel {
         if(index >= numDests){
             index = 0;
         }
+        if(this.account.getNumRecentTransfers() > 0 && this.account.getRecentStep(0) > lastStep){
+            amount = this.account.getRecentAmount(0);  // Forward the received amount
+        }
         Account dest = dests.get(index);
-        this.makeTransaction(
-            step, AMLSim.getSimProp().makeTransactionMoreRealistic(amount, (float) 1.0, roundAmountProbability), dest
-        );
+        makeRealisticTransaction(step, amount, (float) 1.0, dest);
         index++;
+        lastStep = step;
+    }
+
+    @Override
+    public void saveState(DataOutput output) throws IOException{
+        super.saveState(output);
+        output.writeInt(index);
+        output.writeLong(lastStep);
+    }
+
+    @Override
+    public void loadState(DataInput input, List<Account> accounts) throws IOException{
+        super.loadState(input, accounts);
+        index = input.readInt();
+        lastStep = input.readLong();
     }
 }
@@ -7,6 +7,8 @@ import java.util.List;
 
 /**
  * Return money to one of the previous senders
+ * The counterpart is the originator of the latest transfer to this account, or the first originator account
+ * if this account has not received any transfers yet.
  */
 public class MutualTransactionModel extends AbstractTransactionModel {
 
@@ -22,6 +24,11 @@ public class MutualTransactionModel extends AbstractTransactionModel {
         return "Mutual";
     }
 
+    @Override
+    public long getNextSyncStep(long step) {
+        return getNextIntervalStep(step);  // A new beneficiary account may be added at each transaction
+    }
+
     @Override
     public void makeTransaction(long step) {
         if((step - this.startStep) % interval != 0)return;
@@ -36,13 +43,9 @@ public class MutualTransactionModel extends AbstractTransactionModel {
             }
         }
         float amount = getTransactionAmount(maxTxAmount);  // this.balance;
-        if(!this.account.getBeneList().contains(counterpart)) {
-            this.account.addBeneAcct(counterpart);    // Add a new destination
-        }
+        this.account.addBeneAcct(counterpart);    // Add a new destination (nothing happens if already added)
 
-        makeTransaction(
-            step, AMLSim.getSimProp().makeTransactionMoreRealistic(amount, (float) 1.0, roundAmountProbability), counterpart
-        );
+        makeRealisticTransaction(step, amount, (float) 1.0, counterpart);
     }
 
 }
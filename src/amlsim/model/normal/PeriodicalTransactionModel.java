@@ -4,6 +4,10 @@ import amlsim.AMLSim;
 import amlsim.Account;
 import amlsim.model.AbstractTransactionModel;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
 import java.util.Random;
 
 
@@ -12,7 +16,6 @@ import java.util.Random;
  */
 public class PeriodicalTransactionModel extends AbstractTransactionModel {
 
-    private static Random rand = AMLSim.getRandom();
 
     private int index = 0;
 
@@ -28,6 +31,11 @@ public class PeriodicalTransactionModel extends AbstractTransactionModel {
         return "Periodical";
     }
 
+    @Override
+    public boolean canRunInBlocks(){
+        return true;
+    }
+
     private boolean isValidStep(long step){
         return (step - startStep) % interval == 0;
     }
@@ -45,17 +53,27 @@ public class PeriodicalTransactionModel extends AbstractTransactionModel {
         int totalCount = getNumberOfTransactions();  // Total number of transactions
         // int eachCount = (numDests < totalCount) ? 1 : numDests / totalCount;
 
-        int eachCount = rand.nextInt(numDests) + 1;
+        int eachCount = AMLSim.getRandom().nextInt(numDests) + 1;
 
         for(int i=0; i<eachCount; i++) {
             float amount = getTransactionAmount(maxTxAmount);  // this.balance;
             Account dest = this.account.getBeneList().get(index);
-            this.makeTransaction(
-                step, AMLSim.getSimProp().makeTransactionMoreRealistic(amount, (float) 1.0, roundAmountProbability), dest
-            );
+            makeRealisticTransaction(step, amount, (float) 1.0, dest);
             index++;
             if(index >= numDests) break;
         }
         index = 0;
     }
+
+    @Override
+    public void saveState(DataOutput output) throws IOException{
+        super.saveState(output);
+        output.writeInt(index);
+    }
+
+    @Override
+    public void loadState(DataInput input, List<Account> accounts) throws IOException{
+        super.loadState(input, accounts);
+        index = input.readInt();
+    }
 }
@@ -4,6 +4,9 @@ import amlsim.AMLSim;
 import amlsim.Account;
 import amlsim.model.AbstractTransactionModel;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 import java.util.Random;
 
@@ -13,7 +16,6 @@ import java.util.Random;
 public class SingleTransactionModel extends AbstractTransactionModel {
 
 //    private static Random rand = new Random();
-    private static Random rand = AMLSim.getRandom();
     
     /**
      * Simulation step when this transaction is done
@@ -24,6 +26,11 @@ public class SingleTransactionModel extends AbstractTransactionModel {
         return "Single";
     }
 
+    @Override
+    public boolean canRunInBlocks(){
+        return true;
+    }
+
     public void setParameters(int interval, float balance, long start, long end){
         super.setParameters(interval, balance, start, end);
         if(this.startStep < 0){  // Unlimited start step
@@ -33,7 +40,7 @@ public class SingleTransactionModel extends AbstractTransactionModel {
             this.endStep = AMLSim.getNumOfSteps();
         }
         // The transaction step is determined randomly within the given range of steps
-        this.txStep = this.startStep + rand.nextInt((int)(endStep - startStep + 1));
+        this.txStep = this.startStep + AMLSim.getRandom().nextInt((int)(endStep - startStep + 1));
     }
     
     public void makeTransaction(long step){
@@ -44,13 +51,23 @@ public class SingleTransactionModel extends AbstractTransactionModel {
         }
 
         float amount = getTransactionAmount(maxTxAmount);
-        int index = rand.nextInt(numBene);
+        int index = AMLSim.getRandom().nextInt(numBene);
         Account dest = beneList.get(index);
-        this.makeTransaction(
-            step, AMLSim.getSimProp().makeTransactionMoreRealistic(amount, (float) 1.0, roundAmountProbability), dest
-        );
+        makeRealisticTransaction(step, amount, (float) 1.0, dest);
 
         // allow a SingleTransactionModel to make another transaction
-        this.txStep = this.startStep + rand.nextInt((int)(endStep - startStep + 1));
+        this.txStep = this.startStep + AMLSim.getRandom().nextInt((int)(endStep - startStep + 1));
+    }
+
+    @Override
+    public void saveState(DataOutput output) throws IOException{
+        super.saveState(output);
+        output.writeLong(txStep);
+    }
+
+    @Override
+    public void loadState(DataInput input, List<Account> accounts) throws IOException{
+        super.loadState(input, accounts);
+        txStep = input.readLong();
     }
 }
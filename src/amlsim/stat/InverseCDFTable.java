@@ -0,0 +1,211 @@
+package amlsim.stat;
+
+import org.apache.commons.math3.distribution.BetaDistribution;
+import org.apache.commons.math3.distribution.RealDistribution;
+import org.apache.commons.math3.stat.inference.KolmogorovSmirnovTest;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tabulated inverse cumulative distribution function (quantile function) with linear interpolation
+ * The probability range [0, 1] is split into cells adaptively until the interpolated quantile is within
+ * the given tolerance of the exact quantile at the check points of each cell, or the cell width reaches
+ * the resolution of random floats (2^-24). The breakpoints are multiples of 2^-24, so the quantiles of random
+ * floats in such narrow cells (e.g. the singular tails of beta distributions) are exact.
+ * A uniform guide table maps a probability to its cell in constant expected time,
+ * so that sampling does not need the iterative root solve of the distribution at each call.
+ */
+public class InverseCDFTable {
+
+    private static final int INITIAL_CELLS = 256;  // Number of cells before the adaptive subdivision
+    private static final double MIN_WIDTH = 1.0 / (1 << 24);  // Resolution of Random.nextFloat()
+    private static final double[] CHECK_POINTS = {0.25, 0.5, 0.75};  // Relative positions to check the error
+
+    private final double tolerance;
+    private final double[] probs;  // Probabilities of the breakpoints (ascending, from 0 to 1)
+    private final double[] values;  // Quantiles at the breakpoints
+    private final double[] slopes;  // Slope of each cell
+    private final int[] guide;  // Guide table: the cell which contains i / guide.length
+    private double maxError = 0;  // Maximum error at the check points of the cells wider than MIN_WIDTH
+
+    /**
+     * Build a table of the inverse cumulative distribution function
+     * @param distribution Distribution with a bounded support
+     * @param tolerance Maximum absolute error of the interpolated quantiles at the check points
+     */
+    public InverseCDFTable(RealDistribution distribution, double tolerance){
+        if(!(tolerance > 0)){
+            throw new IllegalArgumentException("The tolerance must be positive: " + tolerance);
+        }
+        double lower = distribution.getSupportLowerBound();
+        double upper = distribution.getSupportUpperBound();
+        if(Double.isInfinite(lower) || Double.isInfinite(upper)){
+            throw new IllegalArgumentException("The support of the distribution must be bounded");
+        }
+        this.tolerance = tolerance;
+
+        double[] p = new double[INITIAL_CELLS * 4];
+        double[] q = new double[INITIAL_CELLS * 4];
+        int size = 0;
+        p[size] = 0.0;
+        q[size] = lower;
+        size++;
+        for(int i=1; i<=INITIAL_CELLS; i++){
+            double p0 = (double)(i - 1) / INITIAL_CELLS;
+            double p1 = (double)i / INITIAL_CELLS;
+            double q1 = i == INITIAL_CELLS ? upper : distribution.inverseCumulativeProbability(p1);
+            // Split the cell [p0, p1] from left to right with a stack of pending right ends
+            double[] stackP = new double[64];
+            double[] stackQ = new double[64];
+            int top = 0;
+            stackP[top] = p1;
+            stackQ[top] = q1;
+            top++;
+            double left = p0;
+            double leftQ = q[size - 1];
+            while(top > 0){
+                double right = stackP[top - 1];
+                double rightQ = stackQ[top - 1];
+                double error = cellError(distribution, left, right, leftQ, rightQ);
+                if(error > tolerance && right - left > MIN_WIDTH && top < stackP.length){
+                    double mid = (left + right) / 2;
+                    stackP[top] = mid;
+                    stackQ[top] = distribution.inverseCumulativeProbability(mid);
+                    top++;
+                    continue;
+                }
+                if(right - left > MIN_WIDTH){
+                    maxError = Math.max(maxError, error);
+                }
+                if(size == p.length){
+                    p = Arrays.copyOf(p, size * 2);
+                    q = Arrays.copyOf(q, size * 2);
+                }
+                p[size] = right;
+                q[size] = rightQ;
+                size++;
+                left = right;
+                leftQ = rightQ;
+                top--;
+            }
+        }
+        this.probs = Arrays.copyOf(p, size);
+        this.values = Arrays.copyOf(q, size);
+        int numCells = size - 1;
+        this.slopes = new double[numCells];
+        for(int i=0; i<numCells; i++){
+            slopes[i] = (values[i + 1] - values[i]) / (probs[i + 1] - probs[i]);
+        }
+        this.guide = new int[numCells];
+        int cell = 0;
+        for(int i=0; i<numCells; i++){
+            double prob = (double)i / numCells;
+            while(probs[cell + 1] <= prob){
+                cell++;
+            }
+            guide[i] = cell;
+        }
+    }
+
+    private double cellError(RealDistribution distribution, double left, double right, double leftQ, double rightQ){
+        double error = 0;
+        for(double r : CHECK_POINTS){
+            double prob = left + (right - left) * r;
+            double exact = distribution.inverseCumulativeProbability(prob);
+            double interpolated = leftQ + (rightQ - leftQ) * r;
+            error = Math.max(error, Math.abs(exact - interpolated));
+        }
+        return error;
+    }
+
+    /**
+     * Get the interpolated quantile
+     * @param prob Cumulative probability in [0, 1]
+     * @return Quantile of the probability
+     */
+    public double inverseCumulativeProbability(double prob){
+        if(!(prob >= 0 && prob <= 1)){
+            throw new IllegalArgumentException("The probability must be in [0, 1]: " + prob);
+        }
+        int numCells = guide.length;
+        int g = (int)(prob * numCells);
+        int cell = guide[g < numCells ? g : numCells - 1];
+        while(cell < numCells - 1 && probs[cell + 1] <= prob){
+            cell++;
+        }
+        return values[cell] + slopes[cell] * (prob - probs[cell]);
+    }
+
+    public double getTolerance(){
+        return tolerance;
+    }
+
+    /**
+     * Get the maximum error of the interpolated quantiles at the check points of the cells
+     * The cells at the resolution of random floats are excluded because their breakpoints are exact.
+     * @return Maximum absolute error
+     */
+    public double getMaxError(){
+        return maxError;
+    }
+
+    public int getNumCells(){
+        return guide.length;
+    }
+
+    /**
+     * Check that the samples from the table of a beta distribution follow the distribution (Kolmogorov-Smirnov test)
+     * Usage: java amlsim.stat.InverseCDFTable [Alpha] [Beta] [Tolerance] [Samples(Optional)] [Seed(Optional)]
+     */
+    public static void main(String[] args){
+        if(args.length < 3){
+            System.err.println("Usage: java amlsim.stat.InverseCDFTable [Alpha] [Beta] [Tolerance] [Samples] [Seed]");
+            System.exit(1);
+        }
+        double alpha = Double.parseDouble(args[0]);
+        double beta = Double.parseDouble(args[1]);
+        double tolerance = Double.parseDouble(args[2]);
+        int numSamples = args.length >= 4 ? Integer.parseInt(args[3]) : 1000000;
+        long seed = args.length >= 5 ? Long.parseLong(args[4]) : 0;
+
+        BetaDistribution distribution = new BetaDistribution(alpha, beta);
+        long begin = System.currentTimeMillis();
+        InverseCDFTable table = new InverseCDFTable(distribution, tolerance);
+        System.out.printf("Beta(%f, %f): %d cells, max error %e, built in %d [ms]\n", alpha, beta,
+                table.getNumCells(), table.getMaxError(), System.currentTimeMillis() - begin);
+
+        // Maximum error from the exact quantiles at random floats (the inputs of the simulator)
+        Random random = new Random(seed);
+        double maxError = 0;
+        for(int i=0; i<100000; i++){
+            float prob = random.nextFloat();
+            double error = Math.abs(table.inverseCumulativeProbability(prob)
+                    - distribution.inverseCumulativeProbability(prob));
+            maxError = Math.max(maxError, error);
+        }
+        System.out.printf("Max error at 100000 random probabilities: %e\n", maxError);
+
+        double[] samples = new double[numSamples];
+        begin = System.nanoTime();
+        for(int i=0; i<numSamples; i++){
+            samples[i] = table.inverseCumulativeProbability(random.nextFloat());
+        }
+        long tableTime = System.nanoTime() - begin;
+        int numExact = Math.min(numSamples, 100000);
+        begin = System.nanoTime();
+        for(int i=0; i<numExact; i++){
+            distribution.inverseCumulativeProbability(random.nextFloat());
+        }
+        long exactTime = System.nanoTime() - begin;
+        System.out.printf("Sampling time: table %.1f [ns/sample], exact %.1f [ns/sample]\n",
+                (double)tableTime / numSamples, (double)exactTime / numExact);
+
+        double pValue = new KolmogorovSmirnovTest().kolmogorovSmirnovTest(distribution, samples);
+        System.out.printf("Kolmogorov-Smirnov test with %d samples: p-value = %f\n", numSamples, pValue);
+        if(pValue < 0.01){
+            System.out.println("The samples do not follow the distribution (p < 0.01)");
+            System.exit(1);
+        }
+    }
+}
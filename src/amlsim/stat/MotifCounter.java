@@ -0,0 +1,277 @@
+package amlsim.stat;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Online counter of temporal cycles and fan-in/fan-out bursts of the transaction network
+ * Each account has ring buffers of the recent incoming and outgoing transactions in shared primitive arrays.
+ * When a transaction is applied, the counter searches the time-respecting paths back from the originator
+ * to the beneficiary within the window (bounded DFS over the incoming buffers), and checks whether the transaction
+ * makes the number of distinct counterparties within the window reach the burst threshold.
+ * A motif is attributed to the alert of the transaction which completes it (-1: background transactions).
+ */
+public class MotifCounter {
+
+    // Columns of the counts: fan-in bursts, fan-out bursts and cycles of length 2 to maxLength
+    private static final int FAN_IN = 0;
+    private static final int FAN_OUT = 1;
+    private static final int CYCLE = 2;  // Column of the cycles of length 2
+
+    private final int maxLength;  // Maximum length of cycles
+    private final int window;  // Number of steps in which the transactions of a motif are made
+    private final int capacity;  // Number of transactions kept for each account and direction
+    private final int fanThreshold;  // Number of distinct counterparties of a fan-in/fan-out burst
+
+    private final int[] inAccts;  // Account index * capacity + slot --> Originator of an incoming transaction
+    private final int[] inSteps;
+    private final int[] inCounts;  // Account index --> Total number of incoming transactions
+    private final int[] outAccts;  // Account index * capacity + slot --> Beneficiary of an outgoing transaction
+    private final int[] outSteps;
+    private final int[] outCounts;
+
+    private final int[] path;  // Accounts of the path being searched
+    private final List<Long2ObjectOpenHashMap<long[]>> counts = new ArrayList<>();  // Step --> Alert ID --> Counts
+    private final int numColumns;
+    private final long[] cycles;  // Cycle length --> Number of cycles closed by the current transaction
+    private long numEdges = 0;
+    private long elapsedTime = 0;  // Time to count motifs [ns]
+
+    /**
+     * Allocate the ring buffers
+     * @param numAccounts Number of accounts
+     * @param maxLength Maximum length of cycles (at least 2)
+     * @param window Number of steps in which the transactions of a motif are made
+     * @param capacity Number of transactions kept for each account and direction
+     * @param fanThreshold Number of distinct counterparties of a fan-in/fan-out burst (at most the capacity)
+     */
+    public MotifCounter(int numAccounts, int maxLength, int window, int capacity, int fanThreshold){
+        if(maxLength < 2){
+            throw new IllegalArgumentException("The maximum cycle length must be at least 2: " + maxLength);
+        }
+        if(capacity <= 0 || fanThreshold <= 0 || fanThreshold > capacity){
+            throw new IllegalArgumentException("The fan threshold must be between 1 and the history size " + capacity
+                    + ": " + fanThreshold);
+        }
+        this.maxLength = maxLength;
+        this.window = window;
+        this.capacity = capacity;
+        this.fanThreshold = fanThreshold;
+        this.inAccts = new int[numAccounts * capacity];
+        this.inSteps = new int[numAccounts * capacity];
+        this.inCounts = new int[numAccounts];
+        this.outAccts = new int[numAccounts * capacity];
+        this.outSteps = new int[numAccounts * capacity];
+        this.outCounts = new int[numAccounts];
+        this.path = new int[maxLength];
+        this.numColumns = CYCLE + maxLength - 1;
+        this.cycles = new long[maxLength + 1];
+    }
+
+    /**
+     * Count the motifs which a transaction completes, and record the transaction
+     * @param step Simulation step
+     * @param orig Originator account index
+     * @param bene Beneficiary account index
+     * @param alertID Alert ID (-1: background transaction)
+     */
+    public void add(long step, int orig, int bene, long alertID){
+        long begin = System.nanoTime();
+        int t = (int)step;
+        long[] stepCounts = null;
+
+        // Fan-in and fan-out bursts
+        if(isNewCounterpart(inAccts, inSteps, inCounts, bene, orig, t)
+                && countCounterparts(inAccts, inSteps, inCounts, bene, t) + 1 == fanThreshold){
+            stepCounts = getCounts(t, alertID);
+            stepCounts[FAN_IN]++;
+        }
+        if(isNewCounterpart(outAccts, outSteps, outCounts, orig, bene, t)
+                && countCounterparts(outAccts, outSteps, outCounts, orig, t) + 1 == fanThreshold){
+            stepCounts = stepCounts != null ? stepCounts : getCounts(t, alertID);
+            stepCounts[FAN_OUT]++;
+        }
+
+        // Cycles closed by this transaction: time-respecting paths from the beneficiary to the originator
+        if(orig != bene){
+            path[0] = bene;
+            path[1] = orig;
+            Arrays.fill(cycles, 0);
+            if(searchCycles(orig, 2, t, t - window)){
+                stepCounts = stepCounts != null ? stepCounts : getCounts(t, alertID);
+                for(int length=2; length<=maxLength; length++){
+                    stepCounts[CYCLE + length - 2] += cycles[length];
+                }
+            }
+        }
+
+        // Record this transaction
+        int inSlot = bene * capacity + inCounts[bene]++ % capacity;
+        inAccts[inSlot] = orig;
+        inSteps[inSlot] = t;
+        int outSlot = orig * capacity + outCounts[orig]++ % capacity;
+        outAccts[outSlot] = bene;
+        outSteps[outSlot] = t;
+        numEdges++;
+        elapsedTime += System.nanoTime() - begin;
+    }
+
+    /**
+     * Search the incoming transactions of the last account of the path backward in time
+     * @param account The last account of the path
+     * @param size Number of accounts in the path
+     * @param maxStep The latest step of the next transaction
+     * @param minStep The earliest step of the transactions of the window
+     * @return If true, at least one cycle is found
+     */
+    private boolean searchCycles(int account, int size, int maxStep, int minStep){
+        boolean found = false;
+        int n = Math.min(inCounts[account], capacity);
+        for(int i=0; i<n; i++){
+            int slot = account * capacity + Math.floorMod(inCounts[account] - 1 - i, capacity);
+            int step = inSteps[slot];
+            if(step < minStep || step > maxStep){
+                continue;
+            }
+            int prev = inAccts[slot];
+            if(prev == path[0]){  // Back to the beneficiary of the closing transaction
+                cycles[size]++;
+                found = true;
+            }else if(size < maxLength && !contains(prev, size)){
+                path[size] = prev;
+                found |= searchCycles(prev, size + 1, step, minStep);
+            }
+        }
+        return found;
+    }
+
+    private boolean contains(int account, int size){
+        for(int i=0; i<size; i++){
+            if(path[i] == account){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether the counterpart is not in the transactions of the account within the window
+     */
+    private boolean isNewCounterpart(int[] accts, int[] steps, int[] numTxs, int account, int counterpart, int step){
+        int n = Math.min(numTxs[account], capacity);
+        for(int i=0; i<n; i++){
+            int slot = account * capacity + Math.floorMod(numTxs[account] - 1 - i, capacity);
+            if(steps[slot] >= step - window && accts[slot] == counterpart){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Count the distinct counterparties of the transactions of the account within the window
+     */
+    private int countCounterparts(int[] accts, int[] steps, int[] numTxs, int account, int step){
+        int n = Math.min(numTxs[account], capacity);
+        int distinct = 0;
+        for(int i=0; i<n; i++){
+            int slot = account * capacity + Math.floorMod(numTxs[account] - 1 - i, capacity);
+            if(steps[slot] < step - window){
+                continue;
+            }
+            boolean seen = false;
+            for(int j=0; j<i && !seen; j++){
+                int other = account * capacity + Math.floorMod(numTxs[account] - 1 - j, capacity);
+                seen = steps[other] >= step - window && accts[other] == accts[slot];
+            }
+            if(!seen){
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    private long[] getCounts(int step, long alertID){
+        while(counts.size() <= step){
+            counts.add(null);
+        }
+        Long2ObjectOpenHashMap<long[]> alertCounts = counts.get(step);
+        if(alertCounts == null){
+            alertCounts = new Long2ObjectOpenHashMap<>();
+            counts.set(step, alertCounts);
+        }
+        long[] values = alertCounts.get(alertID);
+        if(values == null){
+            values = new long[numColumns];
+            alertCounts.put(alertID, values);
+        }
+        return values;
+    }
+
+    /**
+     * Get the total number of motifs
+     * @param alerts If true, motifs of the alert transactions, otherwise of the background transactions
+     * @return Fan-in bursts, fan-out bursts and cycles of length 2 to the maximum length
+     */
+    public long[] getTotals(boolean alerts){
+        long[] result = new long[numColumns];
+        for(Long2ObjectOpenHashMap<long[]> alertCounts : counts){
+            if(alertCounts == null){
+                continue;
+            }
+            for(Long2ObjectOpenHashMap.Entry<long[]> entry : alertCounts.long2ObjectEntrySet()){
+                if((entry.getLongKey() >= 0) == alerts){
+                    for(int i=0; i<result.length; i++){
+                        result[i] += entry.getValue()[i];
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public long getNumEdges(){
+        return numEdges;
+    }
+
+    /**
+     * Get the time to count motifs
+     * @return Elapsed time [ms]
+     */
+    public long getElapsedTime(){
+        return elapsedTime / 1000000;
+    }
+
+    /**
+     * Write the motif counts of each step and alert to a CSV file
+     * @param fileName Output CSV file name
+     * @throws IOException if the file cannot be written
+     */
+    public void writeLog(String fileName) throws IOException{
+        try(BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))){
+            writer.write("step,alertID,fan_in,fan_out");
+            for(int length=2; length<=maxLength; length++){
+                writer.write(",cycle" + length);
+            }
+            writer.write("\n");
+            for(int step=0; step<counts.size(); step++){
+                Long2ObjectOpenHashMap<long[]> alertCounts = counts.get(step);
+                if(alertCounts == null){
+                    continue;
+                }
+                long[] alertIDs = alertCounts.keySet().toLongArray();
+                Arrays.sort(alertIDs);
+                for(long alertID : alertIDs){
+                    StringBuilder row = new StringBuilder();
+                    row.append(step).append(',').append(alertID);
+                    for(long value : alertCounts.get(alertID)){
+                        row.append(',').append(value);
+                    }
+                    writer.write(row.append('\n').toString());
+                }
+            }
+        }
+    }
+}